@@ -0,0 +1,183 @@
+package com.crocodoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.entity.mime.MultipartEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of building requests: the URL of a status call, and the
+ * multipart bodies of session/create and upload written out to a stream
+ * that discards them. No request is sent. Test data comes from a seeded
+ * random, so every run measures the same input.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms1g", "-Xmx1g" })
+public class CrocodocRequestBenchmark {
+    @Benchmark
+    public URI statusUri(StatusState state) throws URISyntaxException {
+        return state.client._buildUri(CrocodocDocumentClient.PATH, "status",
+                state.getParams, true);
+    }
+
+    @Benchmark
+    public long sessionCreateEntity(SessionState state) throws IOException {
+        return _write(state.client._buildMultipartEntity(state.postParams));
+    }
+
+    @Benchmark
+    public long uploadEntity(UploadState state) throws IOException {
+        Map<String, Object> postParams = new HashMap<String, Object>();
+        postParams.put("file", state.file);
+        postParams.put("token", "benchmark-token");
+        return _write(state.client._buildMultipartEntity(postParams));
+    }
+
+    /**
+     * Write an entity to a stream that only counts bytes
+     *
+     * @param object
+     *            entity The entity
+     *
+     * @return long The number of bytes written
+     * @throws IOException
+     */
+    private static long _write(MultipartEntity entity) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        entity.writeTo(out);
+        return out.count;
+    }
+
+    /**
+     * A client that never sends a request, and the seeded random the test
+     * data comes from
+     */
+    public static abstract class ClientState {
+        CrocodocClient client;
+        Random random;
+
+        void _open() {
+            client = CrocodocClient.builder().apiToken("benchmark-token")
+                    .build();
+            random = new Random(42);
+        }
+
+        @TearDown
+        public void close() {
+            client.close();
+        }
+    }
+
+    /**
+     * The params of a status call for uuidCount documents
+     */
+    @State(Scope.Benchmark)
+    public static class StatusState extends ClientState {
+        @Param({ "1", "100", "1000" })
+        public int uuidCount;
+
+        Map<String, Object> getParams;
+
+        @Setup
+        public void setUp() {
+            _open();
+            List<String> uuids = new ArrayList<String>();
+
+            for (int i = 0; i < uuidCount; i++) {
+                uuids.add(new UUID(random.nextLong(), random.nextLong())
+                        .toString());
+            }
+
+            getParams = new HashMap<String, Object>();
+            getParams.put("uuids", StringUtils.join(uuids, ","));
+        }
+    }
+
+    /**
+     * The params of a session/create call with every option set
+     */
+    @State(Scope.Benchmark)
+    public static class SessionState extends ClientState {
+        Map<String, Object> postParams;
+
+        @Setup
+        public void setUp() {
+            _open();
+            postParams = new HashMap<String, Object>();
+            postParams.put("uuid", new UUID(random.nextLong(), random
+                    .nextLong()).toString());
+            postParams.put("editable", "true");
+            postParams.put("user", "1337,Peter Griffin");
+            postParams.put("filter", "all");
+            postParams.put("admin", "false");
+            postParams.put("downloadable", "true");
+            postParams.put("copyprotected", "false");
+            postParams.put("demo", "false");
+            postParams.put("sidebar", "auto");
+            postParams.put("token", "benchmark-token");
+        }
+    }
+
+    /**
+     * A file of fileSize random bytes to upload
+     */
+    @State(Scope.Benchmark)
+    public static class UploadState extends ClientState {
+        @Param({ "65536", "4194304" })
+        public int fileSize;
+
+        File file;
+
+        @Setup
+        public void setUp() throws IOException {
+            _open();
+            byte[] bytes = new byte[fileSize];
+            random.nextBytes(bytes);
+            file = File.createTempFile("crocodoc-benchmark", ".pdf");
+            Files.write(file.toPath(), bytes);
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * An output stream that discards what is written and counts the bytes
+     */
+    private static class CountingOutputStream extends OutputStream {
+        long count = 0;
+
+        public void write(int b) {
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.crocodoc;
+
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of handling responses: parsing the JSON of a status response for
+ * uuidCount documents, and building the exception of a failed call. Test data
+ * comes from a seeded random, so every run measures the same input.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms1g", "-Xmx1g" })
+public class CrocodocResponseBenchmark {
+    @Benchmark
+    public Object parseStatus(StatusState state) {
+        return CrocodocClient._parseJson(state.body);
+    }
+
+    @Benchmark
+    public CrocodocException buildException(ErrorState state) {
+        return Crocodoc._exception("timeout", "Crocodoc", "_request",
+                state.errorParams);
+    }
+
+    @Benchmark
+    public CrocodocException throwException(ErrorState state) {
+        try {
+            Crocodoc._error("timeout", "Crocodoc", "_request",
+                    state.errorParams);
+            return null;
+        } catch (CrocodocException e) {
+            return e;
+        }
+    }
+
+    /**
+     * The body of a status response for uuidCount documents
+     */
+    @State(Scope.Benchmark)
+    public static class StatusState {
+        @Param({ "10", "1000", "5000" })
+        public int uuidCount;
+
+        String body;
+
+        @SuppressWarnings("unchecked")
+        @Setup
+        public void setUp() {
+            Random random = new Random(42);
+            String[] statuses = { "QUEUED", "PROCESSING", "DONE", "ERROR" };
+            JSONArray documents = new JSONArray();
+
+            for (int i = 0; i < uuidCount; i++) {
+                JSONObject document = new JSONObject();
+                document.put("uuid", new UUID(random.nextLong(), random
+                        .nextLong()).toString());
+                document.put("status",
+                        statuses[random.nextInt(statuses.length)]);
+                document.put("viewable", random.nextBoolean());
+                documents.add(document);
+            }
+
+            body = documents.toJSONString();
+        }
+    }
+
+    /**
+     * The params _execute reports when a request times out
+     */
+    @State(Scope.Benchmark)
+    public static class ErrorState {
+        Map<String, Object> errorParams;
+
+        @Setup
+        public void setUp() throws URISyntaxException {
+            Random random = new Random(42);
+            errorParams = new HashMap<String, Object>();
+            errorParams.put("error", "Read timed out");
+            errorParams.put("exception", SocketTimeoutException.class);
+            errorParams.put("url", new URI(
+                    "https://crocodoc.com/api/v2/document/status?uuids="
+                            + new UUID(random.nextLong(), random.nextLong())));
+            errorParams.put("getParams", null);
+            errorParams.put("postParams", null);
+        }
+    }
+}
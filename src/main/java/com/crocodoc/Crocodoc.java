@@ -1,35 +1,20 @@
 package com.crocodoc;
 
-import java.io.File;
-import java.net.URI;
-import java.nio.charset.Charset;
 import java.util.Map;
-import java.util.HashMap;
 
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpRequest;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.entity.mime.HttpMultipartMode;
-import org.apache.http.entity.mime.MultipartEntity;
-import org.apache.http.entity.mime.content.FileBody;
-import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.util.EntityUtils;
-import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 
 /**
  * Provides access to the Crocodoc API. This is a base class that can be used
  * standalone with full access to the other Crocodoc API clients (Document,
  * Download, and Session), and is also used internally by the other Crocodoc API
  * clients for generic methods including error and request.
+ * 
+ * The static configuration and API methods of this class and its subclasses
+ * are a thin wrapper over a default CrocodocClient. Applications that need
+ * several tokens or isolated connection pools should create their own
+ * CrocodocClient instances instead.
  */
 public class Crocodoc {
     /**
@@ -64,130 +49,50 @@ public class Crocodoc {
      * An API path relative to the base API path
      * 
      * @var string
+     * @deprecated Never read: every request is made to the fixed path of its
+     *             API under basePath. Set basePath to move the API instead.
      */
+    @Deprecated
     public static String path = "/";
 
     /**
-     * A JSONParser instance for general use
+     * The connection pool shared by every API client
      * 
      * @var object
      */
-    private static final JSONParser _jsonParser = new JSONParser();
+    private static volatile CrocodocConnectionPool _connectionPool;
 
     /**
-     * Check for HTTP errors in an HttpResponse object
+     * The client the static API methods delegate to
      * 
-     * @param response
-     * @throws CrocodocException
+     * @var object
      */
-    private static void _checkForHttpErrors(HttpResponse response)
-            throws CrocodocException {
-        Integer httpCode = response.getStatusLine().getStatusCode();
-
-        Map<Integer, String> http4xxErrorCodes = new HashMap<Integer, String>();
-        http4xxErrorCodes.put(400, "bad_request");
-        http4xxErrorCodes.put(401, "unauthorized");
-        http4xxErrorCodes.put(404, "not_found");
-        http4xxErrorCodes.put(405, "method_not_allowed");
-
-        if (http4xxErrorCodes.containsKey(httpCode)) {
-            String error = "server_error_" + httpCode + "_"
-                    + http4xxErrorCodes.get(httpCode);
-            _error(error, "Crocodoc", "_request", null);
-        }
-
-        if (httpCode >= 500 && httpCode < 600) {
-            String error = "server_error_" + httpCode + "_unknown";
-            _error(error, "Crocodoc", "_request", null);
-        }
-    }
+    private static volatile CrocodocClient _defaultClient;
 
     /**
-     * Make a request to the server and return an HttpResponse object.
+     * Handle an error. We handle errors by throwing an exception.
      * 
      * @param string
-     *            path The path on the server to make the request to relative to
-     *            the base path
+     *            error An error code representing the error
+     *            (use_underscore_separators)
      * @param string
-     *            method This is just an addition to the path, for example, in
-     *            "/documents/upload" the method would be "upload"
-     * @param object
-     *            getParams A key-value pair of GET params
+     *            client Which API client the error is being called from
+     * @param string
+     *            method Which method the error is being called from
      * @param object
-     *            postParams A key-value pair of POST params
+     *            response This is a representation of the response, usually
+     *            from JSON, but can also be a string
      * 
-     * @return object The response is an HttpResponse object
      * @throws CrocodocException
      */
-    private static HttpResponse _requestHttpResponse(String path,
-            String method, Map<String, Object> getParams,
-            Map<String, Object> postParams) throws CrocodocException {
-        URIBuilder uriBuilder = new URIBuilder();
-        uriBuilder.setScheme(protocol);
-        uriBuilder.setHost(host);
-        uriBuilder.setPath(basePath + path + method);
-
-        HttpClient httpClient = new DefaultHttpClient();
-        URI url = null;
-        HttpRequest request = null;
-        HttpResponse response = null;
-
-        try {
-            if (getParams != null && getParams.size() > 0) {
-                for (Map.Entry<String, Object> param : getParams.entrySet()) {
-                    uriBuilder.addParameter(param.getKey(), param.getValue()
-                            .toString());
-                }
-            }
-
-            if (postParams != null && postParams.size() > 0) {
-                postParams.put("token", apiToken);
-            } else {
-                uriBuilder.addParameter("token", apiToken);
-            }
-
-            url = uriBuilder.build();
-
-            if (postParams != null && postParams.size() > 0) {
-                HttpPost httpPost = new HttpPost(url);
-                MultipartEntity mpEntity = new MultipartEntity(
-                        HttpMultipartMode.BROWSER_COMPATIBLE);
-
-                for (Map.Entry<String, Object> param : postParams.entrySet()) {
-                    if (param.getValue().getClass().equals(File.class)) {
-                        mpEntity.addPart(param.getKey(), new FileBody(
-                                (File) param.getValue()));
-                    } else {
-                        StringBody stringBody = new StringBody(param.getValue()
-                                .toString(), "text/plain",
-                                Charset.forName("UTF-8"));
-                        mpEntity.addPart(param.getKey(), stringBody);
-                    }
-                }
-
-                httpPost.setEntity(mpEntity);
-                request = httpPost;
-            } else {
-                request = new HttpGet(url);
-            }
-
-            HttpUriRequest httpUriRequest = (HttpUriRequest) request;
-            response = httpClient.execute(httpUriRequest);
-        } catch (Exception e) {
-            Map<String, Object> errorParams = new HashMap<String, Object>();
-            errorParams.put("error", e.getMessage());
-            errorParams.put("exception", e.getClass());
-            errorParams.put("url", url);
-            errorParams.put("getParams", getParams);
-            errorParams.put("postParams", postParams);
-            _error("connection_error", "Crocodoc", "_request", errorParams);
-        }
-
-        return response;
+    protected static void _error(String error, String client, String method,
+            Object response) throws CrocodocException {
+        throw _exception(error, client, method, response);
     }
 
     /**
-     * Handle an error. We handle errors by throwing an exception.
+     * Build the exception _error throws without throwing it, for errors that
+     * are handed to a future instead.
      * 
      * @param string
      *            error An error code representing the error
@@ -200,14 +105,14 @@ public class Crocodoc {
      *            response This is a representation of the response, usually
      *            from JSON, but can also be a string
      * 
-     * @throws CrocodocException
+     * @return object The exception
      */
-    protected static void _error(String error, String client, String method,
-            Object response) throws CrocodocException {
+    static CrocodocException _exception(String error, String client,
+            String method, Object response) {
         String message = "Crocodoc: [" + error + "] " + client + "::" + method
                 + "\n\n";
         message += JSONValue.toJSONString(response);
-        throw new CrocodocException(message, error);
+        return new CrocodocException(message, error);
     }
 
     /**
@@ -230,10 +135,8 @@ public class Crocodoc {
     protected static HttpEntity _requestHttpEntity(String path, String method,
             Map<String, Object> getParams, Map<String, Object> postParams)
             throws CrocodocException {
-        HttpResponse response = _requestHttpResponse(path, method, getParams,
-                postParams);
-        _checkForHttpErrors(response);
-        return response.getEntity();
+        return _getDefaultClient()._requestHttpEntity(path, method,
+                getParams, postParams);
     }
 
     /**
@@ -256,74 +159,154 @@ public class Crocodoc {
     protected static Object _requestJson(String path, String method,
             Map<String, Object> getParams, Map<String, Object> postParams)
             throws CrocodocException {
-        HttpResponse response = _requestHttpResponse(path, method, getParams,
+        return _getDefaultClient()._requestJson(path, method, getParams,
                 postParams);
-        HttpEntity responseEntity = response.getEntity();
-        String result = "";
+    }
 
-        try {
-            result = EntityUtils.toString(responseEntity);
-        } catch (Exception e) {
-            Map<String, Object> errorParams = new HashMap<String, Object>();
-            errorParams.put("error", e.getMessage());
-            errorParams.put("responseEntity", responseEntity);
-            errorParams.put("getParams", getParams);
-            errorParams.put("postParams", postParams);
-            _error("invalid_response", "Crocodoc", "_request", errorParams);
-        }
+    /**
+     * Get the API token
+     * 
+     * @return string The API token
+     */
+    public static String getApiToken() {
+        return apiToken;
+    }
 
-        Object json = null;
+    /**
+     * Set the API token
+     * 
+     * @param string
+     *            apiToken The API token
+     */
+    public static void setApiToken(String newApiToken) {
+        apiToken = newApiToken;
+    }
 
-        try {
-            json = _jsonParser.parse(result);
-        } catch (ParseException e) {
-        }
+    /**
+     * Get the connection pool shared by every API client, creating it with
+     * the default limits if it doesn't exist yet.
+     * 
+     * @return object The shared connection pool
+     */
+    public static synchronized CrocodocConnectionPool getConnectionPool() {
+        return _getConnectionPool();
+    }
 
-        if (json == null) {
-            Map<String, Object> errorParams = new HashMap<String, Object>();
-            errorParams.put("response", result);
-            errorParams.put("getParams", getParams);
-            errorParams.put("postParams", postParams);
-            _error("server_response_not_valid_json", "Crocodoc", "_error",
-                    errorParams);
+    /**
+     * Get the client the static API methods delegate to, configured from the
+     * static fields of this class.
+     * 
+     * @return object The default client
+     */
+    public static CrocodocClient getDefaultClient() {
+        return _getDefaultClient();
+    }
+
+    /**
+     * Replace the shared connection pool. The previous pool is closed.
+     * 
+     * @param object
+     *            connectionPool The new connection pool
+     */
+    public static synchronized void setConnectionPool(
+            CrocodocConnectionPool connectionPool) {
+        if (_connectionPool != null && _connectionPool != connectionPool) {
+            _connectionPool.close();
         }
 
-        // if the json response is not a JSONObject, return it
-        // if it is a JSONObject, we can check it for errors
-        if (!json.getClass().equals(JSONObject.class)) {
-            return json;
+        _connectionPool = connectionPool;
+    }
+
+    /**
+     * Set the connection limits of the shared connection pool
+     * 
+     * @param int maxTotal The maximum number of connections across all routes
+     * @param int maxPerRoute The maximum number of connections per route
+     */
+    public static synchronized void setMaxConnections(int maxTotal,
+            int maxPerRoute) {
+        CrocodocConnectionPool connectionPool = _getConnectionPool();
+        connectionPool.setMaxTotal(maxTotal);
+        connectionPool.setMaxPerRoute(maxPerRoute);
+    }
+
+    /**
+     * Close the default client and the shared connection pool and release all
+     * of its connections. Conversions still being waited on through the
+     * default client fail with "client_closed". A new pool and client are
+     * created if another request is made afterwards.
+     */
+    public static synchronized void close() {
+        if (_defaultClient != null) {
+            _defaultClient.close();
+            _defaultClient = null;
         }
 
-        JSONObject jsonObject = (JSONObject) json;
+        if (_connectionPool != null) {
+            _connectionPool.close();
+            _connectionPool = null;
+        }
+    }
 
-        if (jsonObject.containsKey("error")) {
-            String error = jsonObject.get("error").toString();
-            Map<String, Object> errorParams = new HashMap<String, Object>();
-            errorParams.put("getParams", getParams);
-            errorParams.put("postParams", postParams);
-            _error(error, "Crocodoc", "_error", errorParams);
+    /**
+     * Get the shared connection pool, creating it if needed
+     * 
+     * @return object The shared connection pool
+     */
+    private static synchronized CrocodocConnectionPool _getConnectionPool() {
+        if (_connectionPool == null || _connectionPool.isClosed()) {
+            _connectionPool = new CrocodocConnectionPool();
         }
 
-        _checkForHttpErrors(response);
-        return jsonObject;
+        return _connectionPool;
     }
 
     /**
-     * Get the API token
+     * Get the client the static API methods delegate to. It is rebuilt
+     * whenever the static configuration has changed since the last call, and
+     * always shares the static connection pool. Only a rebuild takes the
+     * lock; every other call reads the current client.
      * 
-     * @return string The API token
+     * @return object The default client
      */
-    public static String getApiToken() {
-        return apiToken;
+    protected static CrocodocClient _getDefaultClient() {
+        CrocodocClient client = _defaultClient;
+        CrocodocConnectionPool connectionPool = _connectionPool;
+
+        if (client != null
+                && connectionPool != null
+                && !connectionPool.isClosed()
+                && client._matches(apiToken, protocol, host, basePath,
+                        connectionPool)) {
+            return client;
+        }
+
+        return _rebuildDefaultClient();
     }
 
     /**
-     * Set the API token
+     * Rebuild the default client if the static configuration has changed.
+     * The replaced client is retired rather than closed, so calls still
+     * running through it finish and conversions still being waited on
+     * through it keep being polled.
      * 
-     * @param string
-     *            apiToken The API token
+     * @return object The default client
      */
-    public static void setApiToken(String newApiToken) {
-        apiToken = newApiToken;
+    private static synchronized CrocodocClient _rebuildDefaultClient() {
+        CrocodocConnectionPool connectionPool = _getConnectionPool();
+
+        if (_defaultClient == null
+                || !_defaultClient._matches(apiToken, protocol, host,
+                        basePath, connectionPool)) {
+            if (_defaultClient != null) {
+                _defaultClient._retire();
+            }
+
+            _defaultClient = CrocodocClient.builder().apiToken(apiToken)
+                    .protocol(protocol).host(host).basePath(basePath)
+                    .connectionPool(connectionPool).build();
+        }
+
+        return _defaultClient;
     }
 }
@@ -0,0 +1,260 @@
+package com.crocodoc;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrency limit that follows the health of the API. The limit is
+ * raised by one for each call that completes while the limit is at least
+ * half used, and multiplied by backoffRatio when a call fails with a
+ * connection error, a timeout or a 5xx response, or when the smoothed
+ * latency of recent calls grows past tolerance times the long-term latency.
+ * Calls that started before the last decrease can't decrease the limit
+ * again, so one burst of errors costs one step down, not many. The
+ * long-term latency slowly follows a lasting slowdown, so the limit settles
+ * instead of falling to the minimum.
+ *
+ * The latency of uploads depends on the size of the file, so only their
+ * failures are taken into account.
+ */
+public class CrocodocAdaptiveLimit {
+    /**
+     * The default factor the limit is multiplied by when the API is
+     * overloaded
+     *
+     * @var double
+     */
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+    /**
+     * The default factor recent latency may exceed long-term latency by
+     *
+     * @var double
+     */
+    public static final double DEFAULT_TOLERANCE = 2.0;
+
+    /**
+     * How much each call moves the recent latency
+     *
+     * @var double
+     */
+    private static final double SHORT_SMOOTHING = 0.2;
+
+    /**
+     * How much each call moves the long-term latency
+     *
+     * @var double
+     */
+    private static final double LONG_SMOOTHING = 0.02;
+
+    /**
+     * The lowest the limit can go
+     *
+     * @var int
+     */
+    private final int minLimit;
+
+    /**
+     * The highest the limit can go
+     *
+     * @var int
+     */
+    private final int maxLimit;
+
+    /**
+     * The factor the limit is multiplied by when the API is overloaded
+     *
+     * @var double
+     */
+    private final double backoffRatio;
+
+    /**
+     * The factor recent latency may exceed long-term latency by
+     *
+     * @var double
+     */
+    private final double tolerance;
+
+    /**
+     * The current limit
+     *
+     * @var double
+     */
+    private volatile double limit;
+
+    /**
+     * The smoothed latency of recent calls in nanoseconds, 0 before the
+     * first call
+     *
+     * @var double
+     */
+    private volatile double shortRttNanos = 0;
+
+    /**
+     * The smoothed long-term latency in nanoseconds, 0 before the first call
+     *
+     * @var double
+     */
+    private volatile double longRttNanos = 0;
+
+    /**
+     * When the limit was last decreased, in System.nanoTime() terms
+     *
+     * @var long
+     */
+    private long decreasedAt = System.nanoTime();
+
+    /**
+     * The number of times the limit was decreased
+     *
+     * @var object
+     */
+    private final LongAdder decreases = new LongAdder();
+
+    /**
+     * Create an adaptive limit with the default backoff ratio and tolerance
+     *
+     * @param int minLimit The lowest the limit can go, and where it starts
+     * @param int maxLimit The highest the limit can go
+     */
+    public CrocodocAdaptiveLimit(int minLimit, int maxLimit) {
+        this(minLimit, maxLimit, DEFAULT_BACKOFF_RATIO, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Create an adaptive limit
+     *
+     * @param int minLimit The lowest the limit can go, and where it starts
+     * @param int maxLimit The highest the limit can go
+     * @param double backoffRatio The factor the limit is multiplied by when
+     *        the API is overloaded
+     * @param double tolerance The factor recent latency may exceed long-term
+     *        latency by
+     */
+    public CrocodocAdaptiveLimit(int minLimit, int maxLimit,
+            double backoffRatio, double tolerance) {
+        if (minLimit < 1 || maxLimit < minLimit
+                || !(backoffRatio > 0 && backoffRatio < 1) || !(tolerance > 1)) {
+            throw new IllegalArgumentException("Invalid adaptive limit settings");
+        }
+
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.tolerance = tolerance;
+        this.limit = minLimit;
+    }
+
+    /**
+     * Get the current limit
+     *
+     * @return int The number of calls allowed to run at once
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Get the lowest the limit can go
+     *
+     * @return int The minimum limit
+     */
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    /**
+     * Get the highest the limit can go
+     *
+     * @return int The maximum limit
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Get the factor the limit is multiplied by when the API is overloaded
+     *
+     * @return double The backoff ratio
+     */
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * Get the factor recent latency may exceed long-term latency by
+     *
+     * @return double The tolerance
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Get the smoothed latency of recent calls
+     *
+     * @return double The latency in milliseconds, 0 before the first call
+     */
+    public double getRecentLatencyMillis() {
+        return shortRttNanos / 1e6;
+    }
+
+    /**
+     * Get the smoothed long-term latency
+     *
+     * @return double The latency in milliseconds, 0 before the first call
+     */
+    public double getLongTermLatencyMillis() {
+        return longRttNanos / 1e6;
+    }
+
+    /**
+     * Get the number of times the limit was decreased
+     *
+     * @return long The decrease count
+     */
+    public long getDecreases() {
+        return decreases.sum();
+    }
+
+    /**
+     * Update the limit with a completed call. The dispatcher calls this
+     * under its lock.
+     *
+     * @param long startedAt When the call started, in System.nanoTime() terms
+     * @param long rttNanos How long the call took, -1 if its latency doesn't
+     *        count
+     * @param int inFlight The number of calls running, this one included
+     * @param bool overloaded Whether the call failed because the API is
+     *        unavailable or overloaded
+     *
+     * @return int The new limit
+     */
+    int _onSample(long startedAt, long rttNanos, int inFlight,
+            boolean overloaded) {
+        boolean slow = false;
+
+        if (!overloaded && rttNanos >= 0) {
+            if (longRttNanos == 0) {
+                shortRttNanos = rttNanos;
+                longRttNanos = rttNanos;
+            } else {
+                shortRttNanos += (rttNanos - shortRttNanos) * SHORT_SMOOTHING;
+                longRttNanos += (rttNanos - longRttNanos) * LONG_SMOOTHING;
+            }
+
+            slow = shortRttNanos > longRttNanos * tolerance;
+        }
+
+        if (overloaded || slow) {
+            if (startedAt - decreasedAt > 0) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                decreasedAt = System.nanoTime();
+                decreases.increment();
+            }
+        } else if (inFlight * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+
+        return (int) limit;
+    }
+}
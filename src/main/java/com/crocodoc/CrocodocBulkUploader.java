@@ -0,0 +1,423 @@
+package com.crocodoc;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Uploads many documents with a fixed number of uploads in flight. Sources
+ * are read one at a time, and only when an upload slot is free, so a large or
+ * lazily generated source is never read ahead of the uploads. A failed upload
+ * is recorded in its result and doesn't stop the rest of the batch.
+ *
+ * A source can be a File or Path to upload, or a String URL for Crocodoc to
+ * fetch.
+ *
+ * <pre>
+ * CrocodocBulkUploader uploader = new CrocodocBulkUploader(client, 8);
+ * CrocodocBulkUploader.Summary summary = uploader.upload(files.iterator());
+ * </pre>
+ */
+public class CrocodocBulkUploader {
+    /**
+     * The client uploads are made through
+     * 
+     * @var object
+     */
+    private final CrocodocClient client;
+
+    /**
+     * The maximum number of uploads in flight
+     * 
+     * @var int
+     */
+    private final int concurrency;
+
+    /**
+     * Create a bulk uploader
+     * 
+     * @param object
+     *            client The client uploads are made through
+     * @param int concurrency The maximum number of uploads in flight
+     */
+    public CrocodocBulkUploader(CrocodocClient client, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+
+        this.client = client;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Get the maximum number of uploads in flight
+     * 
+     * @return int The concurrency level
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Upload every source of a stream and wait for all of them to finish.
+     * 
+     * @param object
+     *            sources The files, paths or URLs to upload
+     * 
+     * @return object The results in source order, with throughput stats
+     * @throws InterruptedException
+     */
+    public Summary upload(Stream<?> sources) throws InterruptedException {
+        return upload(sources.iterator(), null);
+    }
+
+    /**
+     * Upload every source of an iterator and wait for all of them to finish.
+     * 
+     * @param object
+     *            sources The files, paths or URLs to upload
+     * 
+     * @return object The results in source order, with throughput stats
+     * @throws InterruptedException
+     */
+    public Summary upload(Iterator<?> sources) throws InterruptedException {
+        return upload(sources, null);
+    }
+
+    /**
+     * Upload every source of an iterator and wait for all of them to finish,
+     * passing each result to a listener as soon as its upload completes. The
+     * listener is called from the upload threads.
+     * 
+     * @param object
+     *            sources The files, paths or URLs to upload
+     * @param object
+     *            listener Receives results as they complete, may be null
+     * 
+     * @return object The results in source order, with throughput stats
+     * @throws InterruptedException
+     *             If the calling thread is interrupted; no more sources are
+     *             read, and the uploads already started are left to finish
+     */
+    public Summary upload(Iterator<?> sources, final Listener listener)
+            throws InterruptedException {
+        final Semaphore slots = new Semaphore(concurrency);
+        final List<Item> items = Collections
+                .synchronizedList(new ArrayList<Item>());
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+                CrocodocClient._threadFactory("crocodoc-bulk-upload"));
+        long started = System.nanoTime();
+        int index = 0;
+
+        try {
+            while (true) {
+                slots.acquire();
+
+                if (!sources.hasNext()) {
+                    slots.release();
+                    break;
+                }
+
+                final Object source = sources.next();
+                final int position = index++;
+                items.add(null);
+                executor.execute(() -> {
+                    try {
+                        Item item = _uploadOne(position, source);
+                        items.set(position, item);
+
+                        if (listener != null) {
+                            listener.onComplete(item);
+                        }
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+
+            // every slot is free again once the last upload has finished
+            slots.acquire(concurrency);
+            slots.release(concurrency);
+        } finally {
+            executor.shutdown();
+        }
+
+        return new Summary(new ArrayList<Item>(items), System.nanoTime()
+                - started);
+    }
+
+    /**
+     * Upload one source, recording the outcome instead of throwing
+     * 
+     * @param int index The position of the source
+     * @param object
+     *            source The file, path or URL to upload
+     * 
+     * @return object The result of the upload
+     */
+    private Item _uploadOne(int index, Object source) {
+        long started = System.nanoTime();
+        String uuid = null;
+        CrocodocException error = null;
+
+        try {
+            uuid = _upload(source);
+        } catch (CrocodocException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            Map<String, Object> errorParams = new HashMap<String, Object>();
+            errorParams.put("error", String.valueOf(e));
+            error = Crocodoc._exception("upload_failed",
+                    "CrocodocBulkUploader", "upload", errorParams);
+        }
+
+        return new Item(index, source, uuid, error, _size(source),
+                (System.nanoTime() - started) / 1000000);
+    }
+
+    /**
+     * Upload one source with the matching upload method
+     * 
+     * @param object
+     *            source The file, path or URL to upload
+     * 
+     * @return string The uuid of the uploaded document
+     * @throws CrocodocException
+     */
+    private String _upload(Object source) throws CrocodocException {
+        if (source instanceof File) {
+            return client.document().upload((File) source);
+        }
+
+        if (source instanceof Path) {
+            return client.document().upload(((Path) source).toFile());
+        }
+
+        if (source instanceof String) {
+            return client.document().upload((String) source);
+        }
+
+        Map<String, Object> errorParams = new HashMap<String, Object>();
+        errorParams.put("source", String.valueOf(source));
+        Crocodoc._error("invalid_source", "CrocodocBulkUploader", "upload",
+                errorParams);
+        return null;
+    }
+
+    /**
+     * Get the number of bytes a source uploads, if it is known
+     * 
+     * @param object
+     *            source The file, path or URL
+     * 
+     * @return long The size in bytes, or 0 for URLs
+     */
+    private static long _size(Object source) {
+        if (source instanceof File) {
+            return ((File) source).length();
+        }
+
+        if (source instanceof Path) {
+            return ((Path) source).toFile().length();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Receives the result of each upload as soon as it completes
+     */
+    public interface Listener {
+        /**
+         * Called once per source when its upload has completed or failed
+         * 
+         * @param object
+         *            item The result of the upload
+         */
+        void onComplete(Item item);
+    }
+
+    /**
+     * The result of uploading one source
+     */
+    public static class Item {
+        private final int index;
+        private final Object source;
+        private final String uuid;
+        private final CrocodocException error;
+        private final long bytes;
+        private final long elapsedMillis;
+
+        Item(int index, Object source, String uuid, CrocodocException error,
+                long bytes, long elapsedMillis) {
+            this.index = index;
+            this.source = source;
+            this.uuid = uuid;
+            this.error = error;
+            this.bytes = bytes;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * Get the position of the source in the input
+         * 
+         * @return int The zero-based index
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Get the source that was uploaded
+         * 
+         * @return object The file, path or URL
+         */
+        public Object getSource() {
+            return source;
+        }
+
+        /**
+         * Get the uuid of the uploaded document
+         * 
+         * @return string The uuid, or null if the upload failed
+         */
+        public String getUuid() {
+            return uuid;
+        }
+
+        /**
+         * Get the reason the upload failed
+         * 
+         * @return object The error, or null if the upload succeeded
+         */
+        public CrocodocException getError() {
+            return error;
+        }
+
+        /**
+         * Did the upload succeed?
+         * 
+         * @return bool Whether a uuid was returned
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * Get the number of bytes uploaded
+         * 
+         * @return long The size of a file source, or 0 for URLs
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Get how long the upload took
+         * 
+         * @return long The time in milliseconds
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+
+    /**
+     * The results of a bulk upload with aggregate throughput stats
+     */
+    public static class Summary {
+        private final List<Item> items;
+        private final long elapsedNanos;
+        private final int succeeded;
+        private final long bytes;
+
+        Summary(List<Item> items, long elapsedNanos) {
+            this.items = Collections.unmodifiableList(items);
+            this.elapsedNanos = elapsedNanos;
+            int succeeded = 0;
+            long bytes = 0;
+
+            for (Item item : items) {
+                if (item.isSuccess()) {
+                    succeeded++;
+                    bytes += item.getBytes();
+                }
+            }
+
+            this.succeeded = succeeded;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Get the result of every source, in source order
+         * 
+         * @return array The results
+         */
+        public List<Item> getItems() {
+            return items;
+        }
+
+        /**
+         * Get the number of successful uploads
+         * 
+         * @return int The success count
+         */
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        /**
+         * Get the number of failed uploads
+         * 
+         * @return int The failure count
+         */
+        public int getFailed() {
+            return items.size() - succeeded;
+        }
+
+        /**
+         * Get the number of bytes uploaded by successful file uploads
+         * 
+         * @return long The byte count
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Get how long the whole batch took
+         * 
+         * @return long The time in milliseconds
+         */
+        public long getElapsedMillis() {
+            return elapsedNanos / 1000000;
+        }
+
+        /**
+         * Get the number of sources processed per second
+         * 
+         * @return double The upload rate
+         */
+        public double getUploadsPerSecond() {
+            return elapsedNanos > 0 ? items.size() * 1e9 / elapsedNanos : 0;
+        }
+
+        /**
+         * Get the number of bytes uploaded per second
+         * 
+         * @return double The byte rate
+         */
+        public double getBytesPerSecond() {
+            return elapsedNanos > 0 ? bytes * 1e9 / elapsedNanos : 0;
+        }
+    }
+}
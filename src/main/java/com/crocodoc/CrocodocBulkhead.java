@@ -0,0 +1,188 @@
+package com.crocodoc;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Isolates one endpoint group from the others. A bulkhead has its own
+ * partition of connections and a fixed number of permits; a call holds a
+ * permit while it runs, and at most maxQueued calls wait for one. Calls that
+ * find the queue full fail at once with the "bulkhead_full" error. A burst of
+ * uploads or downloads can then only use up its own bulkhead, and the other
+ * groups keep their capacity.
+ */
+public class CrocodocBulkhead {
+    /**
+     * The endpoint group the bulkhead isolates
+     * 
+     * @var object
+     */
+    private final CrocodocEndpoint.Group group;
+
+    /**
+     * The number of calls allowed to run at once
+     * 
+     * @var int
+     */
+    private final int maxConcurrent;
+
+    /**
+     * The number of calls allowed to wait for a permit
+     * 
+     * @var int
+     */
+    private final int maxQueued;
+
+    /**
+     * The permits of running calls
+     * 
+     * @var object
+     */
+    private final Semaphore permits;
+
+    /**
+     * The connections of the group
+     * 
+     * @var object
+     */
+    private final CrocodocConnectionPool connectionPool;
+
+    /**
+     * The number of calls waiting for a permit
+     * 
+     * @var object
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * The number of calls rejected because the queue was full
+     * 
+     * @var object
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Create a bulkhead
+     * 
+     * @param object
+     *            group The endpoint group the bulkhead isolates
+     * @param int maxConcurrent The number of calls allowed to run at once
+     * @param int maxQueued The number of calls allowed to wait for a permit
+     */
+    CrocodocBulkhead(CrocodocEndpoint.Group group, int maxConcurrent,
+            int maxQueued) {
+        this.group = group;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.connectionPool = new CrocodocConnectionPool(maxConcurrent,
+                maxConcurrent);
+    }
+
+    /**
+     * Get the endpoint group the bulkhead isolates
+     * 
+     * @return object The endpoint group
+     */
+    public CrocodocEndpoint.Group getGroup() {
+        return group;
+    }
+
+    /**
+     * Get the number of calls allowed to run at once
+     * 
+     * @return int The concurrency limit
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Get the number of calls allowed to wait for a permit
+     * 
+     * @return int The queue depth
+     */
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * Get the number of calls running
+     * 
+     * @return int The active call count
+     */
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * Get the number of calls waiting for a permit
+     * 
+     * @return int The queued call count
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Get the number of calls rejected because the queue was full
+     * 
+     * @return long The rejected call count
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Get the connection pool partition of the group
+     * 
+     * @return object The connection pool
+     */
+    CrocodocConnectionPool _getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Take a permit, waiting in the queue if none is free
+     * 
+     * @param long limitNanos The longest time to wait, for example the time
+     *        left until a deadline
+     * 
+     * @return bool Whether a permit was taken; false if the queue was full or
+     *         the wait timed out
+     * @throws InterruptedException
+     */
+    boolean _acquire(long limitNanos) throws InterruptedException {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+
+        try {
+            return permits.tryAcquire(limitNanos, TimeUnit.NANOSECONDS);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * Give a permit back
+     */
+    void _release() {
+        permits.release();
+    }
+
+    /**
+     * Close the connection pool partition
+     */
+    void _close() {
+        connectionPool.close();
+    }
+}
@@ -0,0 +1,80 @@
+package com.crocodoc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+/**
+ * A multipart body written straight from a ByteBuffer, heap or direct,
+ * without copying it into a byte array first. The buffer's position and limit
+ * are left untouched, so the body can be written more than once.
+ */
+class CrocodocByteBufferBody extends AbstractContentBody {
+    /**
+     * The bytes to upload, between the buffer's position and limit
+     * 
+     * @var object
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The file name sent with the upload
+     * 
+     * @var string
+     */
+    private final String filename;
+
+    /**
+     * Create a body from a buffer
+     * 
+     * @param object
+     *            buffer The bytes to upload
+     * @param string
+     *            mimeType The content type of the upload
+     * @param string
+     *            filename The file name sent with the upload
+     */
+    CrocodocByteBufferBody(ByteBuffer buffer, String mimeType, String filename) {
+        super(mimeType);
+        this.buffer = buffer;
+        this.filename = filename;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+
+        if (source.hasArray()) {
+            out.write(source.array(), source.arrayOffset() + source.position(),
+                    source.remaining());
+        } else {
+            WritableByteChannel channel = Channels.newChannel(out);
+
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+
+        out.flush();
+    }
+
+    public String getCharset() {
+        return null;
+    }
+
+    public String getTransferEncoding() {
+        return MIME.ENC_BINARY;
+    }
+
+    public long getContentLength() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,19 @@
+package com.crocodoc;
+
+/**
+ * A unit of work that makes one or more Crocodoc API calls. This is used
+ * internally to run blocking API calls in the background and to wrap them
+ * with additional behavior.
+ *
+ * @param <T>
+ *            The type of the result
+ */
+interface CrocodocCallable<T> {
+    /**
+     * Run the work
+     *
+     * @return object The result
+     * @throws CrocodocException
+     */
+    T call() throws CrocodocException;
+}
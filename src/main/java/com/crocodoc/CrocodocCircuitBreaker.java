@@ -0,0 +1,269 @@
+package com.crocodoc;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stops calls to one endpoint group on one host while it is failing. After
+ * failureThreshold consecutive connection errors or 5xx responses the breaker
+ * opens, and calls fail at once with a "circuit_open" error instead of
+ * waiting on a server that is down. Once openMillis have passed the breaker
+ * is half-open: a few probe calls go through, and it closes again if they
+ * succeed or opens again if they fail. Calls whose outcome says nothing
+ * about the server, such as ones cut short by the caller's deadline or whose
+ * response couldn't be read, neither reset the failures nor close the
+ * breaker.
+ *
+ * Breakers are created by a CrocodocCircuitBreakers registry.
+ */
+public class CrocodocCircuitBreaker {
+    /**
+     * The states of a circuit breaker
+     */
+    public enum State {
+        /**
+         * Calls go through
+         */
+        CLOSED,
+
+        /**
+         * Calls fail at once
+         */
+        OPEN,
+
+        /**
+         * A limited number of probe calls go through
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * The host the breaker guards
+     * 
+     * @var string
+     */
+    private final String host;
+
+    /**
+     * The endpoint group the breaker guards
+     * 
+     * @var object
+     */
+    private final CrocodocEndpoint.Group group;
+
+    /**
+     * The number of consecutive failures that opens the breaker
+     * 
+     * @var int
+     */
+    private final int failureThreshold;
+
+    /**
+     * How long the breaker stays open before letting probes through
+     * 
+     * @var long
+     */
+    private final long openMillis;
+
+    /**
+     * The number of probe calls allowed at once while half-open
+     * 
+     * @var int
+     */
+    private final int halfOpenProbes;
+
+    /**
+     * The current state
+     * 
+     * @var object
+     */
+    private volatile State state = State.CLOSED;
+
+    /**
+     * The number of consecutive failures
+     * 
+     * @var int
+     */
+    private volatile int failures = 0;
+
+    /**
+     * When the breaker last opened
+     * 
+     * @var long
+     */
+    private long openedAt;
+
+    /**
+     * The number of probe calls in flight
+     * 
+     * @var int
+     */
+    private int probes = 0;
+
+    /**
+     * The number of times the breaker opened
+     * 
+     * @var object
+     */
+    private final LongAdder opened = new LongAdder();
+
+    /**
+     * The number of calls refused while open
+     * 
+     * @var object
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Create a circuit breaker
+     * 
+     * @param string
+     *            host The host the breaker guards
+     * @param object
+     *            group The endpoint group the breaker guards
+     * @param int failureThreshold The number of consecutive failures that
+     *        opens the breaker
+     * @param long openMillis How long the breaker stays open
+     * @param int halfOpenProbes The number of probe calls allowed at once
+     *        while half-open
+     */
+    CrocodocCircuitBreaker(String host, CrocodocEndpoint.Group group,
+            int failureThreshold, long openMillis, int halfOpenProbes) {
+        this.host = host;
+        this.group = group;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * Get the host the breaker guards
+     * 
+     * @return string The host
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Get the endpoint group the breaker guards
+     * 
+     * @return object The endpoint group
+     */
+    public CrocodocEndpoint.Group getGroup() {
+        return group;
+    }
+
+    /**
+     * Get the current state. An open breaker whose openMillis have passed is
+     * reported as half-open.
+     * 
+     * @return object The state
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN
+                && System.currentTimeMillis() - openedAt >= openMillis) {
+            return State.HALF_OPEN;
+        }
+
+        return state;
+    }
+
+    /**
+     * Get the number of consecutive failures
+     * 
+     * @return int The failure count
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Get the number of times the breaker opened
+     * 
+     * @return long The open count
+     */
+    public long getOpened() {
+        return opened.sum();
+    }
+
+    /**
+     * Get the number of calls refused while open
+     * 
+     * @return long The rejected call count
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Ask to make a call
+     * 
+     * @return bool Whether the call may go through
+     */
+    boolean _tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        synchronized (this) {
+            if (state == State.OPEN
+                    && System.currentTimeMillis() - openedAt >= openMillis) {
+                state = State.HALF_OPEN;
+                probes = 0;
+            }
+
+            if (state == State.CLOSED) {
+                return true;
+            }
+
+            if (state == State.HALF_OPEN && probes < halfOpenProbes) {
+                probes++;
+                return true;
+            }
+        }
+
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Record a call that reached a working server
+     */
+    void _onSuccess() {
+        if (state == State.CLOSED && failures == 0) {
+            return;
+        }
+
+        synchronized (this) {
+            failures = 0;
+
+            if (state == State.HALF_OPEN) {
+                state = State.CLOSED;
+            }
+        }
+    }
+
+    /**
+     * Record a call whose outcome says nothing about the server. A probe
+     * call gives its place back so another probe can be sent.
+     */
+    synchronized void _onNeutral() {
+        if (state == State.HALF_OPEN && probes > 0) {
+            probes--;
+        }
+    }
+
+    /**
+     * Record a call that failed with a connection error or a 5xx response
+     */
+    synchronized void _onFailure() {
+        failures++;
+
+        if (state == State.HALF_OPEN
+                || (state == State.CLOSED && failures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            opened.increment();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.crocodoc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The circuit breakers of every host and endpoint group, all with the same
+ * settings. One registry can be shared by several clients, so clients
+ * talking to the same host trip the same breakers.
+ */
+public class CrocodocCircuitBreakers {
+    /**
+     * The default number of consecutive failures that opens a breaker
+     * 
+     * @var int
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /**
+     * The default time a breaker stays open
+     * 
+     * @var long
+     */
+    public static final long DEFAULT_OPEN_MILLIS = 10000;
+
+    /**
+     * The default number of probe calls allowed at once while half-open
+     * 
+     * @var int
+     */
+    public static final int DEFAULT_HALF_OPEN_PROBES = 1;
+
+    /**
+     * The number of consecutive failures that opens a breaker
+     * 
+     * @var int
+     */
+    private final int failureThreshold;
+
+    /**
+     * How long a breaker stays open before letting probes through
+     * 
+     * @var long
+     */
+    private final long openMillis;
+
+    /**
+     * The number of probe calls allowed at once while half-open
+     * 
+     * @var int
+     */
+    private final int halfOpenProbes;
+
+    /**
+     * The breakers, keyed by host and group
+     * 
+     * @var map
+     */
+    private final ConcurrentHashMap<String, CrocodocCircuitBreaker> breakers = new ConcurrentHashMap<String, CrocodocCircuitBreaker>();
+
+    /**
+     * Create a registry with the default settings
+     */
+    public CrocodocCircuitBreakers() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS,
+                DEFAULT_HALF_OPEN_PROBES);
+    }
+
+    /**
+     * Create a registry
+     * 
+     * @param int failureThreshold The number of consecutive failures that
+     *        opens a breaker
+     * @param long openMillis How long a breaker stays open before letting
+     *        probes through
+     * @param int halfOpenProbes The number of probe calls allowed at once
+     *        while half-open
+     */
+    public CrocodocCircuitBreakers(int failureThreshold, long openMillis,
+            int halfOpenProbes) {
+        if (failureThreshold < 1 || openMillis < 0 || halfOpenProbes < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid circuit breaker settings");
+        }
+
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * Get the breaker of a host and endpoint group, creating it if needed
+     * 
+     * @param string
+     *            host The host
+     * @param object
+     *            group The endpoint group
+     * 
+     * @return object The circuit breaker
+     */
+    public CrocodocCircuitBreaker get(String host, CrocodocEndpoint.Group group) {
+        String key = host + " " + group;
+        CrocodocCircuitBreaker breaker = breakers.get(key);
+
+        if (breaker == null) {
+            CrocodocCircuitBreaker created = new CrocodocCircuitBreaker(host,
+                    group, failureThreshold, openMillis, halfOpenProbes);
+            breaker = breakers.putIfAbsent(key, created);
+
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+
+        return breaker;
+    }
+
+    /**
+     * Get every breaker created so far, for monitoring
+     * 
+     * @return list The circuit breakers
+     */
+    public List<CrocodocCircuitBreaker> getAll() {
+        return new ArrayList<CrocodocCircuitBreaker>(breakers.values());
+    }
+}
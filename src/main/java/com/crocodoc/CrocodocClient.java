@@ -0,0 +1,3124 @@
+package com.crocodoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntity;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.InputStreamBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * An immutable, thread-safe client for the Crocodoc API. Each client has its
+ * own API token, endpoint, connection pool and executor, so several clients
+ * with different tokens can be used side by side in one JVM. The Document,
+ * Download and Session APIs are reached through document(), download() and
+ * session().
+ *
+ * Clients are created with a Builder:
+ *
+ * <pre>
+ * CrocodocClient client = CrocodocClient.builder().apiToken(apiToken)
+ *         .maxConnections(50, 20).build();
+ * </pre>
+ */
+public final class CrocodocClient {
+    /**
+     * The default protocol (Crocodoc uses HTTPS)
+     *
+     * @var string
+     */
+    public static final String DEFAULT_PROTOCOL = "https";
+
+    /**
+     * The default host
+     *
+     * @var string
+     */
+    public static final String DEFAULT_HOST = "crocodoc.com";
+
+    /**
+     * The default base path on the server where the API lives
+     *
+     * @var string
+     */
+    public static final String DEFAULT_BASE_PATH = "/api/v2";
+
+    /**
+     * The default number of threads in a client-owned executor
+     *
+     * @var int
+     */
+    public static final int DEFAULT_EXECUTOR_THREADS = 10;
+
+    /**
+     * The default number of bytes read and written at a time when uploading
+     * a file
+     *
+     * @var int
+     */
+    public static final int DEFAULT_UPLOAD_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * The default time allowed to open a connection
+     *
+     * @var long
+     */
+    public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * The default time allowed between two packets of a response
+     *
+     * @var long
+     */
+    public static final long DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * The default share of calls that may be hedged
+     *
+     * @var double
+     */
+    public static final double DEFAULT_HEDGE_RATIO = 0.05;
+
+    /**
+     * The default wait that makes up for one priority level
+     *
+     * @var long
+     */
+    public static final long DEFAULT_PRIORITY_AGING_MILLIS = 1000;
+
+    /**
+     * The GET endpoints whose identical in-flight requests are shared. Their
+     * responses are small enough to buffer; document downloads are streamed
+     * and never shared.
+     *
+     * @var object
+     */
+    static final Set<String> SINGLE_FLIGHT_ENDPOINTS = new HashSet<String>(
+            Arrays.asList(CrocodocDocumentClient.PATH + "status",
+                    CrocodocDownloadClient.PATH + "text",
+                    CrocodocDownloadClient.PATH + "thumbnail"));
+
+    /**
+     * The developer's Crocodoc API token
+     *
+     * @var string
+     */
+    private final String apiToken;
+
+    /**
+     * The protocol used to reach the API
+     *
+     * @var string
+     */
+    private final String protocol;
+
+    /**
+     * The host the API lives on
+     *
+     * @var string
+     */
+    private final String host;
+
+    /**
+     * The base path on the server where the API lives
+     *
+     * @var string
+     */
+    private final String basePath;
+
+    /**
+     * The connection pool requests are made on
+     *
+     * @var object
+     */
+    private final CrocodocConnectionPool connectionPool;
+
+    /**
+     * Does this client close the connection pool? True if the client created
+     * it, or shares it with the client it was derived from.
+     *
+     * @var bool
+     */
+    private final boolean ownsConnectionPool;
+
+    /**
+     * The executor supplied by the builder, if any
+     *
+     * @var object
+     */
+    private final ExecutorService suppliedExecutor;
+
+    /**
+     * The number of threads of the executor this client creates if none was
+     * supplied
+     *
+     * @var int
+     */
+    private final int executorThreads;
+
+    /**
+     * The executor this client created itself, if any
+     *
+     * @var object
+     */
+    private ExecutorService ownedExecutor;
+
+    /**
+     * The scheduler supplied by the builder, if any
+     *
+     * @var object
+     */
+    private final ScheduledExecutorService suppliedScheduler;
+
+    /**
+     * The scheduler this client created itself, if any
+     *
+     * @var object
+     */
+    private ScheduledExecutorService ownedScheduler;
+
+    /**
+     * Merges concurrent single-document status calls, if enabled
+     *
+     * @var object
+     */
+    private final CrocodocStatusCoalescer statusCoalescer;
+
+    /**
+     * Caches document statuses, if enabled
+     *
+     * @var object
+     */
+    private final CrocodocStatusCache statusCache;
+
+    /**
+     * Caches downloaded documents on disk, if enabled
+     *
+     * @var object
+     */
+    private final CrocodocDiskCache diskCache;
+
+    /**
+     * Caches thumbnails in memory, if enabled
+     *
+     * @var object
+     */
+    private final CrocodocThumbnailCache thumbnailCache;
+
+    /**
+     * Keeps this client's entries in shared disk and thumbnail caches apart
+     * from those of other API tokens and hosts
+     *
+     * @var string
+     */
+    private final String cacheTenant;
+
+    /**
+     * Polls documents that are waited on until they finish converting
+     *
+     * @var object
+     */
+    private final CrocodocConversionWaiter conversionWaiter;
+
+    /**
+     * Has this client been replaced, so it shuts down its executor and
+     * scheduler whenever nothing runs through it?
+     *
+     * @var bool
+     */
+    private volatile boolean retired = false;
+
+    /**
+     * Has this client been closed?
+     *
+     * @var object
+     */
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /**
+     * The number of calls running through this client. A streamed download
+     * counts until its body has been read or closed.
+     *
+     * @var object
+     */
+    private final AtomicInteger calls = new AtomicInteger();
+
+    /**
+     * The number of bytes read and written at a time when uploading a file,
+     * or 0 to upload files with FileBody
+     *
+     * @var int
+     */
+    private final int uploadChunkSize;
+
+    /**
+     * The throughput of file uploads
+     *
+     * @var object
+     */
+    private final CrocodocThroughput uploadThroughput = new CrocodocThroughput();
+
+    /**
+     * The shared GET calls in flight keyed by endpoint and sorted params, or
+     * null if identical calls aren't shared
+     *
+     * @var object
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight;
+
+    /**
+     * The retry policy of each endpoint
+     *
+     * @var map
+     */
+    private final EnumMap<CrocodocEndpoint, CrocodocRetryPolicy> retryPolicies;
+
+    /**
+     * Limits the retries of all endpoints together
+     *
+     * @var object
+     */
+    private final CrocodocRetryBudget retryBudget;
+
+    /**
+     * The circuit breakers calls go through
+     *
+     * @var object
+     */
+    private final CrocodocCircuitBreakers circuitBreakers;
+
+    /**
+     * Where measurements of calls are recorded, may be null
+     *
+     * @var object
+     */
+    private final CrocodocMetricsSink metricsSink;
+
+    /**
+     * The rate limiter of each endpoint group that is rate limited
+     *
+     * @var map
+     */
+    private final EnumMap<CrocodocEndpoint.Group, CrocodocRateLimiter> rateLimiters;
+
+    /**
+     * The bulkhead of each endpoint group that is isolated
+     *
+     * @var map
+     */
+    private final EnumMap<CrocodocEndpoint.Group, CrocodocBulkhead> bulkheads;
+
+    /**
+     * Orders calls by priority once too many run at once, may be null
+     *
+     * @var object
+     */
+    private final CrocodocDispatcher dispatcher;
+
+    /**
+     * The latencies of each hedged endpoint
+     *
+     * @var map
+     */
+    private final EnumMap<CrocodocEndpoint, CrocodocLatencyWindow> hedgeWindows;
+
+    /**
+     * Limits the hedged requests of all endpoints together
+     *
+     * @var object
+     */
+    private final CrocodocRetryBudget hedgeBudget;
+
+    /**
+     * The time allowed to open a connection, 0 for no limit
+     *
+     * @var long
+     */
+    private final long connectTimeoutMillis;
+
+    /**
+     * The time allowed between two packets of a response, 0 for no limit
+     *
+     * @var long
+     */
+    private final long readTimeoutMillis;
+
+    /**
+     * The time allowed for a whole call including retries, 0 for no limit
+     *
+     * @var long
+     */
+    private final long requestTimeoutMillis;
+
+    /**
+     * The request of the attempt running on each thread, so it can be
+     * aborted when its deadline passes
+     *
+     * @var object
+     */
+    private static final ThreadLocal<AtomicReference<HttpUriRequest>> _attempts = new ThreadLocal<AtomicReference<HttpUriRequest>>();
+
+    /**
+     * The Document API bound to this client
+     *
+     * @var object
+     */
+    private final CrocodocDocumentClient document;
+
+    /**
+     * The Download API bound to this client
+     *
+     * @var object
+     */
+    private final CrocodocDownloadClient download;
+
+    /**
+     * The Session API bound to this client
+     *
+     * @var object
+     */
+    private final CrocodocSessionClient session;
+
+    /**
+     * Create a client from a builder
+     *
+     * @param object
+     *            builder The builder holding the configuration
+     */
+    private CrocodocClient(Builder builder) {
+        apiToken = builder.apiToken;
+        protocol = builder.protocol;
+        host = builder.host;
+        basePath = builder.basePath;
+
+        if (builder.connectionPool != null && !builder.shareConnectionPool) {
+            connectionPool = builder.connectionPool;
+            ownsConnectionPool = false;
+        } else if (builder.connectionPool != null
+                && builder.connectionPool._retain()) {
+            connectionPool = builder.connectionPool;
+            ownsConnectionPool = true;
+        } else {
+            // a shared pool may have been closed along with its other clients
+            connectionPool = new CrocodocConnectionPool(builder.maxTotal,
+                    builder.maxPerRoute);
+            connectionPool._retain();
+            ownsConnectionPool = true;
+        }
+
+        suppliedExecutor = builder.executor;
+        executorThreads = builder.executorThreads;
+        suppliedScheduler = builder.scheduler;
+
+        if (builder.coalesceWindowMillis > 0) {
+            statusCoalescer = new CrocodocStatusCoalescer(this,
+                    builder.coalesceWindowMillis, builder.coalesceMaxBatchSize);
+        } else {
+            statusCoalescer = null;
+        }
+
+        if (builder.statusCacheSize > 0) {
+            statusCache = new CrocodocStatusCache(builder.statusCacheSize,
+                    builder.statusCacheTtlMillis);
+        } else {
+            statusCache = null;
+        }
+
+        diskCache = builder.diskCache;
+        thumbnailCache = builder.thumbnailCache;
+        cacheTenant = CrocodocDiskCache._tenant(apiToken, host);
+        conversionWaiter = new CrocodocConversionWaiter(this,
+                builder.pollInitialDelayMillis, builder.pollMaxDelayMillis,
+                builder.pollMaxBatchSize);
+        uploadChunkSize = builder.uploadChunkSize;
+        inFlight = builder.singleFlight ? new ConcurrentHashMap<String, CompletableFuture<Object>>()
+                : null;
+        retryPolicies = new EnumMap<CrocodocEndpoint, CrocodocRetryPolicy>(
+                CrocodocEndpoint.class);
+
+        for (CrocodocEndpoint endpoint : CrocodocEndpoint.values()) {
+            CrocodocRetryPolicy policy = builder.retryPolicies.get(endpoint);
+
+            if (policy == null) {
+                policy = endpoint.isIdempotent() ? CrocodocRetryPolicy.DEFAULT
+                        : CrocodocRetryPolicy.NONE;
+            }
+
+            retryPolicies.put(endpoint, policy);
+        }
+
+        retryBudget = builder.retryBudget != null ? builder.retryBudget
+                : new CrocodocRetryBudget();
+        circuitBreakers = builder.circuitBreakers != null ? builder.circuitBreakers
+                : new CrocodocCircuitBreakers();
+
+        if (builder.metricsSink != null) {
+            metricsSink = builder.metricsSink;
+        } else {
+            metricsSink = builder.metricsDisabled ? null : new CrocodocMetrics();
+        }
+
+        rateLimiters = new EnumMap<CrocodocEndpoint.Group, CrocodocRateLimiter>(
+                CrocodocEndpoint.Group.class);
+
+        for (Map.Entry<CrocodocEndpoint.Group, CrocodocRateLimiter> entry : builder.rateLimiters
+                .entrySet()) {
+            CrocodocRateLimiter limiter = entry.getValue();
+            rateLimiters.put(entry.getKey(), new CrocodocRateLimiter(
+                    limiter.getPermitsPerSecond(), limiter.getBurst(),
+                    limiter.getMaxWaitMillis()));
+        }
+
+        bulkheads = new EnumMap<CrocodocEndpoint.Group, CrocodocBulkhead>(
+                CrocodocEndpoint.Group.class);
+
+        for (Map.Entry<CrocodocEndpoint.Group, int[]> entry : builder.bulkheads
+                .entrySet()) {
+            bulkheads.put(entry.getKey(), new CrocodocBulkhead(entry.getKey(),
+                    entry.getValue()[0], entry.getValue()[1]));
+        }
+
+        if (builder.adaptiveLimit != null) {
+            CrocodocAdaptiveLimit limit = builder.adaptiveLimit;
+            dispatcher = new CrocodocDispatcher(new CrocodocAdaptiveLimit(
+                    limit.getMinLimit(), limit.getMaxLimit(),
+                    limit.getBackoffRatio(), limit.getTolerance()),
+                    builder.priorityAgingMillis);
+        } else if (builder.maxConcurrentRequests > 0) {
+            dispatcher = new CrocodocDispatcher(builder.maxConcurrentRequests,
+                    builder.priorityAgingMillis);
+        } else {
+            dispatcher = null;
+        }
+
+        hedgeWindows = new EnumMap<CrocodocEndpoint, CrocodocLatencyWindow>(
+                CrocodocEndpoint.class);
+
+        for (Map.Entry<CrocodocEndpoint, Double> entry : builder.hedgePercentiles
+                .entrySet()) {
+            hedgeWindows.put(entry.getKey(),
+                    new CrocodocLatencyWindow(entry.getValue()));
+        }
+
+        hedgeBudget = builder.hedgeBudget != null ? builder.hedgeBudget
+                : new CrocodocRetryBudget(DEFAULT_HEDGE_RATIO, 1);
+        connectTimeoutMillis = builder.connectTimeoutMillis;
+        readTimeoutMillis = builder.readTimeoutMillis;
+        requestTimeoutMillis = builder.requestTimeoutMillis;
+        document = new CrocodocDocumentClient(this);
+        download = new CrocodocDownloadClient(this);
+        session = new CrocodocSessionClient(this);
+    }
+
+    /**
+     * Create a new builder
+     *
+     * @return object A builder with the default configuration
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Create a builder with this client's configuration. The connection pool
+     * is shared with this client, not copied; if this client created it, it
+     * is closed once both clients are closed. An executor or scheduler this
+     * client created isn't shared, so each client can be closed on its own.
+     *
+     * @return object A builder with this client's configuration
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.apiToken = apiToken;
+        builder.protocol = protocol;
+        builder.host = host;
+        builder.basePath = basePath;
+        builder.connectionPool = connectionPool;
+        builder.shareConnectionPool = ownsConnectionPool;
+        builder.maxTotal = connectionPool.getMaxTotal();
+        builder.maxPerRoute = connectionPool.getMaxPerRoute();
+        builder.executor = suppliedExecutor;
+        builder.executorThreads = executorThreads;
+        builder.scheduler = suppliedScheduler;
+
+        if (statusCoalescer != null) {
+            builder.coalesceWindowMillis = statusCoalescer.getWindowMillis();
+            builder.coalesceMaxBatchSize = statusCoalescer.getMaxBatchSize();
+        }
+
+        if (statusCache != null) {
+            builder.statusCacheSize = statusCache.getMaxSize();
+            builder.statusCacheTtlMillis = statusCache.getTtlMillis();
+        }
+
+        builder.diskCache = diskCache;
+        builder.thumbnailCache = thumbnailCache;
+        builder.pollInitialDelayMillis = conversionWaiter
+                .getInitialDelayMillis();
+        builder.pollMaxDelayMillis = conversionWaiter.getMaxDelayMillis();
+        builder.pollMaxBatchSize = conversionWaiter.getMaxBatchSize();
+        builder.uploadChunkSize = uploadChunkSize;
+        builder.singleFlight = inFlight != null;
+        builder.retryPolicies.putAll(retryPolicies);
+        builder.retryBudget = retryBudget;
+        builder.circuitBreakers = circuitBreakers;
+        builder.metricsSink = metricsSink;
+        builder.metricsDisabled = metricsSink == null;
+        builder.rateLimiters.putAll(rateLimiters);
+        for (Map.Entry<CrocodocEndpoint, CrocodocLatencyWindow> entry : hedgeWindows
+                .entrySet()) {
+            builder.hedgePercentiles.put(entry.getKey(), entry.getValue()
+                    .getPercentile());
+        }
+
+        for (CrocodocBulkhead bulkhead : bulkheads.values()) {
+            builder.bulkheads.put(bulkhead.getGroup(), new int[] {
+                    bulkhead.getMaxConcurrent(), bulkhead.getMaxQueued() });
+        }
+
+        if (dispatcher != null) {
+            builder.adaptiveLimit = dispatcher.getAdaptiveLimit();
+            builder.maxConcurrentRequests = builder.adaptiveLimit == null ? dispatcher
+                    .getMaxConcurrent() : 0;
+            builder.priorityAgingMillis = dispatcher.getAgingMillis();
+        }
+
+        builder.hedgeBudget = hedgeBudget;
+        builder.connectTimeoutMillis = connectTimeoutMillis;
+        builder.readTimeoutMillis = readTimeoutMillis;
+        builder.requestTimeoutMillis = requestTimeoutMillis;
+        return builder;
+    }
+
+    /**
+     * Create a client that uses another API token but shares this client's
+     * connection pool.
+     *
+     * @param string
+     *            apiToken The API token of the new client
+     *
+     * @return object The new client
+     */
+    public CrocodocClient withApiToken(String apiToken) {
+        return toBuilder().apiToken(apiToken).build();
+    }
+
+    /**
+     * Get the Document API of this client
+     *
+     * @return object The Document API
+     */
+    public CrocodocDocumentClient document() {
+        return document;
+    }
+
+    /**
+     * Get the Download API of this client
+     *
+     * @return object The Download API
+     */
+    public CrocodocDownloadClient download() {
+        return download;
+    }
+
+    /**
+     * Get the Session API of this client
+     *
+     * @return object The Session API
+     */
+    public CrocodocSessionClient session() {
+        return session;
+    }
+
+    /**
+     * Get the API token
+     *
+     * @return string The API token
+     */
+    public String getApiToken() {
+        return apiToken;
+    }
+
+    /**
+     * Get the protocol
+     *
+     * @return string The protocol
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Get the host
+     *
+     * @return string The host
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Get the base path
+     *
+     * @return string The base path
+     */
+    public String getBasePath() {
+        return basePath;
+    }
+
+    /**
+     * Get the connection pool
+     *
+     * @return object The connection pool
+     */
+    public CrocodocConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Get the executor used for background work, creating it if this client
+     * owns its executor and it doesn't exist yet.
+     *
+     * @return object The executor
+     */
+    public ExecutorService getExecutor() {
+        if (suppliedExecutor != null) {
+            return suppliedExecutor;
+        }
+
+        synchronized (this) {
+            if (ownedExecutor == null) {
+                ownedExecutor = Executors.newFixedThreadPool(executorThreads,
+                        _threadFactory("crocodoc-worker"));
+            }
+
+            return ownedExecutor;
+        }
+    }
+
+    /**
+     * Get the scheduler used for timed background work, creating it if this
+     * client owns its scheduler and it doesn't exist yet.
+     *
+     * @return object The scheduler
+     */
+    public ScheduledExecutorService getScheduler() {
+        if (suppliedScheduler != null) {
+            return suppliedScheduler;
+        }
+
+        synchronized (this) {
+            if (ownedScheduler == null) {
+                ownedScheduler = Executors.newSingleThreadScheduledExecutor(
+                        _threadFactory("crocodoc-scheduler"));
+            }
+
+            return ownedScheduler;
+        }
+    }
+
+    /**
+     * Get the status coalescer
+     *
+     * @return object The status coalescer, or null if coalescing is off
+     */
+    CrocodocStatusCoalescer _getStatusCoalescer() {
+        return statusCoalescer;
+    }
+
+    /**
+     * Get the status cache
+     *
+     * @return object The status cache, or null if statuses aren't cached
+     */
+    public CrocodocStatusCache getStatusCache() {
+        return statusCache;
+    }
+
+    /**
+     * Get the disk cache for downloaded documents
+     *
+     * @return object The disk cache, or null if downloads aren't cached
+     */
+    public CrocodocDiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * Get the in-memory thumbnail cache
+     *
+     * @return object The thumbnail cache, or null if thumbnails aren't cached
+     */
+    public CrocodocThumbnailCache getThumbnailCache() {
+        return thumbnailCache;
+    }
+
+    /**
+     * Get the tenant this client's entries are kept under in shared caches
+     *
+     * @return string A hash of the API token and host
+     */
+    String _getCacheTenant() {
+        return cacheTenant;
+    }
+
+    /**
+     * Get the throughput of file uploads, measured while the file part of
+     * each upload is written to the connection
+     *
+     * @return object The upload throughput
+     */
+    public CrocodocThroughput getUploadThroughput() {
+        return uploadThroughput;
+    }
+
+    /**
+     * Get the retry policy of an endpoint
+     *
+     * @param object
+     *            endpoint The endpoint
+     *
+     * @return object The retry policy
+     */
+    public CrocodocRetryPolicy getRetryPolicy(CrocodocEndpoint endpoint) {
+        return retryPolicies.get(endpoint);
+    }
+
+    /**
+     * Get the retry budget shared by all endpoints
+     *
+     * @return object The retry budget
+     */
+    public CrocodocRetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Get the circuit breakers calls go through
+     *
+     * @return object The circuit breaker registry
+     */
+    public CrocodocCircuitBreakers getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * Get the sink measurements of calls are recorded in. Unless another sink
+     * was set, this is a CrocodocMetrics.
+     *
+     * @return object The metrics sink, or null if metrics are off
+     */
+    public CrocodocMetricsSink getMetricsSink() {
+        return metricsSink;
+    }
+
+    /**
+     * Get the rate limiter of an endpoint group
+     *
+     * @param object
+     *            group The endpoint group
+     *
+     * @return object The rate limiter, or null if the group isn't rate
+     *         limited
+     */
+    public CrocodocRateLimiter getRateLimiter(CrocodocEndpoint.Group group) {
+        return rateLimiters.get(group);
+    }
+
+    /**
+     * Get the bulkhead of an endpoint group
+     *
+     * @param object
+     *            group The endpoint group
+     *
+     * @return object The bulkhead, or null if the group isn't isolated
+     */
+    public CrocodocBulkhead getBulkhead(CrocodocEndpoint.Group group) {
+        return bulkheads.get(group);
+    }
+
+    /**
+     * Get the dispatcher that orders calls by priority
+     *
+     * @return object The dispatcher, or null if the number of calls running
+     *         at once isn't limited
+     */
+    public CrocodocDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Get the budget that limits hedged requests. Its retry count is the
+     * number of hedged requests sent.
+     *
+     * @return object The hedge budget
+     */
+    public CrocodocRetryBudget getHedgeBudget() {
+        return hedgeBudget;
+    }
+
+    /**
+     * Get the time allowed to open a connection
+     *
+     * @return long The connect timeout in milliseconds, 0 for no limit
+     */
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * Get the time allowed between two packets of a response
+     *
+     * @return long The read timeout in milliseconds, 0 for no limit
+     */
+    public long getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * Get the time allowed for a whole call including retries
+     *
+     * @return long The request timeout in milliseconds, 0 for no limit
+     */
+    public long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    /**
+     * Get the conversion waiter
+     *
+     * @return object The conversion waiter
+     */
+    CrocodocConversionWaiter _getConversionWaiter() {
+        return conversionWaiter;
+    }
+
+    /**
+     * Release the resources this client created itself. A connection pool or
+     * executor that was supplied through the builder is left open.
+     * Conversions still being waited on fail with "client_closed", as do
+     * calls made afterwards.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        conversionWaiter._close();
+
+        synchronized (this) {
+            if (ownedExecutor != null) {
+                ownedExecutor.shutdown();
+            }
+
+            if (ownedScheduler != null) {
+                ownedScheduler.shutdown();
+            }
+        }
+
+        if (ownsConnectionPool) {
+            connectionPool._release();
+        }
+
+        for (CrocodocBulkhead bulkhead : bulkheads.values()) {
+            bulkhead._close();
+        }
+    }
+
+    /**
+     * Retire this client once it has been replaced. It isn't closed: calls
+     * still running through it, and calls made by threads that got it before
+     * it was replaced, carry on. Its executor and scheduler are shut down
+     * whenever no call runs and no conversion is waited on through it, which
+     * may be at once, and created again if another call comes.
+     */
+    void _retire() {
+        retired = true;
+        _shutdownIfIdle();
+    }
+
+    /**
+     * Shut down the executor and scheduler this client created if it has
+     * been retired and nothing runs through it any more
+     */
+    void _shutdownIfIdle() {
+        if (!retired) {
+            return;
+        }
+
+        synchronized (this) {
+            if (calls.get() != 0 || conversionWaiter.getPendingCount() != 0) {
+                return;
+            }
+
+            if (ownedExecutor != null) {
+                ownedExecutor.shutdown();
+                ownedExecutor = null;
+            }
+
+            if (ownedScheduler != null) {
+                ownedScheduler.shutdown();
+                ownedScheduler = null;
+            }
+        }
+    }
+
+    /**
+     * Count a call starting to run through this client
+     *
+     * @throws CrocodocException
+     *             "client_closed" if the client has been closed
+     */
+    void _enter() throws CrocodocException {
+        calls.incrementAndGet();
+
+        if (closed.get()) {
+            _exit();
+            Crocodoc._error("client_closed", "Crocodoc", "_request", null);
+        }
+    }
+
+    /**
+     * Count a call that has finished running through this client
+     */
+    void _exit() {
+        if (calls.decrementAndGet() == 0) {
+            _shutdownIfIdle();
+        }
+    }
+
+    /**
+     * Build the error of work the executor or scheduler refused to run
+     *
+     * @param string
+     *            method The method whose work was refused
+     *
+     * @return object A CrocodocException with the code "client_closed" if
+     *         the client has been closed, "executor_rejected" otherwise
+     */
+    CrocodocException _rejected(String method) {
+        return Crocodoc._exception(closed.get() ? "client_closed"
+                : "executor_rejected", "Crocodoc", method, null);
+    }
+
+    /**
+     * Does this client talk to the given endpoint with the given token over
+     * the given connection pool?
+     *
+     * @return bool Whether the configuration matches
+     */
+    boolean _matches(String apiToken, String protocol, String host,
+            String basePath, CrocodocConnectionPool connectionPool) {
+        return _equals(this.apiToken, apiToken)
+                && _equals(this.protocol, protocol)
+                && _equals(this.host, host)
+                && _equals(this.basePath, basePath)
+                && this.connectionPool == connectionPool;
+    }
+
+    /**
+     * Check for HTTP errors in an HttpResponse object. Every 4xx and 5xx
+     * status is an error; 5xx errors are transient.
+     *
+     * @param response
+     * @throws CrocodocException
+     */
+    private void _checkForHttpErrors(HttpResponse response)
+            throws CrocodocException {
+        Integer httpCode = response.getStatusLine().getStatusCode();
+
+        Map<Integer, String> http4xxErrorCodes = new HashMap<Integer, String>();
+        http4xxErrorCodes.put(400, "bad_request");
+        http4xxErrorCodes.put(401, "unauthorized");
+        http4xxErrorCodes.put(404, "not_found");
+        http4xxErrorCodes.put(405, "method_not_allowed");
+
+        if (http4xxErrorCodes.containsKey(httpCode)) {
+            String error = "server_error_" + httpCode + "_"
+                    + http4xxErrorCodes.get(httpCode);
+            _releaseConnection(response);
+            Crocodoc._error(error, "Crocodoc", "_request", null);
+        }
+
+        if (httpCode >= 400 && httpCode < 600) {
+            String error = "server_error_" + httpCode + "_unknown";
+            _releaseConnection(response);
+            Crocodoc._error(error, "Crocodoc", "_request", null);
+        }
+    }
+
+    /**
+     * Consume the rest of a response so its connection goes back to the pool.
+     *
+     * @param response
+     */
+    private static void _releaseConnection(HttpResponse response) {
+        try {
+            EntityUtils.consume(response.getEntity());
+        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Send a request, hedging it if its endpoint is hedged.
+     *
+     * @param string
+     *            path The path on the server to make the request to relative to
+     *            the base path
+     * @param string
+     *            method This is just an addition to the path
+     * @param object
+     *            getParams A key-value pair of GET params
+     * @param object
+     *            postParams A key-value pair of POST params
+     *
+     * @return object The response is an HttpResponse object
+     * @throws CrocodocException
+     */
+    private HttpResponse _send(String path, String method,
+            Map<String, Object> getParams, Map<String, Object> postParams)
+            throws CrocodocException {
+        if (!hedgeWindows.isEmpty()
+                && (postParams == null || postParams.isEmpty())) {
+            CrocodocLatencyWindow window = hedgeWindows.get(CrocodocEndpoint
+                    .of(path, method));
+
+            if (window != null) {
+                return _sendHedged(path, method, getParams, window);
+            }
+        }
+
+        return _execute(path, method, getParams, postParams);
+    }
+
+    /**
+     * Send a GET request, and send it a second time if it hasn't answered
+     * after the endpoint's percentile latency and the hedge budget allows.
+     * The first response wins; the other request is aborted, which releases
+     * its connection. Until enough latencies are known no hedge is sent, and
+     * a hedge that can't be admitted at once isn't sent either.
+     *
+     * @param string
+     *            path The path on the server to make the request to relative to
+     *            the base path
+     * @param string
+     *            method This is just an addition to the path
+     * @param object
+     *            getParams A key-value pair of GET params
+     * @param object
+     *            window The latencies of the endpoint
+     *
+     * @return object The first response
+     * @throws CrocodocException
+     */
+    private HttpResponse _sendHedged(final String path, final String method,
+            final Map<String, Object> getParams,
+            final CrocodocLatencyWindow window) throws CrocodocException {
+        long delay = window.getPercentileNanos();
+        long started = System.nanoTime();
+        hedgeBudget._deposit();
+
+        if (delay < 0) {
+            HttpResponse response = _execute(path, method, getParams, null);
+            window.record(System.nanoTime() - started);
+            return response;
+        }
+
+        AtomicReference<HttpUriRequest> attempt = _attempts.get();
+        boolean ownsAttempt = attempt == null;
+
+        if (ownsAttempt) {
+            attempt = new AtomicReference<HttpUriRequest>();
+            _attempts.set(attempt);
+        }
+
+        final AtomicReference<HttpUriRequest> primaryRequest = attempt;
+        final AtomicReference<HttpUriRequest> hedgeRequest = new AtomicReference<HttpUriRequest>();
+        final AtomicReference<String> winner = new AtomicReference<String>();
+        final AtomicBoolean hedged = new AtomicBoolean(false);
+        final CompletableFuture<HttpResponse> hedge = new CompletableFuture<HttpResponse>();
+        final CrocodocDeadline deadline = CrocodocDeadline.current();
+        final CrocodocEndpoint endpoint = CrocodocEndpoint.of(path, method);
+        final CrocodocPriority priority = CrocodocPriority._of(endpoint);
+        final CrocodocCircuitBreaker breaker = circuitBreakers.get(host,
+                endpoint.getGroup());
+
+        ScheduledFuture<?> timer;
+
+        try {
+            timer = getScheduler().schedule(() -> {
+                if (winner.get() != null || !hedgeBudget._tryWithdraw()) {
+                    return;
+                }
+
+                // the hedge may outlive the call, so it counts as a call
+                calls.incrementAndGet();
+
+                try {
+                    getExecutor().execute(() -> {
+                        CrocodocDeadline previous = CrocodocDeadline
+                                ._set(deadline);
+
+                        try {
+                            _hedge(path, method, getParams, endpoint,
+                                    priority, breaker, window, primaryRequest,
+                                    hedgeRequest, winner, hedged, hedge);
+                        } finally {
+                            CrocodocDeadline._set(previous);
+                            _exit();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // no thread to hedge on; the primary request carries on
+                    _exit();
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            if (ownsAttempt) {
+                _attempts.remove();
+            }
+
+            throw _rejected("_request");
+        }
+
+        try {
+            HttpResponse response = _execute(path, method, getParams, null);
+
+            if (winner.compareAndSet(null, "primary")) {
+                timer.cancel(false);
+                _abort(hedgeRequest);
+                window.record(System.nanoTime() - started);
+                return response;
+            }
+
+            // the hedge answered first
+            _abort(primaryRequest);
+            return _await(hedge);
+        } catch (CrocodocException e) {
+            // the primary request failed or was aborted by a winning hedge
+            if (hedged.get()) {
+                return _await(hedge);
+            }
+
+            winner.compareAndSet(null, "primary");
+            timer.cancel(false);
+            throw e;
+        } finally {
+            if (ownsAttempt) {
+                _attempts.remove();
+            }
+        }
+    }
+
+    /**
+     * Send the hedge of a GET request. The hedge is admitted like any
+     * attempt, through the rate limiter, bulkhead, dispatcher and circuit
+     * breaker, but only if all of them let it through at once; otherwise
+     * it isn't sent. It is aborted once the deadline passes. Its outcome
+     * isn't recorded: the primary request's attempt records the outcome of
+     * the call once, whichever request answered, so the hedge only gives
+     * back the probe it may have taken from a half-open breaker.
+     *
+     * @param string
+     *            path The path on the server to make the request to relative to
+     *            the base path
+     * @param string
+     *            method This is just an addition to the path
+     * @param object
+     *            getParams A key-value pair of GET params
+     * @param object
+     *            endpoint The endpoint called
+     * @param object
+     *            priority The priority of the call
+     * @param object
+     *            breaker The circuit breaker of the endpoint's group
+     * @param object
+     *            window The latencies of the endpoint
+     * @param object
+     *            primaryRequest Holds the primary request
+     * @param object
+     *            hedgeRequest Holds the hedge request once it is made
+     * @param object
+     *            winner Set to the request that answered first
+     * @param object
+     *            hedged Set once the hedge has been admitted
+     * @param object
+     *            hedge Completed with the hedge's response or error
+     */
+    private void _hedge(String path, String method,
+            Map<String, Object> getParams, CrocodocEndpoint endpoint,
+            CrocodocPriority priority, CrocodocCircuitBreaker breaker,
+            CrocodocLatencyWindow window,
+            AtomicReference<HttpUriRequest> primaryRequest,
+            AtomicReference<HttpUriRequest> hedgeRequest,
+            AtomicReference<String> winner, AtomicBoolean hedged,
+            CompletableFuture<HttpResponse> hedge) {
+        try {
+            _admit(endpoint, priority, false);
+        } catch (CrocodocException e) {
+            return;
+        }
+
+        hedged.set(true);
+
+        // the primary request finished while the hedge was admitted
+        if (winner.get() != null) {
+            if (breaker != null) {
+                breaker._onNeutral();
+            }
+
+            _dismiss(endpoint, false);
+            return;
+        }
+
+        ScheduledFuture<?> abortTimer = null;
+        _attempts.set(hedgeRequest);
+        long startedAt = System.nanoTime();
+
+        try {
+            abortTimer = _scheduleAbort(hedgeRequest);
+            HttpResponse response = _execute(path, method, getParams, null);
+
+            if (winner.compareAndSet(null, "hedge")) {
+                window.record(System.nanoTime() - startedAt);
+                hedge.complete(response);
+                _abort(primaryRequest);
+            } else {
+                _abort(hedgeRequest);
+            }
+        } catch (Throwable e) {
+            hedge.completeExceptionally(e);
+        } finally {
+            _attempts.remove();
+
+            if (abortTimer != null) {
+                abortTimer.cancel(false);
+            }
+
+            if (breaker != null) {
+                breaker._onNeutral();
+            }
+
+            _dismiss(endpoint, false);
+        }
+    }
+
+    /**
+     * Abort a request, releasing its connection whether or not it has
+     * answered yet
+     *
+     * @param object
+     *            request Holds the request, may hold null
+     */
+    private static void _abort(AtomicReference<HttpUriRequest> request) {
+        HttpUriRequest aborted = request.get();
+
+        if (aborted != null) {
+            aborted.abort();
+        }
+    }
+
+    /**
+     * Is a call one whose identical calls in flight share one result? Only
+     * GET calls to the SINGLE_FLIGHT_ENDPOINTS are shared.
+     *
+     * @param string
+     *            path The path on the server relative to the base path
+     * @param string
+     *            method This is just an addition to the path
+     * @param object
+     *            postParams A key-value pair of POST params
+     *
+     * @return bool Whether the call is shared
+     */
+    private boolean _isShared(String path, String method,
+            Map<String, Object> postParams) {
+        return inFlight != null && (postParams == null || postParams.isEmpty())
+                && SINGLE_FLIGHT_ENDPOINTS.contains(path + method);
+    }
+
+    /**
+     * Make a GET call, or wait for the identical call already in flight and
+     * share its result. Only the caller that makes the call goes through the
+     * retries, rate limiter, bulkhead, dispatcher and circuit breaker, so
+     * identical calls cost one admission and one HTTP request, and count
+     * once for the breaker and the adaptive limit. A caller whose leader ran
+     * out of its own deadline or was interrupted makes the call itself.
+     *
+     * @param string
+     *            path The path on the server to make the request to relative to
+     *            the base path
+     * @param string
+     *            method This is just an addition to the path
+     * @param object
+     *            getParams A key-value pair of GET params
+     * @param object
+     *            call Makes the call, retries included
+     * @param object
+     *            copy Copies the result for each caller
+     *
+     * @return object The result of the call
+     * @throws CrocodocException
+     */
+    private <T> T _requestShared(String path, String method,
+            Map<String, Object> getParams, CrocodocCallable<T> call,
+            UnaryOperator<T> copy) throws CrocodocException {
+        String key = path + method + "?"
+                + (getParams != null ? new TreeMap<String, Object>(getParams)
+                        : "");
+        CrocodocDeadline deadline = requestTimeoutMillis > 0 ? CrocodocDeadline
+                .start(requestTimeoutMillis, TimeUnit.MILLISECONDS) : null;
+
+        try {
+            while (true) {
+                CompletableFuture<Object> future = new CompletableFuture<Object>();
+                CompletableFuture<Object> existing = inFlight.putIfAbsent(key,
+                        future);
+
+                if (existing == null) {
+                    try {
+                        T result = call.call();
+                        future.complete(result);
+                        return copy.apply(result);
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                        throw e;
+                    } finally {
+                        inFlight.remove(key, future);
+                    }
+                }
+
+                try {
+                    @SuppressWarnings("unchecked")
+                    T result = (T) _await(existing);
+                    return copy.apply(result);
+                } catch (CrocodocException e) {
+                    // the leader's deadline and thread aren't this caller's
+                    if (!existing.isCompletedExceptionally()
+                            || !("deadline_exceeded".equals(e.getCode()) || "interrupted"
+                                    .equals(e.getCode()))) {
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            if (deadline != null) {
+                deadline.close();
+            }
+        }
+    }
+
+    /**
+     * Read the whole body of a response so it can be shared
+     *
+     * @param object
+     *            response The response to buffer
+     *
+     * @return object The body held in memory, or null if there is none
+     * @throws CrocodocException
+     */
+    private static HttpEntity _bufferEntity(HttpResponse response)
+            throws CrocodocException {
+        HttpEntity entity = response.getEntity();
+
+        if (entity == null) {
+            return null;
+        }
+
+        ByteArrayEntity bufferedEntity;
+
+        try {
+            bufferedEntity = new ByteArrayEntity(
+                    EntityUtils.toByteArray(entity));
+        } catch (Exception e) {
+            _releaseConnection(response);
+            Map<String, Object> errorParams = new HashMap<String, Object>();
+            errorParams.put("error", e.getMessage());
+            errorParams.put("exception", e.getClass());
+            throw Crocodoc._exception(_errorCode(e, "connection_error"),
+                    "Crocodoc", "_request", errorParams);
+        }
+
+        bufferedEntity.setContentType(entity.getContentType());
+        bufferedEntity.setContentEncoding(entity.getContentEncoding());
+        return bufferedEntity;
+    }
+
+    /**
+     * Copy a parsed JSON response, so callers sharing it can't see each
+     * other's changes
+     *
+     * @param object
+     *            json The parsed JSON
+     *
+     * @return object A copy of the JSON
+     */
+    private static Object _copyJson(Object json) {
+        return json != null ? _parseJson(JSONValue.toJSONString(json)) : null;
+    }
+
+    /**
+     * Make a request to the server and return an HttpResponse object.
+     *
+     * @param string
+     *            path The path on the server to make the request to relative to
+     *            the base path
+     * @param string
+     *            method This is just an addition to the path
+     * @param object
+     *            getParams A key-value pair of GET params
+     * @param object
+     *            postParams A key-value pair of POST params
+     *
+     * @return object The response is an HttpResponse object
+     * @throws CrocodocException
+     */
+    private HttpResponse _execute(String path, String method,
+            Map<String, Object> getParams, Map<String, Object> postParams)
+            throws CrocodocException {
+        CrocodocDeadline._check("_request");
+        URI url = null;
+        HttpUriRequest request = null;
+        CrocodocCountedEntity sent = null;
+        HttpResponse response = null;
+
+        try {
+            boolean post = postParams != null && postParams.size() > 0;
+
+            if (post) {
+                postParams.put("token", apiToken);
+            }
+
+            url = _buildUri(path, method, getParams, !post);
+
+            if (post) {
+                HttpPost httpPost = new HttpPost(url);
+                sent = new CrocodocCountedEntity(
+                        _buildMultipartEntity(postParams));
+                httpPost.setEntity(sent);
+                request = httpPost;
+            } else {
+                request = new HttpGet(url);
+            }
+
+            long remainingMillis = CrocodocDeadline.current() != null ? TimeUnit.NANOSECONDS
+                    .toMillis(CrocodocDeadline._remainingNanos()) + 1
+                    : Long.MAX_VALUE;
+            HttpParams params = request.getParams();
+            HttpConnectionParams.setConnectionTimeout(params,
+                    _timeout(connectTimeoutMillis, remainingMillis));
+            HttpConnectionParams.setSoTimeout(params,
+                    _timeout(readTimeoutMillis, remainingMillis));
+
+            if (CrocodocDeadline.current() != null) {
+                params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT,
+                        remainingMillis);
+            }
+
+            AtomicReference<HttpUriRequest> attempt = _attempts.get();
+
+            if (attempt != null) {
+                attempt.set(request);
+            }
+
+            CrocodocConnectionPool._takeLeaseWaitNanos();
+            long startedAt = System.nanoTime();
+            response = _connectionPool(path, method).getHttpClient().execute(
+                    request);
+            _recordExchange(path, method, sent, response, startedAt);
+        } catch (Exception e) {
+            Map<String, Object> errorParams = new HashMap<String, Object>();
+            errorParams.put("error", e.getMessage());
+            errorParams.put("exception", e.getClass());
+            errorParams.put("url", url);
+            errorParams.put("getParams", getParams);
+            errorParams.put("postParams", postParams);
+            Crocodoc._error(_errorCode(e, "connection_error"), "Crocodoc",
+                    "_request", errorParams);
+        }
+
+        return response;
+    }
+
+    /**
+     * Build the URL of a request
+     *
+     * @param string
+     *            path The path on the server relative to the base path
+     * @param string
+     *            method This is just an addition to the path
+     * @param object
+     *            getParams A key-value pair of GET params, may be null
+     * @param bool withToken Whether the API token goes in the query string
+     *
+     * @return object The URL
+     * @throws URISyntaxException
+     */
+    URI _buildUri(String path, String method, Map<String, Object> getParams,
+            boolean withToken) throws URISyntaxException {
+        URIBuilder uriBuilder = new URIBuilder();
+        uriBuilder.setScheme(protocol);
+        uriBuilder.setHost(host);
+        uriBuilder.setPath(basePath + path + method);
+
+        if (getParams != null && getParams.size() > 0) {
+            for (Map.Entry<String, Object> param : getParams.entrySet()) {
+                uriBuilder.addParameter(param.getKey(), param.getValue()
+                        .toString());
+            }
+        }
+
+        if (withToken) {
+            uriBuilder.addParameter("token", apiToken);
+        }
+
+        return uriBuilder.build();
+    }
+
+    /**
+     * Build the multipart body of a POST request. Files become file parts,
+     * content bodies are added as they are, and everything else becomes a
+     * UTF-8 text part.
+     *
+     * @param object
+     *            postParams A key-value pair of POST params
+     *
+     * @return object The multipart body
+     * @throws UnsupportedEncodingException
+     */
+    MultipartEntity _buildMultipartEntity(Map<String, Object> postParams)
+            throws UnsupportedEncodingException {
+        MultipartEntity mpEntity = new MultipartEntity(
+                HttpMultipartMode.BROWSER_COMPATIBLE);
+
+        for (Map.Entry<String, Object> param : postParams.entrySet()) {
+            if (param.getValue() instanceof ContentBody) {
+                mpEntity.addPart(param.getKey(), (ContentBody) param.getValue());
+            } else if (param.getValue().getClass().equals(File.class)) {
+                mpEntity.addPart(param.getKey(),
+                        _fileBody((File) param.getValue()));
+            } else {
+                StringBody stringBody = new StringBody(param.getValue()
+                        .toString(), "text/plain", Charset.forName("UTF-8"));
+                mpEntity.addPart(param.getKey(), stringBody);
+            }
+        }
+
+        return mpEntity;
+    }
+
+    /**
+     * Parse a JSON response body
+     *
+     * @param string
+     *            body The response body
+     *
+     * @return object The parsed JSON, or null if the body isn't valid JSON
+     */
+    static Object _parseJson(String body) {
+        try {
+            // JSONParser keeps state between calls, so each request gets its
+            // own
+            return new JSONParser().parse(body);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Record the pool wait of an HTTP request in the metrics sink, and have
+     * its transfer recorded once its response body is done. The bytes
+     * counted are the ones actually written and read, so chunked uploads and
+     * downloads are measured too.
+     *
+     * @param string
+     *            path The path on the server relative to the base path
+     * @param string
+     *            method This is just an addition to the path
+     * @param object
+     *            sent The counted request body, null for a GET
+     * @param object
+     *            response The response received
+     * @param long startedAt When the request was sent, in System.nanoTime()
+     *        terms
+     */
+    private void _recordExchange(String path, String method,
+            final CrocodocCountedEntity sent, HttpResponse response,
+            final long startedAt) {
+        long waitNanos = CrocodocConnectionPool._takeLeaseWaitNanos();
+        final CrocodocEndpoint endpoint = metricsSink != null ? CrocodocEndpoint
+                .of(path, method) : null;
+
+        if (endpoint == null) {
+            return;
+        }
+
+        final long sentBytes = sent != null ? sent.getBytesWritten() : 0;
+        metricsSink.recordPoolWait(endpoint, waitNanos);
+
+        if (response.getEntity() == null) {
+            metricsSink.recordTransfer(endpoint, sentBytes, 0,
+                    System.nanoTime() - startedAt);
+            return;
+        }
+
+        response.setEntity(new CrocodocStreamedEntity(response.getEntity(),
+                receivedBytes -> metricsSink.recordTransfer(endpoint,
+                        sentBytes, receivedBytes, System.nanoTime()
+                                - startedAt)));
+    }
+
+    /**
+     * Get the connection pool a request is made on: the partition of its
+     * endpoint group's bulkhead, or the client's pool
+     *
+     * @param string
+     *            path The path on the server relative to the base path
+     * @param string
+     *            method This is just an addition to the path
+     *
+     * @return object The connection pool
+     */
+    private CrocodocConnectionPool _connectionPool(String path, String method) {
+        if (!bulkheads.isEmpty()) {
+            CrocodocEndpoint endpoint = CrocodocEndpoint.of(path, method);
+            CrocodocBulkhead bulkhead = endpoint != null ? bulkheads
+                    .get(endpoint.getGroup()) : null;
+
+            if (bulkhead != null) {
+                return bulkhead._getConnectionPool();
+            }
+        }
+
+        return connectionPool;
+    }
+
+    /**
+     * Pick the error code of a failed request: "deadline_exceeded" if the
+     * thread's deadline has passed, "timeout" if a connect, read or pool
+     * timeout expired, or the given code otherwise.
+     *
+     * @param object
+     *            e The exception the request failed with
+     * @param string
+     *            code The error code of any other failure
+     *
+     * @return string The error code
+     */
+    private static String _errorCode(Exception e, String code) {
+        CrocodocDeadline deadline = CrocodocDeadline.current();
+
+        if (deadline != null && deadline.isExpired()) {
+            return "deadline_exceeded";
+        }
+
+        return e instanceof InterruptedIOException ? "timeout" : code;
+    }
+
+    /**
+     * Combine a configured timeout with the time left until a deadline
+     *
+     * @param long timeoutMillis The configured timeout, 0 for no limit
+     * @param long remainingMillis The time left until the deadline,
+     *        Long.MAX_VALUE if there is none
+     *
+     * @return int The timeout to use, 0 for no limit
+     */
+    private static int _timeout(long timeoutMillis, long remainingMillis) {
+        long timeout = timeoutMillis > 0 ? Math.min(timeoutMillis,
+                remainingMillis) : remainingMillis;
+        return timeout == Long.MAX_VALUE ? 0 : (int) Math.min(timeout,
+                Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create the multipart body of a file upload. Files are read through a
+     * FileChannel in uploadChunkSize chunks, or with FileBody if the chunk
+     * size is 0. Either way the upload throughput is recorded.
+     *
+     * @param object
+     *            file The file to upload
+     *
+     * @return object The multipart body
+     */
+    ContentBody _fileBody(File file) {
+        if (uploadChunkSize > 0) {
+            return new CrocodocFileChannelBody(file,
+                    "application/octet-stream", uploadChunkSize,
+                    uploadThroughput);
+        }
+
+        return new FileBody(file) {
+            public void writeTo(OutputStream out) throws IOException {
+                long started = System.nanoTime();
+                super.writeTo(out);
+                uploadThroughput.record(getContentLength(), System.nanoTime()
+                        - started);
+            }
+        };
+    }
+
+    /**
+     * Make an HTTP request and return an HTTPEntity object. Identical GET
+     * requests to the SINGLE_FLIGHT_ENDPOINTS that are in flight at the same
+     * time share one call and its buffered body, which is repeatable so
+     * every caller can read it.
+     *
+     * @param string
+     *            path The path on the server to make the request to relative to
+     *            the base path
+     * @param string
+     *            method This is just an addition to the path, for example, in
+     *            "/documents/upload" the method would be "upload"
+     * @param object
+     *            getParams A key-value pair of GET params
+     * @param object
+     *            postParams A key-value pair of POST params
+     *
+     * @return HTTPEntity The response is an object converted from JSON
+     * @throws CrocodocException
+     */
+    HttpEntity _requestHttpEntity(final String path, final String method,
+            final Map<String, Object> getParams,
+            final Map<String, Object> postParams) throws CrocodocException {
+        final boolean shared = _isShared(path, method, postParams);
+        CrocodocCallable<HttpEntity> call = () -> _retry(path, method,
+                postParams, () -> {
+                    HttpResponse response = _send(path, method, getParams,
+                            postParams);
+                    _checkForHttpErrors(response);
+
+                    // every caller sharing the body reads it, so it is
+                    // buffered before it is handed out
+                    return shared ? _bufferEntity(response) : response
+                            .getEntity();
+                });
+
+        return shared ? _requestShared(path, method, getParams, call,
+                entity -> entity) : call.call();
+    }
+
+    /**
+     * Make an HTTP request and return JSON. Identical GET requests to the
+     * SINGLE_FLIGHT_ENDPOINTS that are in flight at the same time share one
+     * call, and each caller gets its own copy of the parsed response.
+     *
+     * @param string
+     *            path The path on the server to make the request to relative to
+     *            the base path
+     * @param string
+     *            method This is just an addition to the path, for example, in
+     *            "/documents/upload" the method would be "upload"
+     * @param object
+     *            getParams A key-value pair of GET params
+     * @param object
+     *            postParams A key-value pair of POST params
+     *
+     * @return object The response is an object converted from JSON
+     * @throws CrocodocException
+     */
+    Object _requestJson(final String path, final String method,
+            final Map<String, Object> getParams,
+            final Map<String, Object> postParams) throws CrocodocException {
+        CrocodocCallable<Object> call = () -> _retry(path, method, postParams,
+                () -> _requestJsonOnce(path, method, getParams, postParams));
+
+        return _isShared(path, method, postParams) ? _requestShared(path,
+                method, getParams, call, CrocodocClient::_copyJson) : call
+                .call();
+    }
+
+    /**
+     * Make one HTTP request and return JSON. A 5xx response fails with its
+     * server_error code whatever its body, since load balancers and proxies
+     * answer with HTML or text; a 4xx response fails with the API's error
+     * if its body carries one, and with its server_error code otherwise.
+     *
+     * @param string
+     *            path The path on the server to make the request to relative to
+     *            the base path
+     * @param string
+     *            method This is just an addition to the path
+     * @param object
+     *            getParams A key-value pair of GET params
+     * @param object
+     *            postParams A key-value pair of POST params
+     *
+     * @return object The response is an object converted from JSON
+     * @throws CrocodocException
+     */
+    private Object _requestJsonOnce(String path, String method,
+            Map<String, Object> getParams, Map<String, Object> postParams)
+            throws CrocodocException {
+        HttpResponse response = _send(path, method, getParams, postParams);
+        int httpCode = response.getStatusLine().getStatusCode();
+
+        if (httpCode >= 500) {
+            _checkForHttpErrors(response);
+        }
+
+        HttpEntity responseEntity = response.getEntity();
+        String result = "";
+
+        try {
+            result = EntityUtils.toString(responseEntity);
+        } catch (Exception e) {
+            Map<String, Object> errorParams = new HashMap<String, Object>();
+            errorParams.put("error", e.getMessage());
+            errorParams.put("responseEntity", responseEntity);
+            errorParams.put("getParams", getParams);
+            errorParams.put("postParams", postParams);
+            Crocodoc._error(_errorCode(e, "invalid_response"), "Crocodoc",
+                    "_request", errorParams);
+        }
+
+        Object json = _parseJson(result);
+
+        if (json == null) {
+            _checkForHttpErrors(response);
+            Map<String, Object> errorParams = new HashMap<String, Object>();
+            errorParams.put("response", result);
+            errorParams.put("getParams", getParams);
+            errorParams.put("postParams", postParams);
+            Crocodoc._error("server_response_not_valid_json", "Crocodoc",
+                    "_error", errorParams);
+        }
+
+        // if the json response is not a JSONObject, return it
+        // if it is a JSONObject, we can check it for errors
+        if (!json.getClass().equals(JSONObject.class)) {
+            _checkForHttpErrors(response);
+            return json;
+        }
+
+        JSONObject jsonObject = (JSONObject) json;
+
+        if (jsonObject.containsKey("error")) {
+            String error = jsonObject.get("error").toString();
+            Map<String, Object> errorParams = new HashMap<String, Object>();
+            errorParams.put("getParams", getParams);
+            errorParams.put("postParams", postParams);
+            Crocodoc._error(error, "Crocodoc", "_error", errorParams);
+        }
+
+        _checkForHttpErrors(response);
+        return jsonObject;
+    }
+
+    /**
+     * Make a request, retrying it as the retry policy of its endpoint allows.
+     * Uploads of streams are never retried because the stream can't be read
+     * twice. Each attempt takes a token from the rate limiter of the
+     * endpoint's group, failing with "rate_limited" if none is free in time,
+     * then a permit from the group's bulkhead, failing with "bulkhead_full"
+     * if its queue is full, then a slot from the dispatcher in order of
+     * priority, then goes through the group's circuit breaker, failing with
+     * "circuit_open" while the breaker is open. The permit and slot are
+     * given back before backing off for a retry; a streamed download keeps
+     * its permit until its body has been read or closed.
+     *
+     * @param string
+     *            path The path on the server to make the request to relative to
+     *            the base path
+     * @param string
+     *            method This is just an addition to the path
+     * @param object
+     *            postParams A key-value pair of POST params
+     * @param object
+     *            call Makes one attempt of the request
+     *
+     * @return object The result of the first successful attempt
+     * @throws CrocodocException
+     *             The error of the last attempt
+     */
+    private <T> T _retry(String path, String method,
+            Map<String, Object> postParams, CrocodocCallable<T> call)
+            throws CrocodocException {
+        CrocodocEndpoint endpoint = metricsSink != null ? CrocodocEndpoint.of(
+                path, method) : null;
+        long startedAt = System.nanoTime();
+        boolean streamed = false;
+        _enter();
+
+        try {
+            T result = _retryWithTimeout(path, method, postParams, call);
+
+            if (endpoint != null) {
+                metricsSink.recordCall(endpoint, System.nanoTime() - startedAt,
+                        null);
+            }
+
+            // a streamed body is part of the call until it is read or closed
+            if (result instanceof HttpEntity
+                    && ((HttpEntity) result).isStreaming()) {
+                @SuppressWarnings("unchecked")
+                T entity = (T) new CrocodocStreamedEntity((HttpEntity) result,
+                        bytes -> _exit());
+                streamed = true;
+                return entity;
+            }
+
+            return result;
+        } catch (CrocodocException e) {
+            if (endpoint != null) {
+                metricsSink.recordCall(endpoint, System.nanoTime() - startedAt,
+                        e.getCode());
+            }
+
+            throw e;
+        } finally {
+            if (!streamed) {
+                _exit();
+            }
+        }
+    }
+
+    /**
+     * Make a request, retrying it as the retry policy of its endpoint allows
+     * within the client's request timeout, if any
+     *
+     * @param string
+     *            path The path on the server to make the request to relative to
+     *            the base path
+     * @param string
+     *            method This is just an addition to the path
+     * @param object
+     *            postParams A key-value pair of POST params
+     * @param object
+     *            call Makes one attempt of the request
+     *
+     * @return object The result of the first successful attempt
+     * @throws CrocodocException
+     *             The error of the last attempt
+     */
+    private <T> T _retryWithTimeout(String path, String method,
+            Map<String, Object> postParams, CrocodocCallable<T> call)
+            throws CrocodocException {
+        if (requestTimeoutMillis <= 0) {
+            return _retryUntilDeadline(path, method, postParams, call);
+        }
+
+        CrocodocDeadline deadline = CrocodocDeadline.start(
+                requestTimeoutMillis, TimeUnit.MILLISECONDS);
+
+        try {
+            return _retryUntilDeadline(path, method, postParams, call);
+        } finally {
+            deadline.close();
+        }
+    }
+
+    /**
+     * Make a request, retrying it as the retry policy of its endpoint allows
+     * until the thread's deadline, if any, passes. While an attempt runs, a
+     * timer aborts its HTTP request once the deadline passes.
+     *
+     * @param string
+     *            path The path on the server to make the request to relative to
+     *            the base path
+     * @param string
+     *            method This is just an addition to the path
+     * @param object
+     *            postParams A key-value pair of POST params
+     * @param object
+     *            call Makes one attempt of the request
+     *
+     * @return object The result of the first successful attempt
+     * @throws CrocodocException
+     *             The error of the last attempt
+     */
+    private <T> T _retryUntilDeadline(String path, String method,
+            Map<String, Object> postParams, CrocodocCallable<T> call)
+            throws CrocodocException {
+        CrocodocEndpoint endpoint = CrocodocEndpoint.of(path, method);
+        CrocodocRetryPolicy policy = endpoint != null ? retryPolicies
+                .get(endpoint) : CrocodocRetryPolicy.NONE;
+
+        if (postParams != null) {
+            for (Object value : postParams.values()) {
+                if (value instanceof InputStreamBody) {
+                    policy = CrocodocRetryPolicy.NONE;
+                }
+            }
+        }
+
+        CrocodocCircuitBreaker breaker = endpoint != null ? circuitBreakers
+                .get(host, endpoint.getGroup()) : null;
+        CrocodocBulkhead bulkhead = endpoint != null ? bulkheads.get(endpoint
+                .getGroup()) : null;
+        CrocodocPriority priority = endpoint != null ? CrocodocPriority
+                ._of(endpoint) : CrocodocPriority.NORMAL;
+        retryBudget._deposit();
+
+        for (int attempt = 1;; attempt++) {
+            _admit(endpoint, priority, true);
+
+            AtomicReference<HttpUriRequest> request = new AtomicReference<HttpUriRequest>();
+            ScheduledFuture<?> abortTimer = null;
+            _attempts.set(request);
+            long startedAt = System.nanoTime();
+            boolean streamed = false;
+            long backoffMillis;
+
+            try {
+                abortTimer = _scheduleAbort(request);
+                T result = call.call();
+                _recordOutcome(breaker, null);
+                _adaptLimit(endpoint, startedAt, null);
+
+                // a streamed body holds its connection from the bulkhead's
+                // partition until the caller is done with it
+                if (bulkhead != null && result instanceof HttpEntity
+                        && ((HttpEntity) result).isStreaming()) {
+                    @SuppressWarnings("unchecked")
+                    T entity = (T) new CrocodocStreamedEntity(
+                            (HttpEntity) result, bytes -> bulkhead._release());
+                    streamed = true;
+                    return entity;
+                }
+
+                return result;
+            } catch (RuntimeException e) {
+                if (breaker != null) {
+                    breaker._onFailure();
+                }
+
+                throw e;
+            } catch (CrocodocException e) {
+                _recordOutcome(breaker, e);
+                _adaptLimit(endpoint, startedAt, e);
+
+                backoffMillis = policy._backoffMillis(attempt);
+
+                // don't retry if the deadline passes before the retry starts
+                if (attempt >= policy.getMaxAttempts()
+                        || !policy.isRetryable(e)
+                        || TimeUnit.MILLISECONDS.toNanos(backoffMillis) >= CrocodocDeadline
+                                ._remainingNanos()
+                        || !retryBudget._tryWithdraw()) {
+                    throw e;
+                }
+
+                if (metricsSink != null && endpoint != null) {
+                    metricsSink.recordRetry(endpoint);
+                }
+            } finally {
+                _attempts.remove();
+
+                if (abortTimer != null) {
+                    abortTimer.cancel(false);
+                }
+
+                _dismiss(endpoint, streamed);
+            }
+
+            // back off without the permit and slot, so other calls run in
+            // the meantime; the next attempt queues for them again
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                Crocodoc._error("interrupted", "Crocodoc", "_retry", null);
+            }
+        }
+    }
+
+    /**
+     * Admit one attempt of a request: take a token from the rate limiter of
+     * the endpoint's group, a permit from its bulkhead and a slot from the
+     * dispatcher, then go through its circuit breaker. Whatever was taken is
+     * given back if a later step fails.
+     *
+     * @param object
+     *            endpoint The endpoint called, may be null
+     * @param object
+     *            priority The priority of the call
+     * @param bool wait Whether to wait until the deadline, if any, for a
+     *        token, permit or slot; otherwise the attempt is only admitted
+     *        if all are free at once
+     *
+     * @throws CrocodocException
+     */
+    private void _admit(CrocodocEndpoint endpoint, CrocodocPriority priority,
+            boolean wait) throws CrocodocException {
+        CrocodocCircuitBreaker breaker = endpoint != null ? circuitBreakers
+                .get(host, endpoint.getGroup()) : null;
+        CrocodocRateLimiter limiter = endpoint != null ? rateLimiters
+                .get(endpoint.getGroup()) : null;
+        CrocodocBulkhead bulkhead = endpoint != null ? bulkheads.get(endpoint
+                .getGroup()) : null;
+        CrocodocDeadline._check("_request");
+
+        if (limiter != null) {
+            boolean acquired = false;
+
+            try {
+                acquired = limiter._acquire(wait ? CrocodocDeadline
+                        ._remainingNanos() : 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Crocodoc._error("interrupted", "Crocodoc", "_retry", null);
+            }
+
+            if (!acquired
+                    && wait
+                    && CrocodocDeadline._remainingNanos() < TimeUnit.MILLISECONDS
+                            .toNanos(limiter.getMaxWaitMillis())) {
+                CrocodocDeadline._fail("_request");
+            }
+
+            if (!acquired) {
+                Map<String, Object> errorParams = new HashMap<String, Object>();
+                errorParams.put("group", endpoint.getGroup().toString());
+                Crocodoc._error("rate_limited", "Crocodoc", "_request",
+                        errorParams);
+            }
+        }
+
+        if (bulkhead != null) {
+            boolean acquired = false;
+
+            try {
+                acquired = bulkhead._acquire(wait ? CrocodocDeadline
+                        ._remainingNanos() : 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Crocodoc._error("interrupted", "Crocodoc", "_retry", null);
+            }
+
+            if (!acquired) {
+                CrocodocDeadline._check("_request");
+                Map<String, Object> errorParams = new HashMap<String, Object>();
+                errorParams.put("group", endpoint.getGroup().toString());
+                Crocodoc._error("bulkhead_full", "Crocodoc", "_request",
+                        errorParams);
+            }
+        }
+
+        if (dispatcher != null) {
+            boolean acquired = false;
+
+            try {
+                acquired = dispatcher._acquire(priority,
+                        wait ? CrocodocDeadline._remainingNanos() : 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (!acquired && bulkhead != null) {
+                    bulkhead._release();
+                }
+            }
+
+            if (!acquired) {
+                if (Thread.currentThread().isInterrupted()) {
+                    Crocodoc._error("interrupted", "Crocodoc", "_retry",
+                            null);
+                }
+
+                CrocodocDeadline._check("_request");
+                Crocodoc._error("dispatcher_full", "Crocodoc", "_request",
+                        null);
+            }
+        }
+
+        if (breaker != null && !breaker._tryAcquire()) {
+            if (bulkhead != null) {
+                bulkhead._release();
+            }
+
+            if (dispatcher != null) {
+                dispatcher._release();
+            }
+
+            Map<String, Object> errorParams = new HashMap<String, Object>();
+            errorParams.put("host", host);
+            errorParams.put("group", endpoint.getGroup().toString());
+            Crocodoc._error("circuit_open", "Crocodoc", "_request",
+                    errorParams);
+        }
+    }
+
+    /**
+     * Give back the bulkhead permit and dispatcher slot of an admitted
+     * attempt
+     *
+     * @param object
+     *            endpoint The endpoint called, may be null
+     * @param bool keepPermit Whether the bulkhead permit stays with a
+     *        streamed body
+     */
+    private void _dismiss(CrocodocEndpoint endpoint, boolean keepPermit) {
+        CrocodocBulkhead bulkhead = endpoint != null ? bulkheads.get(endpoint
+                .getGroup()) : null;
+
+        if (bulkhead != null && !keepPermit) {
+            bulkhead._release();
+        }
+
+        if (dispatcher != null) {
+            dispatcher._release();
+        }
+    }
+
+    /**
+     * Record the outcome of an attempt in its circuit breaker. Connection
+     * errors, timeouts and 5xx responses are failures, neutral errors
+     * change nothing, and everything else shows the API works.
+     *
+     * @param object
+     *            breaker The circuit breaker, may be null
+     * @param object
+     *            e The error of the attempt, null if it succeeded
+     */
+    private static void _recordOutcome(CrocodocCircuitBreaker breaker,
+            CrocodocException e) {
+        if (breaker == null) {
+            return;
+        }
+
+        if (e == null) {
+            breaker._onSuccess();
+        } else if (_isTransient(e)) {
+            breaker._onFailure();
+        } else if (_isNeutral(e)) {
+            breaker._onNeutral();
+        } else {
+            breaker._onSuccess();
+        }
+    }
+
+    /**
+     * Feed a completed attempt to the dispatcher's adaptive limit, if any.
+     * Attempts cut short by the caller's deadline or by the client closing
+     * say nothing about the API and are left out, as is the latency of
+     * uploads.
+     *
+     * @param object
+     *            endpoint The endpoint called, may be null
+     * @param long startedAt When the attempt started, in System.nanoTime()
+     *        terms
+     * @param object
+     *            e The error of the attempt, null if it succeeded
+     */
+    private void _adaptLimit(CrocodocEndpoint endpoint, long startedAt,
+            CrocodocException e) {
+        if (dispatcher == null
+                || (e != null && ("deadline_exceeded".equals(e.getCode())
+                        || "client_closed".equals(e.getCode()) || "executor_rejected"
+                            .equals(e.getCode())))) {
+            return;
+        }
+
+        long rttNanos = endpoint != CrocodocEndpoint.DOCUMENT_UPLOAD ? System
+                .nanoTime() - startedAt : -1;
+        dispatcher._onSample(startedAt, rttNanos, e != null && _isTransient(e));
+    }
+
+    /**
+     * Abort the request of an attempt once the thread's deadline passes
+     *
+     * @param object
+     *            request Holds the request once the attempt has made it
+     *
+     * @return object The abort timer, or null if there is no deadline
+     * @throws CrocodocException
+     *             If the scheduler refuses the timer
+     */
+    private ScheduledFuture<?> _scheduleAbort(
+            final AtomicReference<HttpUriRequest> request)
+            throws CrocodocException {
+        CrocodocDeadline deadline = CrocodocDeadline.current();
+
+        if (deadline == null) {
+            return null;
+        }
+
+        try {
+            return getScheduler().schedule(() -> _abort(request),
+                    deadline.remaining(TimeUnit.NANOSECONDS),
+                    TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            throw _rejected("_request");
+        }
+    }
+
+    /**
+     * Did a call fail because the API couldn't be reached or failed itself,
+     * rather than because of the request? Connection errors, timeouts and
+     * 5xx responses are transient.
+     *
+     * @param object
+     *            e The error of the call
+     *
+     * @return bool Whether the error is transient
+     */
+    static boolean _isTransient(CrocodocException e) {
+        String code = e.getCode();
+        return code != null
+                && (code.equals("connection_error") || code.equals("timeout") || code
+                        .startsWith("server_error_5"));
+    }
+
+    /**
+     * Did a call fail without showing whether the API works? Calls cut
+     * short by the caller's deadline, an interrupt or the client closing,
+     * and responses that couldn't be read or parsed, neither count as
+     * failures nor prove the API is up.
+     *
+     * @param object
+     *            e The error of the call
+     *
+     * @return bool Whether the error says nothing about the API
+     */
+    static boolean _isNeutral(CrocodocException e) {
+        String code = e.getCode();
+        return "deadline_exceeded".equals(code) || "interrupted".equals(code)
+                || "client_closed".equals(code)
+                || "executor_rejected".equals(code)
+                || "invalid_response".equals(code)
+                || "server_response_not_valid_json".equals(code);
+    }
+
+    /**
+     * Run an API call on this client's executor. The caller's deadline and
+     * priority, if any, apply to the call.
+     *
+     * @param object
+     *            callable The API call to run
+     *
+     * @return object A future completed with the result, or exceptionally
+     *         with the CrocodocException the call threw. Once the client is
+     *         closed the future fails with "client_closed", and if the
+     *         executor refuses the call, with "executor_rejected".
+     */
+    <T> CompletableFuture<T> _async(final CrocodocCallable<T> callable) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        final CrocodocDeadline deadline = CrocodocDeadline.current();
+        final CrocodocPriority priority = CrocodocPriority.current();
+
+        try {
+            _enter();
+        } catch (CrocodocException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        try {
+            getExecutor().execute(() -> {
+                if (future.isDone()) {
+                    _exit();
+                    return;
+                }
+
+                CrocodocDeadline previous = CrocodocDeadline._set(deadline);
+                CrocodocPriority previousPriority = CrocodocPriority
+                        ._set(priority);
+
+                try {
+                    future.complete(callable.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    CrocodocDeadline._set(previous);
+                    CrocodocPriority._set(previousPriority);
+                    _exit();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            _exit();
+            future.completeExceptionally(_rejected("_async"));
+        }
+
+        return future;
+    }
+
+    /**
+     * Wait for a future and return its result, rethrowing the
+     * CrocodocException it failed with. The wait ends with
+     * "deadline_exceeded" if the thread's deadline passes first.
+     *
+     * @param object
+     *            future The future to wait for
+     *
+     * @return object The result of the future
+     * @throws CrocodocException
+     */
+    static <T> T _await(Future<T> future) throws CrocodocException {
+        try {
+            if (CrocodocDeadline.current() == null) {
+                return future.get();
+            }
+
+            return future.get(CrocodocDeadline._remainingNanos(),
+                    TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            CrocodocDeadline._fail("_await");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Crocodoc._error("interrupted", "Crocodoc", "_await", null);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof CrocodocException) {
+                throw (CrocodocException) cause;
+            }
+
+            Map<String, Object> errorParams = new HashMap<String, Object>();
+            errorParams.put("error", String.valueOf(cause));
+            Crocodoc._error("async_error", "Crocodoc", "_await", errorParams);
+        }
+
+        return null;
+    }
+
+    /**
+     * Create a thread factory for daemon threads with a common name prefix
+     *
+     * @param string
+     *            prefix The thread name prefix
+     *
+     * @return object The thread factory
+     */
+    static ThreadFactory _threadFactory(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + "-"
+                        + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Compare two strings that may be null
+     *
+     * @return bool Whether the strings are equal
+     */
+    private static boolean _equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Builds CrocodocClient instances. A builder is not thread-safe, but the
+     * clients it builds are.
+     */
+    public static final class Builder {
+        private String apiToken;
+        private String protocol = DEFAULT_PROTOCOL;
+        private String host = DEFAULT_HOST;
+        private String basePath = DEFAULT_BASE_PATH;
+        private CrocodocConnectionPool connectionPool;
+        private boolean shareConnectionPool = false;
+        private int maxTotal = CrocodocConnectionPool.DEFAULT_MAX_TOTAL;
+        private int maxPerRoute = CrocodocConnectionPool.DEFAULT_MAX_PER_ROUTE;
+        private ExecutorService executor;
+        private int executorThreads = DEFAULT_EXECUTOR_THREADS;
+        private ScheduledExecutorService scheduler;
+        private long coalesceWindowMillis = 0;
+        private int coalesceMaxBatchSize = 100;
+        private int statusCacheSize = 0;
+        private long statusCacheTtlMillis = 0;
+        private CrocodocDiskCache diskCache;
+        private CrocodocThumbnailCache thumbnailCache;
+        private long pollInitialDelayMillis = CrocodocConversionWaiter.DEFAULT_INITIAL_DELAY_MILLIS;
+        private long pollMaxDelayMillis = CrocodocConversionWaiter.DEFAULT_MAX_DELAY_MILLIS;
+        private int pollMaxBatchSize = CrocodocConversionWaiter.DEFAULT_MAX_BATCH_SIZE;
+        private int uploadChunkSize = DEFAULT_UPLOAD_CHUNK_SIZE;
+        private boolean singleFlight = true;
+        private EnumMap<CrocodocEndpoint, CrocodocRetryPolicy> retryPolicies = new EnumMap<CrocodocEndpoint, CrocodocRetryPolicy>(
+                CrocodocEndpoint.class);
+        private CrocodocRetryBudget retryBudget;
+        private CrocodocCircuitBreakers circuitBreakers;
+        private CrocodocMetricsSink metricsSink;
+        private boolean metricsDisabled = false;
+        private EnumMap<CrocodocEndpoint.Group, int[]> bulkheads = new EnumMap<CrocodocEndpoint.Group, int[]>(
+                CrocodocEndpoint.Group.class);
+        private EnumMap<CrocodocEndpoint, Double> hedgePercentiles = new EnumMap<CrocodocEndpoint, Double>(
+                CrocodocEndpoint.class);
+        private CrocodocRetryBudget hedgeBudget;
+        private int maxConcurrentRequests = 0;
+        private CrocodocAdaptiveLimit adaptiveLimit;
+        private long priorityAgingMillis = DEFAULT_PRIORITY_AGING_MILLIS;
+        private long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+        private long readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+        private long requestTimeoutMillis = 0;
+        private EnumMap<CrocodocEndpoint.Group, CrocodocRateLimiter> rateLimiters = new EnumMap<CrocodocEndpoint.Group, CrocodocRateLimiter>(
+                CrocodocEndpoint.Group.class);
+
+        private Builder() {
+        }
+
+        /**
+         * Set the API token
+         *
+         * @param string
+         *            apiToken The API token
+         *
+         * @return object This builder
+         */
+        public Builder apiToken(String apiToken) {
+            this.apiToken = apiToken;
+            return this;
+        }
+
+        /**
+         * Set the protocol
+         *
+         * @param string
+         *            protocol The protocol, "https" by default
+         *
+         * @return object This builder
+         */
+        public Builder protocol(String protocol) {
+            this.protocol = protocol;
+            return this;
+        }
+
+        /**
+         * Set the host
+         *
+         * @param string
+         *            host The host, "crocodoc.com" by default
+         *
+         * @return object This builder
+         */
+        public Builder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        /**
+         * Set the base path
+         *
+         * @param string
+         *            basePath The base path, "/api/v2" by default
+         *
+         * @return object This builder
+         */
+        public Builder basePath(String basePath) {
+            this.basePath = basePath;
+            return this;
+        }
+
+        /**
+         * Use an existing connection pool. The client won't close it.
+         *
+         * @param object
+         *            connectionPool The connection pool
+         *
+         * @return object This builder
+         */
+        public Builder connectionPool(CrocodocConnectionPool connectionPool) {
+            this.connectionPool = connectionPool;
+            this.shareConnectionPool = false;
+            return this;
+        }
+
+        /**
+         * Set the limits of the connection pool the client creates. Ignored
+         * when an existing connection pool is used.
+         *
+         * @param int maxTotal The maximum number of connections across all
+         *        routes
+         * @param int maxPerRoute The maximum number of connections per route
+         *
+         * @return object This builder
+         */
+        public Builder maxConnections(int maxTotal, int maxPerRoute) {
+            this.maxTotal = maxTotal;
+            this.maxPerRoute = maxPerRoute;
+            this.connectionPool = null;
+            this.shareConnectionPool = false;
+            return this;
+        }
+
+        /**
+         * Use an existing executor for background work. The client won't shut
+         * it down.
+         *
+         * @param object
+         *            executor The executor
+         *
+         * @return object This builder
+         */
+        public Builder executor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Set the number of threads of the executor the client creates.
+         * Ignored when an existing executor is used.
+         *
+         * @param int executorThreads The number of threads
+         *
+         * @return object This builder
+         */
+        public Builder executorThreads(int executorThreads) {
+            if (executorThreads < 1) {
+                throw new IllegalArgumentException(
+                        "executorThreads must be positive");
+            }
+
+            this.executorThreads = executorThreads;
+            this.executor = null;
+            return this;
+        }
+
+        /**
+         * Use an existing scheduler for timed background work. The client
+         * won't shut it down.
+         *
+         * @param object
+         *            scheduler The scheduler
+         *
+         * @return object This builder
+         */
+        public Builder scheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Merge concurrent single-document status calls into batched status
+         * requests. A batch is sent once the window has passed since its first
+         * call, or as soon as it holds maxBatchSize distinct uuids.
+         *
+         * @param long windowMillis How long to collect calls for, 0 to turn
+         *        coalescing off
+         * @param int maxBatchSize The maximum number of uuids per request
+         *
+         * @return object This builder
+         */
+        public Builder coalesceStatus(long windowMillis, int maxBatchSize) {
+            if (windowMillis < 0 || maxBatchSize < 1) {
+                throw new IllegalArgumentException(
+                        "Invalid status coalescing settings");
+            }
+
+            this.coalesceWindowMillis = windowMillis;
+            this.coalesceMaxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Cache document statuses. QUEUED and PROCESSING statuses are reused
+         * for ttlMillis, while DONE and ERROR statuses are kept until they are
+         * evicted. The least recently used status is evicted once maxSize
+         * statuses are cached. The cache isn't shared with clients built from
+         * toBuilder().
+         *
+         * @param int maxSize The maximum number of statuses, 0 to turn
+         *        caching off
+         * @param long ttlMillis How long a non-terminal status is reused
+         *
+         * @return object This builder
+         */
+        public Builder statusCache(int maxSize, long ttlMillis) {
+            if (maxSize < 0 || ttlMillis < 0) {
+                throw new IllegalArgumentException(
+                        "Invalid status cache settings");
+            }
+
+            this.statusCacheSize = maxSize;
+            this.statusCacheTtlMillis = ttlMillis;
+            return this;
+        }
+
+        /**
+         * Cache downloaded documents on disk. Calls to document() are served
+         * from the cache when the same uuid and options were downloaded
+         * before. The cache can be shared by several clients.
+         *
+         * @param object
+         *            diskCache The disk cache, or null to turn caching off
+         *
+         * @return object This builder
+         */
+        public Builder diskCache(CrocodocDiskCache diskCache) {
+            this.diskCache = diskCache;
+            return this;
+        }
+
+        /**
+         * Cache thumbnails in memory. Calls to thumbnail() are served from the
+         * cache when the same uuid and size were downloaded before. The cache
+         * can be shared by several clients.
+         *
+         * @param object
+         *            thumbnailCache The thumbnail cache, or null to turn
+         *            caching off
+         *
+         * @return object This builder
+         */
+        public Builder thumbnailCache(CrocodocThumbnailCache thumbnailCache) {
+            this.thumbnailCache = thumbnailCache;
+            return this;
+        }
+
+        /**
+         * Set how documents are polled while waiting for them to finish
+         * converting. Each document is polled again after initialDelayMillis,
+         * then after twice as long each time up to maxDelayMillis.
+         *
+         * @param long initialDelayMillis The delay after the first poll
+         * @param long maxDelayMillis The longest delay between two polls
+         * @param int maxBatchSize The maximum number of uuids per request
+         *
+         * @return object This builder
+         */
+        public Builder conversionPolling(long initialDelayMillis,
+                long maxDelayMillis, int maxBatchSize) {
+            if (initialDelayMillis < 1 || maxDelayMillis < initialDelayMillis
+                    || maxBatchSize < 1) {
+                throw new IllegalArgumentException(
+                        "Invalid conversion polling settings");
+            }
+
+            this.pollInitialDelayMillis = initialDelayMillis;
+            this.pollMaxDelayMillis = maxDelayMillis;
+            this.pollMaxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Set how many bytes are read from a file and written to the
+         * connection at a time when uploading it. Large chunks are handed to
+         * the socket in a single write, which keeps large uploads cheap.
+         *
+         * @param int uploadChunkSize The chunk size in bytes, or 0 to upload
+         *        files with FileBody instead
+         *
+         * @return object This builder
+         */
+        public Builder uploadChunkSize(int uploadChunkSize) {
+            if (uploadChunkSize < 0) {
+                throw new IllegalArgumentException(
+                        "Upload chunk size can't be negative");
+            }
+
+            this.uploadChunkSize = uploadChunkSize;
+            return this;
+        }
+
+        /**
+         * Share one HTTP call between identical status, text and thumbnail
+         * requests that are in flight at the same time. The shared responses
+         * are buffered in memory. This is on by default.
+         *
+         * @param bool
+         *            singleFlight Whether identical requests are shared
+         *
+         * @return object This builder
+         */
+        public Builder singleFlight(boolean singleFlight) {
+            this.singleFlight = singleFlight;
+            return this;
+        }
+
+        /**
+         * Set how failed calls to an endpoint are retried. Idempotent
+         * endpoints (status, document, thumbnail and text) use
+         * CrocodocRetryPolicy.DEFAULT unless set otherwise; upload, delete and
+         * session create aren't retried unless a policy is set for them.
+         *
+         * @param object
+         *            endpoint The endpoint
+         * @param object
+         *            policy The retry policy, CrocodocRetryPolicy.NONE to
+         *            turn retries off
+         *
+         * @return object This builder
+         */
+        public Builder retryPolicy(CrocodocEndpoint endpoint,
+                CrocodocRetryPolicy policy) {
+            this.retryPolicies.put(endpoint, policy);
+            return this;
+        }
+
+        /**
+         * Set the budget that limits the retries of all endpoints together.
+         * The budget can be shared by several clients. By default each client
+         * gets its own CrocodocRetryBudget with the default limits.
+         *
+         * @param object
+         *            retryBudget The retry budget
+         *
+         * @return object This builder
+         */
+        public Builder retryBudget(CrocodocRetryBudget retryBudget) {
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
+        /**
+         * Set the circuit breakers calls go through. The registry can be
+         * shared by several clients. By default each client gets its own
+         * CrocodocCircuitBreakers with the default settings.
+         *
+         * @param object
+         *            circuitBreakers The circuit breaker registry
+         *
+         * @return object This builder
+         */
+        public Builder circuitBreakers(CrocodocCircuitBreakers circuitBreakers) {
+            this.circuitBreakers = circuitBreakers;
+            return this;
+        }
+
+        /**
+         * Set the sink measurements of calls are recorded in: per-endpoint
+         * latencies, errors by code, retries, connection pool waits and body
+         * sizes. By default each client gets its own CrocodocMetrics.
+         *
+         * @param object
+         *            metricsSink The metrics sink, or null to turn metrics off
+         *
+         * @return object This builder
+         */
+        public Builder metricsSink(CrocodocMetricsSink metricsSink) {
+            this.metricsSink = metricsSink;
+            this.metricsDisabled = metricsSink == null;
+            return this;
+        }
+
+        /**
+         * Limit how fast calls to an endpoint group are made. Each client gets
+         * its own token bucket, shared by all of its threads; retries take
+         * tokens too. A call that can't get a token within maxWaitMillis fails
+         * with the "rate_limited" error.
+         *
+         * @param object
+         *            group The endpoint group
+         * @param double permitsPerSecond The number of calls allowed per
+         *        second
+         * @param int burst The number of calls allowed at once after a quiet
+         *        period
+         * @param long maxWaitMillis How long a call waits for a token:
+         *        CrocodocRateLimiter.WAIT_FOREVER to block,
+         *        CrocodocRateLimiter.NO_WAIT to reject at once, or a timeout
+         *
+         * @return object This builder
+         */
+        public Builder rateLimit(CrocodocEndpoint.Group group,
+                double permitsPerSecond, int burst, long maxWaitMillis) {
+            this.rateLimiters.put(group, new CrocodocRateLimiter(
+                    permitsPerSecond, burst, maxWaitMillis));
+            return this;
+        }
+
+        /**
+         * Set the default timeouts of every call. A CrocodocDeadline started
+         * around a call can shorten them further. Connect and read timeouts
+         * fail with the "timeout" error and are retried like connection
+         * errors; the request timeout fails with "deadline_exceeded".
+         *
+         * @param long connectTimeoutMillis The time allowed to open a
+         *        connection, 0 for no limit
+         * @param long readTimeoutMillis The time allowed between two packets
+         *        of a response, 0 for no limit
+         * @param long requestTimeoutMillis The time allowed for a whole call,
+         *        including retries and waiting for a pooled connection, 0 for
+         *        no limit
+         *
+         * @return object This builder
+         */
+        public Builder timeouts(long connectTimeoutMillis,
+                long readTimeoutMillis, long requestTimeoutMillis) {
+            if (connectTimeoutMillis < 0 || readTimeoutMillis < 0
+                    || requestTimeoutMillis < 0) {
+                throw new IllegalArgumentException(
+                        "Timeouts can't be negative");
+            }
+
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.readTimeoutMillis = readTimeoutMillis;
+            this.requestTimeoutMillis = requestTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Isolate an endpoint group in a bulkhead with its own connections
+         * and concurrency permits, so a burst in one group can't starve the
+         * others. A call that finds maxQueued calls already waiting for a
+         * permit fails with the "bulkhead_full" error. Each client gets its
+         * own bulkheads.
+         *
+         * @param object
+         *            group The endpoint group
+         * @param int maxConcurrent The number of calls and connections the
+         *        group may use at once
+         * @param int maxQueued The number of calls allowed to wait for a
+         *        permit
+         *
+         * @return object This builder
+         */
+        public Builder bulkhead(CrocodocEndpoint.Group group,
+                int maxConcurrent, int maxQueued) {
+            if (maxConcurrent < 1 || maxQueued < 0) {
+                throw new IllegalArgumentException("Invalid bulkhead settings");
+            }
+
+            this.bulkheads.put(group, new int[] { maxConcurrent, maxQueued });
+            return this;
+        }
+
+        /**
+         * Limit the number of calls this client runs at once. Calls beyond
+         * the limit wait for a slot, and a freed slot goes to the waiting
+         * call with the best CrocodocPriority. Every agingMillis a call waits
+         * counts as one priority level, so BACKGROUND calls are never
+         * starved. Each client gets its own dispatcher.
+         *
+         * @param int maxConcurrent The number of calls allowed to run at
+         *        once, 0 for no limit
+         * @param long agingMillis The wait that makes up for one priority
+         *        level
+         *
+         * @return object This builder
+         */
+        public Builder maxConcurrentRequests(int maxConcurrent,
+                long agingMillis) {
+            if (maxConcurrent < 0 || agingMillis < 0) {
+                throw new IllegalArgumentException(
+                        "Invalid dispatcher settings");
+            }
+
+            this.maxConcurrentRequests = maxConcurrent;
+            this.adaptiveLimit = null;
+            this.priorityAgingMillis = agingMillis;
+            return this;
+        }
+
+        /**
+         * Limit the number of calls this client runs at once with a limit
+         * that follows the health of the API: it grows while latency is
+         * steady and shrinks when latency rises or calls fail with
+         * connection errors, timeouts or 5xx responses. Waiting calls are
+         * ordered as with a fixed limit. Each client gets its own copy of
+         * the adaptive limit, starting at its minimum.
+         *
+         * @param object
+         *            adaptiveLimit The settings of the adaptive limit
+         * @param long agingMillis The wait that makes up for one priority
+         *        level
+         *
+         * @return object This builder
+         */
+        public Builder maxConcurrentRequests(
+                CrocodocAdaptiveLimit adaptiveLimit, long agingMillis) {
+            if (agingMillis < 0) {
+                throw new IllegalArgumentException(
+                        "Invalid dispatcher settings");
+            }
+
+            this.maxConcurrentRequests = 0;
+            this.adaptiveLimit = adaptiveLimit;
+            this.priorityAgingMillis = agingMillis;
+            return this;
+        }
+
+        /**
+         * Hedge the requests to an idempotent endpoint. If a request hasn't
+         * answered after the endpoint's latency at the given percentile, an
+         * identical request is sent; the first response is used and the
+         * other request is aborted. Hedges are only sent once enough
+         * latencies have been seen, and are limited by the hedge budget.
+         *
+         * @param object
+         *            endpoint The endpoint to hedge
+         * @param double percentile The percentile of recent latencies to wait
+         *        before hedging, for example 0.95
+         *
+         * @return object This builder
+         */
+        public Builder hedge(CrocodocEndpoint endpoint, double percentile) {
+            if (!endpoint.isIdempotent()) {
+                throw new IllegalArgumentException(
+                        "Only idempotent endpoints can be hedged");
+            }
+
+            if (!(percentile > 0 && percentile < 1)) {
+                throw new IllegalArgumentException(
+                        "percentile must be between 0 and 1");
+            }
+
+            this.hedgePercentiles.put(endpoint, percentile);
+            return this;
+        }
+
+        /**
+         * Set the budget that limits hedged requests. By default each client
+         * may hedge 5% of its calls to hedged endpoints, plus one hedge per
+         * second.
+         *
+         * @param object
+         *            hedgeBudget The hedge budget
+         *
+         * @return object This builder
+         */
+        public Builder hedgeBudget(CrocodocRetryBudget hedgeBudget) {
+            this.hedgeBudget = hedgeBudget;
+            return this;
+        }
+
+        /**
+         * Build the client
+         *
+         * @return object A new client
+         */
+        public CrocodocClient build() {
+            return new CrocodocClient(this);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.crocodoc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+
+/**
+ * A pool of keep-alive HTTP connections to the Crocodoc API. One pool is meant
+ * to be shared by every request made through the Document, Download and
+ * Session clients, so connections and TLS sessions are reused instead of being
+ * set up again for every call. The pool must be closed once it is no longer
+ * needed to release its connections.
+ */
+public class CrocodocConnectionPool {
+    /**
+     * The default maximum number of connections across all routes
+     *
+     * @var int
+     */
+    public static final int DEFAULT_MAX_TOTAL = 20;
+
+    /**
+     * The default maximum number of connections per route
+     *
+     * @var int
+     */
+    public static final int DEFAULT_MAX_PER_ROUTE = 10;
+
+    /**
+     * The time the current thread's requests waited for a connection since
+     * it was last read
+     *
+     * @var object
+     */
+    private static final ThreadLocal<long[]> _leaseWaitNanos = ThreadLocal
+            .withInitial(() -> new long[1]);
+
+    /**
+     * The pooling connection manager backing the HTTP client
+     *
+     * @var object
+     */
+    private final PoolingClientConnectionManager connectionManager;
+
+    /**
+     * The HTTP client that executes requests on pooled connections
+     *
+     * @var object
+     */
+    private final DefaultHttpClient httpClient;
+
+    /**
+     * Has this pool been closed?
+     *
+     * @var bool
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * The number of clients that created or were handed this pool to close
+     * it, and haven't been closed yet
+     *
+     * @var int
+     */
+    private int owners = 0;
+
+    /**
+     * Create a connection pool with the default limits.
+     */
+    public CrocodocConnectionPool() {
+        this(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE);
+    }
+
+    /**
+     * Create a connection pool with the given limits.
+     *
+     * @param int maxTotal The maximum number of connections across all routes
+     * @param int maxPerRoute The maximum number of connections per route
+     */
+    public CrocodocConnectionPool(int maxTotal, int maxPerRoute) {
+        if (maxTotal < 1 || maxPerRoute < 1) {
+            throw new IllegalArgumentException(
+                    "Connection limits must be positive");
+        }
+
+        connectionManager = new PoolingClientConnectionManager() {
+            public ClientConnectionRequest requestConnection(HttpRoute route,
+                    Object state) {
+                return _timed(super.requestConnection(route, state));
+            }
+        };
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        httpClient = new DefaultHttpClient(connectionManager);
+    }
+
+    /**
+     * Get the HTTP client backed by this pool
+     *
+     * @return object The shared HTTP client
+     */
+    public HttpClient getHttpClient() {
+        if (closed) {
+            throw new IllegalStateException("Connection pool is closed");
+        }
+
+        return httpClient;
+    }
+
+    /**
+     * Get the maximum number of connections across all routes
+     *
+     * @return int The total connection limit
+     */
+    public int getMaxTotal() {
+        return connectionManager.getMaxTotal();
+    }
+
+    /**
+     * Set the maximum number of connections across all routes
+     *
+     * @param int maxTotal The total connection limit
+     */
+    public void setMaxTotal(int maxTotal) {
+        connectionManager.setMaxTotal(maxTotal);
+    }
+
+    /**
+     * Get the maximum number of connections per route
+     *
+     * @return int The per-route connection limit
+     */
+    public int getMaxPerRoute() {
+        return connectionManager.getDefaultMaxPerRoute();
+    }
+
+    /**
+     * Set the maximum number of connections per route
+     *
+     * @param int maxPerRoute The per-route connection limit
+     */
+    public void setMaxPerRoute(int maxPerRoute) {
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+    }
+
+    /**
+     * Close connections that have been idle for longer than the given time.
+     *
+     * @param long idleTime How long a connection may stay idle
+     * @param object unit The unit of idleTime
+     */
+    public void closeIdleConnections(long idleTime, TimeUnit unit) {
+        connectionManager.closeIdleConnections(idleTime, unit);
+    }
+
+    /**
+     * Has this pool been closed?
+     *
+     * @return bool Whether close() has been called
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close every connection in the pool. The pool can't be used afterwards.
+     */
+    public void close() {
+        closed = true;
+        connectionManager.shutdown();
+    }
+
+    /**
+     * Count a client that closes this pool once it is done with it
+     *
+     * @return bool Whether the client was counted; false if the pool has
+     *         already been closed
+     */
+    synchronized boolean _retain() {
+        if (closed) {
+            return false;
+        }
+
+        owners++;
+        return true;
+    }
+
+    /**
+     * Count a client that is done with this pool, closing it when no other
+     * client needs it
+     */
+    synchronized void _release() {
+        if (--owners == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Get the time the current thread's requests waited for a connection
+     * since the last call, and start counting again
+     *
+     * @return long The time waited in nanoseconds
+     */
+    static long _takeLeaseWaitNanos() {
+        long[] waited = _leaseWaitNanos.get();
+        long nanos = waited[0];
+        waited[0] = 0;
+        return nanos;
+    }
+
+    /**
+     * Count the time spent waiting for a connection on the thread that
+     * waits
+     *
+     * @param object
+     *            request A request for a connection from the pool
+     *
+     * @return object The request, timed
+     */
+    private static ClientConnectionRequest _timed(
+            final ClientConnectionRequest request) {
+        return new ClientConnectionRequest() {
+            public ManagedClientConnection getConnection(long timeout,
+                    TimeUnit unit) throws InterruptedException,
+                    ConnectionPoolTimeoutException {
+                long started = System.nanoTime();
+
+                try {
+                    return request.getConnection(timeout, unit);
+                } finally {
+                    _leaseWaitNanos.get()[0] += System.nanoTime() - started;
+                }
+            }
+
+            public void abortRequest() {
+                request.abortRequest();
+            }
+        };
+    }
+}
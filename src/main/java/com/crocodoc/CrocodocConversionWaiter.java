@@ -0,0 +1,481 @@
+package com.crocodoc;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Waits for documents to finish converting. One scheduled task polls the
+ * status of every pending document in batched status requests, backing off
+ * exponentially per document, and completes each waiting future as soon as
+ * its document is DONE or ERROR. A document is only polled while some
+ * caller's future is still pending, and fails its callers when a poll fails
+ * for a reason retrying won't fix.
+ */
+class CrocodocConversionWaiter {
+    /**
+     * The default delay before a document is polled again the first time
+     * 
+     * @var long
+     */
+    static final long DEFAULT_INITIAL_DELAY_MILLIS = 1000;
+
+    /**
+     * The default longest delay between two polls of a document
+     * 
+     * @var long
+     */
+    static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+
+    /**
+     * The default maximum number of uuids per status request
+     * 
+     * @var int
+     */
+    static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    /**
+     * The client status requests are made through
+     * 
+     * @var object
+     */
+    private final CrocodocClient client;
+
+    /**
+     * The delay before a document is polled again the first time, which is
+     * also how often the poller checks for due documents
+     * 
+     * @var long
+     */
+    private final long initialDelayMillis;
+
+    /**
+     * The longest delay between two polls of a document
+     * 
+     * @var long
+     */
+    private final long maxDelayMillis;
+
+    /**
+     * The maximum number of uuids per status request
+     * 
+     * @var int
+     */
+    private final int maxBatchSize;
+
+    /**
+     * The documents being waited on, by uuid
+     * 
+     * @var map
+     */
+    private final ConcurrentHashMap<String, Waiting> waiting = new ConcurrentHashMap<String, Waiting>();
+
+    /**
+     * Is a round of status requests in flight?
+     * 
+     * @var bool
+     */
+    private final AtomicBoolean polling = new AtomicBoolean(false);
+
+    /**
+     * Guards ticker
+     * 
+     * @var object
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The periodic poll task, running only while documents are waited on
+     * 
+     * @var object
+     */
+    private ScheduledFuture<?> ticker;
+
+    /**
+     * Create a conversion waiter
+     * 
+     * @param object
+     *            client The client status requests are made through
+     * @param long initialDelayMillis The delay before the second poll
+     * @param long maxDelayMillis The longest delay between two polls
+     * @param int maxBatchSize The maximum number of uuids per request
+     */
+    CrocodocConversionWaiter(CrocodocClient client, long initialDelayMillis,
+            long maxDelayMillis, int maxBatchSize) {
+        this.client = client;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Get the delay before a document is polled again the first time
+     * 
+     * @return long The delay in milliseconds
+     */
+    long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    /**
+     * Get the longest delay between two polls of a document
+     * 
+     * @return long The delay in milliseconds
+     */
+    long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * Get the maximum number of uuids per status request
+     * 
+     * @return int The maximum batch size
+     */
+    int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Wait for a document to finish converting. The document is polled on
+     * the next tick, so an already converted document completes quickly.
+     * Once every caller's future is done, for example cancelled or timed
+     * out, the document is no longer polled.
+     * 
+     * @param string
+     *            uuid The uuid of the document
+     * 
+     * @return object A future of the final status map of the document
+     */
+    CompletableFuture<Map<String, Object>> await(final String uuid) {
+        Waiting entry;
+
+        while (true) {
+            entry = waiting.get(uuid);
+
+            if (entry == null) {
+                Waiting created = new Waiting(System.currentTimeMillis(),
+                        initialDelayMillis);
+                entry = waiting.putIfAbsent(uuid, created);
+
+                if (entry == null) {
+                    entry = created;
+                }
+            }
+
+            // an entry whose last caller just left is being removed
+            if (entry._join()) {
+                break;
+            }
+        }
+
+        _startTicker();
+
+        // every caller gets its own future so cancelling one doesn't affect
+        // the others waiting on the same document
+        final Waiting joined = entry;
+        final CompletableFuture<Map<String, Object>> result = new CompletableFuture<Map<String, Object>>();
+        entry.future.whenComplete((status, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(status);
+            }
+        });
+        result.whenComplete((status, e) -> {
+            if (joined._leave()) {
+                waiting.remove(uuid, joined);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Get the number of documents still polled for some caller
+     * 
+     * @return int The number of pending documents
+     */
+    int getPendingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * Stop polling and fail every pending future with "client_closed", as
+     * the client can no longer make status requests
+     */
+    void _close() {
+        synchronized (lock) {
+            if (ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+        }
+
+        _failAll(Crocodoc._exception("client_closed", "Crocodoc",
+                "awaitConversion", null));
+    }
+
+    /**
+     * Start the periodic poll task if it isn't running. If the scheduler
+     * refuses it, every pending future fails, as nothing would poll them.
+     */
+    private void _startTicker() {
+        synchronized (lock) {
+            if (ticker != null) {
+                return;
+            }
+
+            try {
+                ticker = client.getScheduler().scheduleWithFixedDelay(
+                        () -> _tick(), 0, initialDelayMillis,
+                        TimeUnit.MILLISECONDS);
+                return;
+            } catch (RejectedExecutionException e) {
+                // fail the callers outside the lock
+            }
+        }
+
+        _failAll(client._rejected("awaitConversion"));
+    }
+
+    /**
+     * Stop waiting on every document and fail their callers
+     * 
+     * @param object
+     *            e The error to fail the callers with
+     */
+    private void _failAll(CrocodocException e) {
+        for (Map.Entry<String, Waiting> entry : waiting.entrySet()) {
+            if (waiting.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Send a round of status requests for every document that is due. The
+     * requests run on the client's executor, and a new round isn't started
+     * until the last one has finished.
+     */
+    private void _tick() {
+        if (waiting.isEmpty()) {
+            boolean stopped = false;
+
+            synchronized (lock) {
+                if (waiting.isEmpty() && ticker != null) {
+                    ticker.cancel(false);
+                    ticker = null;
+                    stopped = true;
+                }
+            }
+
+            if (stopped) {
+                client._shutdownIfIdle();
+                return;
+            }
+        }
+
+        if (!polling.compareAndSet(false, true)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        final ArrayList<String> due = new ArrayList<String>();
+
+        for (Map.Entry<String, Waiting> entry : waiting.entrySet()) {
+            if (entry.getValue().nextPollAt <= now) {
+                due.add(entry.getKey());
+            }
+        }
+
+        if (due.isEmpty()) {
+            polling.set(false);
+            return;
+        }
+
+        try {
+            client.getExecutor().execute(() -> {
+                try {
+                    for (int i = 0; i < due.size(); i += maxBatchSize) {
+                        _poll(new ArrayList<String>(due.subList(i,
+                                Math.min(i + maxBatchSize, due.size()))));
+                    }
+                } finally {
+                    polling.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            polling.set(false);
+        }
+    }
+
+    /**
+     * Poll one batch of documents, completing the converted ones and backing
+     * off the rest. A request that fails for a reason that passes, such as a
+     * connection error, a 5xx response or an open circuit breaker, backs off
+     * the whole batch and is tried again; any other failure, such as an
+     * invalid token, fails the callers.
+     * 
+     * @param array
+     *            uuids The uuids to poll
+     */
+    private void _poll(ArrayList<String> uuids) {
+        ArrayList<Map<String, Object>> statuses = null;
+
+        try {
+            statuses = client.document()._fetchStatus(uuids);
+        } catch (CrocodocException e) {
+            if (!_isTemporary(e)) {
+                _fail(uuids, e);
+                return;
+            }
+        } catch (RuntimeException e) {
+            _fail(uuids, e);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, Map<String, Object>> byUuid = statuses != null ? CrocodocDocumentClient
+                ._byUuid(statuses) : null;
+
+        for (String uuid : uuids) {
+            Waiting entry = waiting.get(uuid);
+
+            if (entry == null) {
+                continue;
+            }
+
+            Map<String, Object> status = byUuid != null ? byUuid.get(uuid)
+                    : null;
+
+            if (status != null && isFinished(status)) {
+                waiting.remove(uuid, entry);
+                entry.future.complete(status);
+            } else {
+                entry.nextPollAt = now + entry.delayMillis;
+                entry.delayMillis = Math.min(entry.delayMillis * 2,
+                        maxDelayMillis);
+            }
+        }
+    }
+
+    /**
+     * Stop waiting on a batch of documents and fail their callers
+     * 
+     * @param array
+     *            uuids The uuids that were polled
+     * @param object
+     *            e The error the poll failed with
+     */
+    private void _fail(ArrayList<String> uuids, Exception e) {
+        for (String uuid : uuids) {
+            Waiting entry = waiting.get(uuid);
+
+            if (entry != null && waiting.remove(uuid, entry)) {
+                entry.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Will a poll that failed with an error likely work later?
+     * 
+     * @param object
+     *            e The error of the poll
+     * 
+     * @return bool Whether the poll should be tried again
+     */
+    private static boolean _isTemporary(CrocodocException e) {
+        String code = e.getCode();
+        return CrocodocClient._isTransient(e) || "circuit_open".equals(code)
+                || "rate_limited".equals(code) || "bulkhead_full".equals(code)
+                || "deadline_exceeded".equals(code);
+    }
+
+    /**
+     * Is a document done converting, either successfully or not?
+     * 
+     * @param map
+     *            status The status map of the document
+     * 
+     * @return bool Whether the status is final
+     */
+    static boolean isFinished(Map<String, Object> status) {
+        Object value = status.get("status");
+        return "DONE".equals(value) || "ERROR".equals(value)
+                || status.containsKey("error");
+    }
+
+    /**
+     * A document being waited on
+     */
+    private static class Waiting {
+        /**
+         * Completed with the final status of the document
+         * 
+         * @var object
+         */
+        final CompletableFuture<Map<String, Object>> future = new CompletableFuture<Map<String, Object>>();
+
+        /**
+         * When the document should be polled next
+         * 
+         * @var long
+         */
+        volatile long nextPollAt;
+
+        /**
+         * The delay after the next poll
+         * 
+         * @var long
+         */
+        volatile long delayMillis;
+
+        /**
+         * The number of callers whose futures are pending, or -1 once the
+         * last one has left
+         * 
+         * @var int
+         */
+        private int callers = 0;
+
+        Waiting(long nextPollAt, long delayMillis) {
+            this.nextPollAt = nextPollAt;
+            this.delayMillis = delayMillis;
+        }
+
+        /**
+         * Count a caller waiting on the document
+         * 
+         * @return bool Whether the caller joined; false if the last caller
+         *         has already left and the entry is being removed
+         */
+        synchronized boolean _join() {
+            if (callers < 0) {
+                return false;
+            }
+
+            callers++;
+            return true;
+        }
+
+        /**
+         * Count a caller whose future is done
+         * 
+         * @return bool Whether it was the last caller, so the document
+         *         should no longer be polled
+         */
+        synchronized boolean _leave() {
+            if (--callers > 0) {
+                return false;
+            }
+
+            callers = -1;
+            return true;
+        }
+    }
+}
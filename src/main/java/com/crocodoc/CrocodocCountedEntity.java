@@ -0,0 +1,58 @@
+package com.crocodoc;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * A request body that counts the bytes written to the connection. Chunked
+ * uploads and streams of unknown length don't know their size up front, so
+ * this count is the only measure of what was sent.
+ */
+class CrocodocCountedEntity extends HttpEntityWrapper {
+    /**
+     * The number of bytes written so far
+     *
+     * @var long
+     */
+    private volatile long bytesWritten = 0;
+
+    /**
+     * Wrap a request body
+     *
+     * @param object
+     *            entity The body to count
+     */
+    CrocodocCountedEntity(HttpEntity entity) {
+        super(entity);
+    }
+
+    /**
+     * Get the number of bytes written
+     *
+     * @return long The byte count of every write so far
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        super.writeTo(new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesWritten++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesWritten += len;
+            }
+        });
+    }
+}
@@ -0,0 +1,180 @@
+package com.crocodoc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which the API calls made on a thread must finish. A
+ * deadline is started for a block of code and covers every call made in it,
+ * including retries, backoff, rate limit waits and waiting for a pooled
+ * connection. Calls that run out of time fail with the "deadline_exceeded"
+ * error. Async calls started in the block carry the deadline to the thread
+ * that runs them.
+ *
+ * <pre>
+ * try (CrocodocDeadline deadline = CrocodocDeadline.start(2, TimeUnit.SECONDS)) {
+ *     JSONObject status = client.document().status(uuid);
+ * }
+ * </pre>
+ *
+ * A deadline started inside another one never ends later than the outer one.
+ */
+public final class CrocodocDeadline implements AutoCloseable {
+    /**
+     * The deadline of each thread
+     *
+     * @var object
+     */
+    private static final ThreadLocal<CrocodocDeadline> _current = new ThreadLocal<CrocodocDeadline>();
+
+    /**
+     * When the deadline expires, in System.nanoTime() terms
+     *
+     * @var long
+     */
+    private final long expiresAt;
+
+    /**
+     * The deadline to restore when this one is closed
+     *
+     * @var object
+     */
+    private final CrocodocDeadline previous;
+
+    /**
+     * Create a deadline
+     *
+     * @param long expiresAt When the deadline expires, in System.nanoTime()
+     *        terms
+     * @param object
+     *            previous The deadline to restore when this one is closed
+     */
+    private CrocodocDeadline(long expiresAt, CrocodocDeadline previous) {
+        this.expiresAt = expiresAt;
+        this.previous = previous;
+    }
+
+    /**
+     * Start a deadline on the current thread. It must be closed on the same
+     * thread, which restores the deadline that was there before.
+     *
+     * @param long timeout The time left until the deadline
+     * @param object
+     *            unit The unit of timeout
+     *
+     * @return object The deadline
+     */
+    public static CrocodocDeadline start(long timeout, TimeUnit unit) {
+        CrocodocDeadline outer = _current.get();
+        long expiresAt = System.nanoTime() + unit.toNanos(timeout);
+
+        if (outer != null && outer.expiresAt - expiresAt < 0) {
+            expiresAt = outer.expiresAt;
+        }
+
+        CrocodocDeadline deadline = new CrocodocDeadline(expiresAt, outer);
+        _current.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * Get the deadline of the current thread
+     *
+     * @return object The deadline, or null if there is none
+     */
+    public static CrocodocDeadline current() {
+        return _current.get();
+    }
+
+    /**
+     * Get the time left until the deadline
+     *
+     * @param object
+     *            unit The unit of the result
+     *
+     * @return long The time left, 0 once expired
+     */
+    public long remaining(TimeUnit unit) {
+        return unit.convert(Math.max(expiresAt - System.nanoTime(), 0),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Has the deadline passed?
+     *
+     * @return bool Whether the deadline has passed
+     */
+    public boolean isExpired() {
+        return expiresAt - System.nanoTime() <= 0;
+    }
+
+    /**
+     * End the deadline and restore the one that was there before
+     */
+    public void close() {
+        if (_current.get() == this) {
+            _set(previous);
+        }
+    }
+
+    /**
+     * Replace the deadline of the current thread, to carry a deadline over to
+     * another thread
+     *
+     * @param object
+     *            deadline The new deadline, may be null
+     *
+     * @return object The deadline that was replaced
+     */
+    static CrocodocDeadline _set(CrocodocDeadline deadline) {
+        CrocodocDeadline replaced = _current.get();
+
+        if (deadline != null) {
+            _current.set(deadline);
+        } else {
+            _current.remove();
+        }
+
+        return replaced;
+    }
+
+    /**
+     * Fail with "deadline_exceeded" if the current thread's deadline has
+     * passed
+     *
+     * @param string
+     *            method The method that ran out of time
+     *
+     * @throws CrocodocException
+     */
+    static void _check(String method) throws CrocodocException {
+        CrocodocDeadline deadline = _current.get();
+
+        if (deadline != null && deadline.isExpired()) {
+            _fail(method);
+        }
+    }
+
+    /**
+     * Fail with "deadline_exceeded"
+     *
+     * @param string
+     *            method The method that ran out of time
+     *
+     * @throws CrocodocException
+     */
+    static void _fail(String method) throws CrocodocException {
+        Crocodoc._error("deadline_exceeded", "Crocodoc", method, null);
+    }
+
+    /**
+     * Get the time left until the current thread's deadline
+     *
+     * @return long The time left in nanoseconds, Long.MAX_VALUE if there is
+     *         no deadline
+     */
+    static long _remainingNanos() {
+        CrocodocDeadline deadline = _current.get();
+        return deadline != null ? deadline.remaining(TimeUnit.NANOSECONDS)
+                : Long.MAX_VALUE;
+    }
+}
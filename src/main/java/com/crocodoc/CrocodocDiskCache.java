@@ -0,0 +1,695 @@
+package com.crocodoc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * A size-bounded cache of downloaded documents on local disk, keyed by tenant,
+ * uuid, PDF flag, annotated flag and annotation filter. The tenant is a hash of
+ * the API token and host of the client, so clients with different tokens can
+ * share a cache without seeing each other's downloads. Files are written to a
+ * temporary file and renamed into place, so readers never see a partial file,
+ * and the least recently used files are deleted once the cache grows past its
+ * size limit. Cache hits are read through a FileChannel that is opened before
+ * the file can be evicted, so concurrent readers are safe.
+ *
+ * Annotated downloads change whenever annotations do, so they can be
+ * invalidated explicitly with invalidateAnnotated().
+ */
+public class CrocodocDiskCache {
+    /**
+     * The extension of cached files
+     * 
+     * @var string
+     */
+    private static final String EXTENSION = ".bin";
+
+    /**
+     * The extension of files being written
+     * 
+     * @var string
+     */
+    private static final String TEMP_EXTENSION = ".part";
+
+    /**
+     * The directory cached files are kept in
+     * 
+     * @var object
+     */
+    private final Path directory;
+
+    /**
+     * The maximum total size of the cached files
+     * 
+     * @var long
+     */
+    private final long maxBytes;
+
+    /**
+     * The cached files by file name, in access order
+     * 
+     * @var map
+     */
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>(
+            16, 0.75f, true);
+
+    /**
+     * The downloads being fetched or written, so an invalidation that comes
+     * before they are indexed keeps them out of the cache. Guarded by the
+     * index lock.
+     * 
+     * @var array
+     */
+    private final List<Pending> pending = new ArrayList<Pending>();
+
+    /**
+     * The total size of the cached files
+     * 
+     * @var long
+     */
+    private long totalBytes = 0;
+
+    /**
+     * Create a disk cache in a directory. Files already in the directory from
+     * an earlier run are kept, oldest first in the eviction order, and
+     * unfinished temporary files are deleted.
+     * 
+     * @param object
+     *            directory The directory to keep cached files in
+     * @param long maxBytes The maximum total size of the cached files
+     * @throws IOException
+     */
+    public CrocodocDiskCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        _loadIndex();
+    }
+
+    /**
+     * Get the directory cached files are kept in
+     * 
+     * @return object The cache directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the maximum total size of the cached files
+     * 
+     * @return long The size limit in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the total size of the cached files
+     * 
+     * @return long The size in bytes
+     */
+    public long getTotalBytes() {
+        synchronized (index) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * Get a cached download.
+     * 
+     * @param string
+     *            tenant The tenant of the client, from _tenant()
+     * @param string
+     *            uuid The uuid of the document
+     * @param bool
+     *            isPdf Was the file downloaded as a PDF?
+     * @param bool
+     *            isAnnotated Was the file downloaded with annotations?
+     * @param string
+     *            filter The annotation filter, may be null
+     * 
+     * @return object An HttpEntity reading the cached file, or null on a miss
+     */
+    public HttpEntity get(String tenant, String uuid, boolean isPdf,
+            boolean isAnnotated, String filter) {
+        String name = _fileName(tenant, uuid, isPdf, isAnnotated, filter);
+
+        synchronized (index) {
+            Entry entry = index.get(name);
+
+            if (entry == null) {
+                return null;
+            }
+
+            try {
+                return new CachedEntity(FileChannel.open(entry.file,
+                        StandardOpenOption.READ), entry.size);
+            } catch (IOException e) {
+                _remove(name);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Get a cached download, or fetch and store it on a miss. A download the
+     * document is invalidated during is returned but not kept.
+     * 
+     * @param string
+     *            tenant The tenant of the client, from _tenant()
+     * @param string
+     *            uuid The uuid of the document
+     * @param bool
+     *            isPdf Is the file downloaded as a PDF?
+     * @param bool
+     *            isAnnotated Is the file downloaded with annotations?
+     * @param string
+     *            filter The annotation filter, may be null
+     * @param object
+     *            fetch Downloads the file on a miss
+     * 
+     * @return object An HttpEntity reading the cached or stored file
+     * @throws CrocodocException
+     */
+    public HttpEntity getOrFetch(String tenant, String uuid, boolean isPdf,
+            boolean isAnnotated, String filter,
+            CrocodocCallable<HttpEntity> fetch) throws CrocodocException {
+        HttpEntity cached = get(tenant, uuid, isPdf, isAnnotated, filter);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        Pending write = _begin(uuid, isAnnotated);
+
+        try {
+            return _put(write, tenant, uuid, isPdf, isAnnotated, filter,
+                    fetch.call());
+        } finally {
+            _end(write);
+        }
+    }
+
+    /**
+     * Store a download in the cache and return an entity reading the stored
+     * file. The download is written to a temporary file first and renamed
+     * into place once complete.
+     * 
+     * @param string
+     *            tenant The tenant of the client, from _tenant()
+     * @param string
+     *            uuid The uuid of the document
+     * @param bool
+     *            isPdf Was the file downloaded as a PDF?
+     * @param bool
+     *            isAnnotated Was the file downloaded with annotations?
+     * @param string
+     *            filter The annotation filter, may be null
+     * @param object
+     *            entity The downloaded entity, which is fully consumed
+     * 
+     * @return object An HttpEntity reading the stored file
+     * @throws CrocodocException
+     */
+    public HttpEntity put(String tenant, String uuid, boolean isPdf,
+            boolean isAnnotated, String filter, HttpEntity entity)
+            throws CrocodocException {
+        Pending write = _begin(uuid, isAnnotated);
+
+        try {
+            return _put(write, tenant, uuid, isPdf, isAnnotated, filter,
+                    entity);
+        } finally {
+            _end(write);
+        }
+    }
+
+    /**
+     * Write a download to the cache, indexing it unless the document was
+     * invalidated since the write began
+     * 
+     * @param object
+     *            write The pending write, from _begin()
+     * 
+     * @return object An HttpEntity reading the stored file
+     * @throws CrocodocException
+     */
+    private HttpEntity _put(Pending write, String tenant, String uuid,
+            boolean isPdf, boolean isAnnotated, String filter,
+            HttpEntity entity) throws CrocodocException {
+        String name = _fileName(tenant, uuid, isPdf, isAnnotated, filter);
+        Path temp = null;
+
+        try {
+            temp = Files.createTempFile(directory, "download", TEMP_EXTENSION);
+            long size = CrocodocStreams.downloadTo(entity, temp, null);
+            Path file = directory.resolve(name);
+            _move(temp, file);
+
+            synchronized (index) {
+                if (write.invalidated) {
+                    // the caller still gets this download, read once from
+                    // the deleted file, but it isn't kept
+                    FileChannel channel = FileChannel.open(file,
+                            StandardOpenOption.READ);
+                    _deleteQuietly(file);
+                    return new CachedEntity(channel, size);
+                }
+
+                Entry previous = index.remove(name);
+
+                if (previous != null) {
+                    totalBytes -= previous.size;
+                }
+
+                index.put(name, new Entry(file, _uuidOf(name),
+                        isAnnotated, size));
+                totalBytes += size;
+
+                // open before evicting, so a file bigger than the whole cache
+                // can still be read once after it is deleted
+                FileChannel channel = FileChannel.open(file,
+                        StandardOpenOption.READ);
+                _evict();
+                return new CachedEntity(channel, size);
+            }
+        } catch (IOException e) {
+            _deleteQuietly(temp);
+            Map<String, Object> errorParams = new HashMap<String, Object>();
+            errorParams.put("error", e.getMessage());
+            errorParams.put("uuid", uuid);
+            Crocodoc._error("disk_cache_error", "CrocodocDiskCache", "put",
+                    errorParams);
+        } catch (CrocodocException e) {
+            _deleteQuietly(temp);
+            throw e;
+        }
+
+        return null;
+    }
+
+    /**
+     * Remove every cached download of a document
+     * 
+     * @param string
+     *            uuid The uuid of the document
+     */
+    public void invalidate(String uuid) {
+        _invalidate(uuid, false);
+    }
+
+    /**
+     * Remove the cached annotated downloads of a document, for example after
+     * its annotations have changed
+     * 
+     * @param string
+     *            uuid The uuid of the document
+     */
+    public void invalidateAnnotated(String uuid) {
+        _invalidate(uuid, true);
+    }
+
+    /**
+     * Remove every cached download
+     */
+    public void clear() {
+        synchronized (index) {
+            for (Pending write : pending) {
+                write.invalidated = true;
+            }
+
+            for (String name : new ArrayList<String>(index.keySet())) {
+                _remove(name);
+            }
+        }
+    }
+
+    /**
+     * Remove the cached downloads of a document, and keep the ones still
+     * being fetched or written from being indexed
+     * 
+     * @param string
+     *            uuid The uuid of the document
+     * @param bool
+     *            annotatedOnly Only remove annotated downloads?
+     */
+    private void _invalidate(String uuid, boolean annotatedOnly) {
+        String sanitized = _sanitize(uuid);
+
+        synchronized (index) {
+            for (Pending write : pending) {
+                if (write.uuid.equals(sanitized)
+                        && (!annotatedOnly || write.annotated)) {
+                    write.invalidated = true;
+                }
+            }
+
+            Iterator<Map.Entry<String, Entry>> entries = index.entrySet()
+                    .iterator();
+            List<String> names = new ArrayList<String>();
+
+            while (entries.hasNext()) {
+                Entry entry = entries.next().getValue();
+
+                if (entry.uuid.equals(sanitized)
+                        && (!annotatedOnly || entry.annotated)) {
+                    names.add(entry.file.getFileName().toString());
+                }
+            }
+
+            for (String name : names) {
+                _remove(name);
+            }
+        }
+    }
+
+    /**
+     * Start tracking a download that is about to be fetched or written
+     * 
+     * @return object The pending write
+     */
+    private Pending _begin(String uuid, boolean isAnnotated) {
+        Pending write = new Pending(_sanitize(uuid), isAnnotated);
+
+        synchronized (index) {
+            pending.add(write);
+        }
+
+        return write;
+    }
+
+    /**
+     * Stop tracking a download once it is indexed or has failed
+     * 
+     * @param object
+     *            write The pending write, from _begin()
+     */
+    private void _end(Pending write) {
+        synchronized (index) {
+            pending.remove(write);
+        }
+    }
+
+    /**
+     * Delete least recently used files until the cache fits its size limit.
+     * Must be called while holding the index lock.
+     */
+    private void _evict() {
+        Iterator<String> names = index.keySet().iterator();
+        List<String> evicted = new ArrayList<String>();
+        long size = totalBytes;
+
+        while (size > maxBytes && names.hasNext()) {
+            String name = names.next();
+            size -= index.get(name).size;
+            evicted.add(name);
+        }
+
+        for (String name : evicted) {
+            _remove(name);
+        }
+    }
+
+    /**
+     * Remove one file from the cache. Must be called while holding the index
+     * lock.
+     * 
+     * @param string
+     *            name The file name
+     */
+    private void _remove(String name) {
+        Entry entry = index.remove(name);
+
+        if (entry != null) {
+            totalBytes -= entry.size;
+            _deleteQuietly(entry.file);
+        }
+    }
+
+    /**
+     * Index the files left in the cache directory by an earlier run
+     * 
+     * @throws IOException
+     */
+    private void _loadIndex() throws IOException {
+        List<Path> files = new ArrayList<Path>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+
+                if (name.endsWith(TEMP_EXTENSION)) {
+                    _deleteQuietly(file);
+                } else if (name.endsWith(EXTENSION)
+                        && name.split("\\.").length == 4) {
+                    files.add(file);
+                }
+            }
+        }
+
+        final Map<Path, Long> modified = new HashMap<Path, Long>();
+
+        for (Path file : files) {
+            modified.put(file, Files.getLastModifiedTime(file).toMillis());
+        }
+
+        Collections.sort(files, (a, b) -> Long.compare(modified.get(a),
+                modified.get(b)));
+
+        synchronized (index) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long size = Files.size(file);
+                boolean annotated = name.split("\\.")[1].charAt(1) == 'a';
+                index.put(name, new Entry(file, _uuidOf(name), annotated, size));
+                totalBytes += size;
+            }
+
+            _evict();
+        }
+    }
+
+    /**
+     * Rename a finished temporary file into place, atomically if the file
+     * system supports it
+     * 
+     * @throws IOException
+     */
+    private static void _move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Build the cache file name of a download. The name keeps the uuid so
+     * downloads can be found by document, and hashes the tenant and filter
+     * so any filter string gives a safe name.
+     * 
+     * @return string The file name
+     */
+    static String _fileName(String tenant, String uuid, boolean isPdf,
+            boolean isAnnotated, String filter) {
+        return _sanitize(uuid) + "." + (isPdf ? "p" : "o")
+                + (isAnnotated ? "a" : "n") + "."
+                + _hash(tenant + "\n" + (filter == null ? "" : filter))
+                + EXTENSION;
+    }
+
+    /**
+     * Build the tenant of a client, which keeps the cached downloads of
+     * different API tokens and hosts apart
+     * 
+     * @param string
+     *            apiToken The API token of the client
+     * @param string
+     *            host The host of the client
+     * 
+     * @return string A hash of the token and host
+     */
+    static String _tenant(String apiToken, String host) {
+        return _hash(apiToken + "@" + host);
+    }
+
+    /**
+     * Get the uuid part of a cache file name
+     */
+    private static String _uuidOf(String name) {
+        return name.substring(0, name.indexOf('.'));
+    }
+
+    /**
+     * Replace anything but letters, digits and dashes in a uuid
+     */
+    private static String _sanitize(String uuid) {
+        return uuid.replaceAll("[^A-Za-z0-9-]", "_");
+    }
+
+    /**
+     * Hash a string to 32 hex characters
+     */
+    private static String _hash(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(value.getBytes(Charset
+                    .forName("UTF-8")));
+            StringBuilder sb = new StringBuilder();
+
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format("%02x", hash[i]));
+            }
+
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Delete a file, ignoring failures
+     */
+    private static void _deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * A file in the cache
+     */
+    private static class Entry {
+        final Path file;
+        final String uuid;
+        final boolean annotated;
+        final long size;
+
+        Entry(Path file, String uuid, boolean annotated, long size) {
+            this.file = file;
+            this.uuid = uuid;
+            this.annotated = annotated;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A download being fetched or written
+     */
+    private static class Pending {
+        final String uuid;
+        final boolean annotated;
+        boolean invalidated = false;
+
+        Pending(String uuid, boolean annotated) {
+            this.uuid = uuid;
+            this.annotated = annotated;
+        }
+    }
+
+    /**
+     * An entity reading a cached file through a FileChannel that was opened
+     * when the entity was created
+     */
+    static class CachedEntity extends AbstractHttpEntity {
+        private final FileChannel channel;
+        private final long size;
+
+        CachedEntity(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        public long getContentLength() {
+            return size;
+        }
+
+        public InputStream getContent() throws IOException {
+            return Channels.newInputStream(channel);
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            try {
+                transferTo(Channels.newChannel(out));
+            } finally {
+                channel.close();
+            }
+        }
+
+        public boolean isStreaming() {
+            return channel.isOpen();
+        }
+
+        /**
+         * Close the file channel
+         */
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+
+        /**
+         * Copy the whole file to a channel with FileChannel.transferTo
+         * 
+         * @return long The number of bytes copied
+         * @throws IOException
+         */
+        long transferTo(WritableByteChannel target) throws IOException {
+            long position = 0;
+
+            while (position < size) {
+                long count = channel.transferTo(position, size - position,
+                        target);
+
+                if (count <= 0) {
+                    break;
+                }
+
+                position += count;
+            }
+
+            return position;
+        }
+    }
+}
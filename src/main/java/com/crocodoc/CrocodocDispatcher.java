@@ -0,0 +1,385 @@
+package com.crocodoc;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many API calls a client runs at once and decides which waiting
+ * call goes next by priority. A waiting call is ranked by the time it started
+ * waiting plus agingMillis for each level below INTERACTIVE, so a BACKGROUND
+ * call goes ahead of INTERACTIVE calls that arrive more than 2 * agingMillis
+ * after it. High-priority calls go first, and low-priority calls still get
+ * through.
+ *
+ * The limit is either fixed or set by a CrocodocAdaptiveLimit from the
+ * latency and errors of completed calls. When an adaptive limit drops below
+ * the number of calls running, the calls over the limit finish and no new
+ * call starts until the count is under the limit.
+ */
+public class CrocodocDispatcher {
+    /**
+     * The number of calls allowed to run at once
+     * 
+     * @var int
+     */
+    private volatile int limit;
+
+    /**
+     * Moves the limit with the health of the API, may be null
+     * 
+     * @var object
+     */
+    private final CrocodocAdaptiveLimit adaptiveLimit;
+
+    /**
+     * The wait that makes up for one priority level
+     * 
+     * @var long
+     */
+    private final long agingMillis;
+
+    /**
+     * Guards the running count and the queue
+     * 
+     * @var object
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The waiting calls, best ranked first
+     * 
+     * @var object
+     */
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<Waiter>();
+
+    /**
+     * The number of calls running
+     * 
+     * @var int
+     */
+    private int active = 0;
+
+    /**
+     * Breaks ties between calls ranked the same
+     * 
+     * @var object
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * The number of calls dispatched, by priority
+     * 
+     * @var array
+     */
+    private final LongAdder[] dispatched = _adders();
+
+    /**
+     * The total time calls waited in the queue, by priority
+     * 
+     * @var array
+     */
+    private final LongAdder[] waitNanos = _adders();
+
+    /**
+     * The number of calls waiting, by priority
+     * 
+     * @var array
+     */
+    private final int[] queued = new int[CrocodocPriority.values().length];
+
+    /**
+     * Create a dispatcher with a fixed limit
+     * 
+     * @param int maxConcurrent The number of calls allowed to run at once
+     * @param long agingMillis The wait that makes up for one priority level
+     */
+    CrocodocDispatcher(int maxConcurrent, long agingMillis) {
+        this.limit = maxConcurrent;
+        this.adaptiveLimit = null;
+        this.agingMillis = agingMillis;
+    }
+
+    /**
+     * Create a dispatcher with an adaptive limit
+     * 
+     * @param object
+     *            adaptiveLimit Moves the limit with the health of the API
+     * @param long agingMillis The wait that makes up for one priority level
+     */
+    CrocodocDispatcher(CrocodocAdaptiveLimit adaptiveLimit, long agingMillis) {
+        this.limit = adaptiveLimit.getLimit();
+        this.adaptiveLimit = adaptiveLimit;
+        this.agingMillis = agingMillis;
+    }
+
+    /**
+     * Get the number of calls allowed to run at once
+     * 
+     * @return int The concurrency limit, which changes over time if it is
+     *         adaptive
+     */
+    public int getMaxConcurrent() {
+        return limit;
+    }
+
+    /**
+     * Get the adaptive limit
+     * 
+     * @return object The adaptive limit, or null if the limit is fixed
+     */
+    public CrocodocAdaptiveLimit getAdaptiveLimit() {
+        return adaptiveLimit;
+    }
+
+    /**
+     * Get the wait that makes up for one priority level
+     * 
+     * @return long The aging time in milliseconds
+     */
+    public long getAgingMillis() {
+        return agingMillis;
+    }
+
+    /**
+     * Get the number of calls running
+     * 
+     * @return int The active call count
+     */
+    public int getActive() {
+        lock.lock();
+
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of calls waiting at a priority
+     * 
+     * @param object
+     *            priority The priority
+     * 
+     * @return int The queued call count
+     */
+    public int getQueued(CrocodocPriority priority) {
+        lock.lock();
+
+        try {
+            return queued[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of calls dispatched at a priority
+     * 
+     * @param object
+     *            priority The priority
+     * 
+     * @return long The dispatched call count
+     */
+    public long getDispatched(CrocodocPriority priority) {
+        return dispatched[priority.ordinal()].sum();
+    }
+
+    /**
+     * Get the total time calls of a priority waited in the queue
+     * 
+     * @param object
+     *            priority The priority
+     * @param object
+     *            unit The unit of the result
+     * 
+     * @return long The total queue wait
+     */
+    public long getQueueWait(CrocodocPriority priority, TimeUnit unit) {
+        return unit.convert(waitNanos[priority.ordinal()].sum(),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the average time calls of a priority waited in the queue
+     * 
+     * @param object
+     *            priority The priority
+     * 
+     * @return double The average queue wait in milliseconds
+     */
+    public double getAverageQueueWaitMillis(CrocodocPriority priority) {
+        long count = dispatched[priority.ordinal()].sum();
+        return count > 0 ? waitNanos[priority.ordinal()].sum() / 1e6 / count
+                : 0;
+    }
+
+    /**
+     * Wait for a slot to run a call in
+     * 
+     * @param object
+     *            priority The priority of the call
+     * @param long limitNanos The longest time to wait, for example the time
+     *        left until a deadline
+     * 
+     * @return bool Whether a slot was given; false if the wait timed out
+     * @throws InterruptedException
+     */
+    boolean _acquire(CrocodocPriority priority, long limitNanos)
+            throws InterruptedException {
+        int level = priority.ordinal();
+        long started = System.nanoTime();
+        lock.lock();
+
+        try {
+            if (active < limit && queue.isEmpty()) {
+                active++;
+                dispatched[level].increment();
+                return true;
+            }
+
+            Waiter waiter = new Waiter(level, started
+                    + TimeUnit.MILLISECONDS.toNanos(agingMillis) * level,
+                    sequence.getAndIncrement(), lock.newCondition());
+            queue.add(waiter);
+            queued[level]++;
+
+            try {
+                long remaining = limitNanos;
+
+                while (!waiter.granted) {
+                    if (remaining <= 0) {
+                        queue.remove(waiter);
+                        return false;
+                    }
+
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    _release();
+                } else {
+                    queue.remove(waiter);
+                }
+
+                throw e;
+            } finally {
+                queued[level]--;
+            }
+
+            dispatched[level].increment();
+            waitNanos[level].add(System.nanoTime() - started);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give a slot back, handing it to the best ranked waiting call unless
+     * the limit has dropped below the number of calls running
+     */
+    void _release() {
+        lock.lock();
+
+        try {
+            Waiter next = active <= limit ? queue.poll() : null;
+
+            if (next != null) {
+                _grant(next);
+            } else {
+                active--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Update an adaptive limit with a completed call, before its slot is
+     * given back, and start waiting calls if the limit went up
+     * 
+     * @param long startedAt When the call started, in System.nanoTime() terms
+     * @param long rttNanos How long the call took, -1 if its latency doesn't
+     *        count
+     * @param bool overloaded Whether the call failed because the API is
+     *        unavailable or overloaded
+     */
+    void _onSample(long startedAt, long rttNanos, boolean overloaded) {
+        if (adaptiveLimit == null) {
+            return;
+        }
+
+        lock.lock();
+
+        try {
+            limit = adaptiveLimit._onSample(startedAt, rttNanos, active,
+                    overloaded);
+
+            while (active < limit && !queue.isEmpty()) {
+                active++;
+                _grant(queue.poll());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hand a slot to a waiting call. The caller holds the lock.
+     * 
+     * @param object
+     *            waiter The waiting call
+     */
+    private void _grant(Waiter waiter) {
+        waiter.granted = true;
+        waiter.condition.signal();
+    }
+
+    /**
+     * Create one counter per priority
+     * 
+     * @return array The counters
+     */
+    private static LongAdder[] _adders() {
+        LongAdder[] adders = new LongAdder[CrocodocPriority.values().length];
+
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+
+        return adders;
+    }
+
+    /**
+     * A call waiting for a slot
+     */
+    private static class Waiter implements Comparable<Waiter> {
+        final int level;
+        final long rank;
+        final long sequence;
+        final Condition condition;
+        boolean granted = false;
+
+        Waiter(int level, long rank, long sequence, Condition condition) {
+            this.level = level;
+            this.rank = rank;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+
+        public int compareTo(Waiter other) {
+            long diff = rank - other.rank;
+
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
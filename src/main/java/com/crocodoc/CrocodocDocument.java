@@ -1,24 +1,27 @@
 package com.crocodoc;
 
 import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Map;
-import java.util.HashMap;
-
-import org.apache.commons.lang3.StringUtils;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides access to the Crocodoc Document API. The Document API is used for
- * uploading, checking status, and deleting documents.
+ * uploading, checking status, and deleting documents. These static methods use
+ * the default client; see CrocodocClient.document() for the instance API.
  */
 public class CrocodocDocument extends Crocodoc {
     /**
      * The Document API path relative to the base API path
      * 
      * @var string
+     * @deprecated Never read: the Document API is always called at this path
+     *             under basePath, so changing it has no effect.
      */
+    @Deprecated
     public static String path = "/document/";
 
     /**
@@ -31,9 +34,7 @@ public class CrocodocDocument extends Crocodoc {
      * @throws CrocodocException
      */
     public static Boolean delete(String uuid) throws CrocodocException {
-        Map<String, Object> postParams = new HashMap<String, Object>();
-        postParams.put("uuid", uuid);
-        return (Boolean) _requestJson(path, "delete", null, postParams);
+        return _getDefaultClient().document().delete(uuid);
     }
 
     /**
@@ -49,17 +50,7 @@ public class CrocodocDocument extends Crocodoc {
      */
     public static Map<String, Object> status(String uuid)
             throws CrocodocException {
-        ArrayList<String> uuids = new ArrayList<String>();
-        uuids.add(uuid);
-        ArrayList<Map<String, Object>> statuses = status(uuids);
-        Map<String, Object> status = statuses.get(0);
-
-        if (!status.containsKey("uuid") || status.get("uuid") == null
-                || status.get("uuid") == "") {
-            _error("missing_uuid", "CrocodocDocument", "status", status);
-        }
-
-        return status;
+        return _getDefaultClient().document().status(uuid);
     }
 
     /**
@@ -76,14 +67,7 @@ public class CrocodocDocument extends Crocodoc {
      */
     public static ArrayList<Map<String, Object>> status(ArrayList<String> uuids)
             throws CrocodocException {
-        Map<String, Object> getParams = new HashMap<String, Object>();
-        String uuidsString = StringUtils.join(uuids, ",");
-        getParams.put("uuids", uuidsString);
-        JSONArray response = (JSONArray) _requestJson(path, "status",
-                getParams, null);
-        @SuppressWarnings("unchecked")
-        ArrayList<Map<String, Object>> responseArray = (ArrayList<Map<String, Object>>) response;
-        return responseArray;
+        return _getDefaultClient().document().status(uuids);
     }
 
     /**
@@ -96,16 +80,7 @@ public class CrocodocDocument extends Crocodoc {
      * @throws CrocodocException
      */
     public static String upload(String url) throws CrocodocException {
-        Map<String, Object> postParams = new HashMap<String, Object>();
-        postParams.put("url", url);
-        JSONObject response = (JSONObject) _requestJson(path, "upload", null,
-                postParams);
-
-        if (!response.containsKey("uuid")) {
-            _error("missing_uuid", "CrocodocDocument", "upload", response);
-        }
-
-        return response.get("uuid").toString();
+        return _getDefaultClient().document().upload(url);
     }
 
     /**
@@ -118,15 +93,157 @@ public class CrocodocDocument extends Crocodoc {
      * @throws CrocodocException
      */
     public static String upload(File file) throws CrocodocException {
-        Map<String, Object> postParams = new HashMap<String, Object>();
-        postParams.put("file", file);
-        JSONObject response = (JSONObject) _requestJson(path, "upload", null,
-                postParams);
+        return _getDefaultClient().document().upload(file);
+    }
+
+    /**
+     * Upload a file to Crocodoc from a stream of unknown length.
+     * 
+     * @see CrocodocDocumentClient#upload(InputStream, String)
+     */
+    public static String upload(InputStream in, String filename)
+            throws CrocodocException {
+        return _getDefaultClient().document().upload(in, filename);
+    }
+
+    /**
+     * Upload a file to Crocodoc from a stream.
+     * 
+     * @see CrocodocDocumentClient#upload(InputStream, long, String)
+     */
+    public static String upload(InputStream in, long length, String filename)
+            throws CrocodocException {
+        return _getDefaultClient().document().upload(in, length, filename);
+    }
+
+    /**
+     * Upload a file to Crocodoc from memory.
+     * 
+     * @see CrocodocDocumentClient#upload(byte[], String)
+     */
+    public static String upload(byte[] bytes, String filename)
+            throws CrocodocException {
+        return _getDefaultClient().document().upload(bytes, filename);
+    }
+
+    /**
+     * Upload a file to Crocodoc from a buffer.
+     * 
+     * @see CrocodocDocumentClient#upload(ByteBuffer, String)
+     */
+    public static String upload(ByteBuffer buffer, String filename)
+            throws CrocodocException {
+        return _getDefaultClient().document().upload(buffer, filename);
+    }
+
+    /**
+     * Delete a file on Crocodoc by UUID without blocking.
+     * 
+     * @see CrocodocDocumentClient#deleteAsync(String)
+     */
+    public static CompletableFuture<Boolean> deleteAsync(String uuid) {
+        return _getDefaultClient().document().deleteAsync(uuid);
+    }
+
+    /**
+     * Check the status of a file on Crocodoc by UUID without blocking.
+     * 
+     * @see CrocodocDocumentClient#statusAsync(String)
+     */
+    public static CompletableFuture<Map<String, Object>> statusAsync(
+            String uuid) {
+        return _getDefaultClient().document().statusAsync(uuid);
+    }
+
+    /**
+     * Check the status of several files on Crocodoc without blocking.
+     * 
+     * @see CrocodocDocumentClient#statusAsync(ArrayList)
+     */
+    public static CompletableFuture<ArrayList<Map<String, Object>>> statusAsync(
+            ArrayList<String> uuids) {
+        return _getDefaultClient().document().statusAsync(uuids);
+    }
 
-        if (!response.containsKey("uuid")) {
-            _error("missing_uuid", "CrocodocDocument", "upload", response);
-        }
+    /**
+     * Upload a file to Crocodoc with a URL without blocking.
+     * 
+     * @see CrocodocDocumentClient#uploadAsync(String)
+     */
+    public static CompletableFuture<String> uploadAsync(String url) {
+        return _getDefaultClient().document().uploadAsync(url);
+    }
 
-        return response.get("uuid").toString();
+    /**
+     * Upload a file to Crocodoc without blocking.
+     * 
+     * @see CrocodocDocumentClient#uploadAsync(File)
+     */
+    public static CompletableFuture<String> uploadAsync(File file) {
+        return _getDefaultClient().document().uploadAsync(file);
+    }
+
+    /**
+     * Upload a file to Crocodoc from a stream of unknown length without
+     * blocking.
+     * 
+     * @see CrocodocDocumentClient#uploadAsync(InputStream, String)
+     */
+    public static CompletableFuture<String> uploadAsync(InputStream in,
+            String filename) {
+        return _getDefaultClient().document().uploadAsync(in, filename);
+    }
+
+    /**
+     * Upload a file to Crocodoc from a stream without blocking.
+     * 
+     * @see CrocodocDocumentClient#uploadAsync(InputStream, long, String)
+     */
+    public static CompletableFuture<String> uploadAsync(InputStream in,
+            long length, String filename) {
+        return _getDefaultClient().document().uploadAsync(in, length,
+                filename);
+    }
+
+    /**
+     * Upload a file to Crocodoc from memory without blocking.
+     * 
+     * @see CrocodocDocumentClient#uploadAsync(byte[], String)
+     */
+    public static CompletableFuture<String> uploadAsync(byte[] bytes,
+            String filename) {
+        return _getDefaultClient().document().uploadAsync(bytes, filename);
+    }
+
+    /**
+     * Upload a file to Crocodoc from a buffer without blocking.
+     * 
+     * @see CrocodocDocumentClient#uploadAsync(ByteBuffer, String)
+     */
+    public static CompletableFuture<String> uploadAsync(ByteBuffer buffer,
+            String filename) {
+        return _getDefaultClient().document().uploadAsync(buffer, filename);
+    }
+
+    /**
+     * Wait for a document to finish converting without blocking.
+     * 
+     * @see CrocodocDocumentClient#awaitConversion(String)
+     */
+    public static CompletableFuture<Map<String, Object>> awaitConversion(
+            String uuid) {
+        return _getDefaultClient().document().awaitConversion(uuid);
+    }
+
+    /**
+     * Wait for a document to finish converting without blocking, giving up
+     * after a timeout.
+     * 
+     * @see CrocodocDocumentClient#awaitConversion(String, long, TimeUnit)
+     */
+    public static CompletableFuture<Map<String, Object>> awaitConversion(
+            String uuid, long timeout, TimeUnit unit) {
+        return _getDefaultClient().document().awaitConversion(uuid, timeout,
+                unit);
     }
 }
@@ -0,0 +1,578 @@
+package com.crocodoc;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * The Document API of one CrocodocClient. The Document API is used for
+ * uploading, checking status, and deleting documents.
+ */
+public class CrocodocDocumentClient {
+    /**
+     * The Document API path relative to the base API path
+     * 
+     * @var string
+     */
+    static final String PATH = "/document/";
+
+    /**
+     * The client requests are made through
+     * 
+     * @var object
+     */
+    private final CrocodocClient client;
+
+    /**
+     * Create the Document API of a client
+     * 
+     * @param object
+     *            client The client requests are made through
+     */
+    CrocodocDocumentClient(CrocodocClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Delete a file on Crocodoc by UUID.
+     * 
+     * @param string
+     *            uuid The uuid of the file to delete
+     * 
+     * @return boolean Was the file deleted?
+     * @throws CrocodocException
+     */
+    public Boolean delete(String uuid) throws CrocodocException {
+        Map<String, Object> postParams = new HashMap<String, Object>();
+        postParams.put("uuid", uuid);
+        Boolean deleted = (Boolean) client._requestJson(PATH, "delete", null,
+                postParams);
+        CrocodocStatusCache cache = client.getStatusCache();
+
+        if (cache != null) {
+            cache.invalidate(uuid);
+        }
+
+        if (client.getDiskCache() != null) {
+            client.getDiskCache().invalidate(uuid);
+        }
+
+        if (client.getThumbnailCache() != null) {
+            client.getThumbnailCache().invalidate(uuid);
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Check the status of a file on Crocodoc by UUID. Takes one UUID string and
+     * returns one status array for that UUID. If the client caches statuses, a
+     * cached status is returned without a request. If the client coalesces
+     * status calls, the uuid is sent in a batch with other concurrent calls.
+     * 
+     * @param string
+     *            uuid The uuid of the file to check the status of
+     * 
+     * @return map A map of the uuid, status, and viewable bool, or a
+     *         map of the uuid and an error
+     * @throws CrocodocException
+     */
+    public Map<String, Object> status(String uuid) throws CrocodocException {
+        CrocodocStatusCache cache = client.getStatusCache();
+        Map<String, Object> cached = cache != null ? cache.get(uuid) : null;
+
+        if (cached != null) {
+            return cached;
+        }
+
+        CrocodocStatusCoalescer coalescer = client._getStatusCoalescer();
+
+        if (coalescer != null) {
+            return CrocodocClient._await(coalescer.submit(uuid));
+        }
+
+        ArrayList<String> uuids = new ArrayList<String>();
+        uuids.add(uuid);
+        ArrayList<Map<String, Object>> statuses = status(uuids);
+        Map<String, Object> status = statuses.isEmpty() ? null : statuses
+                .get(0);
+
+        if (status == null) {
+            Crocodoc._error("missing_uuid", "CrocodocDocument", "status",
+                    status);
+        }
+
+        if (!status.containsKey("uuid") || status.get("uuid") == null
+                || status.get("uuid") == "") {
+            Crocodoc._error("missing_uuid", "CrocodocDocument", "status",
+                    status);
+        }
+
+        return status;
+    }
+
+    /**
+     * Check the status of a file on Crocodoc by UUID. Takes an array of UUIDs
+     * and return an array of status arrays about those UUIDs. If the client
+     * caches statuses, only the UUIDs without a valid cached status are
+     * requested, and statuses are matched to UUIDs by the "uuid" field of
+     * each returned status; a UUID the server returns no status for is left
+     * out.
+     * 
+     * @param array
+     *            uuids An array of the uuids of the file to check the status of
+     * 
+     * @return array An array of maps of the uuid, status, and viewable bool, or an
+     *         array of maps of the uuid and an error
+     * @throws CrocodocException
+     */
+    public ArrayList<Map<String, Object>> status(ArrayList<String> uuids)
+            throws CrocodocException {
+        CrocodocStatusCache cache = client.getStatusCache();
+
+        if (cache == null) {
+            return _fetchStatus(uuids);
+        }
+
+        ArrayList<Map<String, Object>> statuses = new ArrayList<Map<String, Object>>(
+                uuids.size());
+        ArrayList<String> misses = new ArrayList<String>();
+
+        for (String uuid : uuids) {
+            Map<String, Object> status = cache.get(uuid);
+            statuses.add(status);
+
+            if (status == null) {
+                misses.add(uuid);
+            }
+        }
+
+        if (misses.isEmpty()) {
+            return statuses;
+        }
+
+        Map<String, Map<String, Object>> fetched = _byUuid(_fetchStatus(misses));
+        ArrayList<Map<String, Object>> merged = new ArrayList<Map<String, Object>>(
+                uuids.size());
+
+        for (int i = 0; i < uuids.size(); i++) {
+            Map<String, Object> status = statuses.get(i) != null ? statuses
+                    .get(i) : fetched.get(uuids.get(i));
+
+            if (status != null) {
+                merged.add(status);
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * Request the status of files from Crocodoc, bypassing the status cache
+     * but refreshing it with the statuses that come back, each under the
+     * uuid it names.
+     * 
+     * @param array
+     *            uuids An array of the uuids of the file to check the status of
+     * 
+     * @return array An array of status maps as the server returned them
+     * @throws CrocodocException
+     */
+    ArrayList<Map<String, Object>> _fetchStatus(ArrayList<String> uuids)
+            throws CrocodocException {
+        Map<String, Object> getParams = new HashMap<String, Object>();
+        String uuidsString = StringUtils.join(uuids, ",");
+        getParams.put("uuids", uuidsString);
+        JSONArray response = (JSONArray) client._requestJson(PATH, "status",
+                getParams, null);
+        @SuppressWarnings("unchecked")
+        ArrayList<Map<String, Object>> responseArray = (ArrayList<Map<String, Object>>) response;
+        CrocodocStatusCache cache = client.getStatusCache();
+
+        if (cache != null) {
+            for (Map.Entry<String, Map<String, Object>> entry : _byUuid(
+                    responseArray).entrySet()) {
+                cache.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return responseArray;
+    }
+
+    /**
+     * Index status maps by the uuid each one names. Statuses without a uuid
+     * are left out.
+     * 
+     * @param array
+     *            statuses The status maps returned by the server
+     * 
+     * @return map The status maps by uuid
+     */
+    static Map<String, Map<String, Object>> _byUuid(
+            List<Map<String, Object>> statuses) {
+        Map<String, Map<String, Object>> byUuid = new HashMap<String, Map<String, Object>>(
+                statuses.size() * 2);
+
+        for (Map<String, Object> status : statuses) {
+            Object uuid = status != null ? status.get("uuid") : null;
+
+            if (uuid != null && !"".equals(uuid)) {
+                byUuid.put(uuid.toString(), status);
+            }
+        }
+
+        return byUuid;
+    }
+
+    /**
+     * Upload a file to Crocodoc with a URL.
+     * 
+     * @param string
+     *            url The url of the file to upload
+     * 
+     * @return string The uuid of the newly-uploaded file
+     * @throws CrocodocException
+     */
+    public String upload(String url) throws CrocodocException {
+        Map<String, Object> postParams = new HashMap<String, Object>();
+        postParams.put("url", url);
+        return _upload(postParams);
+    }
+
+    /**
+     * Upload a file to Crocodoc.
+     * 
+     * @param object
+     *            file The file resource to be uploaded
+     * 
+     * @return string The uuid of the newly-uploaded file
+     * @throws CrocodocException
+     */
+    public String upload(File file) throws CrocodocException {
+        Map<String, Object> postParams = new HashMap<String, Object>();
+        postParams.put("file", file);
+        return _upload(postParams);
+    }
+
+    /**
+     * Delete a file on Crocodoc by UUID without blocking.
+     * 
+     * @param string
+     *            uuid The uuid of the file to delete
+     * 
+     * @return object A future of whether the file was deleted
+     */
+    public CompletableFuture<Boolean> deleteAsync(final String uuid) {
+        return client._async(() -> delete(uuid));
+    }
+
+    /**
+     * Check the status of a file on Crocodoc by UUID without blocking.
+     * 
+     * @param string
+     *            uuid The uuid of the file to check the status of
+     * 
+     * @return object A future of the status map of the file
+     */
+    public CompletableFuture<Map<String, Object>> statusAsync(
+            final String uuid) {
+        CrocodocStatusCache cache = client.getStatusCache();
+        Map<String, Object> cached = cache != null ? cache.get(uuid) : null;
+
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CrocodocStatusCoalescer coalescer = client._getStatusCoalescer();
+
+        if (coalescer != null) {
+            return coalescer.submit(uuid);
+        }
+
+        return client._async(() -> status(uuid));
+    }
+
+    /**
+     * Check the status of several files on Crocodoc by UUID without blocking.
+     * 
+     * @param array
+     *            uuids An array of the uuids of the files to check the status
+     *            of
+     * 
+     * @return object A future of the array of status maps
+     */
+    public CompletableFuture<ArrayList<Map<String, Object>>> statusAsync(
+            final ArrayList<String> uuids) {
+        return client._async(() -> status(uuids));
+    }
+
+    /**
+     * Upload a file to Crocodoc with a URL without blocking.
+     * 
+     * @param string
+     *            url The url of the file to upload
+     * 
+     * @return object A future of the uuid of the newly-uploaded file
+     */
+    public CompletableFuture<String> uploadAsync(final String url) {
+        return client._async(() -> upload(url));
+    }
+
+    /**
+     * Upload a file to Crocodoc without blocking.
+     * 
+     * @param object
+     *            file The file resource to be uploaded
+     * 
+     * @return object A future of the uuid of the newly-uploaded file
+     */
+    public CompletableFuture<String> uploadAsync(final File file) {
+        return client._async(() -> upload(file));
+    }
+
+    /**
+     * Wait for a document to finish converting. Every document waited on by
+     * this client is polled by one shared task in batched status requests, so
+     * no thread is blocked while waiting.
+     * 
+     * @param string
+     *            uuid The uuid of the document to wait for
+     * 
+     * @return object A future of the status map of the document once its
+     *         status is DONE or ERROR
+     */
+    public CompletableFuture<Map<String, Object>> awaitConversion(String uuid) {
+        return client._getConversionWaiter().await(uuid);
+    }
+
+    /**
+     * Wait for a document to finish converting, giving up after a timeout.
+     * 
+     * @param string
+     *            uuid The uuid of the document to wait for
+     * @param long timeout How long to wait
+     * @param object unit The unit of timeout
+     * 
+     * @return object A future of the status map of the document once its
+     *         status is DONE or ERROR, failed with a CrocodocException with
+     *         the code "conversion_timeout" if the timeout passes first
+     */
+    public CompletableFuture<Map<String, Object>> awaitConversion(
+            final String uuid, long timeout, TimeUnit unit) {
+        final CompletableFuture<Map<String, Object>> future = awaitConversion(uuid);
+        final ScheduledFuture<?> timer;
+
+        try {
+            timer = client.getScheduler().schedule(() -> {
+                Map<String, Object> errorParams = new HashMap<String, Object>();
+                errorParams.put("uuid", uuid);
+                future.completeExceptionally(Crocodoc._exception(
+                        "conversion_timeout", "CrocodocDocument",
+                        "awaitConversion", errorParams));
+            }, timeout, unit);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(client._rejected("awaitConversion"));
+            return future;
+        }
+
+        future.whenComplete((status, e) -> timer.cancel(false));
+        return future;
+    }
+
+    /**
+     * Upload a file to Crocodoc from a stream of unknown length. The
+     * multipart body then has no length either, so it is sent with chunked
+     * transfer encoding as the stream is read. The stream is not closed.
+     * 
+     * @param object
+     *            in The contents of the file
+     * @param string
+     *            filename The name of the file, whose extension tells
+     *            Crocodoc the type of the document
+     * 
+     * @return string The uuid of the newly-uploaded file
+     * @throws CrocodocException
+     */
+    public String upload(InputStream in, String filename)
+            throws CrocodocException {
+        return upload(in, -1, filename);
+    }
+
+    /**
+     * Upload a file to Crocodoc from a stream. The stream is sent as it is
+     * read, and is not closed.
+     * 
+     * @param object
+     *            in The contents of the file
+     * @param long length The number of bytes in the stream, or -1 if unknown
+     * @param string
+     *            filename The name of the file, whose extension tells
+     *            Crocodoc the type of the document
+     * 
+     * @return string The uuid of the newly-uploaded file
+     * @throws CrocodocException
+     */
+    public String upload(InputStream in, long length, String filename)
+            throws CrocodocException {
+        Map<String, Object> postParams = new HashMap<String, Object>();
+        postParams.put("file", new CrocodocInputStreamBody(in, length,
+                _mimeType(filename), filename));
+        return _upload(postParams);
+    }
+
+    /**
+     * Upload a file to Crocodoc from memory.
+     * 
+     * @param array
+     *            bytes The contents of the file
+     * @param string
+     *            filename The name of the file, whose extension tells
+     *            Crocodoc the type of the document
+     * 
+     * @return string The uuid of the newly-uploaded file
+     * @throws CrocodocException
+     */
+    public String upload(byte[] bytes, String filename)
+            throws CrocodocException {
+        Map<String, Object> postParams = new HashMap<String, Object>();
+        postParams.put("file", new ByteArrayBody(bytes, _mimeType(filename),
+                filename));
+        return _upload(postParams);
+    }
+
+    /**
+     * Upload a file to Crocodoc from a buffer, heap or direct. The bytes
+     * between the buffer's position and limit are uploaded, and the buffer
+     * itself is left unchanged.
+     * 
+     * @param object
+     *            buffer The contents of the file
+     * @param string
+     *            filename The name of the file, whose extension tells
+     *            Crocodoc the type of the document
+     * 
+     * @return string The uuid of the newly-uploaded file
+     * @throws CrocodocException
+     */
+    public String upload(ByteBuffer buffer, String filename)
+            throws CrocodocException {
+        Map<String, Object> postParams = new HashMap<String, Object>();
+        postParams.put("file", new CrocodocByteBufferBody(buffer,
+                _mimeType(filename), filename));
+        return _upload(postParams);
+    }
+
+    /**
+     * Upload a file to Crocodoc from a stream without blocking. The stream is
+     * not closed.
+     * 
+     * @param object
+     *            in The contents of the file
+     * @param long length The number of bytes in the stream, or -1 if unknown
+     * @param string
+     *            filename The name of the file
+     * 
+     * @return object A future of the uuid of the newly-uploaded file
+     */
+    public CompletableFuture<String> uploadAsync(final InputStream in,
+            final long length, final String filename) {
+        return client._async(() -> upload(in, length, filename));
+    }
+
+    /**
+     * Upload a file to Crocodoc from a stream of unknown length without
+     * blocking. The stream is not closed.
+     * 
+     * @param object
+     *            in The contents of the file
+     * @param string
+     *            filename The name of the file
+     * 
+     * @return object A future of the uuid of the newly-uploaded file
+     */
+    public CompletableFuture<String> uploadAsync(final InputStream in,
+            final String filename) {
+        return client._async(() -> upload(in, filename));
+    }
+
+    /**
+     * Upload a file to Crocodoc from memory without blocking.
+     * 
+     * @param array
+     *            bytes The contents of the file
+     * @param string
+     *            filename The name of the file
+     * 
+     * @return object A future of the uuid of the newly-uploaded file
+     */
+    public CompletableFuture<String> uploadAsync(final byte[] bytes,
+            final String filename) {
+        return client._async(() -> upload(bytes, filename));
+    }
+
+    /**
+     * Upload a file to Crocodoc from a buffer without blocking. The buffer
+     * must not be changed until the future completes.
+     * 
+     * @param object
+     *            buffer The contents of the file
+     * @param string
+     *            filename The name of the file
+     * 
+     * @return object A future of the uuid of the newly-uploaded file
+     */
+    public CompletableFuture<String> uploadAsync(final ByteBuffer buffer,
+            final String filename) {
+        return client._async(() -> upload(buffer, filename));
+    }
+
+    /**
+     * Guess the content type of an upload from its file name
+     * 
+     * @param string
+     *            filename The name of the file
+     * 
+     * @return string The content type, application/octet-stream if unknown
+     */
+    static String _mimeType(String filename) {
+        String mimeType = filename != null ? URLConnection
+                .guessContentTypeFromName(filename) : null;
+        return mimeType != null ? mimeType : "application/octet-stream";
+    }
+
+    /**
+     * Post an upload request and return the uuid of the new file.
+     * 
+     * @param map
+     *            postParams The POST params of the upload
+     * 
+     * @return string The uuid of the newly-uploaded file
+     * @throws CrocodocException
+     */
+    private String _upload(Map<String, Object> postParams)
+            throws CrocodocException {
+        JSONObject response = (JSONObject) client._requestJson(PATH, "upload",
+                null, postParams);
+
+        if (!response.containsKey("uuid")) {
+            Crocodoc._error("missing_uuid", "CrocodocDocument", "upload",
+                    response);
+        }
+
+        return response.get("uuid").toString();
+    }
+}
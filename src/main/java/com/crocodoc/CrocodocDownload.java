@@ -1,22 +1,28 @@
 package com.crocodoc;
 
-import java.util.HashMap;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.http.HttpEntity;
 
 /**
  * Provides access to the Crocodoc Download API. The Download API is used for
  * downloading an original of a document, a PDF of a document, a thumbnail of a
- * document, and text extracted from a document.
+ * document, and text extracted from a document. These static methods use the
+ * default client; see CrocodocClient.download() for the instance API.
  */
 public class CrocodocDownload extends Crocodoc {
     /**
      * The Download API path relative to the base API path
      * 
      * @var string
+     * @deprecated Never read: the Download API is always called at this path
+     *             under basePath, so changing it has no effect.
      */
+    @Deprecated
     public static String path = "/download/";
 
     /**
@@ -29,7 +35,7 @@ public class CrocodocDownload extends Crocodoc {
      * @throws CrocodocException
      */
     public static HttpEntity document(String uuid) throws CrocodocException {
-        return document(uuid, false, false, (String) null);
+        return _getDefaultClient().download().document(uuid);
     }
 
     /**
@@ -49,7 +55,8 @@ public class CrocodocDownload extends Crocodoc {
      */
     public static HttpEntity document(String uuid, Boolean isPdf,
             Boolean isAnnotated) throws CrocodocException {
-        return document(uuid, isPdf, isAnnotated, (String) null);
+        return _getDefaultClient().download().document(uuid, isPdf,
+                isAnnotated);
     }
 
     /**
@@ -71,24 +78,8 @@ public class CrocodocDownload extends Crocodoc {
      */
     public static HttpEntity document(String uuid, Boolean isPdf,
             Boolean isAnnotated, List<String> filter) throws CrocodocException {
-        String filterString = null;
-
-        if (filter != null) {
-            StringBuilder sb = new StringBuilder();
-
-            for (String s : filter) {
-                sb.append(s);
-                sb.append(",");
-            }
-
-            if (sb.length() > 0) {
-                sb.deleteCharAt(sb.length() - 1);
-            }
-
-            filterString = sb.toString();
-        }
-
-        return document(uuid, isPdf, isAnnotated, filterString);
+        return _getDefaultClient().download().document(uuid, isPdf,
+                isAnnotated, filter);
     }
 
     /**
@@ -111,23 +102,8 @@ public class CrocodocDownload extends Crocodoc {
      */
     public static HttpEntity document(String uuid, Boolean isPdf,
             Boolean isAnnotated, String filter) throws CrocodocException {
-        Map<String, Object> getParams = new HashMap<String, Object>();
-        getParams.put("uuid", uuid);
-
-        if (isPdf) {
-            getParams.put("pdf", "true");
-        }
-
-        if (isAnnotated) {
-            getParams.put("annotated", "true");
-        }
-
-        if (filter != null && filter.length() > 0) {
-            getParams.put("filter", filter);
-        }
-
-        return (HttpEntity) _requestHttpEntity(path, "document", getParams,
-                null);
+        return _getDefaultClient().download().document(uuid, isPdf,
+                isAnnotated, filter);
     }
 
     /**
@@ -140,9 +116,7 @@ public class CrocodocDownload extends Crocodoc {
      * @throws CrocodocException
      */
     public static HttpEntity text(String uuid) throws CrocodocException {
-        Map<String, Object> getParams = new HashMap<String, Object>();
-        getParams.put("uuid", uuid);
-        return (HttpEntity) _requestHttpEntity(path, "text", getParams, null);
+        return _getDefaultClient().download().text(uuid);
     }
 
     /**
@@ -155,7 +129,7 @@ public class CrocodocDownload extends Crocodoc {
      * @throws CrocodocException
      */
     public static HttpEntity thumbnail(String uuid) throws CrocodocException {
-        return thumbnail(uuid, null);
+        return _getDefaultClient().download().thumbnail(uuid);
     }
 
     /**
@@ -171,15 +145,7 @@ public class CrocodocDownload extends Crocodoc {
      */
     public static HttpEntity thumbnail(String uuid, String size)
             throws CrocodocException {
-        Map<String, Object> getParams = new HashMap<String, Object>();
-        getParams.put("uuid", uuid);
-
-        if (size != null && size.length() > 0) {
-            getParams.put("size", size);
-        }
-
-        return (HttpEntity) _requestHttpEntity(path, "thumbnail", getParams,
-                null);
+        return _getDefaultClient().download().thumbnail(uuid, size);
     }
 
     /**
@@ -195,12 +161,175 @@ public class CrocodocDownload extends Crocodoc {
      */
     public static HttpEntity thumbnail(String uuid, Integer width,
             Integer height) throws CrocodocException {
-        String size = null;
+        return _getDefaultClient().download().thumbnail(uuid, width, height);
+    }
+
+    /**
+     * Download a document's original file from Crocodoc without blocking.
+     * 
+     * @see CrocodocDownloadClient#documentAsync(String)
+     */
+    public static CompletableFuture<HttpEntity> documentAsync(String uuid) {
+        return _getDefaultClient().download().documentAsync(uuid);
+    }
+
+    /**
+     * Download a document's file from Crocodoc with options without blocking.
+     * 
+     * @see CrocodocDownloadClient#documentAsync(String, Boolean, Boolean, String)
+     */
+    public static CompletableFuture<HttpEntity> documentAsync(String uuid,
+            Boolean isPdf, Boolean isAnnotated, String filter) {
+        return _getDefaultClient().download().documentAsync(uuid, isPdf,
+                isAnnotated, filter);
+    }
+
+    /**
+     * Download a document's extracted text from Crocodoc without blocking.
+     * 
+     * @see CrocodocDownloadClient#textAsync(String)
+     */
+    public static CompletableFuture<HttpEntity> textAsync(String uuid) {
+        return _getDefaultClient().download().textAsync(uuid);
+    }
+
+    /**
+     * Download a document's thumbnail from Crocodoc without blocking.
+     * 
+     * @see CrocodocDownloadClient#thumbnailAsync(String)
+     */
+    public static CompletableFuture<HttpEntity> thumbnailAsync(String uuid) {
+        return _getDefaultClient().download().thumbnailAsync(uuid);
+    }
 
-        if (width != null && height != null) {
-            size = width.toString() + "x" + height.toString();
-        }
+    /**
+     * Download a sized thumbnail from Crocodoc without blocking.
+     * 
+     * @see CrocodocDownloadClient#thumbnailAsync(String, Integer, Integer)
+     */
+    public static CompletableFuture<HttpEntity> thumbnailAsync(String uuid,
+            Integer width, Integer height) {
+        return _getDefaultClient().download().thumbnailAsync(uuid, width,
+                height);
+    }
 
-        return thumbnail(uuid, size);
+    /**
+     * Stream a downloaded file to a file with constant memory. The connection
+     * is released back to the pool when the transfer ends, whether it
+     * succeeded or not.
+     * 
+     * @param object
+     *            entity An HttpEntity returned by document(), thumbnail() or
+     *            text()
+     * @param object
+     *            target The file to write, replaced if it exists
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    public static long downloadTo(HttpEntity entity, Path target)
+            throws CrocodocException {
+        return downloadTo(entity, target, null);
+    }
+
+    /**
+     * Stream a downloaded file to a file with constant memory, reporting
+     * progress after each chunk. The connection is released back to the pool
+     * when the transfer ends, whether it succeeded or not.
+     * 
+     * @param object
+     *            entity An HttpEntity returned by document(), thumbnail() or
+     *            text()
+     * @param object
+     *            target The file to write, replaced if it exists
+     * @param object
+     *            listener Notified of the bytes written so far
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    public static long downloadTo(HttpEntity entity, Path target,
+            CrocodocProgressListener listener) throws CrocodocException {
+        return CrocodocStreams.downloadTo(entity, target, listener);
+    }
+
+    /**
+     * Stream a downloaded file to a channel with constant memory. The connection
+     * is released back to the pool when the transfer ends, whether it
+     * succeeded or not.
+     * 
+     * @param object
+     *            entity An HttpEntity returned by document(), thumbnail() or
+     *            text()
+     * @param object
+     *            target The channel to write to, left open
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    public static long downloadTo(HttpEntity entity, WritableByteChannel target)
+            throws CrocodocException {
+        return downloadTo(entity, target, null);
+    }
+
+    /**
+     * Stream a downloaded file to a channel with constant memory, reporting
+     * progress after each chunk. The connection is released back to the pool
+     * when the transfer ends, whether it succeeded or not.
+     * 
+     * @param object
+     *            entity An HttpEntity returned by document(), thumbnail() or
+     *            text()
+     * @param object
+     *            target The channel to write to, left open
+     * @param object
+     *            listener Notified of the bytes written so far
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    public static long downloadTo(HttpEntity entity, WritableByteChannel target,
+            CrocodocProgressListener listener) throws CrocodocException {
+        return CrocodocStreams.downloadTo(entity, target, listener);
+    }
+
+    /**
+     * Stream a downloaded file to a stream with constant memory. The connection
+     * is released back to the pool when the transfer ends, whether it
+     * succeeded or not.
+     * 
+     * @param object
+     *            entity An HttpEntity returned by document(), thumbnail() or
+     *            text()
+     * @param object
+     *            target The stream to write to, flushed but left open
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    public static long downloadTo(HttpEntity entity, OutputStream target)
+            throws CrocodocException {
+        return downloadTo(entity, target, null);
+    }
+
+    /**
+     * Stream a downloaded file to a stream with constant memory, reporting
+     * progress after each chunk. The connection is released back to the pool
+     * when the transfer ends, whether it succeeded or not.
+     * 
+     * @param object
+     *            entity An HttpEntity returned by document(), thumbnail() or
+     *            text()
+     * @param object
+     *            target The stream to write to, flushed but left open
+     * @param object
+     *            listener Notified of the bytes written so far
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    public static long downloadTo(HttpEntity entity, OutputStream target,
+            CrocodocProgressListener listener) throws CrocodocException {
+        return CrocodocStreams.downloadTo(entity, target, listener);
     }
 }
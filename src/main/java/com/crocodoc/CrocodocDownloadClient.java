@@ -0,0 +1,474 @@
+package com.crocodoc;
+
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.http.HttpEntity;
+
+/**
+ * The Download API of one CrocodocClient. The Download API is used for
+ * downloading an original of a document, a PDF of a document, a thumbnail of a
+ * document, and text extracted from a document.
+ */
+public class CrocodocDownloadClient {
+    /**
+     * The Download API path relative to the base API path
+     * 
+     * @var string
+     */
+    static final String PATH = "/download/";
+
+    /**
+     * The client requests are made through
+     * 
+     * @var object
+     */
+    private final CrocodocClient client;
+
+    /**
+     * Create the Download API of a client
+     * 
+     * @param object
+     *            client The client requests are made through
+     */
+    CrocodocDownloadClient(CrocodocClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Download a document's original file from Crocodoc without any options.
+     * 
+     * @param string
+     *            uuid The uuid of the file to download
+     * 
+     * @return object An HttpEntity of the downloaded file
+     * @throws CrocodocException
+     */
+    public HttpEntity document(String uuid) throws CrocodocException {
+        return document(uuid, false, false, (String) null);
+    }
+
+    /**
+     * Download a document's original file from Crocodoc. The file can
+     * optionally be downloaded as a PDF and with annotations.
+     * 
+     * @param string
+     *            uuid The uuid of the file to download
+     * @param bool
+     *            isPdf Should the file be downloaded as a PDF?
+     * @param bool
+     *            isAnnotated Should the file be downloaded with annotations?
+     * 
+     * @return object An HttpEntity of the downloaded file
+     * @throws CrocodocException
+     */
+    public HttpEntity document(String uuid, Boolean isPdf, Boolean isAnnotated)
+            throws CrocodocException {
+        return document(uuid, isPdf, isAnnotated, (String) null);
+    }
+
+    /**
+     * Download a document's original file from Crocodoc. The file can
+     * optionally be downloaded as a PDF, with annotations, and with filtered
+     * annotations.
+     * 
+     * @param string
+     *            uuid The uuid of the file to download
+     * @param bool
+     *            isPdf Should the file be downloaded as a PDF?
+     * @param bool
+     *            isAnnotated Should the file be downloaded with annotations?
+     * @param array
+     *            filter Which annotations should be included if any as a list
+     * 
+     * @return object An HttpEntity of the downloaded file
+     * @throws CrocodocException
+     */
+    public HttpEntity document(String uuid, Boolean isPdf,
+            Boolean isAnnotated, List<String> filter) throws CrocodocException {
+        return document(uuid, isPdf, isAnnotated, _joinFilter(filter));
+    }
+
+    /**
+     * Download a document's original file from Crocodoc. The file can
+     * optionally be downloaded as a PDF, with annotations, and with filtered
+     * annotations.
+     * 
+     * @param string
+     *            uuid The uuid of the file to download
+     * @param bool
+     *            isPdf Should the file be downloaded as a PDF?
+     * @param bool
+     *            isAnnotated Should the file be downloaded with annotations?
+     * @param string
+     *            filter Which annotations should be included if any as a
+     *            comma-separated list of user IDs as the filter
+     * 
+     * @return object An HttpEntity of the downloaded file, read from the
+     *         client's disk cache if it has one
+     * @throws CrocodocException
+     */
+    public HttpEntity document(String uuid, Boolean isPdf,
+            Boolean isAnnotated, String filter) throws CrocodocException {
+        final Map<String, Object> getParams = new HashMap<String, Object>();
+        getParams.put("uuid", uuid);
+
+        if (isPdf) {
+            getParams.put("pdf", "true");
+        }
+
+        if (isAnnotated) {
+            getParams.put("annotated", "true");
+        }
+
+        if (filter != null && filter.length() > 0) {
+            getParams.put("filter", filter);
+        }
+
+        CrocodocDiskCache cache = client.getDiskCache();
+
+        if (cache == null) {
+            return client._requestHttpEntity(PATH, "document", getParams, null);
+        }
+
+        return cache.getOrFetch(client._getCacheTenant(), uuid, isPdf,
+                isAnnotated, filter, () -> client._requestHttpEntity(PATH,
+                        "document", getParams, null));
+    }
+
+    /**
+     * Download a document's extracted text from Crocodoc.
+     * 
+     * @param string
+     *            uuid The uuid of the file to extract text from
+     * 
+     * @return object An HttpEntity of the downloaded file
+     * @throws CrocodocException
+     */
+    public HttpEntity text(String uuid) throws CrocodocException {
+        Map<String, Object> getParams = new HashMap<String, Object>();
+        getParams.put("uuid", uuid);
+        return client._requestHttpEntity(PATH, "text", getParams, null);
+    }
+
+    /**
+     * Download a document's thumbnail from Crocodoc.
+     * 
+     * @param string
+     *            uuid The uuid of the file to download the thumbnail from
+     * 
+     * @return object An HttpEntity of the downloaded file
+     * @throws CrocodocException
+     */
+    public HttpEntity thumbnail(String uuid) throws CrocodocException {
+        return thumbnail(uuid, (String) null);
+    }
+
+    /**
+     * Download a document's thumbnail from Crocodoc with an optional size.
+     * 
+     * @param string
+     *            uuid The uuid of the file to download the thumbnail from
+     * @param string
+     *            size WIDTHxHEIGHT (integer X integer)
+     * 
+     * @return object An HttpEntity of the downloaded file, read from the
+     *         client's thumbnail cache if it has one
+     * @throws CrocodocException
+     */
+    public HttpEntity thumbnail(String uuid, String size)
+            throws CrocodocException {
+        final Map<String, Object> getParams = new HashMap<String, Object>();
+        getParams.put("uuid", uuid);
+
+        if (size != null && size.length() > 0) {
+            getParams.put("size", size);
+        }
+
+        CrocodocThumbnailCache cache = client.getThumbnailCache();
+
+        if (cache == null) {
+            return client._requestHttpEntity(PATH, "thumbnail", getParams,
+                    null);
+        }
+
+        return cache.getOrFetch(client._getCacheTenant(), uuid, size,
+                () -> client._requestHttpEntity(PATH, "thumbnail", getParams,
+                        null));
+    }
+
+    /**
+     * Download a document's thumbnail from Crocodoc with an optional size.
+     * 
+     * @param string
+     *            uuid The uuid of the file to download the thumbnail from
+     * @param int width The width you want the thumbnail to be
+     * @param int height The height you want the thumbnail to be
+     * 
+     * @return object An HttpEntity of the downloaded file
+     * @throws CrocodocException
+     */
+    public HttpEntity thumbnail(String uuid, Integer width, Integer height)
+            throws CrocodocException {
+        return thumbnail(uuid, _size(width, height));
+    }
+
+    /**
+     * Download a document's original file from Crocodoc without blocking.
+     * 
+     * @param string
+     *            uuid The uuid of the file to download
+     * 
+     * @return object A future of an HttpEntity of the downloaded file
+     */
+    public CompletableFuture<HttpEntity> documentAsync(final String uuid) {
+        return client._async(() -> document(uuid));
+    }
+
+    /**
+     * Download a document's original file from Crocodoc without blocking. The
+     * file can optionally be downloaded as a PDF, with annotations, and with
+     * filtered annotations.
+     * 
+     * @param string
+     *            uuid The uuid of the file to download
+     * @param bool
+     *            isPdf Should the file be downloaded as a PDF?
+     * @param bool
+     *            isAnnotated Should the file be downloaded with annotations?
+     * @param string
+     *            filter Which annotations should be included if any as a
+     *            comma-separated list of user IDs as the filter
+     * 
+     * @return object A future of an HttpEntity of the downloaded file
+     */
+    public CompletableFuture<HttpEntity> documentAsync(final String uuid,
+            final Boolean isPdf, final Boolean isAnnotated,
+            final String filter) {
+        return client._async(() -> document(uuid, isPdf, isAnnotated, filter));
+    }
+
+    /**
+     * Download a document's extracted text from Crocodoc without blocking.
+     * 
+     * @param string
+     *            uuid The uuid of the file to extract text from
+     * 
+     * @return object A future of an HttpEntity of the extracted text
+     */
+    public CompletableFuture<HttpEntity> textAsync(final String uuid) {
+        return client._async(() -> text(uuid));
+    }
+
+    /**
+     * Download a document's thumbnail from Crocodoc without blocking.
+     * 
+     * @param string
+     *            uuid The uuid of the file to download the thumbnail from
+     * 
+     * @return object A future of an HttpEntity of the thumbnail
+     */
+    public CompletableFuture<HttpEntity> thumbnailAsync(final String uuid) {
+        return client._async(() -> thumbnail(uuid));
+    }
+
+    /**
+     * Download a document's thumbnail from Crocodoc with an optional size
+     * without blocking.
+     * 
+     * @param string
+     *            uuid The uuid of the file to download the thumbnail from
+     * @param string
+     *            size WIDTHxHEIGHT (integer X integer)
+     * 
+     * @return object A future of an HttpEntity of the thumbnail
+     */
+    public CompletableFuture<HttpEntity> thumbnailAsync(final String uuid,
+            final String size) {
+        return client._async(() -> thumbnail(uuid, size));
+    }
+
+    /**
+     * Download a document's thumbnail from Crocodoc with an optional size
+     * without blocking.
+     * 
+     * @param string
+     *            uuid The uuid of the file to download the thumbnail from
+     * @param int width The width you want the thumbnail to be
+     * @param int height The height you want the thumbnail to be
+     * 
+     * @return object A future of an HttpEntity of the thumbnail
+     */
+    public CompletableFuture<HttpEntity> thumbnailAsync(final String uuid,
+            final Integer width, final Integer height) {
+        return client._async(() -> thumbnail(uuid, width, height));
+    }
+
+    /**
+     * Stream a downloaded file to a file with constant memory. The connection
+     * is released back to the pool when the transfer ends, whether it
+     * succeeded or not.
+     * 
+     * @param object
+     *            entity An HttpEntity returned by document(), thumbnail() or
+     *            text()
+     * @param object
+     *            target The file to write, replaced if it exists
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    public long downloadTo(HttpEntity entity, Path target)
+            throws CrocodocException {
+        return downloadTo(entity, target, null);
+    }
+
+    /**
+     * Stream a downloaded file to a file with constant memory, reporting
+     * progress after each chunk. The connection is released back to the pool
+     * when the transfer ends, whether it succeeded or not.
+     * 
+     * @param object
+     *            entity An HttpEntity returned by document(), thumbnail() or
+     *            text()
+     * @param object
+     *            target The file to write, replaced if it exists
+     * @param object
+     *            listener Notified of the bytes written so far
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    public long downloadTo(HttpEntity entity, Path target,
+            CrocodocProgressListener listener) throws CrocodocException {
+        return CrocodocStreams.downloadTo(entity, target, listener);
+    }
+
+    /**
+     * Stream a downloaded file to a channel with constant memory. The connection
+     * is released back to the pool when the transfer ends, whether it
+     * succeeded or not.
+     * 
+     * @param object
+     *            entity An HttpEntity returned by document(), thumbnail() or
+     *            text()
+     * @param object
+     *            target The channel to write to, left open
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    public long downloadTo(HttpEntity entity, WritableByteChannel target)
+            throws CrocodocException {
+        return downloadTo(entity, target, null);
+    }
+
+    /**
+     * Stream a downloaded file to a channel with constant memory, reporting
+     * progress after each chunk. The connection is released back to the pool
+     * when the transfer ends, whether it succeeded or not.
+     * 
+     * @param object
+     *            entity An HttpEntity returned by document(), thumbnail() or
+     *            text()
+     * @param object
+     *            target The channel to write to, left open
+     * @param object
+     *            listener Notified of the bytes written so far
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    public long downloadTo(HttpEntity entity, WritableByteChannel target,
+            CrocodocProgressListener listener) throws CrocodocException {
+        return CrocodocStreams.downloadTo(entity, target, listener);
+    }
+
+    /**
+     * Stream a downloaded file to a stream with constant memory. The connection
+     * is released back to the pool when the transfer ends, whether it
+     * succeeded or not.
+     * 
+     * @param object
+     *            entity An HttpEntity returned by document(), thumbnail() or
+     *            text()
+     * @param object
+     *            target The stream to write to, flushed but left open
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    public long downloadTo(HttpEntity entity, OutputStream target)
+            throws CrocodocException {
+        return downloadTo(entity, target, null);
+    }
+
+    /**
+     * Stream a downloaded file to a stream with constant memory, reporting
+     * progress after each chunk. The connection is released back to the pool
+     * when the transfer ends, whether it succeeded or not.
+     * 
+     * @param object
+     *            entity An HttpEntity returned by document(), thumbnail() or
+     *            text()
+     * @param object
+     *            target The stream to write to, flushed but left open
+     * @param object
+     *            listener Notified of the bytes written so far
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    public long downloadTo(HttpEntity entity, OutputStream target,
+            CrocodocProgressListener listener) throws CrocodocException {
+        return CrocodocStreams.downloadTo(entity, target, listener);
+    }
+
+    /**
+     * Join a list of annotation filters into a comma-separated string
+     * 
+     * @param array
+     *            filter The list of filters, may be null
+     * 
+     * @return string The joined filters, or null
+     */
+    static String _joinFilter(List<String> filter) {
+        if (filter == null) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        for (String s : filter) {
+            sb.append(s);
+            sb.append(",");
+        }
+
+        if (sb.length() > 0) {
+            sb.deleteCharAt(sb.length() - 1);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Build a WIDTHxHEIGHT size string
+     * 
+     * @param int width The width, may be null
+     * @param int height The height, may be null
+     * 
+     * @return string The size string, or null if either side is missing
+     */
+    static String _size(Integer width, Integer height) {
+        if (width != null && height != null) {
+            return width.toString() + "x" + height.toString();
+        }
+
+        return null;
+    }
+}
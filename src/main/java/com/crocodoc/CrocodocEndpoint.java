@@ -0,0 +1,140 @@
+package com.crocodoc;
+
+/**
+ * The Crocodoc API endpoints this library calls. Per-endpoint settings such
+ * as retry policies are keyed by these values, and endpoints with similar
+ * traffic are put in the same Group.
+ */
+public enum CrocodocEndpoint {
+    DOCUMENT_UPLOAD(CrocodocDocumentClient.PATH, "upload", Group.UPLOAD, false),
+    DOCUMENT_STATUS(CrocodocDocumentClient.PATH, "status", Group.METADATA, true),
+    DOCUMENT_DELETE(CrocodocDocumentClient.PATH, "delete", Group.METADATA, false),
+    DOWNLOAD_DOCUMENT(CrocodocDownloadClient.PATH, "document", Group.DOWNLOAD, true),
+    DOWNLOAD_THUMBNAIL(CrocodocDownloadClient.PATH, "thumbnail", Group.DOWNLOAD, true),
+    DOWNLOAD_TEXT(CrocodocDownloadClient.PATH, "text", Group.DOWNLOAD, true),
+    SESSION_CREATE(CrocodocSessionClient.PATH, "create", Group.SESSION, false);
+
+    /**
+     * Endpoints grouped by the kind of traffic they carry
+     */
+    public enum Group {
+        /**
+         * Document uploads
+         */
+        UPLOAD,
+
+        /**
+         * Small document calls: status and delete
+         */
+        METADATA,
+
+        /**
+         * Document, thumbnail and text downloads
+         */
+        DOWNLOAD,
+
+        /**
+         * Session creation
+         */
+        SESSION
+    }
+
+    /**
+     * Every endpoint, so lookups don't copy values() on each call
+     * 
+     * @var array
+     */
+    private static final CrocodocEndpoint[] ALL = values();
+
+    /**
+     * The API path relative to the base API path
+     * 
+     * @var string
+     */
+    private final String path;
+
+    /**
+     * The method appended to the path
+     * 
+     * @var string
+     */
+    private final String method;
+
+    /**
+     * The group the endpoint belongs to
+     * 
+     * @var object
+     */
+    private final Group group;
+
+    /**
+     * Can a call be repeated without changing its outcome?
+     * 
+     * @var bool
+     */
+    private final boolean idempotent;
+
+    private CrocodocEndpoint(String path, String method, Group group,
+            boolean idempotent) {
+        this.path = path;
+        this.method = method;
+        this.group = group;
+        this.idempotent = idempotent;
+    }
+
+    /**
+     * Get the API path relative to the base API path
+     * 
+     * @return string The path, for example "/document/"
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get the method appended to the path
+     * 
+     * @return string The method, for example "status"
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Get the group the endpoint belongs to
+     * 
+     * @return object The endpoint group
+     */
+    public Group getGroup() {
+        return group;
+    }
+
+    /**
+     * Can a call be repeated without changing its outcome?
+     * 
+     * @return bool Whether the endpoint is idempotent
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    /**
+     * Find the endpoint of a path and method
+     * 
+     * @param string
+     *            path The API path relative to the base API path
+     * @param string
+     *            method The method appended to the path
+     * 
+     * @return object The endpoint, or null if it isn't known
+     */
+    public static CrocodocEndpoint of(String path, String method) {
+        for (CrocodocEndpoint endpoint : ALL) {
+            if (endpoint.path.equals(path) && endpoint.method.equals(method)) {
+                return endpoint;
+            }
+        }
+
+        return null;
+    }
+}
@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.http.HttpEntity;
 
@@ -174,20 +176,24 @@ public class CrocodocExamples {
     /*
      * Example #5
      * 
-     * Wait ten seconds and check the status of both files again.
+     * Wait for both files to finish converting and check their status again.
      */
     public static void example5(String uuid, String uuid2) {
         System.out.println();
         System.out
-                .println("Example #5 - Wait ten seconds and check the statuses again.");
+                .println("Example #5 - Wait for both files to finish converting and check the statuses again.");
         System.out.print("  Waiting... ");
 
         try {
-            Thread.sleep(10000);
+            CompletableFuture.allOf(CrocodocDocument.awaitConversion(uuid),
+                    CrocodocDocument.awaitConversion(uuid2)).get();
             System.out.println("done.");
         } catch (InterruptedException e) {
             System.out.println("failed :(");
             System.out.println("  " + e.getMessage());
+        } catch (ExecutionException e) {
+            System.out.println("failed :(");
+            System.out.println("  " + e.getCause().getMessage());
         }
 
         System.out.println("  Checking statuses... ");
@@ -0,0 +1,110 @@
+package com.crocodoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+/**
+ * A multipart file body that reads the file through a FileChannel in large
+ * chunks and hands each chunk to the connection in a single write. HttpClient
+ * writes chunks larger than its session buffer straight to the socket, so a
+ * large chunk size avoids the many small copies of FileBody's 4 KB loop.
+ * HttpClient only gives bodies an OutputStream, so the file can't be sent
+ * with FileChannel.transferTo to the socket itself.
+ *
+ * The time spent writing the file is recorded in a throughput metric.
+ */
+class CrocodocFileChannelBody extends AbstractContentBody {
+    /**
+     * The file to upload
+     * 
+     * @var object
+     */
+    private final File file;
+
+    /**
+     * The number of bytes read and written at a time
+     * 
+     * @var int
+     */
+    private final int chunkSize;
+
+    /**
+     * Where the upload throughput is recorded, may be null
+     * 
+     * @var object
+     */
+    private final CrocodocThroughput throughput;
+
+    /**
+     * Create a body from a file
+     * 
+     * @param object
+     *            file The file to upload
+     * @param string
+     *            mimeType The content type of the upload
+     * @param int chunkSize The number of bytes read and written at a time
+     * @param object
+     *            throughput Where the upload throughput is recorded, may be
+     *            null
+     */
+    CrocodocFileChannelBody(File file, String mimeType, int chunkSize,
+            CrocodocThroughput throughput) {
+        super(mimeType);
+        this.file = file;
+        this.chunkSize = chunkSize;
+        this.throughput = throughput;
+    }
+
+    public String getFilename() {
+        return file.getName();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        long started = System.nanoTime();
+        long written = 0;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(chunkSize,
+                    Math.max(channel.size(), 1)));
+
+            while (channel.read(buffer) != -1) {
+                if (!buffer.hasRemaining()) {
+                    out.write(buffer.array(), 0, buffer.position());
+                    written += buffer.position();
+                    buffer.clear();
+                }
+            }
+
+            if (buffer.position() > 0) {
+                out.write(buffer.array(), 0, buffer.position());
+                written += buffer.position();
+            }
+
+            out.flush();
+        }
+
+        if (throughput != null) {
+            throughput.record(written, System.nanoTime() - started);
+        }
+    }
+
+    public String getCharset() {
+        return null;
+    }
+
+    public String getTransferEncoding() {
+        return MIME.ENC_BINARY;
+    }
+
+    public long getContentLength() {
+        return file.length();
+    }
+}
@@ -0,0 +1,195 @@
+package com.crocodoc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values with fixed, log-linear buckets. Values
+ * under 64 are counted exactly; larger values fall into one of 64 buckets
+ * per power of two, so a reported percentile is never more than 1/64 (about
+ * 1.6%) above the true value. Values over MAX_VALUE are counted as
+ * MAX_VALUE.
+ *
+ * Recording a value takes a few atomic updates and allocates nothing, so a
+ * histogram can sit on the request path. Reading a percentile walks the
+ * buckets and is meant for reporting.
+ */
+public class CrocodocHistogram {
+    /**
+     * log2 of the number of buckets per power of two
+     *
+     * @var int
+     */
+    private static final int SUB_BUCKET_BITS = 6;
+
+    /**
+     * The number of buckets per power of two
+     *
+     * @var int
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * log2 of the largest value counted as itself
+     *
+     * @var int
+     */
+    private static final int MAX_EXPONENT = 36;
+
+    /**
+     * The largest value counted as itself
+     *
+     * @var long
+     */
+    public static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+    /**
+     * The count of each bucket
+     *
+     * @var object
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(
+            (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+    /**
+     * The number of values recorded
+     *
+     * @var object
+     */
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * The sum of the values recorded
+     *
+     * @var object
+     */
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * The largest value recorded
+     *
+     * @var object
+     */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Count a value
+     *
+     * @param long value The value, negative values are counted as 0
+     */
+    public void record(long value) {
+        value = Math.min(Math.max(value, 0), MAX_VALUE);
+        buckets.incrementAndGet(_index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Get the number of values recorded
+     *
+     * @return long The value count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the largest value recorded
+     *
+     * @return long The largest value, 0 if none was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the mean of the values recorded
+     *
+     * @return double The mean, 0 if no value was recorded
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n > 0 ? (double) sum.sum() / n : 0;
+    }
+
+    /**
+     * Get the value at a percentile
+     *
+     * @param double percentile The percentile, between 0 and 1, for example
+     *        0.99
+     *
+     * @return long The value that percentile of the values is at or below, 0
+     *         if no value was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+
+        for (int i = 0; i < buckets.length(); i++) {
+            total += buckets.get(i);
+        }
+
+        long rank = Math.max((long) Math.ceil(percentile * total), 1);
+        long seen = 0;
+
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+
+            if (seen >= rank) {
+                return Math.min(_highestValue(i), max.get());
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Forget every value recorded
+     */
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Get the bucket a value falls into
+     *
+     * @param long value A value between 0 and MAX_VALUE
+     *
+     * @return int The bucket index
+     */
+    private static int _index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket
+                - SUB_BUCKETS;
+    }
+
+    /**
+     * Get the largest value that falls into a bucket
+     *
+     * @param int index The bucket index
+     *
+     * @return long The largest value of the bucket
+     */
+    private static long _highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
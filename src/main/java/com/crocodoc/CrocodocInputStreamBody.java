@@ -0,0 +1,41 @@
+package com.crocodoc;
+
+import java.io.InputStream;
+
+import org.apache.http.entity.mime.content.InputStreamBody;
+
+/**
+ * A multipart body streamed from an InputStream whose length may be known up
+ * front. With a known length the upload is sent with a Content-Length
+ * instead of chunked.
+ */
+class CrocodocInputStreamBody extends InputStreamBody {
+    /**
+     * The number of bytes the stream holds, or -1 if unknown
+     * 
+     * @var long
+     */
+    private final long length;
+
+    /**
+     * Create a body from a stream
+     * 
+     * @param object
+     *            in The stream to upload
+     * @param long length The number of bytes in the stream, or -1 if unknown
+     * @param string
+     *            mimeType The content type of the upload
+     * @param string
+     *            filename The file name sent with the upload
+     */
+    CrocodocInputStreamBody(InputStream in, long length, String mimeType,
+            String filename) {
+        super(in, mimeType, filename);
+        this.length = length;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+}
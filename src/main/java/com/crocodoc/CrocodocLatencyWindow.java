@@ -0,0 +1,112 @@
+package com.crocodoc;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The latencies of the most recent calls to one endpoint, used to pick the
+ * delay before a hedged request. The percentile is recomputed every few
+ * samples rather than on every call, so reading it is cheap.
+ */
+class CrocodocLatencyWindow {
+    /**
+     * The number of latencies kept
+     * 
+     * @var int
+     */
+    static final int SIZE = 256;
+
+    /**
+     * The number of latencies needed before a percentile is reported
+     * 
+     * @var int
+     */
+    static final int MIN_SAMPLES = 20;
+
+    /**
+     * The number of samples between two recomputations of the percentile
+     * 
+     * @var int
+     */
+    private static final int RECOMPUTE_EVERY = 16;
+
+    /**
+     * The percentile reported, between 0 and 1
+     * 
+     * @var double
+     */
+    private final double percentile;
+
+    /**
+     * The latencies in nanoseconds, used as a ring
+     * 
+     * @var object
+     */
+    private final AtomicLongArray samples = new AtomicLongArray(SIZE);
+
+    /**
+     * The number of latencies recorded so far
+     * 
+     * @var object
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The last computed percentile, -1 until there are enough samples
+     * 
+     * @var long
+     */
+    private volatile long percentileNanos = -1;
+
+    /**
+     * Create a latency window
+     * 
+     * @param double percentile The percentile reported, between 0 and 1
+     */
+    CrocodocLatencyWindow(double percentile) {
+        this.percentile = percentile;
+    }
+
+    /**
+     * Get the percentile reported
+     * 
+     * @return double The percentile, between 0 and 1
+     */
+    double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * Record the latency of a call
+     * 
+     * @param long nanos The latency in nanoseconds
+     */
+    void record(long nanos) {
+        long n = count.getAndIncrement();
+        samples.set((int) (n % SIZE), nanos);
+
+        if (n + 1 >= MIN_SAMPLES && (n + 1) % RECOMPUTE_EVERY == 0) {
+            int size = (int) Math.min(n + 1, SIZE);
+            long[] sorted = new long[size];
+
+            for (int i = 0; i < size; i++) {
+                sorted[i] = samples.get(i);
+            }
+
+            Arrays.sort(sorted);
+            percentileNanos = sorted[(int) Math.min(size - 1,
+                    Math.floor(percentile * size))];
+        }
+    }
+
+    /**
+     * Get the latency at the percentile
+     * 
+     * @return long The latency in nanoseconds, -1 if there aren't enough
+     *         samples yet
+     */
+    long getPercentileNanos() {
+        return percentileNanos;
+    }
+}
@@ -0,0 +1,201 @@
+package com.crocodoc;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The built-in metrics sink, keeping per-endpoint counts and histograms in
+ * memory. Latencies and pool waits are kept in microseconds.
+ *
+ * <pre>
+ * CrocodocMetrics metrics = (CrocodocMetrics) client.getMetricsSink();
+ * CrocodocHistogram latency = metrics.getLatency(CrocodocEndpoint.DOCUMENT_STATUS);
+ * long p99Micros = latency.getValueAtPercentile(0.99);
+ * </pre>
+ */
+public class CrocodocMetrics implements CrocodocMetricsSink {
+    /**
+     * The measurements of each endpoint, by ordinal
+     *
+     * @var array
+     */
+    private final Endpoint[] endpoints;
+
+    /**
+     * Create an empty set of metrics
+     */
+    public CrocodocMetrics() {
+        endpoints = new Endpoint[CrocodocEndpoint.values().length];
+
+        for (int i = 0; i < endpoints.length; i++) {
+            endpoints[i] = new Endpoint();
+        }
+    }
+
+    public void recordCall(CrocodocEndpoint endpoint, long latencyNanos,
+            String errorCode) {
+        Endpoint metrics = endpoints[endpoint.ordinal()];
+        metrics.latency.record(latencyNanos / 1000);
+
+        if (errorCode != null) {
+            LongAdder errors = metrics.errors.get(errorCode);
+
+            if (errors == null) {
+                errors = metrics.errors.computeIfAbsent(errorCode,
+                        code -> new LongAdder());
+            }
+
+            errors.increment();
+        }
+    }
+
+    public void recordRetry(CrocodocEndpoint endpoint) {
+        endpoints[endpoint.ordinal()].retries.increment();
+    }
+
+    public void recordPoolWait(CrocodocEndpoint endpoint, long waitNanos) {
+        endpoints[endpoint.ordinal()].poolWait.record(waitNanos / 1000);
+    }
+
+    public void recordTransfer(CrocodocEndpoint endpoint, long sentBytes,
+            long receivedBytes, long transferNanos) {
+        Endpoint metrics = endpoints[endpoint.ordinal()];
+        metrics.bytesSent.add(sentBytes);
+        metrics.bytesReceived.add(receivedBytes);
+        metrics.transfer.record(transferNanos / 1000);
+    }
+
+    /**
+     * Get the latencies of the calls to an endpoint
+     *
+     * @param object
+     *            endpoint The endpoint
+     *
+     * @return object The latency histogram, in microseconds
+     */
+    public CrocodocHistogram getLatency(CrocodocEndpoint endpoint) {
+        return endpoints[endpoint.ordinal()].latency;
+    }
+
+    /**
+     * Get the times requests to an endpoint waited for a pooled connection
+     *
+     * @param object
+     *            endpoint The endpoint
+     *
+     * @return object The pool wait histogram, in microseconds
+     */
+    public CrocodocHistogram getPoolWait(CrocodocEndpoint endpoint) {
+        return endpoints[endpoint.ordinal()].poolWait;
+    }
+
+    /**
+     * Get the times HTTP requests to an endpoint took until their response
+     * bodies were read, including the time callers took to read downloads
+     *
+     * @param object
+     *            endpoint The endpoint
+     *
+     * @return object The transfer time histogram, in microseconds
+     */
+    public CrocodocHistogram getTransferTime(CrocodocEndpoint endpoint) {
+        return endpoints[endpoint.ordinal()].transfer;
+    }
+
+    /**
+     * Get the number of calls made to an endpoint
+     *
+     * @param object
+     *            endpoint The endpoint
+     *
+     * @return long The call count
+     */
+    public long getCalls(CrocodocEndpoint endpoint) {
+        return endpoints[endpoint.ordinal()].latency.getCount();
+    }
+
+    /**
+     * Get the number of calls to an endpoint that failed, by error code
+     *
+     * @param object
+     *            endpoint The endpoint
+     *
+     * @return map The failure count of each error code
+     */
+    public Map<String, Long> getErrors(CrocodocEndpoint endpoint) {
+        Map<String, Long> errors = new TreeMap<String, Long>();
+
+        for (Map.Entry<String, LongAdder> entry : endpoints[endpoint
+                .ordinal()].errors.entrySet()) {
+            errors.put(entry.getKey(), entry.getValue().sum());
+        }
+
+        return errors;
+    }
+
+    /**
+     * Get the number of retries of calls to an endpoint
+     *
+     * @param object
+     *            endpoint The endpoint
+     *
+     * @return long The retry count
+     */
+    public long getRetries(CrocodocEndpoint endpoint) {
+        return endpoints[endpoint.ordinal()].retries.sum();
+    }
+
+    /**
+     * Get the number of request body bytes sent to an endpoint
+     *
+     * @param object
+     *            endpoint The endpoint
+     *
+     * @return long The bytes sent
+     */
+    public long getBytesSent(CrocodocEndpoint endpoint) {
+        return endpoints[endpoint.ordinal()].bytesSent.sum();
+    }
+
+    /**
+     * Get the number of response body bytes received from an endpoint
+     *
+     * @param object
+     *            endpoint The endpoint
+     *
+     * @return long The bytes received
+     */
+    public long getBytesReceived(CrocodocEndpoint endpoint) {
+        return endpoints[endpoint.ordinal()].bytesReceived.sum();
+    }
+
+    /**
+     * Forget every measurement
+     */
+    public void reset() {
+        for (Endpoint metrics : endpoints) {
+            metrics.latency.reset();
+            metrics.poolWait.reset();
+            metrics.transfer.reset();
+            metrics.errors.clear();
+            metrics.retries.reset();
+            metrics.bytesSent.reset();
+            metrics.bytesReceived.reset();
+        }
+    }
+
+    /**
+     * The measurements of one endpoint
+     */
+    private static class Endpoint {
+        final CrocodocHistogram latency = new CrocodocHistogram();
+        final CrocodocHistogram poolWait = new CrocodocHistogram();
+        final CrocodocHistogram transfer = new CrocodocHistogram();
+        final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<String, LongAdder>();
+        final LongAdder retries = new LongAdder();
+        final LongAdder bytesSent = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+    }
+}
@@ -0,0 +1,56 @@
+package com.crocodoc;
+
+/**
+ * Receives the measurements a client takes of its API calls. CrocodocMetrics
+ * keeps them in memory; other implementations can forward them to a metrics
+ * library. The methods are called on the request path, from any thread, so
+ * they must be thread-safe and should return quickly without allocating.
+ */
+public interface CrocodocMetricsSink {
+    /**
+     * Record a completed call, including its retries
+     *
+     * @param object
+     *            endpoint The endpoint called
+     * @param long latencyNanos The time from the start of the call until the
+     *        response started or the call failed
+     * @param string
+     *            errorCode The code of the CrocodocException the call failed
+     *            with, null if it succeeded
+     */
+    void recordCall(CrocodocEndpoint endpoint, long latencyNanos,
+            String errorCode);
+
+    /**
+     * Record a retry of a call
+     *
+     * @param object
+     *            endpoint The endpoint called
+     */
+    void recordRetry(CrocodocEndpoint endpoint);
+
+    /**
+     * Record the time an HTTP request waited for a pooled connection
+     *
+     * @param object
+     *            endpoint The endpoint called
+     * @param long waitNanos The time waited
+     */
+    void recordPoolWait(CrocodocEndpoint endpoint, long waitNanos);
+
+    /**
+     * Record an HTTP request once its response body has been read to the end
+     * or closed. A download streamed by the caller is recorded when the
+     * caller is done with it, and its transfer time includes the caller's
+     * reading.
+     *
+     * @param object
+     *            endpoint The endpoint called
+     * @param long sentBytes The number of request body bytes written
+     * @param long receivedBytes The number of response body bytes read
+     * @param long transferNanos The time from sending the request until
+     *        the response body was done
+     */
+    void recordTransfer(CrocodocEndpoint endpoint, long sentBytes,
+            long receivedBytes, long transferNanos);
+}
@@ -0,0 +1,128 @@
+package com.crocodoc;
+
+/**
+ * How urgently an API call should be made when the client's dispatcher has
+ * more calls than it runs at once. Session creation is INTERACTIVE by
+ * default, uploads and deletes are BACKGROUND, and everything else is
+ * NORMAL. The priority of the calls made on a thread can be changed for a
+ * block of code; async calls started in the block keep it.
+ *
+ * <pre>
+ * try (CrocodocPriority.Scope scope = CrocodocPriority.BACKGROUND.use()) {
+ *     client.document().status(uuids);
+ * }
+ * </pre>
+ */
+public enum CrocodocPriority {
+    /**
+     * A user is waiting for the call
+     */
+    INTERACTIVE,
+
+    /**
+     * The default priority
+     */
+    NORMAL,
+
+    /**
+     * Batch work that can wait
+     */
+    BACKGROUND;
+
+    /**
+     * The priority set on each thread
+     * 
+     * @var object
+     */
+    private static final ThreadLocal<CrocodocPriority> _current = new ThreadLocal<CrocodocPriority>();
+
+    /**
+     * Make this the priority of the calls made on the current thread until
+     * the returned scope is closed
+     * 
+     * @return object The scope, to be closed on the same thread
+     */
+    public Scope use() {
+        return new Scope(_set(this));
+    }
+
+    /**
+     * Get the priority set on the current thread
+     * 
+     * @return object The priority, or null if none is set
+     */
+    public static CrocodocPriority current() {
+        return _current.get();
+    }
+
+    /**
+     * Get the priority of a call to an endpoint: the one set on the current
+     * thread, or the endpoint's default
+     * 
+     * @param object
+     *            endpoint The endpoint called
+     * 
+     * @return object The priority
+     */
+    static CrocodocPriority _of(CrocodocEndpoint endpoint) {
+        CrocodocPriority priority = _current.get();
+
+        if (priority != null) {
+            return priority;
+        }
+
+        switch (endpoint) {
+        case SESSION_CREATE:
+            return INTERACTIVE;
+        case DOCUMENT_UPLOAD:
+        case DOCUMENT_DELETE:
+            return BACKGROUND;
+        default:
+            return NORMAL;
+        }
+    }
+
+    /**
+     * Replace the priority of the current thread, to carry a priority over
+     * to another thread
+     * 
+     * @param object
+     *            priority The new priority, may be null
+     * 
+     * @return object The priority that was replaced
+     */
+    static CrocodocPriority _set(CrocodocPriority priority) {
+        CrocodocPriority replaced = _current.get();
+
+        if (priority != null) {
+            _current.set(priority);
+        } else {
+            _current.remove();
+        }
+
+        return replaced;
+    }
+
+    /**
+     * A block of code running at a priority
+     */
+    public static final class Scope implements AutoCloseable {
+        /**
+         * The priority to restore when the scope is closed
+         * 
+         * @var object
+         */
+        private final CrocodocPriority previous;
+
+        private Scope(CrocodocPriority previous) {
+            this.previous = previous;
+        }
+
+        /**
+         * Restore the priority that was set before the scope
+         */
+        public void close() {
+            _set(previous);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.crocodoc;
+
+/**
+ * Receives progress updates while a file is transferred to or from Crocodoc.
+ */
+public interface CrocodocProgressListener {
+    /**
+     * Called after each chunk of a transfer.
+     * 
+     * @param long bytesTransferred The number of bytes transferred so far
+     * @param long totalBytes The total size of the transfer, or -1 if unknown
+     */
+    void onProgress(long bytesTransferred, long totalBytes);
+}
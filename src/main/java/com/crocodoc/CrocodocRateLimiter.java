@@ -0,0 +1,190 @@
+package com.crocodoc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A token bucket that limits how fast calls are made. The bucket holds up to
+ * burst tokens and refills at permitsPerSecond; each call takes one token.
+ * When the bucket is empty a call waits for its token for up to maxWaitMillis:
+ * WAIT_FOREVER blocks until a token is free, NO_WAIT rejects the call at once,
+ * and anything in between is a timeout.
+ *
+ * The bucket is kept as the time at which it will be full again, updated with
+ * compare-and-set, so taking a token never locks. A caller that waits reserves
+ * its token first and then sleeps until it is due, so waiting callers are
+ * served in order. A caller interrupted while it waits gives its token back.
+ */
+public class CrocodocRateLimiter {
+    /**
+     * Wait as long as needed for a token
+     * 
+     * @var long
+     */
+    public static final long WAIT_FOREVER = Long.MAX_VALUE;
+
+    /**
+     * Reject a call at once if no token is free
+     * 
+     * @var long
+     */
+    public static final long NO_WAIT = 0;
+
+    /**
+     * The number of tokens added per second
+     * 
+     * @var double
+     */
+    private final double permitsPerSecond;
+
+    /**
+     * The most tokens the bucket holds
+     * 
+     * @var int
+     */
+    private final int burst;
+
+    /**
+     * The longest a call waits for a token
+     * 
+     * @var long
+     */
+    private final long maxWaitMillis;
+
+    /**
+     * The time it takes to add one token
+     * 
+     * @var long
+     */
+    private final long intervalNanos;
+
+    /**
+     * The time at which the bucket is full again, in System.nanoTime() terms
+     * 
+     * @var object
+     */
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+    /**
+     * The number of calls that had to wait for a token
+     * 
+     * @var object
+     */
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * The number of calls rejected because no token was free in time
+     * 
+     * @var object
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Create a rate limiter
+     * 
+     * @param double permitsPerSecond The number of tokens added per second
+     * @param int burst The most tokens the bucket holds
+     * @param long maxWaitMillis The longest a call waits for a token,
+     *        WAIT_FOREVER or NO_WAIT
+     */
+    public CrocodocRateLimiter(double permitsPerSecond, int burst,
+            long maxWaitMillis) {
+        if (!(permitsPerSecond > 0) || burst < 1 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Invalid rate limit");
+        }
+
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.maxWaitMillis = maxWaitMillis;
+        this.intervalNanos = Math.max((long) (1e9 / permitsPerSecond), 1);
+    }
+
+    /**
+     * Get the number of tokens added per second
+     * 
+     * @return double The rate
+     */
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Get the most tokens the bucket holds
+     * 
+     * @return int The burst size
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Get the longest a call waits for a token
+     * 
+     * @return long The wait in milliseconds
+     */
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Get the number of calls that had to wait for a token
+     * 
+     * @return long The throttled call count
+     */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    /**
+     * Get the number of calls rejected because no token was free in time
+     * 
+     * @return long The rejected call count
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Take a token, waiting for it as long as maxWaitMillis allows
+     * 
+     * @param long limitNanos A shorter limit on the wait, for example the time
+     *        left until a deadline
+     * 
+     * @return bool Whether a token was taken
+     * @throws InterruptedException
+     */
+    boolean _acquire(long limitNanos) throws InterruptedException {
+        long maxWaitNanos = Math.min(TimeUnit.MILLISECONDS
+                .toNanos(maxWaitMillis), limitNanos);
+        long capacityNanos = intervalNanos * burst;
+
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + intervalNanos;
+            long waitNanos = next - now - capacityNanos;
+
+            if (waitNanos > maxWaitNanos) {
+                rejected.increment();
+                return false;
+            }
+
+            if (fullAt.compareAndSet(current, next)) {
+                if (waitNanos > 0) {
+                    throttled.increment();
+
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    } catch (InterruptedException e) {
+                        // the call is abandoned; give its token back
+                        fullAt.addAndGet(-intervalNanos);
+                        throw e;
+                    }
+                }
+
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.crocodoc;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits retries to a share of the calls made, so retries can't pile onto an
+ * API that is already degraded. Every call adds ratio to a balance and every
+ * retry takes one from it; a small reserve of minRetriesPerSecond keeps
+ * retries possible when there is little traffic. A retry that finds the
+ * budget empty isn't made, and the call fails with its last error.
+ *
+ * The same kind of budget limits hedged requests. One budget can be shared
+ * by several clients.
+ */
+public class CrocodocRetryBudget {
+    /**
+     * The default share of calls that may be retried
+     * 
+     * @var double
+     */
+    public static final double DEFAULT_RATIO = 0.1;
+
+    /**
+     * The default number of retries allowed per second regardless of traffic
+     * 
+     * @var int
+     */
+    public static final int DEFAULT_MIN_RETRIES_PER_SECOND = 10;
+
+    /**
+     * The share of calls that may be retried
+     * 
+     * @var double
+     */
+    private final double ratio;
+
+    /**
+     * The number of retries allowed per second regardless of traffic
+     * 
+     * @var int
+     */
+    private final int minRetriesPerSecond;
+
+    /**
+     * The largest balance that can be saved up
+     * 
+     * @var double
+     */
+    private final double maxBalance;
+
+    /**
+     * The retries earned by calls
+     * 
+     * @var double
+     */
+    private double balance = 0;
+
+    /**
+     * The retries left in the reserve
+     * 
+     * @var double
+     */
+    private double reserve;
+
+    /**
+     * When the reserve was last refilled
+     * 
+     * @var long
+     */
+    private long refilledAt = System.nanoTime();
+
+    /**
+     * The number of retries allowed
+     * 
+     * @var object
+     */
+    private final LongAdder retries = new LongAdder();
+
+    /**
+     * The number of retries refused because the budget was empty
+     * 
+     * @var object
+     */
+    private final LongAdder refused = new LongAdder();
+
+    /**
+     * Create a retry budget with the default limits
+     */
+    public CrocodocRetryBudget() {
+        this(DEFAULT_RATIO, DEFAULT_MIN_RETRIES_PER_SECOND);
+    }
+
+    /**
+     * Create a retry budget
+     * 
+     * @param double ratio The share of calls that may be retried, for
+     *        example 0.1 for one retry per ten calls
+     * @param int minRetriesPerSecond The number of retries allowed per second
+     *        regardless of traffic
+     */
+    public CrocodocRetryBudget(double ratio, int minRetriesPerSecond) {
+        if (ratio < 0 || minRetriesPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid retry budget");
+        }
+
+        this.ratio = ratio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.maxBalance = Math.max(1000 * ratio, 1);
+        this.reserve = minRetriesPerSecond;
+    }
+
+    /**
+     * Get the share of calls that may be retried
+     * 
+     * @return double The retry ratio
+     */
+    public double getRatio() {
+        return ratio;
+    }
+
+    /**
+     * Get the number of retries allowed per second regardless of traffic
+     * 
+     * @return int The reserved retry rate
+     */
+    public int getMinRetriesPerSecond() {
+        return minRetriesPerSecond;
+    }
+
+    /**
+     * Get the number of retries allowed so far
+     * 
+     * @return long The retry count
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Get the number of retries refused because the budget was empty
+     * 
+     * @return long The refused retry count
+     */
+    public long getRefused() {
+        return refused.sum();
+    }
+
+    /**
+     * Record a call, earning a share of a retry
+     */
+    synchronized void _deposit() {
+        balance = Math.min(balance + ratio, maxBalance);
+    }
+
+    /**
+     * Take one retry from the budget
+     * 
+     * @return bool Whether the retry may be made
+     */
+    boolean _tryWithdraw() {
+        boolean allowed;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            reserve = Math.min(reserve + (now - refilledAt) / 1e9
+                    * minRetriesPerSecond, minRetriesPerSecond);
+            refilledAt = now;
+
+            if (reserve >= 1) {
+                reserve--;
+                allowed = true;
+            } else if (balance >= 1) {
+                balance--;
+                allowed = true;
+            } else {
+                allowed = false;
+            }
+        }
+
+        (allowed ? retries : refused).increment();
+        return allowed;
+    }
+}
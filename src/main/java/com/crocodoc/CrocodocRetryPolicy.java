@@ -0,0 +1,127 @@
+package com.crocodoc;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How failed calls to an endpoint are retried. A call is retried after a
+ * connection error or a 5xx response, waiting a random time between zero and
+ * an exponentially growing backoff before each retry ("full jitter"), so
+ * callers that failed together don't retry together.
+ */
+public class CrocodocRetryPolicy {
+    /**
+     * The policy used for idempotent endpoints unless another one is set
+     * 
+     * @var object
+     */
+    public static final CrocodocRetryPolicy DEFAULT = new CrocodocRetryPolicy(
+            3, 100, 5000);
+
+    /**
+     * A policy that never retries
+     * 
+     * @var object
+     */
+    public static final CrocodocRetryPolicy NONE = new CrocodocRetryPolicy(1,
+            0, 0);
+
+    /**
+     * The maximum number of attempts, including the first one
+     * 
+     * @var int
+     */
+    private final int maxAttempts;
+
+    /**
+     * The backoff before the first retry
+     * 
+     * @var long
+     */
+    private final long initialBackoffMillis;
+
+    /**
+     * The longest backoff before a retry
+     * 
+     * @var long
+     */
+    private final long maxBackoffMillis;
+
+    /**
+     * Create a retry policy
+     * 
+     * @param int maxAttempts The maximum number of attempts, including the
+     *        first one
+     * @param long initialBackoffMillis The backoff before the first retry,
+     *        doubled for each retry after it
+     * @param long maxBackoffMillis The longest backoff before a retry
+     */
+    public CrocodocRetryPolicy(int maxAttempts, long initialBackoffMillis,
+            long maxBackoffMillis) {
+        if (maxAttempts < 1 || initialBackoffMillis < 0
+                || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Invalid retry policy");
+        }
+
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Get the maximum number of attempts, including the first one
+     * 
+     * @return int The maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Get the backoff before the first retry
+     * 
+     * @return long The backoff in milliseconds
+     */
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    /**
+     * Get the longest backoff before a retry
+     * 
+     * @return long The backoff in milliseconds
+     */
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    /**
+     * Is an error worth retrying? Connection errors and 5xx responses are;
+     * errors reported by the API for the request itself aren't.
+     * 
+     * @param object
+     *            e The error of the failed attempt
+     * 
+     * @return bool Whether the call may be retried
+     */
+    public boolean isRetryable(CrocodocException e) {
+        return CrocodocClient._isTransient(e);
+    }
+
+    /**
+     * Pick how long to wait before a retry
+     * 
+     * @param int retry The number of the retry, starting at 1
+     * 
+     * @return long The backoff in milliseconds
+     */
+    long _backoffMillis(int retry) {
+        long ceiling = initialBackoffMillis << Math.min(retry - 1, 30);
+
+        if (ceiling <= 0 || ceiling > maxBackoffMillis) {
+            ceiling = maxBackoffMillis;
+        }
+
+        return ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1)
+                : 0;
+    }
+}
@@ -1,23 +1,23 @@
 package com.crocodoc;
 
-import java.awt.List;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
-
-import org.json.simple.JSONObject;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Provides access to the Crocodoc Session API. The Session API is used to to
  * create sessions for specific documents that can be used to view a document
- * using a specific session-based URL.
+ * using a specific session-based URL. These static methods use the default
+ * client; see CrocodocClient.session() for the instance API.
  */
 public class CrocodocSession extends Crocodoc {
     /**
-     * The Download API path relative to the base API path
+     * The Session API path relative to the base API path
      * 
      * @var string
+     * @deprecated Never read: the Session API is always called at this path
+     *             under basePath, so changing it has no effect.
      */
+    @Deprecated
     public static String path = "/session/";
 
     /**
@@ -63,89 +63,25 @@ public class CrocodocSession extends Crocodoc {
      */
     public static String create(String uuid, Map<String, Object> params)
             throws CrocodocException {
-        Map<String, Object> postParams = new HashMap<String, Object>();
-        postParams.put("uuid", uuid);
-
-        if (params == null) {
-            params = new HashMap<String, Object>();
-        }
-
-        if (params.containsKey("isEditable")) {
-            Boolean isEditable = (Boolean) params.get("isEditable");
-            postParams.put("editable", isEditable ? "true" : "false");
-        }
-
-        if (params.containsKey("user")
-                && Map.class.isInstance(params.get("user"))) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> user = (Map<String, Object>) params.get("user");
-
-            if (user.containsKey("id") && user.containsKey("name")) {
-                String userString = user.get("id").toString() + ","
-                        + user.get("name").toString();
-                postParams.put("user", userString);
-            }
-        }
-
-        if (params.containsKey("filter")) {
-            String filter;
-
-            if (List.class.isInstance(params.get("filter"))) {
-                @SuppressWarnings("unchecked")
-                ArrayList<String> filterList = (ArrayList<String>) params
-                        .get("filter");
-                StringBuilder sb = new StringBuilder();
-
-                for (String s : filterList) {
-                    sb.append(s);
-                    sb.append(",");
-                }
-
-                if (sb.length() > 0) {
-                    sb.deleteCharAt(sb.length() - 1);
-                }
-
-                filter = sb.toString();
-            } else {
-                filter = params.get("filter").toString();
-            }
-
-            if (filter.length() > 0) {
-                postParams.put("filter", filter);
-            }
-        }
-
-        if (params.containsKey("isAdmin")) {
-            Boolean isAdmin = (Boolean) params.get("isAdmin");
-            postParams.put("admin", isAdmin ? "true" : "false");
-        }
-
-        if (params.containsKey("isDownloadable")) {
-            Boolean isDownloadable = (Boolean) params.get("isDownloadable");
-            postParams.put("downloadable", isDownloadable ? "true" : "false");
-        }
-
-        if (params.containsKey("isCopyprotected")) {
-            Boolean isCopyprotected = (Boolean) params.get("isCopyprotected");
-            postParams.put("copyprotected", isCopyprotected ? "true" : "false");
-        }
-
-        if (params.containsKey("isDemo")) {
-            Boolean isDemo = (Boolean) params.get("isDemo");
-            postParams.put("demo", isDemo ? "true" : "false");
-        }
-
-        if (params.containsKey("sidebar")) {
-            postParams.put("sidebar", params.get("sidebar").toString());
-        }
-
-        JSONObject session = (JSONObject) _requestJson(path, "create", null,
-                postParams);
+        return _getDefaultClient().session().create(uuid, params);
+    }
 
-        if (!session.containsKey("session")) {
-            _error("missing_session_key", "CrocodocSession", "create", session);
-        }
+    /**
+     * Create a session for a specific document by UUID without blocking.
+     * 
+     * @see CrocodocSessionClient#createAsync(String)
+     */
+    public static CompletableFuture<String> createAsync(String uuid) {
+        return _getDefaultClient().session().createAsync(uuid);
+    }
 
-        return session.get("session").toString();
+    /**
+     * Create a session for a specific document by UUID without blocking.
+     * 
+     * @see CrocodocSessionClient#createAsync(String, Map)
+     */
+    public static CompletableFuture<String> createAsync(String uuid,
+            Map<String, Object> params) {
+        return _getDefaultClient().session().createAsync(uuid, params);
     }
 }
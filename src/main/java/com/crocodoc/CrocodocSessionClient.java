@@ -0,0 +1,196 @@
+package com.crocodoc;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.json.simple.JSONObject;
+
+/**
+ * The Session API of one CrocodocClient. The Session API is used to create
+ * sessions for specific documents that can be used to view a document using a
+ * specific session-based URL.
+ */
+public class CrocodocSessionClient {
+    /**
+     * The Session API path relative to the base API path
+     * 
+     * @var string
+     */
+    static final String PATH = "/session/";
+
+    /**
+     * The client requests are made through
+     * 
+     * @var object
+     */
+    private final CrocodocClient client;
+
+    /**
+     * Create the Session API of a client
+     * 
+     * @param object
+     *            client The client requests are made through
+     */
+    CrocodocSessionClient(CrocodocClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Create a session for a specific document by UUID.
+     * 
+     * @param string
+     *            uuid The uuid of the file to create a session for
+     * 
+     * @return string A unique session key for the document
+     * @throws CrocodocException
+     */
+    public String create(String uuid) throws CrocodocException {
+        return create(uuid, null);
+    }
+
+    /**
+     * Create a session for a specific document by UUID that is optionally
+     * editable and can use user ID and name info from your application, can
+     * filter annotations, can grant admin permissions, can be downloadable, can
+     * be copy-protected, and can prevent changes from being persisted.
+     * 
+     * @param string
+     *            uuid The uuid of the file to create a session for
+     * @param map params A map representing:
+     *     bool 'isEditable' Can users create annotations and comments while
+     *         viewing the document with this session key?
+     *     object 'user' A map with keys "id" and "name" representing a
+     *         user's unique ID and name in your application; "id" must be a
+     *         non-negative signed 32-bit integer; this field is required if
+     *         isEditable is true
+     *     string 'filter' Which annotations should be included if any - this
+     *         is usually a string, but could also be an array if it's a
+     *         comma-separated list of user IDs as the filter
+     *     bool 'isAdmin' Can users modify or delete any annotations or
+     *         comments belonging to other users?
+     *     bool 'isDownloadable' Can users download the original document?
+     *     bool 'isCopyprotected' Can text be selected in the document?
+     *     bool 'isDemo' Should we prevent any changes from being persisted?
+     *     string 'sidebar' Sets if and how the viewer sidebar is included
+     * 
+     * @return string A unique session key for the document
+     * @throws CrocodocException
+     */
+    public String create(String uuid, Map<String, Object> params)
+            throws CrocodocException {
+        Map<String, Object> postParams = new HashMap<String, Object>();
+        postParams.put("uuid", uuid);
+
+        if (params == null) {
+            params = new HashMap<String, Object>();
+        }
+
+        if (params.containsKey("isEditable")) {
+            Boolean isEditable = (Boolean) params.get("isEditable");
+            postParams.put("editable", isEditable ? "true" : "false");
+        }
+
+        if (params.containsKey("user")
+                && Map.class.isInstance(params.get("user"))) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> user = (Map<String, Object>) params.get("user");
+
+            if (user.containsKey("id") && user.containsKey("name")) {
+                String userString = user.get("id").toString() + ","
+                        + user.get("name").toString();
+                postParams.put("user", userString);
+            }
+        }
+
+        if (params.containsKey("filter")) {
+            String filter;
+
+            if (List.class.isInstance(params.get("filter"))) {
+                @SuppressWarnings("unchecked")
+                List<String> filterList = (List<String>) params.get("filter");
+                StringBuilder sb = new StringBuilder();
+
+                for (String s : filterList) {
+                    sb.append(s);
+                    sb.append(",");
+                }
+
+                if (sb.length() > 0) {
+                    sb.deleteCharAt(sb.length() - 1);
+                }
+
+                filter = sb.toString();
+            } else {
+                filter = params.get("filter").toString();
+            }
+
+            if (filter.length() > 0) {
+                postParams.put("filter", filter);
+            }
+        }
+
+        if (params.containsKey("isAdmin")) {
+            Boolean isAdmin = (Boolean) params.get("isAdmin");
+            postParams.put("admin", isAdmin ? "true" : "false");
+        }
+
+        if (params.containsKey("isDownloadable")) {
+            Boolean isDownloadable = (Boolean) params.get("isDownloadable");
+            postParams.put("downloadable", isDownloadable ? "true" : "false");
+        }
+
+        if (params.containsKey("isCopyprotected")) {
+            Boolean isCopyprotected = (Boolean) params.get("isCopyprotected");
+            postParams.put("copyprotected", isCopyprotected ? "true" : "false");
+        }
+
+        if (params.containsKey("isDemo")) {
+            Boolean isDemo = (Boolean) params.get("isDemo");
+            postParams.put("demo", isDemo ? "true" : "false");
+        }
+
+        if (params.containsKey("sidebar")) {
+            postParams.put("sidebar", params.get("sidebar").toString());
+        }
+
+        JSONObject session = (JSONObject) client._requestJson(PATH, "create",
+                null, postParams);
+
+        if (!session.containsKey("session")) {
+            Crocodoc._error("missing_session_key", "CrocodocSession",
+                    "create", session);
+        }
+
+        return session.get("session").toString();
+    }
+
+    /**
+     * Create a session for a specific document by UUID without blocking.
+     * 
+     * @param string
+     *            uuid The uuid of the file to create a session for
+     * 
+     * @return object A future of the session key for the document
+     */
+    public CompletableFuture<String> createAsync(final String uuid) {
+        return client._async(() -> create(uuid));
+    }
+
+    /**
+     * Create a session for a specific document by UUID without blocking. See
+     * create(String, Map) for the supported params.
+     * 
+     * @param string
+     *            uuid The uuid of the file to create a session for
+     * @param map
+     *            params The session options
+     * 
+     * @return object A future of the session key for the document
+     */
+    public CompletableFuture<String> createAsync(final String uuid,
+            final Map<String, Object> params) {
+        return client._async(() -> create(uuid, params));
+    }
+}
@@ -0,0 +1,484 @@
+package com.crocodoc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps session keys ready for hot documents so a viewer can be opened
+ * without waiting on a session/create round trip. Each hot document and
+ * param set gets its own queue of keys, refilled in the background up to a
+ * fixed depth. Keys are single-use: take() hands a key out once and starts
+ * creating its replacement. A key is dropped instead of handed out once less
+ * than minRemainingMillis of its lifetime is left. While session/create fails,
+ * a document's queue is refilled one key at a time after a backoff that
+ * doubles with every failure.
+ *
+ * <pre>
+ * CrocodocSessionPool pool = new CrocodocSessionPool(client, 4);
+ * pool.add(uuid, params);
+ * String sessionKey = pool.take(uuid, params);
+ * </pre>
+ */
+public class CrocodocSessionPool {
+    /**
+     * The default lifetime of a session key
+     *
+     * @var long
+     */
+    public static final long DEFAULT_LIFETIME_MILLIS = TimeUnit.MINUTES
+            .toMillis(60);
+
+    /**
+     * The default lifetime a key must have left to be handed out
+     *
+     * @var long
+     */
+    public static final long DEFAULT_MIN_REMAINING_MILLIS = TimeUnit.MINUTES
+            .toMillis(10);
+
+    /**
+     * The longest time between two sweeps for stale keys
+     *
+     * @var long
+     */
+    private static final long MAX_SWEEP_INTERVAL_MILLIS = 30000;
+
+    /**
+     * The wait before refilling again after the first failed create
+     *
+     * @var long
+     */
+    private static final long MIN_FAILURE_BACKOFF_MILLIS = 1000;
+
+    /**
+     * The longest wait before refilling again after failed creates
+     *
+     * @var long
+     */
+    private static final long MAX_FAILURE_BACKOFF_MILLIS = 60000;
+
+    /**
+     * The client sessions are created through
+     *
+     * @var object
+     */
+    private final CrocodocClient client;
+
+    /**
+     * The number of keys kept ready per hot document and param set
+     *
+     * @var int
+     */
+    private final int depth;
+
+    /**
+     * How long a session key is valid after it is created
+     *
+     * @var long
+     */
+    private final long lifetimeMillis;
+
+    /**
+     * The lifetime a key must have left to be handed out
+     *
+     * @var long
+     */
+    private final long minRemainingMillis;
+
+    /**
+     * The hot documents, keyed by uuid and params
+     *
+     * @var object
+     */
+    private final ConcurrentHashMap<List<Object>, Hot> hot = new ConcurrentHashMap<List<Object>, Hot>();
+
+    /**
+     * The number of keys handed out from the pool
+     *
+     * @var object
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of keys that had to be created on the spot
+     *
+     * @var object
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * The periodic sweep for stale keys
+     *
+     * @var object
+     */
+    private final ScheduledFuture<?> sweeper;
+
+    /**
+     * Has this pool been closed?
+     *
+     * @var bool
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Create a session pool with the default key lifetime
+     *
+     * @param object
+     *            client The client sessions are created through
+     * @param int depth The number of keys kept ready per hot document
+     */
+    public CrocodocSessionPool(CrocodocClient client, int depth) {
+        this(client, depth, DEFAULT_LIFETIME_MILLIS,
+                DEFAULT_MIN_REMAINING_MILLIS);
+    }
+
+    /**
+     * Create a session pool
+     *
+     * @param object
+     *            client The client sessions are created through
+     * @param int depth The number of keys kept ready per hot document
+     * @param long lifetimeMillis How long a session key is valid after it is
+     *        created
+     * @param long minRemainingMillis The lifetime a key must have left to be
+     *        handed out
+     */
+    public CrocodocSessionPool(CrocodocClient client, int depth,
+            long lifetimeMillis, long minRemainingMillis) {
+        if (depth < 1 || minRemainingMillis < 0
+                || lifetimeMillis <= minRemainingMillis) {
+            throw new IllegalArgumentException("Invalid session pool settings");
+        }
+
+        this.client = client;
+        this.depth = depth;
+        this.lifetimeMillis = lifetimeMillis;
+        this.minRemainingMillis = minRemainingMillis;
+
+        long interval = Math.min(Math.max(minRemainingMillis / 2, 1),
+                MAX_SWEEP_INTERVAL_MILLIS);
+        sweeper = client.getScheduler().scheduleWithFixedDelay(() -> _sweep(),
+                interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the number of keys kept ready per hot document
+     *
+     * @return int The pool depth
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Get the number of keys handed out from the pool
+     *
+     * @return long The hit count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of keys that had to be created on the spot
+     *
+     * @return long The miss count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Start keeping keys ready for a document with default session options
+     *
+     * @param string
+     *            uuid The uuid of the document
+     */
+    public void add(String uuid) {
+        add(uuid, null);
+    }
+
+    /**
+     * Start keeping keys ready for a document and a set of session options.
+     * See CrocodocSessionClient.create(String, Map) for the supported params.
+     *
+     * @param string
+     *            uuid The uuid of the document
+     * @param map
+     *            params The session options, may be null
+     */
+    public void add(String uuid, Map<String, Object> params) {
+        if (closed) {
+            throw new IllegalStateException("Session pool is closed");
+        }
+
+        List<Object> key = _key(uuid, params);
+        Hot entry = hot.get(key);
+
+        if (entry == null) {
+            Hot created = new Hot(key, uuid, params);
+            entry = hot.putIfAbsent(key, created);
+
+            if (entry == null) {
+                entry = created;
+            }
+        }
+
+        _refill(entry);
+    }
+
+    /**
+     * Stop keeping keys ready for a document with default session options
+     *
+     * @param string
+     *            uuid The uuid of the document
+     */
+    public void remove(String uuid) {
+        remove(uuid, null);
+    }
+
+    /**
+     * Stop keeping keys ready for a document and a set of session options.
+     * Keys already created are dropped.
+     *
+     * @param string
+     *            uuid The uuid of the document
+     * @param map
+     *            params The session options, may be null
+     */
+    public void remove(String uuid, Map<String, Object> params) {
+        hot.remove(_key(uuid, params));
+    }
+
+    /**
+     * Get the number of fresh keys ready for a document and a set of session
+     * options
+     *
+     * @param string
+     *            uuid The uuid of the document
+     * @param map
+     *            params The session options, may be null
+     *
+     * @return int The number of keys ready
+     */
+    public int getAvailable(String uuid, Map<String, Object> params) {
+        Hot entry = hot.get(_key(uuid, params));
+
+        if (entry == null) {
+            return 0;
+        }
+
+        _dropStale(entry);
+        return entry.keys.size();
+    }
+
+    /**
+     * Take a session key for a document with default session options
+     *
+     * @param string
+     *            uuid The uuid of the document
+     *
+     * @return string A session key nobody else has been given
+     * @throws CrocodocException
+     */
+    public String take(String uuid) throws CrocodocException {
+        return take(uuid, null);
+    }
+
+    /**
+     * Take a session key for a document and a set of session options. A
+     * ready key is returned at once if there is one; otherwise, or if the
+     * document isn't hot, the session is created on the spot.
+     *
+     * @param string
+     *            uuid The uuid of the document
+     * @param map
+     *            params The session options, may be null
+     *
+     * @return string A session key nobody else has been given
+     * @throws CrocodocException
+     */
+    public String take(String uuid, Map<String, Object> params)
+            throws CrocodocException {
+        Hot entry = hot.get(_key(uuid, params));
+
+        if (entry != null) {
+            long now = System.currentTimeMillis();
+            SessionKey sessionKey;
+
+            while ((sessionKey = entry.keys.poll()) != null) {
+                if (_isFresh(sessionKey, now)) {
+                    break;
+                }
+            }
+
+            _refill(entry);
+
+            if (sessionKey != null) {
+                hits.increment();
+                return sessionKey.session;
+            }
+        }
+
+        misses.increment();
+        return client.session().create(uuid, params);
+    }
+
+    /**
+     * Stop refilling and drop every ready key
+     */
+    public void close() {
+        closed = true;
+        sweeper.cancel(false);
+        hot.clear();
+    }
+
+    /**
+     * Drop stale keys of every hot document and top the queues up again
+     */
+    private void _sweep() {
+        for (Hot entry : hot.values()) {
+            _dropStale(entry);
+            _refill(entry);
+        }
+    }
+
+    /**
+     * Drop the keys of a hot document that are too close to expiring
+     *
+     * @param object
+     *            entry The hot document
+     */
+    private void _dropStale(Hot entry) {
+        final long now = System.currentTimeMillis();
+        entry.keys.removeIf(sessionKey -> !_isFresh(sessionKey, now));
+    }
+
+    /**
+     * Start creating keys for a hot document until the ready and pending
+     * keys reach the pool depth. After a failed create nothing is started
+     * until the backoff has passed, and then only one create at a time until
+     * one succeeds.
+     *
+     * @param object
+     *            entry The hot document
+     */
+    private void _refill(final Hot entry) {
+        while (!closed) {
+            int pending = entry.pending.get();
+
+            if (entry.keys.size() + pending >= depth) {
+                return;
+            }
+
+            if (entry.failures.get() > 0
+                    && (pending > 0 || System.currentTimeMillis() < entry.retryAt)) {
+                return;
+            }
+
+            if (entry.pending.compareAndSet(pending, pending + 1)) {
+                // the key's lifetime is counted from before the request, so
+                // its expiry is never later than the server's
+                final long requested = System.currentTimeMillis();
+
+                try {
+                    client.session().createAsync(entry.uuid, entry.params)
+                            .whenComplete((session, error) -> _created(entry,
+                                    session, requested));
+                } catch (RuntimeException e) {
+                    _created(entry, null, requested);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue a key created for a hot document, or back off if the create
+     * failed
+     *
+     * @param object
+     *            entry The hot document
+     * @param string
+     *            session The new session key, null if the create failed
+     * @param long requested When the create was started
+     */
+    private void _created(Hot entry, String session, long requested) {
+        if (session == null) {
+            int failures = entry.failures.incrementAndGet();
+            long backoff = Math.min(MIN_FAILURE_BACKOFF_MILLIS << Math.min(
+                    failures - 1, 16), MAX_FAILURE_BACKOFF_MILLIS);
+            entry.retryAt = System.currentTimeMillis() + backoff;
+        } else {
+            entry.failures.set(0);
+
+            if (!closed && hot.get(entry.key) == entry) {
+                entry.keys.add(new SessionKey(session, requested
+                        + lifetimeMillis));
+            }
+        }
+
+        entry.pending.decrementAndGet();
+    }
+
+    /**
+     * Does a key have enough of its lifetime left to be handed out?
+     *
+     * @return bool Whether the key is fresh
+     */
+    private boolean _isFresh(SessionKey sessionKey, long now) {
+        return sessionKey.expiresAt - minRemainingMillis > now;
+    }
+
+    /**
+     * Build the lookup key of a document and a set of session options
+     *
+     * @return object The lookup key
+     */
+    private static List<Object> _key(String uuid, Map<String, Object> params) {
+        Map<String, Object> copy = params != null ? new HashMap<String, Object>(
+                params) : Collections.<String, Object> emptyMap();
+        return Arrays.<Object> asList(uuid, copy);
+    }
+
+    /**
+     * A hot document and param set with its ready keys
+     */
+    private static class Hot {
+        final List<Object> key;
+        final String uuid;
+        final Map<String, Object> params;
+        final ConcurrentLinkedQueue<SessionKey> keys = new ConcurrentLinkedQueue<SessionKey>();
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        volatile long retryAt = 0;
+
+        Hot(List<Object> key, String uuid, Map<String, Object> params) {
+            this.key = key;
+            this.uuid = uuid;
+            this.params = params != null ? new HashMap<String, Object>(params)
+                    : null;
+        }
+    }
+
+    /**
+     * A session key with the time it expires at
+     */
+    private static class SessionKey {
+        final String session;
+        final long expiresAt;
+
+        SessionKey(String session, long expiresAt) {
+            this.session = session;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
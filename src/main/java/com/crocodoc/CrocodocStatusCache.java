@@ -0,0 +1,201 @@
+package com.crocodoc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+
+/**
+ * A bounded, least-recently-used cache of document statuses. Statuses of
+ * documents that are still QUEUED or PROCESSING expire after a TTL, while DONE
+ * and ERROR statuses never change and stay cached until they are evicted or
+ * invalidated. Statuses that carry an error, such as for an unknown uuid, are
+ * not cached.
+ */
+public class CrocodocStatusCache {
+    /**
+     * The maximum number of statuses kept
+     * 
+     * @var int
+     */
+    private final int maxSize;
+
+    /**
+     * How long a non-terminal status stays valid
+     * 
+     * @var long
+     */
+    private final long ttlMillis;
+
+    /**
+     * The cached statuses by uuid, in access order
+     * 
+     * @var map
+     */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Create a status cache
+     * 
+     * @param int maxSize The maximum number of statuses kept
+     * @param long ttlMillis How long a QUEUED or PROCESSING status stays valid
+     */
+    public CrocodocStatusCache(final int maxSize, long ttlMillis) {
+        if (maxSize < 1 || ttlMillis < 0) {
+            throw new IllegalArgumentException("Invalid status cache settings");
+        }
+
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the maximum number of statuses kept
+     * 
+     * @return int The maximum size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get how long a non-terminal status stays valid
+     * 
+     * @return long The TTL in milliseconds
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Get the cached status of a document
+     * 
+     * @param string
+     *            uuid The uuid of the document
+     * 
+     * @return map A copy of the cached status map, or null if there is no
+     *         valid cached status
+     */
+    public Map<String, Object> get(String uuid) {
+        Entry entry;
+
+        synchronized (entries) {
+            entry = entries.get(uuid);
+
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(uuid);
+                return null;
+            }
+        }
+
+        return _copy(entry.status);
+    }
+
+    /**
+     * Cache the status of a document
+     * 
+     * @param string
+     *            uuid The uuid of the document
+     * @param map
+     *            status The status map returned by the API
+     */
+    public void put(String uuid, Map<String, Object> status) {
+        if (uuid == null || status == null || status.containsKey("error")) {
+            return;
+        }
+
+        long expiresAt = isTerminal(status) ? Long.MAX_VALUE : System
+                .currentTimeMillis() + ttlMillis;
+        Entry entry = new Entry(_copy(status), expiresAt);
+
+        synchronized (entries) {
+            entries.put(uuid, entry);
+        }
+    }
+
+    /**
+     * Remove the cached status of a document
+     * 
+     * @param string
+     *            uuid The uuid of the document
+     */
+    public void invalidate(String uuid) {
+        synchronized (entries) {
+            entries.remove(uuid);
+        }
+    }
+
+    /**
+     * Remove every cached status
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get the number of cached statuses, including expired ones that haven't
+     * been removed yet
+     * 
+     * @return int The number of entries
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Is a status final? A DONE or ERROR status never changes again.
+     * 
+     * @param map
+     *            status The status map
+     * 
+     * @return bool Whether the status is DONE or ERROR
+     */
+    public static boolean isTerminal(Map<String, Object> status) {
+        Object value = status.get("status");
+        return "DONE".equals(value) || "ERROR".equals(value);
+    }
+
+    /**
+     * Copy a status map so cached statuses can't be changed by callers
+     * 
+     * @param map
+     *            status The status map
+     * 
+     * @return map The copy
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> _copy(Map<String, Object> status) {
+        JSONObject copy = new JSONObject();
+        copy.putAll(status);
+        return copy;
+    }
+
+    /**
+     * A cached status and when it stops being valid
+     */
+    private static class Entry {
+        final Map<String, Object> status;
+        final long expiresAt;
+
+        Entry(Map<String, Object> status, long expiresAt) {
+            this.status = status;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
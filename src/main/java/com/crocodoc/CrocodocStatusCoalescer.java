@@ -0,0 +1,267 @@
+package com.crocodoc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges concurrent single-document status calls into batched status
+ * requests. Calls made within a short window are collected, sent as one
+ * comma-joined uuids request, and each caller gets the status of its own uuid
+ * back. Several calls for the same uuid share one entry in the batch.
+ */
+class CrocodocStatusCoalescer {
+    /**
+     * The client batched requests are made through
+     * 
+     * @var object
+     */
+    private final CrocodocClient client;
+
+    /**
+     * How long to collect calls before sending a batch
+     * 
+     * @var long
+     */
+    private final long windowMillis;
+
+    /**
+     * The maximum number of distinct uuids per batch
+     * 
+     * @var int
+     */
+    private final int maxBatchSize;
+
+    /**
+     * Guards pending and flushTask
+     * 
+     * @var object
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The callers waiting on the batch being collected, by uuid
+     * 
+     * @var map
+     */
+    private Map<String, List<CompletableFuture<Map<String, Object>>>> pending = new LinkedHashMap<String, List<CompletableFuture<Map<String, Object>>>>();
+
+    /**
+     * The scheduled send of the batch being collected
+     * 
+     * @var object
+     */
+    private ScheduledFuture<?> flushTask;
+
+    /**
+     * Create a status coalescer
+     * 
+     * @param object
+     *            client The client batched requests are made through
+     * @param long windowMillis How long to collect calls before sending
+     * @param int maxBatchSize The maximum number of uuids per batch
+     */
+    CrocodocStatusCoalescer(CrocodocClient client, long windowMillis,
+            int maxBatchSize) {
+        this.client = client;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Get the collection window
+     * 
+     * @return long The window in milliseconds
+     */
+    long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Get the maximum batch size
+     * 
+     * @return int The maximum number of uuids per batch
+     */
+    int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Add a uuid to the next batch.
+     * 
+     * @param string
+     *            uuid The uuid of the file to check the status of
+     * 
+     * @return object A future of the status map of the file, failed with
+     *         "client_closed" if the client has been closed
+     */
+    CompletableFuture<Map<String, Object>> submit(String uuid) {
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<Map<String, Object>>();
+
+        try {
+            client._enter();
+        } catch (CrocodocException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        future.whenComplete((status, e) -> client._exit());
+        Map<String, List<CompletableFuture<Map<String, Object>>>> batch = null;
+
+        synchronized (lock) {
+            List<CompletableFuture<Map<String, Object>>> waiters = pending
+                    .get(uuid);
+
+            if (waiters == null) {
+                waiters = new ArrayList<CompletableFuture<Map<String, Object>>>();
+                pending.put(uuid, waiters);
+            }
+
+            waiters.add(future);
+
+            if (pending.size() >= maxBatchSize) {
+                batch = _takeBatch();
+            } else if (flushTask == null) {
+                try {
+                    flushTask = client.getScheduler().schedule(() -> _flush(),
+                            windowMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // no window without a scheduler; send what there is now
+                    batch = _takeBatch();
+                }
+            }
+        }
+
+        if (batch != null) {
+            _dispatch(batch);
+        }
+
+        return future;
+    }
+
+    /**
+     * Send the batch being collected, called when its window has passed.
+     */
+    private void _flush() {
+        Map<String, List<CompletableFuture<Map<String, Object>>>> batch;
+
+        synchronized (lock) {
+            flushTask = null;
+            batch = _takeBatch();
+        }
+
+        if (!batch.isEmpty()) {
+            _dispatch(batch);
+        }
+    }
+
+    /**
+     * Take the batch being collected and start a new one. Must be called
+     * while holding the lock.
+     * 
+     * @return map The callers waiting on the batch, by uuid
+     */
+    private Map<String, List<CompletableFuture<Map<String, Object>>>> _takeBatch() {
+        Map<String, List<CompletableFuture<Map<String, Object>>>> batch = pending;
+        pending = new LinkedHashMap<String, List<CompletableFuture<Map<String, Object>>>>();
+
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+
+        return batch;
+    }
+
+    /**
+     * Send a batch on the client's executor so the scheduler thread is never
+     * blocked on the network.
+     * 
+     * @param map
+     *            batch The callers waiting on the batch, by uuid
+     */
+    private void _dispatch(
+            final Map<String, List<CompletableFuture<Map<String, Object>>>> batch) {
+        try {
+            client.getExecutor().execute(() -> _send(batch));
+        } catch (RejectedExecutionException e) {
+            _fail(batch, client._rejected("status"));
+        }
+    }
+
+    /**
+     * Make the batched status request and hand each caller its status.
+     * 
+     * @param map
+     *            batch The callers waiting on the batch, by uuid
+     */
+    private void _send(
+            Map<String, List<CompletableFuture<Map<String, Object>>>> batch) {
+        ArrayList<String> uuids = new ArrayList<String>(batch.keySet());
+        ArrayList<Map<String, Object>> statuses;
+
+        try {
+            statuses = client.document()._fetchStatus(uuids);
+        } catch (Throwable e) {
+            _fail(batch, e);
+            return;
+        }
+
+        Map<String, Map<String, Object>> byUuid = CrocodocDocumentClient
+                ._byUuid(statuses);
+
+        for (String uuid : uuids) {
+            Map<String, Object> status = byUuid.get(uuid);
+
+            for (CompletableFuture<Map<String, Object>> future : batch
+                    .get(uuid)) {
+                _complete(future, status);
+            }
+        }
+    }
+
+    /**
+     * Complete one caller's future with its status, failing it like
+     * CrocodocDocumentClient.status(String) would if the uuid is missing.
+     * 
+     * @param object
+     *            future The caller's future
+     * @param map
+     *            status The status of the caller's uuid
+     */
+    private static void _complete(CompletableFuture<Map<String, Object>> future,
+            Map<String, Object> status) {
+        if (status == null || !status.containsKey("uuid")
+                || status.get("uuid") == null || status.get("uuid") == "") {
+            future.completeExceptionally(Crocodoc._exception("missing_uuid",
+                    "CrocodocDocument", "status", status));
+            return;
+        }
+
+        future.complete(status);
+    }
+
+    /**
+     * Fail every caller waiting on a batch
+     * 
+     * @param map
+     *            batch The callers waiting on the batch, by uuid
+     * @param object
+     *            e The reason the batch failed
+     */
+    private static void _fail(
+            Map<String, List<CompletableFuture<Map<String, Object>>>> batch,
+            Throwable e) {
+        for (List<CompletableFuture<Map<String, Object>>> waiters : batch
+                .values()) {
+            for (CompletableFuture<Map<String, Object>> future : waiters) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.crocodoc;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * A response body streamed from its connection that runs a callback once the
+ * connection is given back: when the body has been read to the end, closed
+ * or aborted. The callback gets the number of body bytes actually read,
+ * which is known even for chunked responses. A call keeps its bulkhead
+ * permit until then, as the connection stays leased from the bulkhead's
+ * partition while the caller reads, and the size and duration of the
+ * transfer are recorded then.
+ */
+class CrocodocStreamedEntity extends HttpEntityWrapper {
+    /**
+     * Run once the connection is given back, with the number of bytes read
+     *
+     * @var object
+     */
+    private final LongConsumer onRelease;
+
+    /**
+     * The number of body bytes read so far
+     *
+     * @var object
+     */
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    /**
+     * Has the callback run?
+     *
+     * @var object
+     */
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    /**
+     * Wrap a streamed response body
+     *
+     * @param object
+     *            entity The body, still streamed from its connection
+     * @param object
+     *            onRelease Run once the connection is given back, with the
+     *            number of body bytes read
+     */
+    CrocodocStreamedEntity(HttpEntity entity, LongConsumer onRelease) {
+        super(entity);
+        this.onRelease = onRelease;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        InputStream in;
+
+        try {
+            in = super.getContent();
+        } catch (IOException | RuntimeException e) {
+            _release();
+            throw e;
+        }
+
+        return in != null ? new Content(in) : null;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try {
+            super.writeTo(new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    bytesRead.incrementAndGet();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len)
+                        throws IOException {
+                    out.write(b, off, len);
+                    bytesRead.addAndGet(len);
+                }
+            });
+        } finally {
+            _release();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void consumeContent() throws IOException {
+        try {
+            super.consumeContent();
+        } finally {
+            _release();
+        }
+    }
+
+    /**
+     * Run the callback if it hasn't run yet
+     */
+    private void _release() {
+        if (released.compareAndSet(false, true)) {
+            onRelease.accept(bytesRead.get());
+        }
+    }
+
+    /**
+     * The content stream, which passes connection release and abort through
+     * to the connection's stream
+     */
+    private class Content extends FilterInputStream implements
+            ConnectionReleaseTrigger {
+        Content(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+
+            if (read == -1) {
+                _release();
+            } else {
+                bytesRead.incrementAndGet();
+            }
+
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+
+            if (read == -1) {
+                _release();
+            } else {
+                bytesRead.addAndGet(read);
+            }
+
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                _release();
+            }
+        }
+
+        public void releaseConnection() throws IOException {
+            try {
+                if (in instanceof ConnectionReleaseTrigger) {
+                    ((ConnectionReleaseTrigger) in).releaseConnection();
+                } else {
+                    in.close();
+                }
+            } finally {
+                _release();
+            }
+        }
+
+        public void abortConnection() throws IOException {
+            try {
+                if (in instanceof ConnectionReleaseTrigger) {
+                    ((ConnectionReleaseTrigger) in).abortConnection();
+                } else {
+                    in.close();
+                }
+            } finally {
+                _release();
+            }
+        }
+    }
+}
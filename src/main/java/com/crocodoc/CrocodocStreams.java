@@ -0,0 +1,311 @@
+package com.crocodoc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+
+/**
+ * Streams downloaded entities to files, channels and output streams with
+ * constant memory. Every transfer uses one fixed buffer per thread, reports
+ * its progress, and always hands the connection back to the pool: it is
+ * released once the entity has been read to the end, and aborted if the
+ * transfer fails partway.
+ */
+final class CrocodocStreams {
+    /**
+     * The size of the per-thread transfer buffer
+     * 
+     * @var int
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * How many bytes a file transfer moves between progress updates
+     * 
+     * @var long
+     */
+    static final long FILE_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The transfer buffer of each thread, reused across transfers
+     * 
+     * @var object
+     */
+    private static final ThreadLocal<ByteBuffer> _buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+    };
+
+    private CrocodocStreams() {
+    }
+
+    /**
+     * Stream an entity to a file, replacing the file if it exists. The
+     * content is moved with FileChannel.transferFrom.
+     * 
+     * @param object
+     *            entity The downloaded entity
+     * @param object
+     *            target The file to write
+     * @param object
+     *            listener Notified of progress, may be null
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    static long downloadTo(HttpEntity entity, Path target,
+            CrocodocProgressListener listener) throws CrocodocException {
+        if (entity instanceof CrocodocDiskCache.CachedEntity) {
+            try (FileChannel out = FileChannel.open(target,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                return _transferCached(entity, out, listener);
+            } catch (IOException e) {
+                ((CrocodocDiskCache.CachedEntity) entity).close();
+                _failed(e, target);
+            }
+        }
+
+        InputStream in = _content(entity);
+        long total = entity.getContentLength();
+        long position = 0;
+        boolean finished = false;
+
+        try (FileChannel out = FileChannel.open(target,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ReadableByteChannel source = Channels.newChannel(in);
+
+            while (true) {
+                long count = out.transferFrom(source, position,
+                        FILE_CHUNK_SIZE);
+
+                if (count <= 0) {
+                    break;
+                }
+
+                position += count;
+                _progress(listener, position, total);
+            }
+
+            finished = true;
+        } catch (IOException e) {
+            _failed(e, target);
+        } finally {
+            _release(in, finished);
+        }
+
+        return position;
+    }
+
+    /**
+     * Stream an entity to a channel. The channel is left open.
+     * 
+     * @param object
+     *            entity The downloaded entity
+     * @param object
+     *            target The channel to write to
+     * @param object
+     *            listener Notified of progress, may be null
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    static long downloadTo(HttpEntity entity, WritableByteChannel target,
+            CrocodocProgressListener listener) throws CrocodocException {
+        if (entity instanceof CrocodocDiskCache.CachedEntity) {
+            return _transferCached(entity, target, listener);
+        }
+
+        InputStream in = _content(entity);
+        long total = entity.getContentLength();
+        long transferred = 0;
+        boolean finished = false;
+        ByteBuffer buffer = _buffers.get();
+
+        try {
+            ReadableByteChannel source = Channels.newChannel(in);
+            buffer.clear();
+
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+
+                while (buffer.hasRemaining()) {
+                    transferred += target.write(buffer);
+                }
+
+                buffer.clear();
+                _progress(listener, transferred, total);
+            }
+
+            finished = true;
+        } catch (IOException e) {
+            _failed(e, target);
+        } finally {
+            buffer.clear();
+            _release(in, finished);
+        }
+
+        return transferred;
+    }
+
+    /**
+     * Stream an entity to an output stream. The stream is flushed but left
+     * open.
+     * 
+     * @param object
+     *            entity The downloaded entity
+     * @param object
+     *            target The stream to write to
+     * @param object
+     *            listener Notified of progress, may be null
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    static long downloadTo(HttpEntity entity, OutputStream target,
+            CrocodocProgressListener listener) throws CrocodocException {
+        InputStream in = _content(entity);
+        long total = entity.getContentLength();
+        long transferred = 0;
+        boolean finished = false;
+        byte[] buffer = _buffers.get().array();
+
+        try {
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+                target.write(buffer, 0, count);
+                transferred += count;
+                _progress(listener, transferred, total);
+            }
+
+            target.flush();
+            finished = true;
+        } catch (IOException e) {
+            _failed(e, target);
+        } finally {
+            _release(in, finished);
+        }
+
+        return transferred;
+    }
+
+    /**
+     * Copy a file from the disk cache to a channel with
+     * FileChannel.transferTo, without passing it through a buffer
+     * 
+     * @param object
+     *            entity The cached entity
+     * @param object
+     *            target The channel to write to
+     * @param object
+     *            listener Notified of progress, may be null
+     * 
+     * @return long The number of bytes written
+     * @throws CrocodocException
+     */
+    private static long _transferCached(HttpEntity entity,
+            WritableByteChannel target, CrocodocProgressListener listener)
+            throws CrocodocException {
+        CrocodocDiskCache.CachedEntity cached = (CrocodocDiskCache.CachedEntity) entity;
+        long transferred = 0;
+
+        try {
+            transferred = cached.transferTo(target);
+            _progress(listener, transferred, cached.getContentLength());
+        } catch (IOException e) {
+            _failed(e, target);
+        } finally {
+            cached.close();
+        }
+
+        return transferred;
+    }
+
+    /**
+     * Open the content of an entity
+     * 
+     * @param object
+     *            entity The downloaded entity
+     * 
+     * @return object The content stream
+     * @throws CrocodocException
+     */
+    private static InputStream _content(HttpEntity entity)
+            throws CrocodocException {
+        try {
+            return entity.getContent();
+        } catch (IOException e) {
+            _failed(e, null);
+        }
+
+        return null;
+    }
+
+    /**
+     * Give the connection of a transfer back to the pool. A finished transfer
+     * has read the whole response, so its connection can be reused; an
+     * unfinished one is aborted rather than reading the rest of a large
+     * response just to reuse the connection.
+     * 
+     * @param object
+     *            in The content stream of the transfer
+     * @param bool
+     *            finished Was the whole response read?
+     */
+    private static void _release(InputStream in, boolean finished) {
+        try {
+            if (!finished && in instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger) in).abortConnection();
+            } else {
+                in.close();
+            }
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Report progress if there is a listener
+     */
+    private static void _progress(CrocodocProgressListener listener,
+            long transferred, long total) {
+        if (listener != null) {
+            listener.onProgress(transferred, total);
+        }
+    }
+
+    /**
+     * Turn an I/O failure into a CrocodocException
+     * 
+     * @param object
+     *            e The failure
+     * @param object
+     *            target Where the download was written to
+     * 
+     * @throws CrocodocException
+     */
+    private static void _failed(IOException e, Object target)
+            throws CrocodocException {
+        Map<String, Object> errorParams = new HashMap<String, Object>();
+        errorParams.put("error", e.getMessage());
+        errorParams.put("exception", e.getClass().getName());
+        errorParams.put("target", String.valueOf(target));
+        Crocodoc._error("download_failed", "CrocodocDownload", "downloadTo",
+                errorParams);
+    }
+}
@@ -0,0 +1,88 @@
+package com.crocodoc;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the bytes moved by transfers and the time they took, to report
+ * the average throughput. Recording is lock-free and safe from any thread.
+ */
+public class CrocodocThroughput {
+    /**
+     * The number of transfers recorded
+     * 
+     * @var object
+     */
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * The total number of bytes transferred
+     * 
+     * @var object
+     */
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * The total time spent transferring
+     * 
+     * @var object
+     */
+    private final LongAdder nanos = new LongAdder();
+
+    /**
+     * Record one transfer
+     * 
+     * @param long bytes The number of bytes transferred
+     * @param long nanos How long the transfer took in nanoseconds
+     */
+    public void record(long bytes, long nanos) {
+        this.count.increment();
+        this.bytes.add(bytes);
+        this.nanos.add(nanos);
+    }
+
+    /**
+     * Get the number of transfers recorded
+     * 
+     * @return long The transfer count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the total number of bytes transferred
+     * 
+     * @return long The byte count
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Get the total time spent transferring
+     * 
+     * @return long The time in nanoseconds
+     */
+    public long getNanos() {
+        return nanos.sum();
+    }
+
+    /**
+     * Get the average throughput while transferring
+     * 
+     * @return double The throughput in bytes per second
+     */
+    public double getBytesPerSecond() {
+        long totalNanos = nanos.sum();
+        return totalNanos > 0 ? bytes.sum() * 1e9 / totalNanos : 0;
+    }
+
+    /**
+     * Forget every recorded transfer
+     */
+    public void reset() {
+        count.reset();
+        bytes.reset();
+        nanos.reset();
+    }
+}
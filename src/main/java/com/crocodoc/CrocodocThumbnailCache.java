@@ -0,0 +1,398 @@
+package com.crocodoc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * An in-memory cache of thumbnails keyed by uuid, size and tenant, bounded by
+ * the total number of bytes it holds. The tenant is a hash of the API token and
+ * host of the client, so clients with different tokens can share a cache. The cache is split into stripes, each with
+ * its own lock, least-recently-used order and share of the byte limit, so
+ * concurrent lookups rarely contend. Concurrent misses for the same thumbnail
+ * share a single fetch.
+ */
+public class CrocodocThumbnailCache {
+    /**
+     * The number of independently locked stripes
+     * 
+     * @var int
+     */
+    private static final int STRIPES = 16;
+
+    /**
+     * The estimated memory used by one entry besides its image bytes
+     * 
+     * @var int
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * The maximum total size of the cached thumbnails
+     * 
+     * @var long
+     */
+    private final long maxBytes;
+
+    /**
+     * The stripes of the cache
+     * 
+     * @var array
+     */
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * The fetches in flight, by key
+     * 
+     * @var map
+     */
+    private final ConcurrentHashMap<String, Fetch> inFlight = new ConcurrentHashMap<String, Fetch>();
+
+    /**
+     * The number of lookups answered from the cache
+     * 
+     * @var object
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of lookups that had to fetch the thumbnail
+     * 
+     * @var object
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a thumbnail cache
+     * 
+     * @param long maxBytes The maximum total size of the cached thumbnails
+     */
+    public CrocodocThumbnailCache(long maxBytes) {
+        if (maxBytes < STRIPES) {
+            throw new IllegalArgumentException("maxBytes is too small");
+        }
+
+        this.maxBytes = maxBytes;
+
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxBytes / STRIPES);
+        }
+    }
+
+    /**
+     * Get the maximum total size of the cached thumbnails
+     * 
+     * @return long The size limit in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the total size of the cached thumbnails, including the estimated
+     * overhead of each entry
+     * 
+     * @return long The size in bytes
+     */
+    public long getTotalBytes() {
+        long total = 0;
+
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                total += stripe.bytes;
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Get the number of lookups answered from the cache
+     * 
+     * @return long The hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of lookups that had to fetch the thumbnail
+     * 
+     * @return long The miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Get a cached thumbnail
+     * 
+     * @param string
+     *            tenant The tenant of the client, from
+     *            CrocodocDiskCache._tenant()
+     * @param string
+     *            uuid The uuid of the document
+     * @param string
+     *            size The WIDTHxHEIGHT size string, may be null
+     * 
+     * @return object An HttpEntity of the thumbnail, or null on a miss
+     */
+    public HttpEntity get(String tenant, String uuid, String size) {
+        String key = _key(tenant, uuid, size);
+        Thumbnail thumbnail = _stripe(key).get(key);
+
+        if (thumbnail == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return thumbnail.toEntity();
+    }
+
+    /**
+     * Remove every cached size of a document's thumbnail. A fetch of it still
+     * in flight is handed to its callers but not cached.
+     * 
+     * @param string
+     *            uuid The uuid of the document
+     */
+    public void invalidate(String uuid) {
+        _invalidate(uuid + "|");
+    }
+
+    /**
+     * Remove every cached thumbnail
+     */
+    public void clear() {
+        _invalidate("");
+    }
+
+    /**
+     * Mark the fetches in flight whose keys start with a prefix, so they
+     * aren't cached, and remove the cached thumbnails with that prefix
+     * 
+     * @param string
+     *            prefix The prefix of the keys to remove
+     */
+    private void _invalidate(String prefix) {
+        for (Map.Entry<String, Fetch> entry : inFlight.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                _stripe(entry.getKey()).invalidate(entry.getValue());
+            }
+        }
+
+        for (Stripe stripe : stripes) {
+            stripe.removeIf(prefix);
+        }
+    }
+
+    /**
+     * Get a thumbnail from the cache, or fetch and cache it. If the same
+     * thumbnail is already being fetched, wait for that fetch instead of
+     * starting another one.
+     * 
+     * @param string
+     *            tenant The tenant of the client
+     * @param string
+     *            uuid The uuid of the document
+     * @param string
+     *            size The WIDTHxHEIGHT size string, may be null
+     * @param object
+     *            fetcher Downloads the thumbnail on a miss
+     * 
+     * @return object An HttpEntity of the thumbnail
+     * @throws CrocodocException
+     */
+    HttpEntity getOrFetch(String tenant, String uuid, String size,
+            CrocodocCallable<HttpEntity> fetcher) throws CrocodocException {
+        String key = _key(tenant, uuid, size);
+        Stripe stripe = _stripe(key);
+        Thumbnail thumbnail = stripe.get(key);
+
+        if (thumbnail != null) {
+            hits.increment();
+            return thumbnail.toEntity();
+        }
+
+        misses.increment();
+        Fetch fetch = new Fetch();
+        Fetch existing = inFlight.putIfAbsent(key, fetch);
+
+        if (existing != null) {
+            return CrocodocClient._await(existing).toEntity();
+        }
+
+        try {
+            thumbnail = _buffer(fetcher.call());
+            stripe.put(key, thumbnail, fetch);
+            fetch.complete(thumbnail);
+            return thumbnail.toEntity();
+        } catch (CrocodocException e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, fetch);
+        }
+    }
+
+    /**
+     * Read a downloaded thumbnail into memory
+     * 
+     * @param object
+     *            entity The downloaded entity
+     * 
+     * @return object The buffered thumbnail
+     * @throws CrocodocException
+     */
+    private static Thumbnail _buffer(HttpEntity entity)
+            throws CrocodocException {
+        try {
+            Header contentType = entity.getContentType();
+            return new Thumbnail(EntityUtils.toByteArray(entity),
+                    contentType != null ? contentType.getValue() : null);
+        } catch (IOException e) {
+            Map<String, Object> errorParams = new HashMap<String, Object>();
+            errorParams.put("error", e.getMessage());
+            Crocodoc._error("invalid_response", "CrocodocThumbnailCache",
+                    "getOrFetch", errorParams);
+        }
+
+        return null;
+    }
+
+    /**
+     * Build the cache key of a thumbnail. The uuid comes first so every size
+     * of a document can be found by prefix.
+     */
+    private static String _key(String tenant, String uuid, String size) {
+        return uuid + "|" + (size == null ? "" : size) + "|" + tenant;
+    }
+
+    /**
+     * Get the stripe a key belongs to
+     */
+    private Stripe _stripe(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return stripes[hash & (STRIPES - 1)];
+    }
+
+    /**
+     * A cached thumbnail
+     */
+    private static class Thumbnail {
+        final byte[] bytes;
+        final String contentType;
+
+        Thumbnail(byte[] bytes, String contentType) {
+            this.bytes = bytes;
+            this.contentType = contentType;
+        }
+
+        /**
+         * Create an entity over the cached bytes for one caller
+         */
+        HttpEntity toEntity() {
+            ByteArrayEntity entity = new ByteArrayEntity(bytes);
+            entity.setContentType(contentType);
+            return entity;
+        }
+
+        /**
+         * Estimate the memory this thumbnail uses under a key
+         */
+        long weight(String key) {
+            return bytes.length + key.length() * 2 + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * A fetch in flight, shared by every caller that missed the same key
+     */
+    private static class Fetch extends CompletableFuture<Thumbnail> {
+        /**
+         * Was the thumbnail invalidated while it was being fetched? Guarded
+         * by the lock of the key's stripe.
+         * 
+         * @var bool
+         */
+        boolean invalidated = false;
+    }
+
+    /**
+     * One independently locked part of the cache with its own LRU order and
+     * byte limit
+     */
+    private static class Stripe {
+        final long maxBytes;
+        final LinkedHashMap<String, Thumbnail> entries = new LinkedHashMap<String, Thumbnail>(
+                16, 0.75f, true);
+        long bytes = 0;
+
+        Stripe(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Thumbnail get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(String key, Thumbnail thumbnail, Fetch fetch) {
+            long weight = thumbnail.weight(key);
+
+            if (fetch.invalidated || weight > maxBytes) {
+                return;
+            }
+
+            Thumbnail previous = entries.put(key, thumbnail);
+
+            if (previous != null) {
+                bytes -= previous.weight(key);
+            }
+
+            bytes += weight;
+            Iterator<Map.Entry<String, Thumbnail>> eldest = entries
+                    .entrySet().iterator();
+
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Thumbnail> entry = eldest.next();
+                bytes -= entry.getValue().weight(entry.getKey());
+                eldest.remove();
+            }
+        }
+
+        synchronized void invalidate(Fetch fetch) {
+            fetch.invalidated = true;
+        }
+
+        synchronized void removeIf(String prefix) {
+            List<String> keys = new ArrayList<String>();
+
+            for (String key : entries.keySet()) {
+                if (key.startsWith(prefix)) {
+                    keys.add(key);
+                }
+            }
+
+            for (String key : keys) {
+                bytes -= entries.remove(key).weight(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CrocodocAdaptiveLimitTest {
+    private static final long RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void growsWhileBusyUpToTheMaximum() {
+        CrocodocAdaptiveLimit limit = new CrocodocAdaptiveLimit(2, 5);
+
+        for (int i = 0; i < 10; i++) {
+            limit._onSample(System.nanoTime(), RTT_NANOS, limit.getLimit(),
+                    false);
+        }
+
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void staysPutWhileMostlyIdle() {
+        CrocodocAdaptiveLimit limit = new CrocodocAdaptiveLimit(4, 10);
+
+        for (int i = 0; i < 10; i++) {
+            limit._onSample(System.nanoTime(), RTT_NANOS, 1, false);
+        }
+
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void burstOfErrorsCostsOneStepDown() {
+        CrocodocAdaptiveLimit limit = new CrocodocAdaptiveLimit(1, 100, 0.5,
+                2);
+
+        for (int i = 0; i < 19; i++) {
+            limit._onSample(System.nanoTime(), RTT_NANOS, limit.getLimit(),
+                    false);
+        }
+
+        assertEquals(20, limit.getLimit());
+
+        // every call of the burst started before the first error came back
+        long startedAt = System.nanoTime();
+
+        for (int i = 0; i < 5; i++) {
+            limit._onSample(startedAt, -1, 20, true);
+        }
+
+        assertEquals(10, limit.getLimit());
+        assertEquals(1, limit.getDecreases());
+
+        limit._onSample(System.nanoTime(), -1, 10, true);
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void neverDropsBelowTheMinimum() {
+        CrocodocAdaptiveLimit limit = new CrocodocAdaptiveLimit(3, 10, 0.1,
+                2);
+
+        for (int i = 0; i < 5; i++) {
+            limit._onSample(System.nanoTime(), -1, 3, true);
+        }
+
+        assertEquals(3, limit.getLimit());
+    }
+
+    @Test
+    public void risingLatencyShrinksTheLimit() {
+        CrocodocAdaptiveLimit limit = new CrocodocAdaptiveLimit(1, 100, 0.5,
+                2);
+
+        for (int i = 0; i < 19; i++) {
+            limit._onSample(System.nanoTime(), RTT_NANOS, limit.getLimit(),
+                    false);
+        }
+
+        for (int i = 0; i < 10 && limit.getDecreases() == 0; i++) {
+            limit._onSample(System.nanoTime(), RTT_NANOS * 10,
+                    limit.getLimit(), false);
+        }
+
+        assertEquals(1, limit.getDecreases());
+        assertTrue(limit.getLimit() < 20);
+        assertTrue(limit.getRecentLatencyMillis() > 2 * limit
+                .getLongTermLatencyMillis());
+    }
+
+    @Test
+    public void serverErrorsShrinkTheClientsLimit() throws Exception {
+        try (CrocodocStubServer server = new CrocodocStubServer()) {
+            CrocodocClient client = server.clientBuilder()
+                    .retryPolicy(CrocodocEndpoint.DOCUMENT_STATUS,
+                            CrocodocRetryPolicy.NONE)
+                    .circuitBreakers(new CrocodocCircuitBreakers(100, 50, 1))
+                    .maxConcurrentRequests(
+                            new CrocodocAdaptiveLimit(1, 50, 0.5, 2), 1000)
+                    .build();
+
+            try {
+                CrocodocDispatcher dispatcher = client.getDispatcher();
+
+                for (int i = 0; i < 20; i++) {
+                    client.document().status("uuid");
+                }
+
+                int grown = dispatcher.getMaxConcurrent();
+                assertTrue(grown > 1);
+
+                server.setErrorRate(1, 503);
+                server.setErrorBody(CrocodocStubServer.ErrorBody.HTML);
+                CrocodocRetryTest.assertError("server_error_503_unknown",
+                        () -> client.document().status("uuid"));
+
+                assertEquals(Math.max(1, grown / 2),
+                        dispatcher.getMaxConcurrent());
+            } finally {
+                client.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocAsyncTest {
+    private CrocodocStubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void callResultCompletesTheFuture() throws Exception {
+        CrocodocClient client = _client().build();
+
+        try {
+            assertNotNull(client.document().uploadAsync(
+                    "http://example.com/doc.pdf").get(5, TimeUnit.SECONDS));
+            assertEquals("DONE", client.document().statusAsync("uuid").get(5,
+                    TimeUnit.SECONDS).get("status"));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void failedCallCompletesTheFutureExceptionally() throws Exception {
+        server.failNext(2);
+        CrocodocClient client = _client().build();
+
+        try {
+            _assertFailed("server_error_503_unknown", client.document()
+                    .uploadAsync("http://example.com/doc.pdf"));
+            _assertFailed("server_error_503_unknown", client.document()
+                    .statusAsync("uuid"));
+        } finally {
+            client.close();
+        }
+
+        assertEquals(2, server.getRequests());
+    }
+
+    @Test
+    public void closedClientFailsWithClientClosed() throws Exception {
+        CrocodocClient client = _client().build();
+        client.close();
+
+        _assertFailed("client_closed", client.document().uploadAsync(
+                "http://example.com/doc.pdf"));
+        _assertFailed("client_closed", client.document().statusAsync("uuid"));
+        assertEquals(0, server.getRequests());
+    }
+
+    @Test
+    public void refusedCallFailsWithExecutorRejected() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        CrocodocClient client = _client().executor(executor).build();
+
+        try {
+            _assertFailed("executor_rejected", client.document().uploadAsync(
+                    "http://example.com/doc.pdf"));
+        } finally {
+            client.close();
+        }
+
+        assertEquals(0, server.getRequests());
+    }
+
+    private CrocodocClient.Builder _client() {
+        return server.clientBuilder()
+                .retryPolicy(CrocodocEndpoint.DOCUMENT_STATUS,
+                        CrocodocRetryPolicy.NONE)
+                .retryPolicy(CrocodocEndpoint.DOCUMENT_UPLOAD,
+                        CrocodocRetryPolicy.NONE)
+                .circuitBreakers(new CrocodocCircuitBreakers(100, 50, 1));
+    }
+
+    private static void _assertFailed(String code, CompletableFuture<?> future)
+            throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected " + code);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CrocodocException);
+            assertEquals(code, ((CrocodocException) e.getCause()).getCode());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocBulkUploaderTest {
+    private CrocodocStubServer server;
+    private CrocodocClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        client = server.clientBuilder()
+                .retryPolicy(CrocodocEndpoint.DOCUMENT_UPLOAD,
+                        CrocodocRetryPolicy.NONE)
+                .circuitBreakers(new CrocodocCircuitBreakers(100, 50, 1))
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void uploadsStayWithinTheConcurrency() throws Exception {
+        server.setLatency(50, 50);
+        CrocodocBulkUploader uploader = new CrocodocBulkUploader(client, 3);
+
+        CrocodocBulkUploader.Summary summary = uploader.upload(_urls(12)
+                .iterator());
+
+        assertEquals(12, summary.getSucceeded());
+        assertTrue(server.getMaxConcurrent() <= 3);
+    }
+
+    @Test
+    public void resultsAreInSourceOrder() throws Exception {
+        server.setLatency(10, 60);
+        List<String> sources = _urls(12);
+
+        List<CrocodocBulkUploader.Item> items = new CrocodocBulkUploader(
+                client, 4).upload(sources.iterator()).getItems();
+
+        assertEquals(12, items.size());
+
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(i, items.get(i).getIndex());
+            assertEquals(sources.get(i), items.get(i).getSource());
+        }
+    }
+
+    @Test
+    public void failedUploadDoesNotStopTheBatch() throws Exception {
+        server.failNext(1);
+
+        CrocodocBulkUploader.Summary summary = new CrocodocBulkUploader(
+                client, 1).upload(_urls(4).iterator());
+
+        assertEquals(1, summary.getFailed());
+        assertEquals(3, summary.getSucceeded());
+        CrocodocBulkUploader.Item failed = summary.getItems().get(0);
+        assertFalse(failed.isSuccess());
+        assertEquals("server_error_503_unknown", failed.getError().getCode());
+        assertNotNull(summary.getItems().get(3).getUuid());
+    }
+
+    @Test
+    public void unknownSourceTypeIsInvalid() throws Exception {
+        List<Object> sources = new ArrayList<Object>();
+        sources.add(42);
+        sources.add("http://example.com/doc.pdf");
+
+        CrocodocBulkUploader.Summary summary = new CrocodocBulkUploader(
+                client, 2).upload(sources.iterator());
+
+        assertEquals("invalid_source", summary.getItems().get(0).getError()
+                .getCode());
+        assertTrue(summary.getItems().get(1).isSuccess());
+        assertEquals(1, server.getRequests());
+    }
+
+    private static List<String> _urls(int count) {
+        List<String> urls = new ArrayList<String>();
+
+        for (int i = 0; i < count; i++) {
+            urls.add("http://example.com/doc-" + i + ".pdf");
+        }
+
+        return urls;
+    }
+}
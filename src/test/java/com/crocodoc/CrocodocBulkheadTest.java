@@ -0,0 +1,86 @@
+package com.crocodoc;
+
+import static com.crocodoc.CrocodocRetryTest.assertError;
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocBulkheadTest {
+    private CrocodocStubServer server;
+    private CrocodocClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        client = server.clientBuilder()
+                .retryPolicy(CrocodocEndpoint.DOCUMENT_STATUS,
+                        new CrocodocRetryPolicy(2, 1, 1) {
+                            long _backoffMillis(int retry) {
+                                return 1000;
+                            }
+                        })
+                .bulkhead(CrocodocEndpoint.Group.METADATA, 1, 0)
+                .bulkhead(CrocodocEndpoint.Group.DOWNLOAD, 1, 0)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void backingOffGivesThePermitBack() throws Exception {
+        CrocodocBulkhead bulkhead = client
+                .getBulkhead(CrocodocEndpoint.Group.METADATA);
+        server.failNext(1);
+        CompletableFuture<Map<String, Object>> retried = client.document()
+                .statusAsync("retried");
+
+        // the first attempt has failed once its slot is given back, well
+        // before the backoff ends
+        long waitUntil = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(500);
+
+        while ((server.getRequests() < 1 || bulkhead.getActive() > 0)
+                && System.nanoTime() < waitUntil) {
+            Thread.sleep(5);
+        }
+
+        assertEquals(0, bulkhead.getActive());
+        assertEquals("DONE", client.document().status("other").get("status"));
+
+        assertEquals("DONE", retried.get(5, TimeUnit.SECONDS).get("status"));
+        assertEquals(0, bulkhead.getActive());
+    }
+
+    @Test
+    public void streamedDownloadHoldsThePermitUntilClosed() throws Exception {
+        CrocodocBulkhead bulkhead = client
+                .getBulkhead(CrocodocEndpoint.Group.DOWNLOAD);
+        HttpEntity entity = client.download().document("uuid");
+
+        assertEquals(1, bulkhead.getActive());
+        assertError("bulkhead_full", () -> client.download().document("uuid"));
+
+        InputStream content = entity.getContent();
+        content.read();
+        content.close();
+        assertEquals(0, bulkhead.getActive());
+
+        byte[] body = EntityUtils.toByteArray(client.download().document(
+                "uuid"));
+        assertEquals(CrocodocStubServer.DEFAULT_PAYLOAD_SIZE, body.length);
+        assertEquals(0, bulkhead.getActive());
+    }
+}
@@ -0,0 +1,111 @@
+package com.crocodoc;
+
+import static com.crocodoc.CrocodocRetryTest.assertError;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocCircuitBreakerTest {
+    private CrocodocStubServer server;
+    private CrocodocClient client;
+    private CrocodocCircuitBreaker breaker;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        client = server.clientBuilder()
+                .retryPolicy(CrocodocEndpoint.DOCUMENT_STATUS,
+                        CrocodocRetryPolicy.NONE)
+                .circuitBreakers(new CrocodocCircuitBreakers(3, 100, 1))
+                .build();
+        breaker = client.getCircuitBreakers().get(client.getHost(),
+                CrocodocEndpoint.Group.METADATA);
+        server.setErrorBody(CrocodocStubServer.ErrorBody.HTML);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void opensAfterConsecutiveServerErrors() throws Exception {
+        server.failNext(3);
+
+        for (int i = 0; i < 3; i++) {
+            assertError("server_error_503_unknown", () -> client.document()
+                    .status("uuid"));
+        }
+
+        assertEquals(CrocodocCircuitBreaker.State.OPEN, breaker.getState());
+        assertError("circuit_open", () -> client.document().status("uuid"));
+        assertEquals(3, server.getRequests());
+    }
+
+    @Test
+    public void clientErrorsShowTheServerWorks() throws Exception {
+        server.failNext(2);
+        assertError("server_error_503_unknown", () -> client.document()
+                .status("uuid"));
+        assertError("server_error_503_unknown", () -> client.document()
+                .status("uuid"));
+
+        server.setErrorRate(1, 400);
+        server.setErrorBody(CrocodocStubServer.ErrorBody.JSON_ERROR);
+        assertError("injected failure", () -> client.document().status("uuid"));
+
+        assertEquals(0, breaker.getFailures());
+    }
+
+    @Test
+    public void unreadableResponsesDontResetTheFailures() throws Exception {
+        server.failNext(2);
+        assertError("server_error_503_unknown", () -> client.document()
+                .status("uuid"));
+        assertError("server_error_503_unknown", () -> client.document()
+                .status("uuid"));
+
+        server.truncateNext(1);
+        assertError("server_response_not_valid_json", () -> client
+                .document().status("uuid"));
+
+        assertEquals(2, breaker.getFailures());
+    }
+
+    @Test
+    public void probeCutShortByTheDeadlineDoesntCloseTheBreaker()
+            throws Exception {
+        server.failNext(3);
+
+        for (int i = 0; i < 3; i++) {
+            assertError("server_error_503_unknown", () -> client.document()
+                    .status("uuid"));
+        }
+
+        Thread.sleep(150);
+        server.setLatency(300, 300);
+
+        CrocodocDeadline deadline = CrocodocDeadline.start(50,
+                TimeUnit.MILLISECONDS);
+
+        try {
+            assertError("deadline_exceeded", () -> client.document().status(
+                    "uuid"));
+        } finally {
+            deadline.close();
+        }
+
+        assertEquals(CrocodocCircuitBreaker.State.HALF_OPEN,
+                breaker.getState());
+
+        // the probe's place was given back
+        server.setLatency(0, 0);
+        assertEquals("DONE", client.document().status("uuid").get("status"));
+        assertEquals(CrocodocCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
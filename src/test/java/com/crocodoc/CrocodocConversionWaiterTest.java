@@ -0,0 +1,104 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocConversionWaiterTest {
+    private CrocodocStubServer server;
+    private CrocodocClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        client = server.clientBuilder().conversionPolling(20, 100, 100)
+                .circuitBreakers(new CrocodocCircuitBreakers(5, 50, 1))
+                .build();
+        // open a connection so the first poll isn't slow
+        client.document().status("warm-up");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void completesOnceTheDocumentIsConverted() throws Exception {
+        server.setStatus("uuid", "PROCESSING");
+        CompletableFuture<Map<String, Object>> future = client.document()
+                .awaitConversion("uuid");
+
+        Thread.sleep(100);
+        server.setStatus("uuid", "DONE");
+
+        assertEquals("DONE", future.get(5, TimeUnit.SECONDS).get("status"));
+        assertEquals(0, client._getConversionWaiter().getPendingCount());
+    }
+
+    @Test
+    public void keepsPollingThroughServerErrors() throws Exception {
+        server.setErrorRate(1, 503);
+        server.setErrorBody(CrocodocStubServer.ErrorBody.JSON_MESSAGE);
+        CompletableFuture<Map<String, Object>> future = client.document()
+                .awaitConversion("uuid");
+
+        Thread.sleep(300);
+        server.setErrorRate(0, 503);
+
+        assertEquals("DONE", future.get(5, TimeUnit.SECONDS).get("status"));
+    }
+
+    @Test
+    public void failsWhenThePollFailsForGood() throws Exception {
+        server.setErrorRate(1, 401);
+        CompletableFuture<Map<String, Object>> future = client.document()
+                .awaitConversion("uuid");
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("server_error_401_unauthorized",
+                    ((CrocodocException) e.getCause()).getCode());
+        }
+
+        assertEquals(0, client._getConversionWaiter().getPendingCount());
+    }
+
+    @Test
+    public void stopsPollingOnceEveryCallerHasGone() throws Exception {
+        server.setStatus("uuid", "PROCESSING");
+        CompletableFuture<Map<String, Object>> timedOut = client.document()
+                .awaitConversion("uuid", 50, TimeUnit.MILLISECONDS);
+        CompletableFuture<Map<String, Object>> cancelled = client.document()
+                .awaitConversion("uuid");
+
+        try {
+            timedOut.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("conversion_timeout",
+                    ((CrocodocException) e.getCause()).getCode());
+        }
+
+        assertEquals(1, client._getConversionWaiter().getPendingCount());
+        cancelled.cancel(false);
+        assertEquals(0, client._getConversionWaiter().getPendingCount());
+
+        // let a poll already in flight finish
+        Thread.sleep(200);
+        long requests = server.getRequests();
+        Thread.sleep(300);
+        assertEquals(requests, server.getRequests());
+    }
+}
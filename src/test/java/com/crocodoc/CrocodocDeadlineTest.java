@@ -0,0 +1,113 @@
+package com.crocodoc;
+
+import static com.crocodoc.CrocodocRetryTest.assertError;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocDeadlineTest {
+    private CrocodocStubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void slowServerExceedsTheDeadline() throws Exception {
+        server.setLatency(2000, 2000);
+        CrocodocClient client = server.clientBuilder()
+                .circuitBreakers(new CrocodocCircuitBreakers(100, 50, 1))
+                .build();
+        long started = System.nanoTime();
+        CrocodocDeadline deadline = CrocodocDeadline.start(200,
+                TimeUnit.MILLISECONDS);
+
+        try {
+            assertError("deadline_exceeded", () -> client.document().status(
+                    "uuid"));
+        } finally {
+            deadline.close();
+            client.close();
+        }
+
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS
+                .toNanos(1500));
+    }
+
+    @Test
+    public void retryIsSkippedIfItsBackoffPassesTheDeadline()
+            throws Exception {
+        server.failNext(5);
+        CrocodocRetryPolicy slowRetries = new CrocodocRetryPolicy(5, 1000,
+                1000) {
+            @Override
+            long _backoffMillis(int retry) {
+                return 1000;
+            }
+        };
+        CrocodocClient client = server.clientBuilder()
+                .retryPolicy(CrocodocEndpoint.DOCUMENT_STATUS, slowRetries)
+                .circuitBreakers(new CrocodocCircuitBreakers(100, 50, 1))
+                .build();
+        long started = System.nanoTime();
+        CrocodocDeadline deadline = CrocodocDeadline.start(300,
+                TimeUnit.MILLISECONDS);
+
+        try {
+            // the attempt's own error, without sleeping into the deadline
+            assertError("server_error_503_unknown", () -> client.document()
+                    .status("uuid"));
+        } finally {
+            deadline.close();
+            client.close();
+        }
+
+        assertEquals(1, server.getRequests());
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS
+                .toNanos(300));
+    }
+
+    @Test
+    public void nestedDeadlineKeepsTheTighterOne() {
+        CrocodocDeadline outer = CrocodocDeadline.start(100,
+                TimeUnit.MILLISECONDS);
+
+        try {
+            CrocodocDeadline looser = CrocodocDeadline.start(10,
+                    TimeUnit.SECONDS);
+
+            try {
+                assertTrue(looser.remaining(TimeUnit.MILLISECONDS) <= 100);
+            } finally {
+                looser.close();
+            }
+
+            assertSame(outer, CrocodocDeadline.current());
+
+            CrocodocDeadline tighter = CrocodocDeadline.start(10,
+                    TimeUnit.MILLISECONDS);
+
+            try {
+                assertTrue(tighter.remaining(TimeUnit.MILLISECONDS) <= 10);
+            } finally {
+                tighter.close();
+            }
+        } finally {
+            outer.close();
+        }
+
+        assertEquals(null, CrocodocDeadline.current());
+    }
+}
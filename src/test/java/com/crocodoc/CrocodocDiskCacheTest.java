@@ -0,0 +1,167 @@
+package com.crocodoc;
+
+import static com.crocodoc.CrocodocRetryTest.assertError;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CrocodocDiskCacheTest {
+    private static final int PAYLOAD_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CrocodocStubServer server;
+    private CrocodocDiskCache cache;
+    private CrocodocClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        server.setPayloadSize(PAYLOAD_SIZE);
+        cache = new CrocodocDiskCache(folder.getRoot().toPath(),
+                PAYLOAD_SIZE * 5 / 2);
+        client = _client(cache);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void secondDownloadIsReadFromDisk() throws Exception {
+        byte[] first = _download("uuid", false);
+        byte[] second = _download("uuid", false);
+
+        assertEquals(PAYLOAD_SIZE, first.length);
+        assertArrayEquals(first, second);
+        assertEquals(1, server.getRequests());
+        assertEquals(PAYLOAD_SIZE, cache.getTotalBytes());
+    }
+
+    @Test
+    public void variantsAreCachedSeparately() throws Exception {
+        _download("uuid", false);
+        _download("uuid", true);
+        _download("uuid", true);
+
+        assertEquals(2, server.getRequests());
+    }
+
+    @Test
+    public void invalidatingAnnotatedKeepsThePlainDownload() throws Exception {
+        _download("uuid", false);
+        _download("uuid", true);
+
+        cache.invalidateAnnotated("uuid");
+        _download("uuid", false);
+        assertEquals(2, server.getRequests());
+        _download("uuid", true);
+        assertEquals(3, server.getRequests());
+
+        cache.invalidate("uuid");
+        assertEquals(0, cache.getTotalBytes());
+    }
+
+    @Test
+    public void leastRecentlyUsedDownloadIsEvicted() throws Exception {
+        _download("first", false);
+        _download("second", false);
+        // touch the first so the second is the oldest
+        _download("first", false);
+        _download("third", false);
+
+        assertTrue(cache.getTotalBytes() <= cache.getMaxBytes());
+        _download("first", false);
+        assertEquals(3, server.getRequests());
+        _download("second", false);
+        assertEquals(4, server.getRequests());
+    }
+
+    @Test
+    public void cachedFilesSurviveARestart() throws Exception {
+        _download("uuid", false);
+        client.close();
+
+        cache = new CrocodocDiskCache(folder.getRoot().toPath(),
+                PAYLOAD_SIZE * 5 / 2);
+        client = _client(cache);
+
+        assertEquals(PAYLOAD_SIZE, cache.getTotalBytes());
+        assertEquals(PAYLOAD_SIZE, _download("uuid", false).length);
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    public void failedDownloadLeavesNothingBehind() throws Exception {
+        server.failNext(1);
+
+        assertError("server_error_503_unknown", () -> client.download()
+                .document("uuid"));
+
+        assertEquals(0, cache.getTotalBytes());
+        assertEquals(Arrays.asList(new File[0]), Arrays.asList(folder
+                .getRoot().listFiles()));
+    }
+
+    @Test
+    public void tenantsDontShareDownloads() throws Exception {
+        _download("uuid", false);
+        CrocodocClient other = server.clientBuilder().apiToken("other-token")
+                .diskCache(cache).build();
+
+        try {
+            EntityUtils.toByteArray(other.download().document("uuid", false,
+                    false));
+            assertEquals(2, server.getRequests());
+            _download("uuid", false);
+            assertEquals(2, server.getRequests());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void downloadInvalidatedInFlightIsNotCached() throws Exception {
+        server.setLatency(300, 300);
+        FutureTask<byte[]> future = new FutureTask<byte[]>(() -> _download(
+                "uuid", false));
+        new Thread(future).start();
+
+        while (server.getRequests() == 0) {
+            Thread.sleep(5);
+        }
+
+        cache.invalidate("uuid");
+        assertEquals(PAYLOAD_SIZE, future.get(10, TimeUnit.SECONDS).length);
+        assertEquals(0, cache.getTotalBytes());
+
+        _download("uuid", false);
+        assertEquals(2, server.getRequests());
+    }
+
+    private CrocodocClient _client(CrocodocDiskCache cache) {
+        return server.clientBuilder().diskCache(cache)
+                .retryPolicy(CrocodocEndpoint.DOWNLOAD_DOCUMENT,
+                        CrocodocRetryPolicy.NONE).build();
+    }
+
+    private byte[] _download(String uuid, boolean annotated) throws Exception {
+        return EntityUtils.toByteArray(client.download().document(uuid,
+                false, annotated));
+    }
+}
@@ -0,0 +1,145 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CrocodocDispatcherTest {
+    private static final long WAIT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    @Test
+    public void freedSlotGoesToTheBestPriority() throws Exception {
+        CrocodocDispatcher dispatcher = new CrocodocDispatcher(1, 10000);
+        List<CrocodocPriority> order = new CopyOnWriteArrayList<CrocodocPriority>();
+        assertTrue(dispatcher._acquire(CrocodocPriority.NORMAL, WAIT_NANOS));
+
+        CompletableFuture<?> background = _queue(dispatcher,
+                CrocodocPriority.BACKGROUND, order);
+        CompletableFuture<?> normal = _queue(dispatcher,
+                CrocodocPriority.NORMAL, order);
+        CompletableFuture<?> interactive = _queue(dispatcher,
+                CrocodocPriority.INTERACTIVE, order);
+
+        dispatcher._release();
+        CompletableFuture.allOf(background, normal, interactive).get(5,
+                TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(CrocodocPriority.INTERACTIVE,
+                CrocodocPriority.NORMAL, CrocodocPriority.BACKGROUND), order);
+        assertEquals(0, dispatcher.getActive());
+    }
+
+    @Test
+    public void longWaitingCallsAgeAheadOfNewerOnes() throws Exception {
+        CrocodocDispatcher dispatcher = new CrocodocDispatcher(1, 50);
+        List<CrocodocPriority> order = new CopyOnWriteArrayList<CrocodocPriority>();
+        assertTrue(dispatcher._acquire(CrocodocPriority.NORMAL, WAIT_NANOS));
+
+        CompletableFuture<?> background = _queue(dispatcher,
+                CrocodocPriority.BACKGROUND, order);
+        // more than two aging steps
+        Thread.sleep(200);
+        CompletableFuture<?> interactive = _queue(dispatcher,
+                CrocodocPriority.INTERACTIVE, order);
+
+        dispatcher._release();
+        CompletableFuture.allOf(background, interactive).get(5,
+                TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(CrocodocPriority.BACKGROUND,
+                CrocodocPriority.INTERACTIVE), order);
+    }
+
+    @Test
+    public void backingOffGivesTheSlotBack() throws Exception {
+        try (CrocodocStubServer server = new CrocodocStubServer()) {
+            CrocodocClient client = server.clientBuilder()
+                    .retryPolicy(CrocodocEndpoint.DOCUMENT_STATUS,
+                            new CrocodocRetryPolicy(2, 1, 1) {
+                                long _backoffMillis(int retry) {
+                                    return 1000;
+                                }
+                            }).maxConcurrentRequests(1, 10000).build();
+
+            try {
+                server.failNext(1);
+                CompletableFuture<Map<String, Object>> retried;
+
+                CrocodocPriority.Scope background = CrocodocPriority.BACKGROUND
+                        .use();
+
+                try {
+                    retried = client.document().statusAsync("retried");
+                } finally {
+                    background.close();
+                }
+
+                // the first attempt has failed once its slot is given back, well
+                // before the backoff ends
+                long waitUntil = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(500);
+
+                while ((server.getRequests() < 1 || client.getDispatcher().getActive() > 0)
+                        && System.nanoTime() < waitUntil) {
+                    Thread.sleep(5);
+                }
+
+                assertEquals(0, client.getDispatcher().getActive());
+
+                // an interactive call doesn't wait out the retry's backoff
+                CrocodocDeadline deadline = CrocodocDeadline.start(300,
+                        TimeUnit.MILLISECONDS);
+                CrocodocPriority.Scope interactive = CrocodocPriority.INTERACTIVE
+                        .use();
+
+                try {
+                    assertEquals("DONE", client.document().status("other")
+                            .get("status"));
+                } finally {
+                    interactive.close();
+                    deadline.close();
+                }
+
+                assertEquals("DONE", retried.get(5, TimeUnit.SECONDS).get(
+                        "status"));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Wait for a slot on another thread, record when it is given and give it
+     * back at once
+     */
+    private static CompletableFuture<?> _queue(
+            final CrocodocDispatcher dispatcher,
+            final CrocodocPriority priority, final List<CrocodocPriority> order)
+            throws InterruptedException {
+        int queued = dispatcher.getQueued(priority);
+        CompletableFuture<?> granted = CompletableFuture.runAsync(() -> {
+            try {
+                if (dispatcher._acquire(priority, WAIT_NANOS)) {
+                    order.add(priority);
+                    dispatcher._release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, runnable -> new Thread(runnable).start());
+
+        while (dispatcher.getQueued(priority) == queued) {
+            Thread.sleep(1);
+        }
+
+        return granted;
+    }
+}
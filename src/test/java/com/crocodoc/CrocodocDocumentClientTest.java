@@ -0,0 +1,104 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CrocodocDocumentClientTest {
+    private static final byte[] CONTENTS = new byte[100000];
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CrocodocStubServer server;
+    private CrocodocClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        client = server.clientBuilder().build();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void streamOfUnknownLengthIsSentChunked() throws Exception {
+        assertNotNull(client.document().upload(
+                new ByteArrayInputStream(CONTENTS), "doc.pdf"));
+
+        assertEquals("chunked",
+                server.getLastRequestHeader("Transfer-Encoding"));
+        assertNull(server.getLastRequestHeader("Content-Length"));
+        assertEquals(true, server.getLastRequestBytes() > CONTENTS.length);
+    }
+
+    @Test
+    public void streamOfKnownLengthIsSentWithItsLength() throws Exception {
+        assertNotNull(client.document().upload(
+                new ByteArrayInputStream(CONTENTS), CONTENTS.length, "doc.pdf"));
+
+        assertNull(server.getLastRequestHeader("Transfer-Encoding"));
+        assertEquals(String.valueOf(server.getLastRequestBytes()),
+                server.getLastRequestHeader("Content-Length"));
+    }
+
+    @Test
+    public void fileIsUploadedInChunksIntact() throws Exception {
+        // several chunks and a partial last one
+        byte[] contents = new byte[4096 * 5 + 123];
+        new Random(42).nextBytes(contents);
+        File file = folder.newFile("doc.pdf");
+        Files.write(file.toPath(), contents);
+        CrocodocClient chunked = server.clientBuilder().uploadChunkSize(4096)
+                .build();
+        server.setRecordBodies(true);
+
+        try {
+            assertNotNull(chunked.document().upload(file));
+        } finally {
+            chunked.close();
+        }
+
+        byte[] body = server.getLastRequestBody();
+        assertEquals(String.valueOf(body.length),
+                server.getLastRequestHeader("Content-Length"));
+        Charset latin1 = Charset.forName("ISO-8859-1");
+        assertTrue(new String(body, latin1).contains(new String(contents,
+                latin1)));
+    }
+
+    @Test
+    public void everyUploadHasAnAsyncVariant() throws Exception {
+        CrocodocDocumentClient document = client.document();
+
+        assertNotNull(document.uploadAsync(new ByteArrayInputStream(CONTENTS),
+                "doc.pdf").get(5, TimeUnit.SECONDS));
+        assertNotNull(document.uploadAsync(new ByteArrayInputStream(CONTENTS),
+                CONTENTS.length, "doc.pdf").get(5, TimeUnit.SECONDS));
+        assertNotNull(document.uploadAsync(CONTENTS, "doc.pdf").get(5,
+                TimeUnit.SECONDS));
+        assertNotNull(document.uploadAsync(ByteBuffer.wrap(CONTENTS),
+                "doc.pdf").get(5, TimeUnit.SECONDS));
+        assertEquals(String.valueOf(server.getLastRequestBytes()),
+                server.getLastRequestHeader("Content-Length"));
+    }
+}
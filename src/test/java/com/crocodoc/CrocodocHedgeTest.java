@@ -0,0 +1,176 @@
+package com.crocodoc;
+
+import static com.crocodoc.CrocodocRetryTest.assertError;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocHedgeTest {
+    private CrocodocStubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void slowRequestIsHedged() throws Exception {
+        CrocodocClient client = _builder().build();
+
+        try {
+            _warmUp(client);
+            server.setLatency(200, 200);
+            long requests = server.getRequests();
+
+            assertEquals("DONE", client.document().status("uuid")
+                    .get("status"));
+            assertEquals(2, server.getRequests() - requests);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void hedgeNeedsABulkheadPermit() throws Exception {
+        CrocodocClient client = _builder().bulkhead(
+                CrocodocEndpoint.Group.METADATA, 1, 10).build();
+
+        try {
+            _warmUp(client);
+            server.setLatency(200, 200);
+            long requests = server.getRequests();
+
+            assertEquals("DONE", client.document().status("uuid")
+                    .get("status"));
+            assertEquals(1, server.getRequests() - requests);
+            assertEquals(0, client.getBulkhead(CrocodocEndpoint.Group.METADATA)
+                    .getActive());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void hedgeNeedsADispatcherSlot() throws Exception {
+        CrocodocClient client = _builder().maxConcurrentRequests(1, 1000)
+                .build();
+
+        try {
+            _warmUp(client);
+            server.setLatency(200, 200);
+            long requests = server.getRequests();
+
+            assertEquals("DONE", client.document().status("uuid")
+                    .get("status"));
+            assertEquals(1, server.getRequests() - requests);
+            assertEquals(0, client.getDispatcher().getActive());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void winningHedgeCountsOnceForTheBreaker() throws Exception {
+        CountingBreakers breakers = new CountingBreakers();
+        CrocodocClient client = _builder().circuitBreakers(breakers).build();
+
+        try {
+            _warmUp(client);
+            breakers.successes.set(0);
+            server.slowNext(1, 300);
+            long requests = server.getRequests();
+
+            assertEquals("DONE", client.document().status("uuid")
+                    .get("status"));
+            assertEquals(2, server.getRequests() - requests);
+            assertEquals(1, breakers.successes.get());
+            assertEquals(0, breakers.failures.get());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void hedgeIsAbortedAtTheDeadline() throws Exception {
+        CrocodocClient client = _builder().build();
+
+        try {
+            _warmUp(client);
+            server.setLatency(2000, 2000);
+            long started = System.nanoTime();
+            CrocodocDeadline deadline = CrocodocDeadline.start(300,
+                    TimeUnit.MILLISECONDS);
+
+            try {
+                assertError("deadline_exceeded", () -> client.document()
+                        .status("uuid"));
+            } finally {
+                deadline.close();
+            }
+
+            assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS
+                    .toNanos(1500));
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * Circuit breakers that count the outcomes they are told about
+     */
+    private static class CountingBreakers extends CrocodocCircuitBreakers {
+        final AtomicInteger successes = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        private final CrocodocCircuitBreaker breaker = new CrocodocCircuitBreaker(
+                "stub", CrocodocEndpoint.Group.METADATA, 100, 50, 1) {
+            @Override
+            void _onSuccess() {
+                successes.incrementAndGet();
+                super._onSuccess();
+            }
+
+            @Override
+            synchronized void _onFailure() {
+                failures.incrementAndGet();
+                super._onFailure();
+            }
+        };
+
+        @Override
+        public CrocodocCircuitBreaker get(String host,
+                CrocodocEndpoint.Group group) {
+            return breaker;
+        }
+    }
+
+    private CrocodocClient.Builder _builder() {
+        return server.clientBuilder()
+                .hedge(CrocodocEndpoint.DOCUMENT_STATUS, 0.9)
+                .hedgeBudget(new CrocodocRetryBudget(1, 100))
+                .circuitBreakers(new CrocodocCircuitBreakers(100, 50, 1));
+    }
+
+    /**
+     * Make enough fast calls for the endpoint's latency percentile to be
+     * known
+     */
+    private static void _warmUp(CrocodocClient client) throws Exception {
+        for (int i = 0; i < CrocodocLatencyWindow.SIZE / 4; i++) {
+            client.document().status("warm-up");
+        }
+
+        // let hedges of the warm-up calls land
+        Thread.sleep(100);
+    }
+}
@@ -0,0 +1,393 @@
+package com.crocodoc;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Makes calls from many threads at once for a fixed time and reports the
+ * throughput and latency percentiles seen by the caller. The calls can go to
+ * the real API or to a CrocodocStubServer; main() runs a mix of status,
+ * download and session calls against a stub.
+ *
+ * run(call) is a closed loop: each thread starts its next call when the last
+ * one returns, so a slow call delays the calls that would have been made
+ * meanwhile and the percentiles understate the latency users would see
+ * (coordinated omission). run(call, callsPerSecond) starts calls on a fixed
+ * schedule instead and measures each one from when it should have started.
+ *
+ * <pre>
+ * CrocodocLoadTest.Result result = new CrocodocLoadTest(32, 10000).run(
+ *         () -> client.document().status(uuid), 500);
+ * System.out.println(result);
+ * </pre>
+ *
+ * This is a test utility; it lives with the tests and isn't part of the
+ * library jar.
+ */
+public class CrocodocLoadTest {
+    /**
+     * How long main() makes calls for before measuring
+     *
+     * @var long
+     */
+    private static final long WARMUP_MILLIS = 2000;
+
+    /**
+     * The number of threads making calls
+     *
+     * @var int
+     */
+    private final int threads;
+
+    /**
+     * How long calls are made for
+     *
+     * @var long
+     */
+    private final long durationMillis;
+
+    /**
+     * Create a load test
+     *
+     * @param int threads The number of threads making calls
+     * @param long durationMillis How long calls are made for
+     */
+    public CrocodocLoadTest(int threads, long durationMillis) {
+        if (threads < 1 || durationMillis < 1) {
+            throw new IllegalArgumentException("Invalid load test settings");
+        }
+
+        this.threads = threads;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Make a call over and over from every thread until the time is up. Each
+     * thread starts its next call as soon as the last one returns.
+     *
+     * @param object
+     *            call The call to make
+     *
+     * @return object What was measured
+     * @throws InterruptedException
+     */
+    public Result run(Callable<?> call) throws InterruptedException {
+        return _run(call, 0);
+    }
+
+    /**
+     * Start calls at a fixed rate until the time is up, on whichever thread
+     * is free. A call's latency counts from when it should have started, so
+     * time spent waiting for a free thread is included.
+     *
+     * @param object
+     *            call The call to make
+     * @param double callsPerSecond The number of calls to start per second
+     *
+     * @return object What was measured
+     * @throws InterruptedException
+     */
+    public Result run(Callable<?> call, double callsPerSecond)
+            throws InterruptedException {
+        if (!(callsPerSecond > 0)) {
+            throw new IllegalArgumentException("Invalid call rate");
+        }
+
+        return _run(call, Math.max((long) (1e9 / callsPerSecond), 1));
+    }
+
+    /**
+     * Make calls from every thread until the time is up
+     *
+     * @param object
+     *            call The call to make
+     * @param long intervalNanos The time between the scheduled starts of two
+     *        calls, 0 to start calls as soon as a thread is free
+     *
+     * @return object What was measured
+     * @throws InterruptedException
+     */
+    private Result _run(final Callable<?> call, final long intervalNanos)
+            throws InterruptedException {
+        final Result result = new Result(threads);
+        final AtomicLong sequence = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                        long startAt = result.startedAt;
+                        long endAt = startAt
+                                + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+                        while (true) {
+                            long startedAt = System.nanoTime();
+
+                            if (intervalNanos > 0) {
+                                startedAt = startAt + sequence.getAndIncrement()
+                                        * intervalNanos;
+                            }
+
+                            if (startedAt - endAt >= 0) {
+                                break;
+                            }
+
+                            long sleepNanos = startedAt - System.nanoTime();
+
+                            if (sleepNanos > 0) {
+                                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                            }
+
+                            String error = null;
+
+                            try {
+                                call.call();
+                            } catch (CrocodocException e) {
+                                error = e.getCode();
+                            } catch (Exception e) {
+                                error = e.getClass().getSimpleName();
+                            }
+
+                            result._record(System.nanoTime() - startedAt,
+                                    error);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+
+            result.startedAt = System.nanoTime();
+            start.countDown();
+            done.await();
+            result.elapsedNanos = System.nanoTime() - result.startedAt;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return result;
+    }
+
+    /**
+     * Run a mix of status, download and session calls against a stub server
+     * and print the results, after a short warmup. The arguments, all
+     * optional, are the number of threads, the duration in seconds, the
+     * minimum and maximum latency of the stub in milliseconds, its error
+     * rate, its download size in bytes, and the number of calls to start per
+     * second, 0 to run a closed loop.
+     *
+     * @param array
+     *            args The arguments
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        long minLatency = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        long maxLatency = args.length > 3 ? Long.parseLong(args[3]) : 20;
+        double errorRate = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+        int payloadSize = args.length > 5 ? Integer.parseInt(args[5])
+                : CrocodocStubServer.DEFAULT_PAYLOAD_SIZE;
+        double callsPerSecond = args.length > 6 ? Double
+                .parseDouble(args[6]) : 0;
+
+        try (CrocodocStubServer server = new CrocodocStubServer()) {
+            server.setLatency(minLatency, maxLatency);
+            server.setErrorRate(errorRate, 503);
+            server.setPayloadSize(payloadSize);
+            final CrocodocClient client = server.clientBuilder()
+                    .maxConnections(threads, threads).build();
+            final AtomicLong sequence = new AtomicLong();
+
+            Callable<Object> mix = () -> {
+                long n = sequence.incrementAndGet();
+                String uuid = "load-test-" + n;
+
+                switch ((int) (n % 4)) {
+                case 0:
+                    return client.document().status(uuid);
+                case 1:
+                    return EntityUtils.toByteArray(client.download().text(uuid));
+                case 2:
+                    return EntityUtils.toByteArray(client.download().thumbnail(
+                            uuid));
+                default:
+                    return client.session().create(uuid);
+                }
+            };
+
+            try {
+                // open connections and compile the hot paths before measuring
+                CrocodocLoadTest warmup = new CrocodocLoadTest(threads,
+                        WARMUP_MILLIS);
+                CrocodocLoadTest test = new CrocodocLoadTest(threads,
+                        TimeUnit.SECONDS.toMillis(seconds));
+
+                if (callsPerSecond > 0) {
+                    warmup.run(mix, callsPerSecond);
+                } else {
+                    warmup.run(mix);
+                }
+
+                CrocodocMetricsSink sink = client.getMetricsSink();
+
+                if (sink instanceof CrocodocMetrics) {
+                    ((CrocodocMetrics) sink).reset();
+                }
+
+                Result result = callsPerSecond > 0 ? test.run(mix,
+                        callsPerSecond) : test.run(mix);
+                System.out.println(result);
+
+                if (sink instanceof CrocodocMetrics) {
+                    CrocodocMetrics metrics = (CrocodocMetrics) sink;
+
+                    for (CrocodocEndpoint endpoint : CrocodocEndpoint.values()) {
+                        CrocodocHistogram latency = metrics
+                                .getLatency(endpoint);
+
+                        if (latency.getCount() > 0) {
+                            System.out.println(String.format(
+                                    "%-20s %8d calls  p50 %8.2f ms  p99 %8.2f ms  p99.9 %8.2f ms",
+                                    endpoint, latency.getCount(),
+                                    latency.getValueAtPercentile(0.5) / 1e3,
+                                    latency.getValueAtPercentile(0.99) / 1e3,
+                                    latency.getValueAtPercentile(0.999) / 1e3));
+                        }
+                    }
+                }
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * What a load test measured
+     */
+    public static class Result {
+        /**
+         * The number of threads that made calls
+         *
+         * @var int
+         */
+        private final int threads;
+
+        /**
+         * The latencies of all calls in microseconds
+         *
+         * @var object
+         */
+        private final CrocodocHistogram latency = new CrocodocHistogram();
+
+        /**
+         * The number of failed calls by error code
+         *
+         * @var object
+         */
+        private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<String, LongAdder>();
+
+        /**
+         * When the test started, in System.nanoTime() terms
+         *
+         * @var long
+         */
+        private volatile long startedAt;
+
+        /**
+         * How long the test ran
+         *
+         * @var long
+         */
+        private volatile long elapsedNanos;
+
+        private Result(int threads) {
+            this.threads = threads;
+        }
+
+        /**
+         * Get the latencies of all calls, failed ones included
+         *
+         * @return object The latency histogram, in microseconds
+         */
+        public CrocodocHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Get the number of calls made
+         *
+         * @return long The call count
+         */
+        public long getCalls() {
+            return latency.getCount();
+        }
+
+        /**
+         * Get the number of failed calls by error code
+         *
+         * @return map The failure count of each error code
+         */
+        public Map<String, Long> getErrors() {
+            Map<String, Long> counts = new TreeMap<String, Long>();
+
+            for (Map.Entry<String, LongAdder> entry : errors.entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().sum());
+            }
+
+            return counts;
+        }
+
+        /**
+         * Get the number of calls completed per second
+         *
+         * @return double The throughput
+         */
+        public double getThroughput() {
+            return elapsedNanos > 0 ? getCalls() * 1e9 / elapsedNanos : 0;
+        }
+
+        public String toString() {
+            return String.format(
+                    "%d threads, %d calls in %.1f s, %.1f calls/s, errors %s%n"
+                            + "latency p50 %.2f ms  p90 %.2f ms  p99 %.2f ms  p99.9 %.2f ms  max %.2f ms",
+                    threads, getCalls(), elapsedNanos / 1e9, getThroughput(),
+                    getErrors(), latency.getValueAtPercentile(0.5) / 1e3,
+                    latency.getValueAtPercentile(0.9) / 1e3,
+                    latency.getValueAtPercentile(0.99) / 1e3,
+                    latency.getValueAtPercentile(0.999) / 1e3,
+                    latency.getMax() / 1e3);
+        }
+
+        /**
+         * Count a call
+         *
+         * @param long latencyNanos How long the call took
+         * @param string
+         *            error The error code of the call, null if it succeeded
+         */
+        void _record(long latencyNanos, String error) {
+            latency.record(latencyNanos / 1000);
+
+            if (error != null) {
+                errors.computeIfAbsent(error, code -> new LongAdder())
+                        .increment();
+            }
+        }
+    }
+}
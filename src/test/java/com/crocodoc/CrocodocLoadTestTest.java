@@ -0,0 +1,66 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocLoadTestTest {
+    private CrocodocStubServer server;
+    private CrocodocClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        client = server.clientBuilder().build();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void fixedRateStartsCallsOnSchedule() throws Exception {
+        CrocodocLoadTest.Result result = new CrocodocLoadTest(4, 1000).run(
+                () -> client.document().status("uuid"), 50);
+
+        assertEquals(50, result.getCalls(), 2);
+        assertTrue(result.getErrors().isEmpty());
+    }
+
+    @Test
+    public void fixedRateCountsTimeSpentBehindSchedule() throws Exception {
+        server.setLatency(50, 50);
+
+        // one thread can make about 20 calls a second, so at 40 a second
+        // calls fall further and further behind their scheduled start
+        CrocodocLoadTest.Result closed = new CrocodocLoadTest(1, 1000)
+                .run(() -> client.document().status("uuid"));
+        CrocodocLoadTest.Result open = new CrocodocLoadTest(1, 1000).run(
+                () -> client.document().status("uuid"), 40);
+
+        assertTrue(closed.getLatency().getMax() < 300000);
+        assertTrue(open.getLatency().getMax() > 300000);
+    }
+
+    @Test
+    public void errorsAreCountedByCode() throws Exception {
+        server.setErrorRate(1, 503);
+        CrocodocLoadTest.Result result = new CrocodocLoadTest(2, 200)
+                .run(() -> client.session().create("uuid"));
+
+        long errors = 0;
+
+        for (long count : result.getErrors().values()) {
+            errors += count;
+        }
+
+        assertTrue(result.getCalls() > 0);
+        assertEquals(result.getCalls(), errors);
+        assertTrue(result.getErrors().containsKey("server_error_503_unknown"));
+    }
+}
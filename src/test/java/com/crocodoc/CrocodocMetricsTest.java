@@ -0,0 +1,73 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocMetricsTest {
+    private CrocodocStubServer server;
+    private CrocodocClient client;
+    private CrocodocMetrics metrics;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        client = server.clientBuilder().build();
+        metrics = (CrocodocMetrics) client.getMetricsSink();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void countsTheBytesOfAChunkedUpload() throws Exception {
+        InputStream in = new ByteArrayInputStream(new byte[100000]);
+        client.document().upload(in, "file.pdf");
+
+        long sent = metrics.getBytesSent(CrocodocEndpoint.DOCUMENT_UPLOAD);
+        assertTrue(sent > 100000);
+        assertEquals(server.getLastRequestBytes(), sent);
+    }
+
+    @Test
+    public void countsTheBytesOfAChunkedDownloadOnceRead() throws Exception {
+        server.setChunked(true);
+        CrocodocEndpoint endpoint = CrocodocEndpoint.DOWNLOAD_DOCUMENT;
+        HttpEntity entity = client.download().document("uuid");
+
+        assertEquals(-1, entity.getContentLength());
+        assertEquals(0, metrics.getBytesReceived(endpoint));
+
+        // the transfer time includes the caller's reading
+        Thread.sleep(100);
+        byte[] body = EntityUtils.toByteArray(entity);
+
+        assertEquals(CrocodocStubServer.DEFAULT_PAYLOAD_SIZE, body.length);
+        assertEquals(body.length, metrics.getBytesReceived(endpoint));
+        assertEquals(1, metrics.getTransferTime(endpoint).getCount());
+        assertTrue(metrics.getTransferTime(endpoint).getMax() >= TimeUnit.MILLISECONDS
+                .toMicros(100));
+    }
+
+    @Test
+    public void countsTheBytesOfJsonResponses() throws Exception {
+        server.setChunked(true);
+        client.document().status("uuid");
+
+        CrocodocEndpoint endpoint = CrocodocEndpoint.DOCUMENT_STATUS;
+        assertTrue(metrics.getBytesReceived(endpoint) > 0);
+        assertEquals(1, metrics.getTransferTime(endpoint).getCount());
+    }
+}
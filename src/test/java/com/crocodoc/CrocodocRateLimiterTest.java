@@ -0,0 +1,102 @@
+package com.crocodoc;
+
+import static com.crocodoc.CrocodocRetryTest.assertError;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CrocodocRateLimiterTest {
+    @Test
+    public void burstIsAllowedAtOnce() throws Exception {
+        CrocodocRateLimiter limiter = new CrocodocRateLimiter(1, 3,
+                CrocodocRateLimiter.NO_WAIT);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter._acquire(Long.MAX_VALUE));
+        }
+
+        assertFalse(limiter._acquire(Long.MAX_VALUE));
+        assertEquals(0, limiter.getThrottled());
+        assertEquals(1, limiter.getRejected());
+    }
+
+    @Test
+    public void emptyBucketMakesCallsWait() throws Exception {
+        CrocodocRateLimiter limiter = new CrocodocRateLimiter(20, 1,
+                CrocodocRateLimiter.WAIT_FOREVER);
+        assertTrue(limiter._acquire(Long.MAX_VALUE));
+
+        long started = System.nanoTime();
+        assertTrue(limiter._acquire(Long.MAX_VALUE));
+
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS
+                .toNanos(40));
+        assertEquals(1, limiter.getThrottled());
+        assertEquals(0, limiter.getRejected());
+    }
+
+    @Test
+    public void waitPastMaxWaitIsRejected() throws Exception {
+        CrocodocRateLimiter limiter = new CrocodocRateLimiter(1, 1, 100);
+        assertTrue(limiter._acquire(Long.MAX_VALUE));
+
+        long started = System.nanoTime();
+        assertFalse(limiter._acquire(Long.MAX_VALUE));
+
+        // rejected at once rather than after waiting
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS
+                .toNanos(100));
+        assertEquals(0, limiter.getThrottled());
+        assertEquals(1, limiter.getRejected());
+    }
+
+    @Test
+    public void interruptedWaitGivesItsTokenBack() throws Exception {
+        CrocodocRateLimiter limiter = new CrocodocRateLimiter(2, 1,
+                CrocodocRateLimiter.WAIT_FOREVER);
+        assertTrue(limiter._acquire(Long.MAX_VALUE));
+
+        Thread.currentThread().interrupt();
+
+        try {
+            limiter._acquire(Long.MAX_VALUE);
+            fail("expected an interrupt");
+        } catch (InterruptedException e) {
+        }
+
+        // the next token is due in 500ms, not 1000ms
+        long started = System.nanoTime();
+        assertTrue(limiter._acquire(Long.MAX_VALUE));
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS
+                .toNanos(800));
+    }
+
+    @Test
+    public void clientSurfacesRateLimited() throws Exception {
+        CrocodocStubServer server = new CrocodocStubServer();
+
+        try {
+            CrocodocClient client = server.clientBuilder().rateLimit(
+                    CrocodocEndpoint.Group.METADATA, 0.001, 1,
+                    CrocodocRateLimiter.NO_WAIT).build();
+
+            try {
+                client.document().status("uuid");
+                assertError("rate_limited", () -> client.document().status(
+                        "uuid"));
+                assertEquals(1, server.getRequests());
+                assertEquals(1, client.getRateLimiter(
+                        CrocodocEndpoint.Group.METADATA).getRejected());
+            } finally {
+                client.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocRetryTest {
+    private CrocodocStubServer server;
+    private CrocodocClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        client = server.clientBuilder()
+                .retryPolicy(CrocodocEndpoint.DOCUMENT_STATUS,
+                        new CrocodocRetryPolicy(3, 10, 50))
+                .circuitBreakers(new CrocodocCircuitBreakers(100, 50, 1))
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void serverErrorsWithAnyBodyAreRetried() throws Exception {
+        for (CrocodocStubServer.ErrorBody body : CrocodocStubServer.ErrorBody
+                .values()) {
+            server.setErrorBody(body);
+            server.setErrorRate(1, 503);
+            long requests = server.getRequests();
+
+            assertError("server_error_503_unknown", () -> client.document()
+                    .status("uuid"));
+            assertEquals(body.toString(), 3, server.getRequests() - requests);
+        }
+    }
+
+    @Test
+    public void retriedCallSucceedsOnceTheServerRecovers() throws Exception {
+        server.setErrorBody(CrocodocStubServer.ErrorBody.HTML);
+        server.failNext(2);
+
+        assertEquals("DONE", client.document().status("uuid").get("status"));
+        assertEquals(3, server.getRequests());
+    }
+
+    @Test
+    public void nonIdempotentCallsAreNotRetried() throws Exception {
+        server.setErrorBody(CrocodocStubServer.ErrorBody.HTML);
+        server.setErrorRate(1, 502);
+
+        assertError("server_error_502_unknown", () -> client.session()
+                .create("uuid"));
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    public void clientErrorsKeepTheApiErrorAndAreNotRetried() throws Exception {
+        server.setErrorBody(CrocodocStubServer.ErrorBody.JSON_ERROR);
+        server.setErrorRate(1, 400);
+
+        assertError("injected failure", () -> client.document().status("uuid"));
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    public void clientErrorsWithoutAnApiErrorFailWithTheirStatus()
+            throws Exception {
+        server.setErrorBody(CrocodocStubServer.ErrorBody.TEXT);
+        server.setErrorRate(1, 429);
+
+        assertError("server_error_429_unknown", () -> client.document()
+                .status("uuid"));
+    }
+
+    static void assertError(String code, CrocodocCallable<?> call) {
+        try {
+            call.call();
+            fail("expected " + code);
+        } catch (CrocodocException e) {
+            assertEquals(code, e.getCode());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.crocodoc;
+
+import static com.crocodoc.CrocodocRetryTest.assertError;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocSessionPoolTest {
+    private CrocodocStubServer server;
+    private CrocodocClient client;
+    private CrocodocSessionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        client = server.clientBuilder()
+                .retryPolicy(CrocodocEndpoint.SESSION_CREATE,
+                        CrocodocRetryPolicy.NONE)
+                .circuitBreakers(new CrocodocCircuitBreakers(100, 50, 1))
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void readyKeyIsHandedOut() throws Exception {
+        pool = new CrocodocSessionPool(client, 2);
+        pool.add("uuid");
+        _awaitAvailable("uuid", 2);
+
+        pool.take("uuid");
+        assertEquals(1, pool.getHits());
+        assertEquals(0, pool.getMisses());
+    }
+
+    @Test
+    public void coldDocumentIsCreatedOnTheSpot() throws Exception {
+        pool = new CrocodocSessionPool(client, 2);
+
+        pool.take("uuid");
+        assertEquals(0, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    public void keysAreHandedOutOnce() throws Exception {
+        pool = new CrocodocSessionPool(client, 2);
+        pool.add("uuid");
+        _awaitAvailable("uuid", 2);
+
+        assertNotEquals(pool.take("uuid"), pool.take("uuid"));
+        assertEquals(2, pool.getHits());
+    }
+
+    @Test
+    public void takenKeysAreReplaced() throws Exception {
+        pool = new CrocodocSessionPool(client, 3);
+        pool.add("uuid");
+        _awaitAvailable("uuid", 3);
+
+        pool.take("uuid");
+        _awaitAvailable("uuid", 3);
+        assertEquals(4, server.getRequests());
+    }
+
+    @Test
+    public void staleKeysAreDropped() throws Exception {
+        pool = new CrocodocSessionPool(client, 2, 400, 200);
+        pool.add("uuid");
+        _awaitAvailable("uuid", 2);
+
+        // replacements don't arrive before the ready keys go stale
+        server.setLatency(1000, 1000);
+        Thread.sleep(300);
+
+        assertEquals(0, pool.getAvailable("uuid", null));
+        server.setLatency(0, 0);
+        pool.take("uuid");
+        assertEquals(0, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void failingCreatesBackOff() throws Exception {
+        server.failNext(100);
+        pool = new CrocodocSessionPool(client, 4);
+        pool.add("uuid");
+
+        while (server.getRequests() < 4) {
+            Thread.sleep(5);
+        }
+
+        Thread.sleep(100);
+
+        for (int i = 0; i < 5; i++) {
+            assertError("server_error_503_unknown", () -> pool.take("uuid"));
+        }
+
+        // only the creates on the spot reach the server while backing off
+        assertEquals(9, server.getRequests());
+    }
+
+    private void _awaitAvailable(String uuid, int count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (pool.getAvailable(uuid, null) < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("keys weren't created");
+            }
+
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocSingleFlightTest {
+    private static final int CALLERS = 8;
+
+    private CrocodocStubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        server.setLatency(200, 200);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void identicalRequestsShareOneCall() throws Exception {
+        CrocodocClient client = _builder().build();
+
+        try {
+            for (CompletableFuture<byte[]> text : _text(client, "uuid")) {
+                assertEquals(CrocodocStubServer.DEFAULT_PAYLOAD_SIZE,
+                        text.get(5, TimeUnit.SECONDS).length);
+            }
+
+            assertEquals(1, server.getRequests());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void differentRequestsAreNotShared() throws Exception {
+        CrocodocClient client = _builder().build();
+
+        try {
+            List<CompletableFuture<byte[]>> first = _text(client, "first");
+            List<CompletableFuture<byte[]>> second = _text(client, "second");
+            CompletableFuture.allOf(first.toArray(new CompletableFuture<?>[0]))
+                    .get(5, TimeUnit.SECONDS);
+            CompletableFuture.allOf(second.toArray(new CompletableFuture<?>[0]))
+                    .get(5, TimeUnit.SECONDS);
+
+            assertEquals(2, server.getRequests());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void failureIsShared() throws Exception {
+        CrocodocClient client = _builder().build();
+        server.failNext(1);
+
+        try {
+            for (CompletableFuture<byte[]> text : _text(client, "uuid")) {
+                try {
+                    text.get(5, TimeUnit.SECONDS);
+                    fail();
+                } catch (ExecutionException e) {
+                    assertEquals("server_error_503_unknown",
+                            ((CrocodocException) e.getCause()).getCode());
+                }
+            }
+
+            assertEquals(1, server.getRequests());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void sharingCanBeTurnedOff() throws Exception {
+        CrocodocClient client = _builder().singleFlight(false).build();
+
+        try {
+            for (CompletableFuture<byte[]> text : _text(client, "uuid")) {
+                text.get(5, TimeUnit.SECONDS);
+            }
+
+            assertEquals(CALLERS, server.getRequests());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void followersAreNotAdmittedAgain() throws Exception {
+        // a single token: every caller but the first would be rate limited
+        CrocodocClient client = _builder().rateLimit(
+                CrocodocEndpoint.Group.DOWNLOAD, 0.001, 1,
+                CrocodocRateLimiter.NO_WAIT).build();
+
+        try {
+            for (CompletableFuture<byte[]> text : _text(client, "uuid")) {
+                text.get(5, TimeUnit.SECONDS);
+            }
+
+            assertEquals(1, server.getRequests());
+            assertEquals(1, ((CrocodocMetrics) client.getMetricsSink())
+                    .getCalls(CrocodocEndpoint.DOWNLOAD_TEXT));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void leadersDeadlineIsNotShared() throws Exception {
+        CrocodocClient client = _builder().build();
+
+        try {
+            CompletableFuture<byte[]> leader;
+            CrocodocDeadline deadline = CrocodocDeadline.start(100,
+                    TimeUnit.MILLISECONDS);
+
+            try {
+                leader = _text(client, "uuid", 1).get(0);
+            } finally {
+                deadline.close();
+            }
+
+            while (server.getRequests() == 0) {
+                Thread.sleep(1);
+            }
+
+            List<CompletableFuture<byte[]>> followers = _text(client, "uuid");
+
+            try {
+                leader.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertEquals("deadline_exceeded",
+                        ((CrocodocException) e.getCause()).getCode());
+            }
+
+            for (CompletableFuture<byte[]> text : followers) {
+                assertEquals(CrocodocStubServer.DEFAULT_PAYLOAD_SIZE,
+                        text.get(5, TimeUnit.SECONDS).length);
+            }
+
+            assertEquals(2, server.getRequests());
+        } finally {
+            client.close();
+        }
+    }
+
+    private CrocodocClient.Builder _builder() {
+        return server.clientBuilder().executorThreads(2 * CALLERS)
+                .retryPolicy(CrocodocEndpoint.DOWNLOAD_TEXT,
+                        CrocodocRetryPolicy.NONE);
+    }
+
+    /**
+     * Download the text of a document from several callers at once
+     */
+    private static List<CompletableFuture<byte[]>> _text(
+            final CrocodocClient client, final String uuid) {
+        return _text(client, uuid, CALLERS);
+    }
+
+    private static List<CompletableFuture<byte[]>> _text(
+            final CrocodocClient client, final String uuid, int callers) {
+        List<CompletableFuture<byte[]>> texts = new ArrayList<CompletableFuture<byte[]>>();
+
+        for (int i = 0; i < callers; i++) {
+            texts.add(client._async(() -> {
+                try {
+                    return EntityUtils.toByteArray(client.download().text(uuid));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+
+        return texts;
+    }
+}
@@ -0,0 +1,67 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocStatusCacheTest {
+    private CrocodocStubServer server;
+    private CrocodocClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        client = server.clientBuilder().statusCache(100, 60000).build();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void statusesAreReusedUntilTheirTtl() throws Exception {
+        server.setStatus("a", "PROCESSING");
+        client.document().status("a");
+        client.document().status("a");
+
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    public void statusesAreMatchedByUuidNotPosition() throws Exception {
+        server.setStatus("a", "PROCESSING");
+        server.setStatusesReversed(true);
+
+        ArrayList<Map<String, Object>> statuses = client.document().status(
+                new ArrayList<String>(Arrays.asList("a", "b")));
+
+        assertEquals("a", statuses.get(0).get("uuid"));
+        assertEquals("PROCESSING", statuses.get(0).get("status"));
+        assertEquals("b", statuses.get(1).get("uuid"));
+        assertEquals("PROCESSING", client.getStatusCache().get("a").get("status"));
+        assertEquals("DONE", client.getStatusCache().get("b").get("status"));
+    }
+
+    @Test
+    public void statusesTheServerSkipsAreLeftOut() throws Exception {
+        client.document().status("a");
+        server.omitStatus("b");
+
+        ArrayList<Map<String, Object>> statuses = client.document().status(
+                new ArrayList<String>(Arrays.asList("a", "b", "c")));
+
+        assertEquals(2, statuses.size());
+        assertEquals("a", statuses.get(0).get("uuid"));
+        assertEquals("c", statuses.get(1).get("uuid"));
+        assertNull(client.getStatusCache().get("b"));
+    }
+}
@@ -0,0 +1,114 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocStatusCoalescerTest {
+    private CrocodocStubServer server;
+    private CrocodocClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void concurrentCallsShareOneRequest() throws Exception {
+        client = _client(200, 100);
+        server.setStatus("uuid-3", "PROCESSING");
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<Map<String, Object>>> results = new ArrayList<Future<Map<String, Object>>>();
+
+            for (int i = 0; i < 8; i++) {
+                final String uuid = "uuid-" + i;
+                results.add(callers.submit(() -> client.document()
+                        .status(uuid)));
+            }
+
+            for (int i = 0; i < 8; i++) {
+                Map<String, Object> status = results.get(i).get(5,
+                        TimeUnit.SECONDS);
+                assertEquals("uuid-" + i, status.get("uuid"));
+                assertEquals(i == 3 ? "PROCESSING" : "DONE",
+                        status.get("status"));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    public void fullBatchIsSentBeforeTheWindowEnds() throws Exception {
+        client = _client(60000, 3);
+        List<CompletableFuture<Map<String, Object>>> futures = _submit(3);
+
+        for (CompletableFuture<Map<String, Object>> future : futures) {
+            assertEquals("DONE", future.get(5, TimeUnit.SECONDS).get(
+                    "status"));
+        }
+
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    public void failedBatchFailsEveryCaller() throws Exception {
+        client = _client(200, 100);
+        server.failNext(1);
+        List<CompletableFuture<Map<String, Object>>> futures = _submit(3);
+
+        for (CompletableFuture<Map<String, Object>> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("expected server_error_503_unknown");
+            } catch (ExecutionException e) {
+                assertEquals("server_error_503_unknown",
+                        ((CrocodocException) e.getCause()).getCode());
+            }
+        }
+
+        assertEquals(1, server.getRequests());
+    }
+
+    private CrocodocClient _client(long windowMillis, int maxBatchSize) {
+        return server.clientBuilder()
+                .coalesceStatus(windowMillis, maxBatchSize)
+                .retryPolicy(CrocodocEndpoint.DOCUMENT_STATUS,
+                        CrocodocRetryPolicy.NONE)
+                .circuitBreakers(new CrocodocCircuitBreakers(100, 50, 1))
+                .build();
+    }
+
+    private List<CompletableFuture<Map<String, Object>>> _submit(int count) {
+        List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<CompletableFuture<Map<String, Object>>>();
+
+        for (int i = 0; i < count; i++) {
+            futures.add(client.document().statusAsync("uuid-" + i));
+        }
+
+        return futures;
+    }
+}
@@ -0,0 +1,150 @@
+package com.crocodoc;
+
+import static com.crocodoc.CrocodocRetryTest.assertError;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CrocodocStreamsTest {
+    private static final int PAYLOAD_SIZE = 200000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CrocodocStubServer server;
+    private CrocodocClient client;
+    private byte[] expected;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        server.setPayloadSize(PAYLOAD_SIZE);
+        // a single connection, so one that isn't given back stalls the next
+        // download
+        client = server.clientBuilder().maxConnections(1, 1)
+                .timeouts(1000, 5000, 5000).build();
+        expected = EntityUtils.toByteArray(client.download().document("uuid"));
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void downloadIsStreamedToAFile() throws Exception {
+        Path target = folder.getRoot().toPath().resolve("doc.bin");
+        CrocodocDownloadClient download = client.download();
+
+        assertEquals(PAYLOAD_SIZE, download.downloadTo(
+                download.document("uuid"), target));
+        assertArrayEquals(expected, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void downloadIsStreamedToAChannel() throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        CrocodocDownloadClient download = client.download();
+
+        assertEquals(PAYLOAD_SIZE, download.downloadTo(
+                download.document("uuid"), Channels.newChannel(target)));
+        assertArrayEquals(expected, target.toByteArray());
+    }
+
+    @Test
+    public void downloadIsStreamedToAnOutputStream() throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        CrocodocDownloadClient download = client.download();
+
+        assertEquals(PAYLOAD_SIZE, download.downloadTo(
+                download.document("uuid"), target));
+        assertArrayEquals(expected, target.toByteArray());
+    }
+
+    @Test
+    public void cutOffTransferAbortsTheConnection() throws Exception {
+        TrackedStream in = new TrackedStream(expected);
+
+        assertError("download_failed", () -> CrocodocStreams.downloadTo(
+                new InputStreamEntity(in, PAYLOAD_SIZE), new CutOffStream(),
+                null));
+
+        assertTrue(in.aborted);
+        assertFalse(in.released);
+    }
+
+    @Test
+    public void cutOffDownloadGivesTheConnectionBack() throws Exception {
+        CrocodocDownloadClient download = client.download();
+
+        assertError("download_failed", () -> download.downloadTo(
+                download.document("uuid"), new CutOffStream()));
+
+        // the only connection is free again
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        assertEquals(PAYLOAD_SIZE, download.downloadTo(
+                download.document("uuid"), target));
+    }
+
+    /**
+     * A content stream that records how its connection was given back
+     */
+    private static class TrackedStream extends ByteArrayInputStream implements
+            ConnectionReleaseTrigger {
+        boolean aborted = false;
+        boolean released = false;
+
+        TrackedStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        public void releaseConnection() {
+            released = true;
+        }
+
+        public void abortConnection() {
+            aborted = true;
+        }
+    }
+
+    /**
+     * An output stream that fails after the first write, as a full disk or
+     * a closed socket would
+     */
+    private static class CutOffStream extends OutputStream {
+        private boolean written = false;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (written) {
+                throw new IOException("cut off");
+            }
+
+            written = true;
+        }
+    }
+}
@@ -0,0 +1,771 @@
+package com.crocodoc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for the Crocodoc API, for load and failure testing
+ * without the real service. It serves the document, download and session
+ * endpoints the clients call on a local port. Every uuid is reported as
+ * converted unless another status is set for it, and downloads return
+ * payloadSize bytes.
+ *
+ * Latency, errors and payload size can be injected and changed while the
+ * server runs. Each request waits a random time between the minimum and
+ * maximum latency, then fails with errorStatus at the error rate. Failures
+ * can carry the bodies a real deployment sends: the API's JSON errors, or
+ * the HTML and plain text pages of a load balancer or proxy.
+ *
+ * This is a test utility; it lives with the tests and isn't part of the
+ * library jar.
+ *
+ * <pre>
+ * try (CrocodocStubServer server = new CrocodocStubServer()) {
+ *     server.setLatency(20, 50);
+ *     server.setErrorRate(0.01, 503);
+ *     CrocodocClient client = server.clientBuilder().build();
+ * }
+ * </pre>
+ */
+public class CrocodocStubServer implements AutoCloseable {
+    /**
+     * The bodies injected failures are sent with
+     */
+    public enum ErrorBody {
+        /**
+         * A JSON object with a "message" field
+         */
+        JSON_MESSAGE,
+
+        /**
+         * A JSON object with an "error" field, as the API sends
+         */
+        JSON_ERROR,
+
+        /**
+         * An HTML page, as a load balancer sends
+         */
+        HTML,
+
+        /**
+         * A plain text message, as a proxy sends
+         */
+        TEXT
+    }
+
+    /**
+     * The API token clients of the stub use; it isn't checked
+     *
+     * @var string
+     */
+    public static final String API_TOKEN = "stub-token";
+
+    /**
+     * The default size of download responses
+     *
+     * @var int
+     */
+    public static final int DEFAULT_PAYLOAD_SIZE = 64 * 1024;
+
+    static {
+        // the JDK server writes headers and body separately; without
+        // TCP_NODELAY small responses wait for the client's delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /**
+     * The HTTP server
+     *
+     * @var object
+     */
+    private final HttpServer server;
+
+    /**
+     * The threads requests are handled on
+     *
+     * @var object
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The shortest time a request waits before it is answered
+     *
+     * @var long
+     */
+    private volatile long minLatencyMillis = 0;
+
+    /**
+     * The longest time a request waits before it is answered
+     *
+     * @var long
+     */
+    private volatile long maxLatencyMillis = 0;
+
+    /**
+     * The share of requests that fail
+     *
+     * @var double
+     */
+    private volatile double errorRate = 0;
+
+    /**
+     * The HTTP status of failed requests
+     *
+     * @var int
+     */
+    private volatile int errorStatus = 503;
+
+    /**
+     * The number of requests still to fail, whatever the error rate
+     *
+     * @var object
+     */
+    private final AtomicInteger failNext = new AtomicInteger();
+
+    /**
+     * The number of requests still to answer with a body cut short
+     *
+     * @var object
+     */
+    private final AtomicInteger truncateNext = new AtomicInteger();
+
+    /**
+     * The number of requests still to delay further
+     *
+     * @var object
+     */
+    private final AtomicInteger slowNext = new AtomicInteger();
+
+    /**
+     * How much longer the slow requests take
+     *
+     * @var long
+     */
+    private volatile long slowMillis;
+
+    /**
+     * The body of failed requests
+     *
+     * @var object
+     */
+    private volatile ErrorBody errorBody = ErrorBody.JSON_MESSAGE;
+
+    /**
+     * The body of download responses
+     *
+     * @var array
+     */
+    private volatile byte[] payload;
+
+    /**
+     * Are responses sent chunked, without a Content-Length?
+     *
+     * @var bool
+     */
+    private volatile boolean chunked = false;
+
+    /**
+     * The statuses reported for uuids, "DONE" for the others
+     *
+     * @var map
+     */
+    private final ConcurrentHashMap<String, String> statuses = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The uuids whose statuses are left out of status responses
+     *
+     * @var object
+     */
+    private final Set<String> omitted = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Are statuses returned in the reverse of the requested order?
+     *
+     * @var bool
+     */
+    private volatile boolean statusesReversed = false;
+
+    /**
+     * The headers of the last request
+     *
+     * @var object
+     */
+    private volatile Headers lastRequestHeaders;
+
+    /**
+     * The number of request body bytes of the last request
+     *
+     * @var long
+     */
+    private volatile long lastRequestBytes;
+
+    /**
+     * Are request bodies kept?
+     *
+     * @var bool
+     */
+    private volatile boolean recordBodies = false;
+
+    /**
+     * The body of the last request, if bodies are kept
+     *
+     * @var array
+     */
+    private volatile byte[] lastRequestBody;
+
+    /**
+     * The number of requests answered
+     *
+     * @var object
+     */
+    private final LongAdder requests = new LongAdder();
+
+    /**
+     * The number of failures injected
+     *
+     * @var object
+     */
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * The number of requests being answered
+     *
+     * @var object
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * The most requests answered at once
+     *
+     * @var object
+     */
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    /**
+     * Start a stub server on a free local port
+     *
+     * @throws IOException
+     */
+    public CrocodocStubServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * Start a stub server on a local port
+     *
+     * @param int port The port to listen on, 0 for any free port
+     *
+     * @throws IOException
+     */
+    public CrocodocStubServer(int port) throws IOException {
+        setPayloadSize(DEFAULT_PAYLOAD_SIZE);
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "crocodoc-stub-"
+                    + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 1024);
+        server.createContext(CrocodocClient.DEFAULT_BASE_PATH, exchange -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+
+            try {
+                _handle(exchange);
+            } finally {
+                active.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Get the port the server listens on
+     *
+     * @return int The port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Get the host and port clients connect to
+     *
+     * @return string The host, for example "127.0.0.1:52110"
+     */
+    public String getHost() {
+        return server.getAddress().getAddress().getHostAddress() + ":"
+                + getPort();
+    }
+
+    /**
+     * Get a client builder set up to call this server
+     *
+     * @return object A client builder
+     */
+    public CrocodocClient.Builder clientBuilder() {
+        return CrocodocClient.builder().apiToken(API_TOKEN).protocol("http")
+                .host(getHost());
+    }
+
+    /**
+     * Set how long requests wait before they are answered
+     *
+     * @param long minLatencyMillis The shortest wait
+     * @param long maxLatencyMillis The longest wait
+     */
+    public void setLatency(long minLatencyMillis, long maxLatencyMillis) {
+        if (minLatencyMillis < 0 || maxLatencyMillis < minLatencyMillis) {
+            throw new IllegalArgumentException("Invalid latency");
+        }
+
+        this.minLatencyMillis = minLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    /**
+     * Set the share of requests that fail and how they fail
+     *
+     * @param double errorRate The share of requests that fail, between 0 and
+     *        1
+     * @param int errorStatus The HTTP status of failed requests, for example
+     *        503
+     */
+    public void setErrorRate(double errorRate, int errorStatus) {
+        if (!(errorRate >= 0 && errorRate <= 1) || errorStatus < 400
+                || errorStatus > 599) {
+            throw new IllegalArgumentException("Invalid error rate");
+        }
+
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * Fail the next requests with the error status and body, then go back to
+     * the error rate
+     *
+     * @param int count The number of requests to fail
+     */
+    public void failNext(int count) {
+        failNext.set(count);
+    }
+
+    /**
+     * Answer the next requests with a 200 whose JSON body is cut short, as a
+     * proxy dropping the upstream connection would
+     *
+     * @param int count The number of requests to answer
+     */
+    public void truncateNext(int count) {
+        truncateNext.set(count);
+    }
+
+    /**
+     * Delay the next requests on top of the latency
+     *
+     * @param int count The number of requests to delay
+     * @param long millis How much longer each of them takes
+     */
+    public void slowNext(int count, long millis) {
+        slowMillis = millis;
+        slowNext.set(count);
+    }
+
+    /**
+     * Set the body failed requests are sent with
+     *
+     * @param object
+     *            errorBody The kind of body, ErrorBody.JSON_MESSAGE by
+     *            default
+     */
+    public void setErrorBody(ErrorBody errorBody) {
+        if (errorBody == null) {
+            throw new IllegalArgumentException("Invalid error body");
+        }
+
+        this.errorBody = errorBody;
+    }
+
+    /**
+     * Set the size of download responses
+     *
+     * @param int payloadSize The size in bytes
+     */
+    public void setPayloadSize(int payloadSize) {
+        if (payloadSize < 0) {
+            throw new IllegalArgumentException("Invalid payload size");
+        }
+
+        byte[] bytes = new byte[payloadSize];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+
+        payload = bytes;
+    }
+
+    /**
+     * Send responses chunked, without a Content-Length, as a server
+     * streaming a body of unknown size does
+     *
+     * @param bool
+     *            chunked Whether responses are chunked
+     */
+    public void setChunked(boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    /**
+     * Set the conversion status reported for a document
+     *
+     * @param string
+     *            uuid The uuid of the document
+     * @param string
+     *            status The status, for example "PROCESSING"
+     */
+    public void setStatus(String uuid, String status) {
+        statuses.put(uuid, status);
+    }
+
+    /**
+     * Leave a document out of status responses, as if the server skipped it
+     *
+     * @param string
+     *            uuid The uuid of the document
+     */
+    public void omitStatus(String uuid) {
+        omitted.add(uuid);
+    }
+
+    /**
+     * Return statuses in the reverse of the requested order
+     *
+     * @param bool
+     *            statusesReversed Whether statuses are reversed
+     */
+    public void setStatusesReversed(boolean statusesReversed) {
+        this.statusesReversed = statusesReversed;
+    }
+
+    /**
+     * Get a header of the last request
+     *
+     * @param string
+     *            name The header name
+     *
+     * @return string The header value, or null if it wasn't sent
+     */
+    public String getLastRequestHeader(String name) {
+        Headers headers = lastRequestHeaders;
+        return headers != null ? headers.getFirst(name) : null;
+    }
+
+    /**
+     * Get the size of the body of the last request
+     *
+     * @return long The number of bytes received
+     */
+    public long getLastRequestBytes() {
+        return lastRequestBytes;
+    }
+
+    /**
+     * Keep request bodies so they can be checked, instead of discarding them
+     * as they are read
+     *
+     * @param bool
+     *            recordBodies Whether bodies are kept
+     */
+    public void setRecordBodies(boolean recordBodies) {
+        this.recordBodies = recordBodies;
+    }
+
+    /**
+     * Get the body of the last request
+     *
+     * @return array The bytes received, or null unless bodies are kept
+     */
+    public byte[] getLastRequestBody() {
+        return lastRequestBody;
+    }
+
+    /**
+     * Get the number of requests answered
+     *
+     * @return long The request count
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Get the most requests that were answered at once
+     *
+     * @return int The peak concurrency
+     */
+    public int getMaxConcurrent() {
+        return maxActive.get();
+    }
+
+    /**
+     * Get the number of failures injected
+     *
+     * @return long The error count
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Stop the server
+     */
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Answer a request. Failures are injected after the latency, as the
+     * response would be sent.
+     *
+     * @param object
+     *            exchange The request and its response
+     *
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    private void _handle(HttpExchange exchange) throws IOException {
+        lastRequestHeaders = exchange.getRequestHeaders();
+        ByteArrayOutputStream received = recordBodies ? new ByteArrayOutputStream()
+                : null;
+        lastRequestBytes = _drain(exchange.getRequestBody(), received);
+        lastRequestBody = received != null ? received.toByteArray() : null;
+        requests.increment();
+        String endpoint = exchange.getRequestURI().getPath()
+                .substring(CrocodocClient.DEFAULT_BASE_PATH.length());
+        String httpMethod = exchange.getRequestMethod();
+        Map<String, String> query = _parseQuery(exchange.getRequestURI()
+                .getRawQuery());
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latency = minLatencyMillis
+                + (long) (random.nextDouble() * (maxLatencyMillis - minLatencyMillis));
+
+        if (slowNext.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+            latency += slowMillis;
+        }
+
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        if (failNext.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0
+                || (errorRate > 0 && random.nextDouble() < errorRate)) {
+            errors.increment();
+            _sendError(exchange, errorStatus, errorBody);
+            return;
+        }
+
+        if (truncateNext.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+            _send(exchange, 200, "application/json",
+                    "[{\"uuid\":".getBytes(Charset.forName("UTF-8")));
+            return;
+        }
+
+        boolean get = httpMethod.equals("GET");
+        boolean post = httpMethod.equals("POST");
+
+        if (endpoint.equals("/document/upload") && post) {
+            JSONObject body = new JSONObject();
+            body.put("uuid", UUID.randomUUID().toString());
+            _send(exchange, 200, "application/json", body);
+        } else if (endpoint.equals("/document/status") && get) {
+            JSONArray body = new JSONArray();
+            String uuids = query.get("uuids");
+
+            for (String uuid : uuids != null ? uuids.split(",")
+                    : new String[0]) {
+                if (omitted.contains(uuid)) {
+                    continue;
+                }
+
+                JSONObject status = new JSONObject();
+                status.put("uuid", uuid);
+                status.put("status", statuses.getOrDefault(uuid, "DONE"));
+                status.put("viewable", true);
+                body.add(statusesReversed ? 0 : body.size(), status);
+            }
+
+            _send(exchange, 200, "application/json", body);
+        } else if (endpoint.equals("/document/delete") && post) {
+            _send(exchange, 200, "application/json", Boolean.TRUE);
+        } else if (endpoint.equals("/download/document") && get) {
+            _send(exchange, 200, query.containsKey("pdf") ? "application/pdf"
+                    : "application/octet-stream", payload);
+        } else if (endpoint.equals("/download/thumbnail") && get) {
+            _send(exchange, 200, "image/png", payload);
+        } else if (endpoint.equals("/download/text") && get) {
+            _send(exchange, 200, "text/plain; charset=utf-8", payload);
+        } else if (endpoint.equals("/session/create") && post) {
+            JSONObject body = new JSONObject();
+            body.put("session", UUID.randomUUID().toString());
+            _send(exchange, 200, "application/json", body);
+        } else {
+            _send(exchange, 404, "application/json", new JSONObject());
+        }
+    }
+
+    /**
+     * Send a response
+     *
+     * @param object
+     *            exchange The request and its response
+     * @param int status The HTTP status
+     * @param string
+     *            contentType The content type of the body
+     * @param object
+     *            body The body: bytes, or a value to send as JSON
+     *
+     * @throws IOException
+     */
+    private void _send(HttpExchange exchange, int status,
+            String contentType, Object body) throws IOException {
+        byte[] bytes = body instanceof byte[] ? (byte[]) body : JSONValue
+                .toJSONString(body).getBytes(Charset.forName("UTF-8"));
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, chunked ? 0
+                : bytes.length > 0 ? bytes.length : -1);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Send an injected failure
+     *
+     * @param object
+     *            exchange The request and its response
+     * @param int status The HTTP status
+     * @param object
+     *            errorBody The kind of body
+     *
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    private void _sendError(HttpExchange exchange, int status,
+            ErrorBody errorBody) throws IOException {
+        JSONObject json = new JSONObject();
+
+        switch (errorBody) {
+        case JSON_ERROR:
+            json.put("error", "injected failure");
+            _send(exchange, status, "application/json", json);
+            break;
+        case HTML:
+            _send(exchange, status, "text/html", ("<html><body><h1>" + status
+                    + " Service Unavailable</h1></body></html>")
+                    .getBytes(Charset.forName("UTF-8")));
+            break;
+        case TEXT:
+            _send(exchange, status, "text/plain", "injected failure"
+                    .getBytes(Charset.forName("UTF-8")));
+            break;
+        default:
+            json.put("message", "injected failure");
+            _send(exchange, status, "application/json", json);
+        }
+    }
+
+    /**
+     * Read a request body, discarding it unless it is copied
+     *
+     * @param object
+     *            in The request body
+     * @param object
+     *            copy Where the body is copied to, may be null
+     *
+     * @return long The number of bytes read
+     * @throws IOException
+     */
+    private static long _drain(InputStream in, OutputStream copy)
+            throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int read;
+
+        while ((read = in.read(buffer)) != -1) {
+            total += read;
+
+            if (copy != null) {
+                copy.write(buffer, 0, read);
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Parse a query string
+     *
+     * @param string
+     *            query The raw query string, may be null
+     *
+     * @return map The decoded params
+     * @throws UnsupportedEncodingException
+     */
+    private static Map<String, String> _parseQuery(String query)
+            throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<String, String>();
+
+        if (query == null) {
+            return params;
+        }
+
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals >= 0 ? pair.substring(0, equals) : pair;
+            String value = equals >= 0 ? pair.substring(equals + 1) : "";
+            params.put(URLDecoder.decode(key, "UTF-8"),
+                    URLDecoder.decode(value, "UTF-8"));
+        }
+
+        return params;
+    }
+}
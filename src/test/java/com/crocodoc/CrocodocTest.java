@@ -0,0 +1,179 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocTest {
+    private CrocodocStubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        Crocodoc.setApiToken(CrocodocStubServer.API_TOKEN);
+        Crocodoc.protocol = "http";
+        Crocodoc.host = server.getHost();
+    }
+
+    @After
+    public void tearDown() {
+        Crocodoc.close();
+        Crocodoc.setApiToken(null);
+        Crocodoc.protocol = CrocodocClient.DEFAULT_PROTOCOL;
+        Crocodoc.host = CrocodocClient.DEFAULT_HOST;
+        server.close();
+    }
+
+    @Test
+    public void defaultClientIsReusedUntilTheConfigurationChanges() {
+        CrocodocClient client = Crocodoc.getDefaultClient();
+        assertSame(client, Crocodoc.getDefaultClient());
+
+        Crocodoc.setApiToken("another-token");
+        CrocodocClient rebuilt = Crocodoc.getDefaultClient();
+        assertNotSame(client, rebuilt);
+        assertEquals("another-token", rebuilt.getApiToken());
+    }
+
+    @Test
+    public void conversionWaitsSurviveAConfigurationChange() throws Exception {
+        server.setStatus("pending", "PROCESSING");
+        CompletableFuture<Map<String, Object>> future = CrocodocDocument
+                .awaitConversion("pending");
+
+        Crocodoc.setApiToken("another-token");
+        CrocodocDocument.status("other");
+        server.setStatus("pending", "DONE");
+
+        assertEquals("DONE", future.get(10, TimeUnit.SECONDS).get("status"));
+    }
+
+    @Test
+    public void closeFailsConversionWaits() throws Exception {
+        server.setStatus("pending", "PROCESSING");
+        CompletableFuture<Map<String, Object>> future = CrocodocDocument
+                .awaitConversion("pending");
+
+        Crocodoc.close();
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("client_closed",
+                    ((CrocodocException) e.getCause()).getCode());
+        }
+    }
+
+    @Test
+    public void conversionWaitTimesOut() throws Exception {
+        server.setStatus("pending", "PROCESSING");
+        CompletableFuture<Map<String, Object>> future = CrocodocDocument
+                .awaitConversion("pending", 200, TimeUnit.MILLISECONDS);
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("conversion_timeout",
+                    ((CrocodocException) e.getCause()).getCode());
+        }
+    }
+
+    @Test
+    public void retiredClientFinishesCallsInFlight() throws Exception {
+        CrocodocClient client = server.clientBuilder().build();
+
+        try {
+            server.setLatency(300, 300);
+            CompletableFuture<Map<String, Object>> future = client.document()
+                    .statusAsync("uuid");
+
+            while (server.getRequests() == 0) {
+                Thread.sleep(5);
+            }
+
+            client._retire();
+            assertEquals("DONE", future.get(10, TimeUnit.SECONDS)
+                    .get("status"));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void retiredClientServesLateCallers() throws Exception {
+        CrocodocClient client = server.clientBuilder().build();
+
+        try {
+            client.document().status("uuid");
+            client._retire();
+
+            // a caller that got the client before it was replaced
+            CrocodocDeadline deadline = CrocodocDeadline.start(10,
+                    TimeUnit.SECONDS);
+
+            try {
+                assertEquals("DONE", client.document().status("uuid")
+                        .get("status"));
+            } finally {
+                deadline.close();
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void closedClientFailsCalls() throws Exception {
+        CrocodocClient client = server.clientBuilder().build();
+        client.close();
+
+        CrocodocRetryTest.assertError("client_closed",
+                () -> client.document().status("uuid"));
+    }
+
+    @Test
+    public void derivedClientOutlivesTheOriginal() throws Exception {
+        CrocodocClient original = server.clientBuilder().build();
+        original.document().statusAsync("uuid").get(10, TimeUnit.SECONDS);
+        CrocodocClient derived = original.toBuilder().build();
+        assertSame(original.getConnectionPool(), derived.getConnectionPool());
+
+        original.close();
+        assertFalse(derived.getConnectionPool().isClosed());
+        assertEquals("DONE", derived.document().statusAsync("uuid")
+                .get(10, TimeUnit.SECONDS).get("status"));
+
+        derived.close();
+        assertTrue(derived.getConnectionPool().isClosed());
+    }
+
+    @Test
+    public void suppliedConnectionPoolIsLeftOpen() throws Exception {
+        CrocodocConnectionPool connectionPool = new CrocodocConnectionPool();
+
+        try {
+            CrocodocClient original = server.clientBuilder()
+                    .connectionPool(connectionPool).build();
+            CrocodocClient derived = original.toBuilder().build();
+            original.close();
+            derived.close();
+            assertFalse(connectionPool.isClosed());
+        } finally {
+            connectionPool.close();
+        }
+    }
+}
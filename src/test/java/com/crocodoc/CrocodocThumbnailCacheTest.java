@@ -0,0 +1,154 @@
+package com.crocodoc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrocodocThumbnailCacheTest {
+    private static final int PAYLOAD_SIZE = 1000;
+
+    private CrocodocStubServer server;
+    private CrocodocThumbnailCache cache;
+    private CrocodocClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CrocodocStubServer();
+        server.setPayloadSize(PAYLOAD_SIZE);
+        _useCache(new CrocodocThumbnailCache(16 * PAYLOAD_SIZE * 8));
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void secondDownloadIsServedFromMemory() throws Exception {
+        byte[] first = _thumbnail("uuid", "100x100");
+        byte[] second = _thumbnail("uuid", "100x100");
+
+        assertEquals(PAYLOAD_SIZE, first.length);
+        assertArrayEquals(first, second);
+        assertEquals(1, server.getRequests());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals("image/png", cache.get(client._getCacheTenant(), "uuid", "100x100")
+                .getContentType().getValue());
+    }
+
+    @Test
+    public void concurrentMissesShareOneDownload() throws Exception {
+        server.setLatency(200, 200);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+
+            for (int i = 0; i < 8; i++) {
+                results.add(callers.submit(() -> _thumbnail("uuid", null)));
+            }
+
+            for (Future<byte[]> result : results) {
+                assertEquals(PAYLOAD_SIZE,
+                        result.get(5, TimeUnit.SECONDS).length);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    public void invalidateRemovesEverySize() throws Exception {
+        _thumbnail("other", null);
+        long otherBytes = cache.getTotalBytes();
+        _thumbnail("uuid", null);
+        _thumbnail("uuid", "100x100");
+
+        cache.invalidate("uuid");
+
+        assertNull(cache.get(client._getCacheTenant(), "uuid", null));
+        assertNull(cache.get(client._getCacheTenant(), "uuid", "100x100"));
+        assertNotNull(cache.get(client._getCacheTenant(), "other", null));
+        assertEquals(otherBytes, cache.getTotalBytes());
+    }
+
+    @Test
+    public void totalStaysWithinMaxBytes() throws Exception {
+        // each of the 16 stripes holds a single thumbnail
+        _useCache(new CrocodocThumbnailCache(16 * PAYLOAD_SIZE * 3 / 2));
+
+        for (int i = 0; i < 64; i++) {
+            _thumbnail("uuid-" + i, null);
+            assertTrue(cache.getTotalBytes() <= cache.getMaxBytes());
+        }
+
+        assertEquals(64, server.getRequests());
+        assertTrue(cache.getTotalBytes() > 0);
+    }
+
+    @Test
+    public void tenantsDontShareThumbnails() throws Exception {
+        _thumbnail("uuid", null);
+        CrocodocClient other = server.clientBuilder().apiToken("other-token")
+                .thumbnailCache(cache).build();
+
+        try {
+            EntityUtils.toByteArray(other.download().thumbnail("uuid"));
+            assertEquals(2, server.getRequests());
+            _thumbnail("uuid", null);
+            assertEquals(2, server.getRequests());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void thumbnailInvalidatedInFlightIsNotCached() throws Exception {
+        server.setLatency(300, 300);
+        FutureTask<byte[]> future = new FutureTask<byte[]>(() -> _thumbnail(
+                "uuid", null));
+        new Thread(future).start();
+
+        while (server.getRequests() == 0) {
+            Thread.sleep(5);
+        }
+
+        cache.invalidate("uuid");
+        assertEquals(PAYLOAD_SIZE, future.get(10, TimeUnit.SECONDS).length);
+        assertNull(cache.get(client._getCacheTenant(), "uuid", null));
+        assertEquals(0, cache.getTotalBytes());
+    }
+
+    private void _useCache(CrocodocThumbnailCache cache) {
+        if (client != null) {
+            client.close();
+        }
+
+        this.cache = cache;
+        client = server.clientBuilder().thumbnailCache(cache).build();
+    }
+
+    private byte[] _thumbnail(String uuid, String size) throws Exception {
+        return EntityUtils.toByteArray(client.download().thumbnail(uuid,
+                size));
+    }
+}